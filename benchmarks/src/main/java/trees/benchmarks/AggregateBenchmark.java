@@ -0,0 +1,103 @@
+package trees.benchmarks;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import trees.AVLTree;
+import trees.Monoid;
+import trees.RBTree;
+
+/**
+ * Sum of the values over a key range of span keys: aggregate(lo, hi) on
+ * trees that keep sums against iterating the range, and the cost the sums
+ * add to inserts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AggregateBenchmark {
+
+    static final int ACCESSES = 1 << 16;
+
+    @Param({"1000000"})
+    int size;
+
+    @Param({"100", "10000"})
+    int span;
+
+    RBTree<Long, Long> rbTree;
+    AVLTree<Long, Long> avlTree;
+    Long[] keys;
+    int[] order;
+    int cursor;
+
+    @Setup
+    public void setUp() {
+        keys = Workload.RANDOM.keys(size);
+        rbTree = new RBTree<>(Monoid.longSum());
+        avlTree = new AVLTree<>(Monoid.longSum());
+        for (Long key : keys) {
+            rbTree.insertNodeInRBTree(key, key);
+            avlTree.insertNodeInAVLTree(key, key);
+        }
+        order = Workload.RANDOM.accessOrder(size, ACCESSES);
+    }
+
+    @Benchmark
+    public Long rbAggregate() {
+        Long lo = keys[order[cursor++ & (ACCESSES - 1)]];
+        return rbTree.aggregate(lo, lo + 2L * span);
+    }
+
+    @Benchmark
+    public Long avlAggregate() {
+        Long lo = keys[order[cursor++ & (ACCESSES - 1)]];
+        return avlTree.aggregate(lo, lo + 2L * span);
+    }
+
+    @Benchmark
+    public long rbIterate() {
+        Long lo = keys[order[cursor++ & (ACCESSES - 1)]];
+        long sum = 0;
+        for (Iterator<Map.Entry<Long, Long>> it = rbTree.range(lo, lo + 2L * span + 1); it.hasNext(); ) {
+            sum += it.next().getValue();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public RBTree<Long, Long> rbInsertPlain() {
+        RBTree<Long, Long> tree = new RBTree<>();
+        for (Long key : keys) {
+            tree.insertNodeInRBTree(key, key);
+        }
+        return tree;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public RBTree<Long, Long> rbInsertWithSums() {
+        RBTree<Long, Long> tree = new RBTree<>(Monoid.longSum());
+        for (Long key : keys) {
+            tree.insertNodeInRBTree(key, key);
+        }
+        return tree;
+    }
+}
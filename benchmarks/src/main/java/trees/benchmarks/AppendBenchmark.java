@@ -0,0 +1,62 @@
+package trees.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time-series ingestion: keys arrive in increasing order into a tree that
+ * already holds size older keys. With streams > 1 the keys of several
+ * series are interleaved, so each insert lands in a different part of the
+ * tree and the append fast path of RBTree and AVLTree does not apply.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AppendBenchmark {
+
+    @Param({"1000000"})
+    int size;
+
+    @Param({"RB_TREE", "AVL_TREE", "TREE_MAP"})
+    OrderedMap.Kind kind;
+
+    @Param({"1", "4"})
+    int streams;
+
+    OrderedMap map;
+    long next;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        map = kind.create();
+        for (next = 0; next < size; next++) {
+            map.insert(key(next), next);
+        }
+    }
+
+    private Long key(long i) {
+        return (i % streams) << 40 | i / streams;
+    }
+
+    @Benchmark
+    public OrderedMap append() {
+        long i = next++;
+        map.insert(key(i), i);
+        return map;
+    }
+}
@@ -0,0 +1,68 @@
+package trees.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import trees.BPlusTree;
+
+/**
+ * Lookups and short ordered scans in a BPlusTree for a range of fanouts.
+ * The comparison with the binary trees is B_PLUS_TREE in LookupBenchmark,
+ * InsertBenchmark, RemoveBenchmark and MixedBenchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BPlusTreeBenchmark {
+
+    static final int ACCESSES = 1 << 20;
+    static final int SCAN = 100;
+
+    @Param({"1000000", "10000000"})
+    int size;
+
+    @Param({"8", "16", "32", "64", "128", "256"})
+    int fanout;
+
+    BPlusTree<Long, Long> tree;
+    Long[] keys;
+    int[] order;
+    int cursor;
+
+    @Setup
+    public void setUp() {
+        tree = new BPlusTree<>(fanout);
+        for (Long key : Workload.RANDOM.keys(size)) {
+            tree.insertNodeInBPlusTree(key, key);
+        }
+        keys = Workload.SORTED.keys(size);
+        order = Workload.RANDOM.accessOrder(size, ACCESSES);
+    }
+
+    @Benchmark
+    public Long get() {
+        return tree.getValueByKey(keys[order[cursor++ & (ACCESSES - 1)]]);
+    }
+
+    @Benchmark
+    public void scan(Blackhole bh) {
+        int i = order[cursor++ & (ACCESSES - 1)];
+        Long to = keys[i] + 2L * SCAN;
+        tree.forEachInRange(keys[i], to, (key, value) -> bh.consume(value));
+    }
+}
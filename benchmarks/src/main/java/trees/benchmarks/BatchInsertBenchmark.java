@@ -0,0 +1,101 @@
+package trees.benchmarks;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import trees.RBTree;
+
+/**
+ * One batch of new keys into a tree of size keys: insertAll and removeAll
+ * against one call per key. Each iteration starts from a freshly built tree
+ * and times a single batch, so the result is the time per batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+public class BatchInsertBenchmark {
+
+    @Param({"1000000"})
+    int size;
+
+    @Param({"16", "256", "4096", "65536", "1048576"})
+    int batch;
+
+    @Param({"RANDOM", "SORTED"})
+    Workload order;
+
+    Long[] keys, added, removed;
+    RBTree<Long, Long> tree;
+
+    @Setup
+    public void setUp() {
+        keys = Workload.SORTED.keys(size);
+        SplittableRandom random = new SplittableRandom(Workload.SEED);
+        added = new Long[batch];
+        removed = new Long[batch];
+        for (int i = 0; i < batch; i++) {
+            added[i] = 2L * random.nextInt(size) + 1;
+            removed[i] = 2L * random.nextInt(size);
+        }
+        if (order == Workload.SORTED) {
+            Arrays.sort(added);
+            Arrays.sort(removed);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void buildTree() {
+        tree = new RBTree<>();
+        tree.buildFromSorted(keys, keys);
+    }
+
+    @Benchmark
+    public RBTree<Long, Long> insertPerKey() {
+        for (Long key : added) {
+            tree.insertNodeInRBTree(key, key);
+        }
+        return tree;
+    }
+
+    @Benchmark
+    public RBTree<Long, Long> insertAll() {
+        tree.insertAll(added, added);
+        return tree;
+    }
+
+    @Benchmark
+    public RBTree<Long, Long> upsertAll() {
+        tree.upsertAll(added, added, Long::sum);
+        return tree;
+    }
+
+    @Benchmark
+    public RBTree<Long, Long> removePerKey() {
+        for (Long key : removed) {
+            tree.removeNodeFromRBTree(key);
+        }
+        return tree;
+    }
+
+    @Benchmark
+    public int removeAll() {
+        return tree.removeAll(removed);
+    }
+}
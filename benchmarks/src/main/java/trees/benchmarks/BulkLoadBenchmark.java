@@ -0,0 +1,73 @@
+package trees.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import trees.AVLTree;
+import trees.RBTree;
+
+/**
+ * Building a tree from a sorted snapshot: buildFromSorted against one
+ * insert per key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BulkLoadBenchmark {
+
+    @Param({"100000", "1000000", "10000000"})
+    int size;
+
+    Long[] keys;
+
+    @Setup
+    public void setUp() {
+        keys = Workload.SORTED.keys(size);
+    }
+
+    @Benchmark
+    public RBTree<Long, Long> rbTreeInserts() {
+        RBTree<Long, Long> tree = new RBTree<>();
+        for (Long key : keys) {
+            tree.insertNodeInRBTree(key, key);
+        }
+        return tree;
+    }
+
+    @Benchmark
+    public RBTree<Long, Long> rbTreeBuildFromSorted() {
+        RBTree<Long, Long> tree = new RBTree<>();
+        tree.buildFromSorted(keys, keys);
+        return tree;
+    }
+
+    @Benchmark
+    public AVLTree<Long, Long> avlTreeInserts() {
+        AVLTree<Long, Long> tree = new AVLTree<>();
+        for (Long key : keys) {
+            tree.insertNodeInAVLTree(key, key);
+        }
+        return tree;
+    }
+
+    @Benchmark
+    public AVLTree<Long, Long> avlTreeBuildFromSorted() {
+        AVLTree<Long, Long> tree = new AVLTree<>();
+        tree.buildFromSorted(keys, keys);
+        return tree;
+    }
+}
@@ -0,0 +1,128 @@
+package trees.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import trees.ConcurrentRBTree;
+import trees.RBTree;
+
+/**
+ * Read scaling of ConcurrentRBTree against an RBTree guarded by a global
+ * synchronized block.
+ *
+ * The "*Reads" benchmarks are read-only; scale them with -t 1, -t 2, ...
+ * The groups run readers next to one writer; change the split with
+ * -tg, e.g. "-tg 15,1".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConcurrentReadBenchmark {
+
+    static final int ACCESSES = 1 << 20;
+
+    @Param({"1000000"})
+    int size;
+
+    Long[] keys;
+    int[] order;
+    ConcurrentRBTree<Long, Long> concurrent;
+    RBTree<Long, Long> locked;
+
+    @Setup
+    public void setUp() {
+        concurrent = new ConcurrentRBTree<>();
+        locked = new RBTree<>();
+        for (Long key : Workload.RANDOM.keys(size)) {
+            concurrent.insertNodeInRBTree(key, key);
+            locked.insertNodeInRBTree(key, key);
+        }
+        keys = Workload.RANDOM.keys(2 * size);
+        order = Workload.RANDOM.accessOrder(2 * size, ACCESSES);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int position;
+
+        @Setup
+        public void setUp() {
+            position = (int) (Thread.currentThread().getId() * 7919);
+        }
+
+        Long next(ConcurrentReadBenchmark b) {
+            return b.keys[b.order[position++ & (ACCESSES - 1)]];
+        }
+    }
+
+    @Benchmark
+    public Long optimisticReads(Cursor cursor) {
+        return concurrent.getValueByKey(cursor.next(this));
+    }
+
+    @Benchmark
+    public Long synchronizedReads(Cursor cursor) {
+        Long key = cursor.next(this);
+        synchronized (locked) {
+            return locked.getValueByKey(key);
+        }
+    }
+
+    @Benchmark
+    @Group("optimistic")
+    @GroupThreads(3)
+    public Long optimisticReader(Cursor cursor) {
+        return concurrent.getValueByKey(cursor.next(this));
+    }
+
+    @Benchmark
+    @Group("optimistic")
+    @GroupThreads(1)
+    public void optimisticWriter(Cursor cursor) {
+        Long key = cursor.next(this);
+        if (concurrent.removeNodeFromRBTree(key)) {
+            return;
+        }
+        concurrent.insertNodeInRBTree(key, key);
+    }
+
+    @Benchmark
+    @Group("synchronized")
+    @GroupThreads(3)
+    public Long synchronizedReader(Cursor cursor) {
+        Long key = cursor.next(this);
+        synchronized (locked) {
+            return locked.getValueByKey(key);
+        }
+    }
+
+    @Benchmark
+    @Group("synchronized")
+    @GroupThreads(1)
+    public void synchronizedWriter(Cursor cursor) {
+        Long key = cursor.next(this);
+        synchronized (locked) {
+            if (locked.removeNodeFromRBTree(key)) {
+                return;
+            }
+            locked.insertNodeInRBTree(key, key);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package trees.benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import trees.ConcurrentRBTree;
+import trees.LockFreeBinaryTree;
+import trees.RBTree;
+import trees.ShardedTree;
+
+/**
+ * Uniformly random keys under contention: every thread runs the same mix
+ * of lookups, inserts and removes on one shared tree. Scale with -t, e.g.
+ * "-t 32" or "-t 64" on a large box; a smaller keyRange means more
+ * conflicts. ShardedTree splits into one shard per core only once a shard
+ * has a few thousand keys, so it needs the larger keyRange to spread the
+ * writers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContentionBenchmark {
+
+    @Param({"1000", "1000000"})
+    int keyRange;
+
+    @Param({"50"})
+    int readPercent;
+
+    Long[] keys;
+    LockFreeBinaryTree<Long, Long> lockFree;
+    RBTree<Long, Long> locked;
+    ConcurrentRBTree<Long, Long> optimistic;
+    ShardedTree<Long, Long> sharded;
+
+    @Setup
+    public void setUp() {
+        keys = Workload.RANDOM.keys(keyRange);
+        lockFree = new LockFreeBinaryTree<>();
+        locked = new RBTree<>();
+        optimistic = new ConcurrentRBTree<>();
+        sharded = new ShardedTree<>();
+        for (int i = 0; i < keyRange / 2; i++) {
+            lockFree.insertNode(keys[i], keys[i]);
+            locked.insertNodeInRBTree(keys[i], keys[i]);
+            optimistic.insertNodeInRBTree(keys[i], keys[i]);
+            sharded.insertNode(keys[i], keys[i]);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Ops {
+
+        SplittableRandom random;
+
+        @Setup
+        public void setUp() {
+            random = new SplittableRandom(Thread.currentThread().getId());
+        }
+    }
+
+    @Benchmark
+    public Long lockFreeBinaryTree(Ops ops) {
+        Long key = keys[ops.random.nextInt(keyRange)];
+        int p = ops.random.nextInt(100);
+        if (p < readPercent) {
+            return lockFree.getValueByKey(key);
+        } else if (p % 2 == 0) {
+            lockFree.insertNode(key, key);
+        } else {
+            lockFree.removeNode(key);
+        }
+        return key;
+    }
+
+    @Benchmark
+    public Long synchronizedRBTree(Ops ops) {
+        Long key = keys[ops.random.nextInt(keyRange)];
+        int p = ops.random.nextInt(100);
+        synchronized (locked) {
+            if (p < readPercent) {
+                return locked.getValueByKey(key);
+            } else if (p % 2 == 0) {
+                locked.insertNodeInRBTree(key, key);
+            } else {
+                locked.removeNodeFromRBTree(key);
+            }
+        }
+        return key;
+    }
+
+    @Benchmark
+    public Long concurrentRBTree(Ops ops) {
+        Long key = keys[ops.random.nextInt(keyRange)];
+        int p = ops.random.nextInt(100);
+        if (p < readPercent) {
+            return optimistic.getValueByKey(key);
+        } else if (p % 2 == 0) {
+            optimistic.insertNodeInRBTree(key, key);
+        } else {
+            optimistic.removeNodeFromRBTree(key);
+        }
+        return key;
+    }
+
+    @Benchmark
+    public Long shardedTree(Ops ops) {
+        Long key = keys[ops.random.nextInt(keyRange)];
+        int p = ops.random.nextInt(100);
+        if (p < readPercent) {
+            return sharded.getValueByKey(key);
+        } else if (p % 2 == 0) {
+            sharded.insertNode(key, key);
+        } else {
+            sharded.removeNode(key);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,127 @@
+package trees.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import trees.Codec;
+import trees.DurableRBTree;
+
+/**
+ * Cost of durability per update: insert into a DurableRBTree that forces
+ * the log after every syncEvery records, 0 for never, from one thread and
+ * from four, where group commit shares the forces between the writers.
+ * recover measures a restart from a checkpoint of size entries and a log
+ * of size further updates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class DurableRBTreeBenchmark {
+
+    static final int ACCESSES = 1 << 20;
+
+    @Param({"1000000"})
+    int size;
+
+    @Param({"0", "1", "64"})
+    int syncEvery;
+
+    Path directory;
+    DurableRBTree<Long, Long> tree;
+    Long[] probes;
+    int cursor;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("durable");
+        Long[] keys = Workload.RANDOM.keys(size);
+        tree = new DurableRBTree<>(directory, Codec.longs(), Codec.longs(), 0, 1L << 30);
+        for (Long key : keys) {
+            tree.insertNode(key, key);
+        }
+        tree.checkpoint();
+        int[] order = Workload.RANDOM.accessOrder(size, ACCESSES);
+        probes = new Long[ACCESSES];
+        for (int i = 0; i < ACCESSES; i++) {
+            probes[i] = keys[order[i]] + 1;
+        }
+        tree.close();
+        tree = new DurableRBTree<>(directory, Codec.longs(), Codec.longs(), syncEvery, 1L << 30);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        tree.close();
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private synchronized Long next() {
+        return probes[cursor++ & (ACCESSES - 1)];
+    }
+
+    @Benchmark
+    public void insert() {
+        Long key = next();
+        tree.insertNode(key, key);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void insertFromFourThreads() {
+        Long key = next();
+        tree.insertNode(key, key);
+    }
+
+    /**
+     * Restart after size updates on top of the checkpoint.
+     */
+    @State(Scope.Benchmark)
+    public static class Restart {
+
+        Path directory;
+
+        @Setup(Level.Trial)
+        public void setUp(DurableRBTreeBenchmark b) throws IOException {
+            directory = b.directory;
+            for (int i = 0; i < b.size; i++) {
+                Long key = b.next();
+                b.tree.insertNode(key, key);
+            }
+            b.tree.sync();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int recover(Restart restart) throws IOException {
+        try (DurableRBTree<Long, Long> recovered = new DurableRBTree<>(restart.directory, Codec.longs(), Codec.longs())) {
+            return recovered.size();
+        }
+    }
+}
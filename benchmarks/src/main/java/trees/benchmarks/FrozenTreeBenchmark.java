@@ -0,0 +1,86 @@
+package trees.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import trees.FrozenTree;
+import trees.RBTree;
+
+/**
+ * Lookups in a read-only tree: the RBTree itself against its frozen copy.
+ * The same keys are looked up as a string, where the frozen copy still has
+ * to compare key objects, to separate the effect of the layout from that
+ * of the unboxed long keys.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FrozenTreeBenchmark {
+
+    static final int ACCESSES = 1 << 20;
+
+    @Param({"1000", "100000", "1000000"})
+    int size;
+
+    @Param({"RANDOM", "ZIPF"})
+    Workload workload;
+
+    RBTree<Long, Long> tree;
+    FrozenTree<Long, Long> frozen;
+    RBTree<String, Long> stringTree;
+    FrozenTree<String, Long> frozenStrings;
+    Long[] keys;
+    String[] stringKeys;
+    int[] order;
+    int cursor;
+
+    @Setup
+    public void setUp() {
+        tree = new RBTree<>();
+        stringTree = new RBTree<>();
+        keys = workload.keys(size);
+        stringKeys = new String[size];
+        for (int i = 0; i < size; i++) {
+            stringKeys[i] = Long.toString(keys[i]);
+            tree.insertNodeInRBTree(keys[i], keys[i]);
+            stringTree.insertNodeInRBTree(stringKeys[i], keys[i]);
+        }
+        frozen = tree.freeze();
+        frozenStrings = stringTree.freeze();
+        order = workload.accessOrder(size, ACCESSES);
+    }
+
+    @Benchmark
+    public Long rbTree() {
+        return tree.getValueByKey(keys[order[cursor++ & (ACCESSES - 1)]]);
+    }
+
+    @Benchmark
+    public Long frozenTree() {
+        return frozen.getValueByKey(keys[order[cursor++ & (ACCESSES - 1)]]);
+    }
+
+    @Benchmark
+    public Long rbTreeStrings() {
+        return stringTree.getValueByKey(stringKeys[order[cursor++ & (ACCESSES - 1)]]);
+    }
+
+    @Benchmark
+    public Long frozenTreeStrings() {
+        return frozenStrings.getValueByKey(stringKeys[order[cursor++ & (ACCESSES - 1)]]);
+    }
+}
@@ -0,0 +1,86 @@
+package trees.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to build a tree of the given size from an empty one. For ZIPF the
+ * stream repeats hot keys, so part of the operations are value updates.
+ *
+ * BinaryTree degenerates into a list on SORTED input: that combination
+ * fails in setup above 100000 keys, where one invocation would take hours,
+ * and JMH moves on to the next one.
+ *
+ * With "-prof gc", gc.alloc.rate.norm divided by the size approximates the
+ * bytes per entry of a tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class InsertBenchmark {
+
+    @Param({"1000", "100000", "10000000"})
+    int size;
+
+    @Param({"RB_TREE", "AVL_TREE", "BINARY_TREE", "TOP_DOWN_RB_TREE", "ARRAY_RB_TREE", "B_PLUS_TREE",
+            "TREE_MAP"})
+    OrderedMap.Kind kind;
+
+    @Param({"RANDOM", "SORTED", "ZIPF"})
+    Workload workload;
+
+    Long[] stream;
+    OrderedMap map;
+
+    /**
+     * Largest size BinaryTree is built with from SORTED keys.
+     */
+    static final int MAX_LIST_SIZE = 100000;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        if (kind == OrderedMap.Kind.BINARY_TREE && workload == Workload.SORTED && size > MAX_LIST_SIZE) {
+            throw new IllegalStateException("skipped: BinaryTree is a list on SORTED keys, size " + size
+                    + " > " + MAX_LIST_SIZE);
+        }
+        Long[] keys = workload.keys(size);
+        if (workload == Workload.ZIPF) {
+            int[] order = workload.accessOrder(size, size);
+            stream = new Long[size];
+            for (int i = 0; i < size; i++) {
+                stream[i] = keys[order[i]];
+            }
+        } else {
+            stream = keys;
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() {
+        map = kind.create();
+    }
+
+    @Benchmark
+    public OrderedMap insert() {
+        OrderedMap m = map;
+        for (Long key : stream) {
+            m.insert(key, key);
+        }
+        return m;
+    }
+}
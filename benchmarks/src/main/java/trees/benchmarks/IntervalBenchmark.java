@@ -0,0 +1,102 @@
+package trees.benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import trees.IntervalRBTree;
+
+/**
+ * Stabbing and overlap queries on time ranges: IntervalRBTree against a
+ * linear scan over the same intervals. The intervals start uniformly over
+ * [0, 1000 * size) and last up to maxLength.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IntervalBenchmark {
+
+    static final int QUERIES = 1 << 16;
+
+    @Param({"100000", "1000000"})
+    int size;
+
+    @Param({"1000", "100000"})
+    long maxLength;
+
+    IntervalRBTree<Long, Long> tree;
+    long[] lows, highs;
+    Long[] points;
+    int cursor;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(Workload.SEED);
+        long span = 1000L * size;
+        tree = new IntervalRBTree<>();
+        lows = new long[size];
+        highs = new long[size];
+        for (int i = 0; i < size; i++) {
+            long low = random.nextLong(span);
+            long high = low + random.nextLong(maxLength);
+            lows[i] = low;
+            highs[i] = high;
+            tree.insertInterval(low, high, (long) i);
+        }
+        points = new Long[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            points[i] = random.nextLong(span);
+        }
+    }
+
+    @Benchmark
+    public int stabTree() {
+        Long p = points[cursor++ & (QUERIES - 1)];
+        return tree.countOverlapping(p, p);
+    }
+
+    @Benchmark
+    public int stabLinearScan() {
+        long p = points[cursor++ & (QUERIES - 1)];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (lows[i] <= p && highs[i] >= p) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int overlapTree() {
+        Long p = points[cursor++ & (QUERIES - 1)];
+        return tree.countOverlapping(p, p + maxLength);
+    }
+
+    @Benchmark
+    public int overlapLinearScan() {
+        long p = points[cursor++ & (QUERIES - 1)];
+        long q = p + maxLength;
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (lows[i] <= q && highs[i] >= p) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
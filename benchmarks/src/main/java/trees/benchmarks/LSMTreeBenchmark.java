@@ -0,0 +1,111 @@
+package trees.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import trees.Codec;
+import trees.DurableRBTree;
+import trees.LSMTree;
+import trees.RBTree;
+import trees.SortedStore;
+
+/**
+ * Writes and lookups of random keys through SortedStore: the LSMTree against
+ * an RBTree that keeps everything in memory and a DurableRBTree whose log is
+ * never forced, which has the same durability as the LSMTree between
+ * memtable flushes. insert writes new keys, so the stores keep growing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class LSMTreeBenchmark {
+
+    static final int ACCESSES = 1 << 20;
+
+    @Param({"1000000"})
+    int size;
+
+    @Param({"RB_TREE", "DURABLE_RB_TREE", "LSM_TREE"})
+    String store;
+
+    SortedStore<Long, Long> tree;
+    AutoCloseable closeable;
+    Path directory;
+    Long[] probes;
+    int cursor;
+    long next;
+
+    @Setup
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("lsm");
+        switch (store) {
+            case "RB_TREE":
+                tree = new RBTree<>();
+                break;
+            case "DURABLE_RB_TREE":
+                DurableRBTree<Long, Long> durable = new DurableRBTree<>(directory, Codec.longs(), Codec.longs(), 0, 64L << 20);
+                tree = durable;
+                closeable = durable;
+                break;
+            default:
+                LSMTree<Long, Long> lsm = new LSMTree<>(directory, Codec.longs(), Codec.longs());
+                tree = lsm;
+                closeable = lsm;
+        }
+        Long[] keys = Workload.RANDOM.keys(size);
+        for (Long key : keys) {
+            tree.insertNode(key, key);
+        }
+        if (tree instanceof LSMTree) {
+            ((LSMTree<Long, Long>) tree).flush();
+        }
+        int[] order = Workload.RANDOM.accessOrder(size, ACCESSES);
+        probes = new Long[ACCESSES];
+        for (int i = 0; i < ACCESSES; i++) {
+            probes[i] = keys[order[i]];
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (closeable != null) {
+            closeable.close();
+        }
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public void insert() {
+        // odd keys are not in the initial set
+        long key = (next++ * 0x9E3779B97F4A7C15L) | 1;
+        tree.insertNode(key, key);
+    }
+
+    @Benchmark
+    public Long get() {
+        return tree.getValueByKey(probes[cursor++ & (ACCESSES - 1)]);
+    }
+}
@@ -0,0 +1,71 @@
+package trees.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups of present and absent keys in a tree filled in random order.
+ *
+ * Throughput mode gives ops/us, SampleTime gives the latency percentiles,
+ * and "-prof gc" adds the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LookupBenchmark {
+
+    static final int ACCESSES = 1 << 20;
+
+    @Param({"1000", "100000", "10000000"})
+    int size;
+
+    @Param({"RB_TREE", "AVL_TREE", "BINARY_TREE", "TOP_DOWN_RB_TREE", "ARRAY_RB_TREE", "B_PLUS_TREE",
+            "SPLAY_TREE", "SEMI_SPLAY_TREE", "TREE_MAP"})
+    OrderedMap.Kind kind;
+
+    @Param({"RANDOM", "SORTED", "ZIPF"})
+    Workload workload;
+
+    OrderedMap map;
+    Long[] keys, missing;
+    int[] order;
+    int cursor;
+
+    @Setup
+    public void setUp() {
+        map = kind.create();
+        for (Long key : Workload.RANDOM.keys(size)) {
+            map.insert(key, key);
+        }
+        keys = workload.keys(size);
+        missing = new Long[size];
+        for (int i = 0; i < size; i++) {
+            missing[i] = keys[i] + 1;
+        }
+        order = workload.accessOrder(size, ACCESSES);
+    }
+
+    @Benchmark
+    public Long get() {
+        return map.get(keys[order[cursor++ & (ACCESSES - 1)]]);
+    }
+
+    @Benchmark
+    public Long getMissing() {
+        return map.get(missing[order[cursor++ & (ACCESSES - 1)]]);
+    }
+}
@@ -0,0 +1,108 @@
+package trees.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import trees.Codec;
+import trees.MappedBPlusTree;
+import trees.RBTree;
+import trees.SortedStore;
+
+/**
+ * The on-disk MappedBPlusTree against RBTree through the shared SortedStore
+ * interface. The file stays in the page cache at these sizes, so this
+ * measures the cost of the page format and of copy-on-write, not of the
+ * disk. reinsertAndCommit makes every update durable on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappedBPlusTreeBenchmark {
+
+    static final int ACCESSES = 1 << 20;
+
+    @Param({"1000000"})
+    int size;
+
+    @Param({"RB_TREE", "MAPPED_B_PLUS_TREE"})
+    String store;
+
+    SortedStore<Long, Long> tree;
+    MappedBPlusTree<Long, Long> mapped;
+    Path file;
+    Long[] probes;
+    int cursor;
+
+    @Setup
+    public void setUp() throws IOException {
+        if (store.equals("RB_TREE")) {
+            tree = new RBTree<>();
+        } else {
+            file = Files.createTempFile("tree", ".db");
+            Files.delete(file);
+            tree = mapped = new MappedBPlusTree<>(file, Codec.longs(), Codec.longs());
+        }
+        Long[] keys = Workload.RANDOM.keys(size);
+        for (Long key : keys) {
+            tree.insertNode(key, key);
+        }
+        if (mapped != null) {
+            mapped.commit();
+        }
+        int[] order = Workload.RANDOM.accessOrder(size, ACCESSES);
+        probes = new Long[ACCESSES];
+        for (int i = 0; i < ACCESSES; i++) {
+            probes[i] = keys[order[i]];
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (mapped != null) {
+            mapped.close();
+            Files.delete(file);
+        }
+    }
+
+    private Long next() {
+        return probes[cursor++ & (ACCESSES - 1)];
+    }
+
+    @Benchmark
+    public Long get() {
+        return tree.getValueByKey(next());
+    }
+
+    @Benchmark
+    public void reinsert() {
+        Long key = next();
+        tree.removeNode(key);
+        tree.insertNode(key, key);
+    }
+
+    @Benchmark
+    public void reinsertAndCommit() throws IOException {
+        reinsert();
+        if (mapped != null) {
+            mapped.commit();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package trees.benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mixed read/write traffic over a key universe twice the size of the tree.
+ * Writes are inserts and removes in equal shares, so the tree stays around
+ * its initial size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MixedBenchmark {
+
+    static final int ACCESSES = 1 << 20;
+
+    @Param({"1000", "100000", "10000000"})
+    int size;
+
+    @Param({"RB_TREE", "AVL_TREE", "BINARY_TREE", "TOP_DOWN_RB_TREE", "ARRAY_RB_TREE", "B_PLUS_TREE",
+            "SPLAY_TREE", "SEMI_SPLAY_TREE", "TREE_MAP"})
+    OrderedMap.Kind kind;
+
+    @Param({"RANDOM", "ZIPF"})
+    Workload workload;
+
+    @Param({"90", "50", "10"})
+    int readPercent;
+
+    OrderedMap map;
+    Long[] universe;
+    int[] order;
+    byte[] ops;
+    int cursor;
+
+    @Setup
+    public void setUp() {
+        universe = workload.keys(2 * size);
+        map = kind.create();
+        for (Long key : Workload.RANDOM.keys(size)) {
+            map.insert(key, key);
+        }
+        order = workload.accessOrder(2 * size, ACCESSES);
+        ops = new byte[ACCESSES];
+        SplittableRandom random = new SplittableRandom(Workload.SEED + 2);
+        for (int i = 0; i < ACCESSES; i++) {
+            int p = random.nextInt(100);
+            ops[i] = (byte) (p < readPercent ? 0 : p % 2 == 0 ? 1 : 2);
+        }
+    }
+
+    @Benchmark
+    public Long mixed() {
+        int i = cursor++ & (ACCESSES - 1);
+        Long key = universe[order[i]];
+        switch (ops[i]) {
+            case 0:
+                return map.get(key);
+            case 1:
+                map.insert(key, key);
+                return key;
+            default:
+                map.remove(key);
+                return null;
+        }
+    }
+}
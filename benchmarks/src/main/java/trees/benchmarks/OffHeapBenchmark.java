@@ -0,0 +1,92 @@
+package trees.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import trees.LongLongRBTree;
+import trees.OffHeapRBTree;
+
+/**
+ * OffHeapRBTree against the on-heap LongLongRBTree with the same long keys
+ * and values. Run with "-prof gc" to compare collection counts and times.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OffHeapBenchmark {
+
+    static final int ACCESSES = 1 << 20;
+
+    @Param({"1000000", "10000000"})
+    int size;
+
+    long[] probes;
+    int cursor;
+
+    LongLongRBTree onHeap;
+    OffHeapRBTree offHeap;
+
+    @Setup
+    public void setUp() {
+        onHeap = new LongLongRBTree();
+        offHeap = new OffHeapRBTree();
+        for (Long key : Workload.RANDOM.keys(size)) {
+            onHeap.insertNodeInRBTree(key, key);
+            offHeap.insertNodeInRBTree(key, key);
+        }
+        Long[] keys = Workload.RANDOM.keys(size);
+        int[] order = Workload.RANDOM.accessOrder(size, ACCESSES);
+        probes = new long[ACCESSES];
+        for (int i = 0; i < ACCESSES; i++) {
+            probes[i] = keys[order[i]];
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        offHeap.close();
+    }
+
+    private long next() {
+        return probes[cursor++ & (ACCESSES - 1)];
+    }
+
+    @Benchmark
+    public long onHeapGet() {
+        return onHeap.getValueByKey(next(), -1);
+    }
+
+    @Benchmark
+    public long offHeapGet() {
+        return offHeap.getValueByKey(next(), -1);
+    }
+
+    @Benchmark
+    public void onHeapReinsert() {
+        long key = next();
+        onHeap.removeNodeFromRBTree(key);
+        onHeap.insertNodeInRBTree(key, key);
+    }
+
+    @Benchmark
+    public void offHeapReinsert() {
+        long key = next();
+        offHeap.removeNodeFromRBTree(key);
+        offHeap.insertNodeInRBTree(key, key);
+    }
+}
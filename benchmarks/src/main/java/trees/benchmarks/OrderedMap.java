@@ -0,0 +1,200 @@
+package trees.benchmarks;
+
+import java.util.TreeMap;
+
+import trees.AVLTree;
+import trees.ArrayRBTree;
+import trees.BPlusTree;
+import trees.BinaryTree;
+import trees.RBTree;
+import trees.SplayTree;
+import trees.TopDownRBTree;
+
+/**
+ * Uniform view of the trees for the benchmarks. Every JMH fork runs a single
+ * {@link Kind}, so the calls through this interface stay monomorphic.
+ */
+public interface OrderedMap {
+
+    void insert(Long key, Long value);
+
+    Long get(Long key);
+
+    void remove(Long key);
+
+    enum Kind {
+        BINARY_TREE {
+            @Override
+            OrderedMap create() {
+                BinaryTree<Long, Long> tree = new BinaryTree<>();
+                return new OrderedMap() {
+                    public void insert(Long key, Long value) {
+                        tree.insertNode(key, value);
+                    }
+
+                    public Long get(Long key) {
+                        return tree.getValueByKey(key);
+                    }
+
+                    public void remove(Long key) {
+                        tree.removeNode(key);
+                    }
+                };
+            }
+        },
+        AVL_TREE {
+            @Override
+            OrderedMap create() {
+                AVLTree<Long, Long> tree = new AVLTree<>();
+                return new OrderedMap() {
+                    public void insert(Long key, Long value) {
+                        tree.insertNodeInAVLTree(key, value);
+                    }
+
+                    public Long get(Long key) {
+                        return tree.getValueByKey(key);
+                    }
+
+                    public void remove(Long key) {
+                        tree.deleteNodeFromAVLTree(key);
+                    }
+                };
+            }
+        },
+        RB_TREE {
+            @Override
+            OrderedMap create() {
+                RBTree<Long, Long> tree = new RBTree<>();
+                return new OrderedMap() {
+                    public void insert(Long key, Long value) {
+                        tree.insertNodeInRBTree(key, value);
+                    }
+
+                    public Long get(Long key) {
+                        return tree.getValueByKey(key);
+                    }
+
+                    public void remove(Long key) {
+                        tree.removeNodeFromRBTree(key);
+                    }
+                };
+            }
+        },
+        TOP_DOWN_RB_TREE {
+            @Override
+            OrderedMap create() {
+                TopDownRBTree<Long, Long> tree = new TopDownRBTree<>();
+                return new OrderedMap() {
+                    public void insert(Long key, Long value) {
+                        tree.insertNodeInRBTree(key, value);
+                    }
+
+                    public Long get(Long key) {
+                        return tree.getValueByKey(key);
+                    }
+
+                    public void remove(Long key) {
+                        tree.removeNodeFromRBTree(key);
+                    }
+                };
+            }
+        },
+        ARRAY_RB_TREE {
+            @Override
+            OrderedMap create() {
+                ArrayRBTree<Long, Long> tree = new ArrayRBTree<>();
+                return new OrderedMap() {
+                    public void insert(Long key, Long value) {
+                        tree.insertNodeInRBTree(key, value);
+                    }
+
+                    public Long get(Long key) {
+                        return tree.getValueByKey(key);
+                    }
+
+                    public void remove(Long key) {
+                        tree.removeNodeFromRBTree(key);
+                    }
+                };
+            }
+        },
+        B_PLUS_TREE {
+            @Override
+            OrderedMap create() {
+                BPlusTree<Long, Long> tree = new BPlusTree<>();
+                return new OrderedMap() {
+                    public void insert(Long key, Long value) {
+                        tree.insertNodeInBPlusTree(key, value);
+                    }
+
+                    public Long get(Long key) {
+                        return tree.getValueByKey(key);
+                    }
+
+                    public void remove(Long key) {
+                        tree.removeNodeFromBPlusTree(key);
+                    }
+                };
+            }
+        },
+        SPLAY_TREE {
+            @Override
+            OrderedMap create() {
+                SplayTree<Long, Long> tree = new SplayTree<>(false);
+                return new OrderedMap() {
+                    public void insert(Long key, Long value) {
+                        tree.insertNodeInSplayTree(key, value);
+                    }
+
+                    public Long get(Long key) {
+                        return tree.getValueByKey(key);
+                    }
+
+                    public void remove(Long key) {
+                        tree.removeNodeFromSplayTree(key);
+                    }
+                };
+            }
+        },
+        SEMI_SPLAY_TREE {
+            @Override
+            OrderedMap create() {
+                SplayTree<Long, Long> tree = new SplayTree<>(true);
+                return new OrderedMap() {
+                    public void insert(Long key, Long value) {
+                        tree.insertNodeInSplayTree(key, value);
+                    }
+
+                    public Long get(Long key) {
+                        return tree.getValueByKey(key);
+                    }
+
+                    public void remove(Long key) {
+                        tree.removeNodeFromSplayTree(key);
+                    }
+                };
+            }
+        },
+        TREE_MAP {
+            @Override
+            OrderedMap create() {
+                TreeMap<Long, Long> map = new TreeMap<>();
+                return new OrderedMap() {
+                    public void insert(Long key, Long value) {
+                        map.put(key, value);
+                    }
+
+                    public Long get(Long key) {
+                        return map.get(key);
+                    }
+
+                    public void remove(Long key) {
+                        map.remove(key);
+                    }
+                };
+            }
+        };
+
+        abstract OrderedMap create();
+    }
+}
@@ -0,0 +1,89 @@
+package trees.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import trees.PersistentRBTree;
+import trees.RBTree;
+
+/**
+ * Cost of path copying: single updates, the same updates in a batch, and
+ * the mutable RBTree. Run with "-prof gc" for bytes per update.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistentBenchmark {
+
+    static final int BATCH = 1024;
+
+    @Param({"1000000"})
+    int size;
+
+    Long[] keys;
+    int cursor;
+    PersistentRBTree<Long, Long> persistent;
+    RBTree<Long, Long> mutable;
+
+    @Setup
+    public void setUp() {
+        keys = Workload.RANDOM.keys(size);
+        persistent = new PersistentRBTree<>();
+        mutable = new RBTree<>();
+        PersistentRBTree<Long, Long>.Batch batch = persistent.batch();
+        for (Long key : keys) {
+            batch.insertNodeInRBTree(key, key);
+            mutable.insertNodeInRBTree(key, key);
+        }
+        batch.commit();
+    }
+
+    private Long next() {
+        Long key = keys[cursor];
+        cursor = cursor + 1 == size ? 0 : cursor + 1;
+        return key;
+    }
+
+    @Benchmark
+    public PersistentRBTree<Long, Long> singleUpdate() {
+        persistent.insertNodeInRBTree(next(), 0L);
+        return persistent;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public PersistentRBTree<Long, Long> batchedUpdate() {
+        PersistentRBTree<Long, Long>.Batch batch = persistent.batch();
+        for (int i = 0; i < BATCH; i++) {
+            batch.insertNodeInRBTree(next(), 0L);
+        }
+        batch.commit();
+        return persistent;
+    }
+
+    @Benchmark
+    public RBTree<Long, Long> mutableUpdate() {
+        mutable.insertNodeInRBTree(next(), 0L);
+        return mutable;
+    }
+
+    @Benchmark
+    public PersistentRBTree<Long, Long> snapshot() {
+        return persistent.snapshot();
+    }
+}
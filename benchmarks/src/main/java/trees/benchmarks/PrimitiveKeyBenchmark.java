@@ -0,0 +1,113 @@
+package trees.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import trees.AVLTree;
+import trees.LongAVLTree;
+import trees.LongLongRBTree;
+import trees.LongRBTree;
+import trees.RBTree;
+
+/**
+ * Boxed generic trees against their long-key specializations. The boxed
+ * lookups box the probe key on every call, as callers holding a long do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PrimitiveKeyBenchmark {
+
+    static final int ACCESSES = 1 << 20;
+
+    @Param({"1000", "1000000"})
+    int size;
+
+    long[] probes;
+    int cursor;
+
+    RBTree<Long, Long> boxedRB;
+    AVLTree<Long, Long> boxedAVL;
+    LongRBTree<Long> longRB;
+    LongAVLTree<Long> longAVL;
+    LongLongRBTree longLongRB;
+
+    @Setup
+    public void setUp() {
+        boxedRB = new RBTree<>();
+        boxedAVL = new AVLTree<>();
+        longRB = new LongRBTree<>();
+        longAVL = new LongAVLTree<>();
+        longLongRB = new LongLongRBTree();
+        for (Long key : Workload.RANDOM.keys(size)) {
+            boxedRB.insertNodeInRBTree(key, key);
+            boxedAVL.insertNodeInAVLTree(key, key);
+            longRB.insertNodeInRBTree(key, key);
+            longAVL.insertNodeInAVLTree(key, key);
+            longLongRB.insertNodeInRBTree(key, key);
+        }
+        Long[] keys = Workload.RANDOM.keys(size);
+        int[] order = Workload.RANDOM.accessOrder(size, ACCESSES);
+        probes = new long[ACCESSES];
+        for (int i = 0; i < ACCESSES; i++) {
+            probes[i] = keys[order[i]];
+        }
+    }
+
+    private long next() {
+        return probes[cursor++ & (ACCESSES - 1)];
+    }
+
+    @Benchmark
+    public Long boxedRBTreeGet() {
+        return boxedRB.getValueByKey(next());
+    }
+
+    @Benchmark
+    public Long longRBTreeGet() {
+        return longRB.getValueByKey(next());
+    }
+
+    @Benchmark
+    public long longLongRBTreeGet() {
+        return longLongRB.getValueByKey(next(), -1);
+    }
+
+    @Benchmark
+    public Long boxedAVLTreeGet() {
+        return boxedAVL.getValueByKey(next());
+    }
+
+    @Benchmark
+    public Long longAVLTreeGet() {
+        return longAVL.getValueByKey(next());
+    }
+
+    @Benchmark
+    public void boxedRBTreeReinsert() {
+        long key = next();
+        boxedRB.removeNodeFromRBTree(key);
+        boxedRB.insertNodeInRBTree(key, key);
+    }
+
+    @Benchmark
+    public void longLongRBTreeReinsert() {
+        long key = next();
+        longLongRB.removeNodeFromRBTree(key);
+        longLongRB.insertNodeInRBTree(key, key);
+    }
+}
@@ -0,0 +1,65 @@
+package trees.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to empty a tree of the given size, removing the keys in the order of
+ * the workload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RemoveBenchmark {
+
+    @Param({"1000", "100000", "10000000"})
+    int size;
+
+    @Param({"RB_TREE", "AVL_TREE", "BINARY_TREE", "TOP_DOWN_RB_TREE", "ARRAY_RB_TREE", "B_PLUS_TREE",
+            "TREE_MAP"})
+    OrderedMap.Kind kind;
+
+    @Param({"RANDOM", "SORTED", "ZIPF"})
+    Workload workload;
+
+    Long[] fill, removals;
+    OrderedMap map;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        fill = Workload.RANDOM.keys(size);
+        removals = workload.keys(size);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() {
+        map = kind.create();
+        for (Long key : fill) {
+            map.insert(key, key);
+        }
+    }
+
+    @Benchmark
+    public OrderedMap remove() {
+        OrderedMap m = map;
+        for (Long key : removals) {
+            m.remove(key);
+        }
+        return m;
+    }
+}
@@ -0,0 +1,107 @@
+package trees.benchmarks;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import trees.AVLTree;
+import trees.BinaryTree;
+import trees.RBTree;
+
+/**
+ * Full ordered scans through the iterator and through sequential and
+ * parallel streams. Run with "-prof gc": the iterator should allocate
+ * nothing per entry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanBenchmark {
+
+    @Param({"1000000", "10000000"})
+    int size;
+
+    @Param({"RB_TREE", "AVL_TREE", "BINARY_TREE", "TREE_MAP"})
+    String kind;
+
+    Iterable<Map.Entry<Long, Long>> entries;
+    Supplier<Stream<Map.Entry<Long, Long>>> stream;
+
+    @Setup
+    public void setUp() {
+        Long[] keys = Workload.RANDOM.keys(size);
+        switch (kind) {
+            case "RB_TREE": {
+                RBTree<Long, Long> tree = new RBTree<>();
+                for (Long key : keys) {
+                    tree.insertNodeInRBTree(key, key);
+                }
+                entries = tree;
+                stream = tree::stream;
+                break;
+            }
+            case "AVL_TREE": {
+                AVLTree<Long, Long> tree = new AVLTree<>();
+                for (Long key : keys) {
+                    tree.insertNodeInAVLTree(key, key);
+                }
+                entries = tree;
+                stream = tree::stream;
+                break;
+            }
+            case "BINARY_TREE": {
+                BinaryTree<Long, Long> tree = new BinaryTree<>();
+                for (Long key : keys) {
+                    tree.insertNode(key, key);
+                }
+                entries = tree;
+                stream = tree::stream;
+                break;
+            }
+            default: {
+                TreeMap<Long, Long> map = new TreeMap<>();
+                for (Long key : keys) {
+                    map.put(key, key);
+                }
+                entries = map.entrySet();
+                stream = () -> map.entrySet().stream();
+            }
+        }
+    }
+
+    @Benchmark
+    public long iterate() {
+        long sum = 0;
+        for (Map.Entry<Long, Long> e : entries) {
+            sum += e.getValue();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long sequentialStream() {
+        return stream.get().mapToLong(Map.Entry::getValue).sum();
+    }
+
+    @Benchmark
+    public long parallelStream() {
+        return stream.get().parallel().mapToLong(Map.Entry::getValue).sum();
+    }
+}
@@ -0,0 +1,101 @@
+package trees.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import trees.AVLTree;
+import trees.RBTree;
+
+/**
+ * Merging two trees with the join-based set operations against inserting
+ * the entries of one tree into the other one by one. The trees hold the
+ * multiples of 2 and of 3, so a third of the smaller tree's keys are
+ * shared. Both trees are rebuilt before every invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgs = {"-Xmx8g"})
+public class SetOperationBenchmark {
+
+    @Param({"1000000", "10000000"})
+    int size;
+
+    @Param({"1000", "1000000", "10000000"})
+    int otherSize;
+
+    Long[] keys, otherKeys;
+    RBTree<Long, Long> a, b;
+    AVLTree<Long, Long> avlA, avlB;
+
+    @Setup
+    public void setUp() {
+        keys = new Long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = 2L * i;
+        }
+        otherKeys = new Long[otherSize];
+        for (int i = 0; i < otherSize; i++) {
+            otherKeys[i] = 3L * i;
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void build() {
+        a = new RBTree<>();
+        a.buildFromSorted(keys, keys);
+        b = new RBTree<>();
+        b.buildFromSorted(otherKeys, otherKeys);
+        avlA = new AVLTree<>();
+        avlA.buildFromSorted(keys, keys);
+        avlB = new AVLTree<>();
+        avlB.buildFromSorted(otherKeys, otherKeys);
+    }
+
+    @Benchmark
+    public RBTree<Long, Long> union() {
+        a.union(b);
+        return a;
+    }
+
+    @Benchmark
+    public RBTree<Long, Long> unionByInserts() {
+        for (Map.Entry<Long, Long> e : b) {
+            a.insertNodeInRBTree(e.getKey(), e.getValue());
+        }
+        return a;
+    }
+
+    @Benchmark
+    public RBTree<Long, Long> intersection() {
+        a.intersection(b);
+        return a;
+    }
+
+    @Benchmark
+    public RBTree<Long, Long> difference() {
+        a.difference(b);
+        return a;
+    }
+
+    @Benchmark
+    public AVLTree<Long, Long> avlUnion() {
+        avlA.union(avlB);
+        return avlA;
+    }
+}
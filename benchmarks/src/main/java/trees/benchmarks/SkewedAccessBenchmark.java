@@ -0,0 +1,98 @@
+package trees.benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups under access traces of growing skew, where the self-adjusting
+ * trees should overtake the balanced ones:
+ * <ul>
+ * <li>UNIFORM: every key equally likely, the worst case for splaying;</li>
+ * <li>ZIPF_80 and ZIPF_99: Zipfian with theta 0.8 and 0.99, hot keys
+ * scattered over the key space;</li>
+ * <li>WORKING_SET: uniform over a window of 1024 keys that moves to other
+ * random keys every 64K accesses, for temporal locality without a fixed
+ * hot set.</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SkewedAccessBenchmark {
+
+    static final int ACCESSES = 1 << 22;
+    static final int WINDOW = 1024;
+    static final int PHASE = 1 << 16;
+
+    @Param({"100000", "1000000"})
+    int size;
+
+    @Param({"RB_TREE", "AVL_TREE", "SPLAY_TREE", "SEMI_SPLAY_TREE"})
+    OrderedMap.Kind kind;
+
+    @Param({"UNIFORM", "ZIPF_80", "ZIPF_99", "WORKING_SET"})
+    String trace;
+
+    OrderedMap map;
+    Long[] keys;
+    int[] order;
+    int cursor;
+
+    @Setup
+    public void setUp() {
+        map = kind.create();
+        keys = Workload.RANDOM.keys(size);
+        for (Long key : keys) {
+            map.insert(key, key);
+        }
+        order = new int[ACCESSES];
+        SplittableRandom random = new SplittableRandom(Workload.SEED + 3);
+        switch (trace) {
+            case "UNIFORM":
+                for (int i = 0; i < ACCESSES; i++) {
+                    order[i] = random.nextInt(size);
+                }
+                break;
+            case "ZIPF_80":
+            case "ZIPF_99":
+                Workload.Zipf zipf = new Workload.Zipf(size, trace.equals("ZIPF_80") ? 0.8 : 0.99);
+                for (int i = 0; i < ACCESSES; i++) {
+                    order[i] = zipf.next(random);
+                }
+                break;
+            case "WORKING_SET":
+                int[] window = new int[WINDOW];
+                for (int i = 0; i < ACCESSES; i++) {
+                    if (i % PHASE == 0) {
+                        for (int j = 0; j < WINDOW; j++) {
+                            window[j] = random.nextInt(size);
+                        }
+                    }
+                    order[i] = window[random.nextInt(WINDOW)];
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(trace);
+        }
+    }
+
+    @Benchmark
+    public Long get() {
+        return map.get(keys[order[cursor++ & (ACCESSES - 1)]]);
+    }
+}
@@ -0,0 +1,85 @@
+package trees.benchmarks;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import trees.Codec;
+import trees.RBTree;
+
+/**
+ * Restarting from a snapshot file: saveSnapshot and loadSnapshot against
+ * replaying one insert per key in random order.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class SnapshotBenchmark {
+
+    @Param({"1000000", "10000000"})
+    int size;
+
+    Long[] keys;
+    RBTree<Long, Long> tree;
+    Path file;
+
+    @Setup
+    public void setUp() throws IOException {
+        keys = Workload.RANDOM.keys(size);
+        Long[] sorted = Workload.SORTED.keys(size);
+        tree = new RBTree<>();
+        tree.buildFromSorted(sorted, sorted);
+        file = Files.createTempFile("tree", ".snapshot");
+        save();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public Path save() throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            tree.saveSnapshot(channel, Codec.longs(), Codec.longs());
+        }
+        return file;
+    }
+
+    @Benchmark
+    public RBTree<Long, Long> load() throws IOException {
+        RBTree<Long, Long> t = new RBTree<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            t.loadSnapshot(channel, Codec.longs(), Codec.longs());
+        }
+        return t;
+    }
+
+    @Benchmark
+    public RBTree<Long, Long> replayInserts() {
+        RBTree<Long, Long> t = new RBTree<>();
+        for (Long key : keys) {
+            t.insertNodeInRBTree(key, key);
+        }
+        return t;
+    }
+}
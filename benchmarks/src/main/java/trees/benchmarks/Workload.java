@@ -0,0 +1,115 @@
+package trees.benchmarks;
+
+import java.util.SplittableRandom;
+
+/**
+ * Key orders used by the benchmarks. Keys are pre-boxed so that boxing does
+ * not show up in the measurements.
+ */
+public enum Workload {
+
+    /**
+     * Uniformly shuffled keys.
+     */
+    RANDOM,
+    /**
+     * Keys in ascending order.
+     */
+    SORTED,
+    /**
+     * Keys drawn from a Zipfian distribution (theta = 0.99), hot keys
+     * scattered over the key space.
+     */
+    ZIPF;
+
+    static final long SEED = 0x5DEECE66DL;
+
+    /**
+     * Returns n distinct keys in the order of this workload. For ZIPF the
+     * distinct keys are shuffled, the skew shows up in {@link #accessOrder}.
+     */
+    Long[] keys(int n) {
+        Long[] keys = new Long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = (long) i * 2;
+        }
+        if (this != SORTED) {
+            shuffle(keys, new SplittableRandom(SEED));
+        }
+        return keys;
+    }
+
+    /**
+     * Returns count indexes into an array of n keys, in the order they are
+     * accessed by this workload.
+     */
+    int[] accessOrder(int n, int count) {
+        int[] order = new int[count];
+        SplittableRandom random = new SplittableRandom(SEED + 1);
+        switch (this) {
+            case SORTED:
+                for (int i = 0; i < count; i++) {
+                    order[i] = i % n;
+                }
+                break;
+            case ZIPF:
+                Zipf zipf = new Zipf(n, 0.99);
+                for (int i = 0; i < count; i++) {
+                    order[i] = zipf.next(random);
+                }
+                break;
+            default:
+                for (int i = 0; i < count; i++) {
+                    order[i] = random.nextInt(n);
+                }
+        }
+        return order;
+    }
+
+    static void shuffle(Object[] a, SplittableRandom random) {
+        for (int i = a.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Object t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+    }
+
+    /**
+     * Zipfian generator from Gray et al., "Quickly Generating Billion-Record
+     * Synthetic Databases", as used by YCSB.
+     */
+    static final class Zipf {
+
+        private final int n;
+        private final double theta, alpha, zetan, eta;
+
+        Zipf(int n, double theta) {
+            this.n = n;
+            this.theta = theta;
+            this.zetan = zeta(n, theta);
+            this.alpha = 1.0 / (1.0 - theta);
+            this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+        }
+
+        private static double zeta(int n, double theta) {
+            double sum = 0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+
+        int next(SplittableRandom random) {
+            double u = random.nextDouble();
+            double uz = u * zetan;
+            if (uz < 1.0) {
+                return 0;
+            }
+            if (uz < 1.0 + Math.pow(0.5, theta)) {
+                return Math.min(1, n - 1);
+            }
+            return Math.min(n - 1, (int) (n * Math.pow(eta * u - eta + 1, alpha)));
+        }
+    }
+}
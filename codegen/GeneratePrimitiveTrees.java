@@ -0,0 +1,83 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the primitive-key trees of package trees from the two templates in
+ * this directory. Run from the repository root after changing a template:
+ *
+ *     java codegen/GeneratePrimitiveTrees.java
+ *
+ * A template uses $name$ placeholders and "//#if generic", "//#else",
+ * "//#endif" lines for the parts that differ between an object value T2
+ * and a primitive value.
+ */
+public class GeneratePrimitiveTrees {
+
+    /**
+     * @param template template file name
+     * @param name class name
+     * @param key key type
+     * @param value value type, null for a generic T2 value
+     * @param doc what the tree is specialized for
+     */
+    record Variant(String template, String name, String key, String value, String doc) {
+
+        boolean generic() {
+            return value == null;
+        }
+    }
+
+    static final List<Variant> VARIANTS = List.of(
+            new Variant("PrimitiveRBTree.template", "IntRBTree", "int", null, "int keys"),
+            new Variant("PrimitiveRBTree.template", "LongRBTree", "long", null, "long keys"),
+            new Variant("PrimitiveRBTree.template", "LongLongRBTree", "long", "long", "long keys and long values"),
+            new Variant("PrimitiveRBTree.template", "LongDoubleRBTree", "long", "double",
+                    "long keys and double values"),
+            new Variant("PrimitiveAVLTree.template", "IntAVLTree", "int", null, "int keys"),
+            new Variant("PrimitiveAVLTree.template", "LongAVLTree", "long", null, "long keys"));
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Path.of("codegen"), out = Path.of("src", "trees");
+        for (Variant v : VARIANTS) {
+            String template = Files.readString(dir.resolve(v.template()), StandardCharsets.UTF_8);
+            String source = "// Generated by codegen/GeneratePrimitiveTrees.java from " + v.template()
+                    + ", do not edit.\n" + expand(template, v);
+            Files.writeString(out.resolve(v.name() + ".java"), source.replace("\r\n", "\n").replace("\n", "\r\n"),
+                    StandardCharsets.UTF_8);
+        }
+    }
+
+    static String expand(String template, Variant v) {
+        List<String> lines = new ArrayList<>();
+        boolean keep = true;
+        for (String line : template.replace("\r\n", "\n").split("\n", -1)) {
+            switch (line.trim()) {
+                case "//#if generic":
+                    keep = v.generic();
+                    break;
+                case "//#else":
+                    keep = !keep;
+                    break;
+                case "//#endif":
+                    keep = true;
+                    break;
+                default:
+                    if (keep) {
+                        lines.add(line);
+                    }
+            }
+        }
+        return String.join("\n", lines)
+                .replace("$ClassDecl$", v.generic() ? v.name() + "<T2>" : v.name())
+                .replace("$Node$", v.generic() ? "Node<T2>" : "Node")
+                .replace("$new$", v.generic() ? "new Node<>" : "new Node")
+                .replace("$V$", v.generic() ? "T2" : v.value())
+                .replace("$nilValue$", v.generic() ? "null" : "0")
+                .replace("$key$", v.key())
+                .replace("$doc$", v.doc());
+    }
+}
@@ -0,0 +1,575 @@
+package trees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * AVLTree against TreeMap. After every operation the whole tree is checked:
+ * key order, parent links, the balance factors, the subtree sizes, the
+ * aggregates of trees with a monoid and the shared nil leaf.
+ */
+class AVLTreeTest {
+
+    /**
+     * Not commutative, so an aggregate also shows the order of the values.
+     */
+    private static final Monoid<String> CAT = Monoid.of("", String::concat);
+
+    private static AVLTree<Integer, String> tree(boolean aggregated) {
+        return aggregated ? new AVLTree<>(CAT) : new AVLTree<>();
+    }
+
+    static void check(AVLTree<Integer, String> tree, boolean aggregated, TreeMap<Integer, String> expected) {
+        AVLTree.Node<Integer, String> nil = tree.nil;
+        assertNull(nil.key);
+        assertNull(nil.value);
+        assertNull(nil.left);
+        assertNull(nil.right);
+        assertNull(nil.parent);
+        assertEquals(0, nil.balanceFactor);
+        assertEquals(0, nil.size);
+        assertNull(nil.aggregate);
+        if (tree.root != nil) {
+            assertSame(nil, tree.root.parent);
+        }
+        check(tree, tree.root, null, null, aggregated);
+        assertEquals(expected.size(), tree.size());
+        Iterator<Map.Entry<Integer, String>> it = tree.iterator();
+        for (Map.Entry<Integer, String> e : expected.entrySet()) {
+            assertTrue(it.hasNext());
+            Map.Entry<Integer, String> actual = it.next();
+            assertEquals(e.getKey(), actual.getKey());
+            assertEquals(e.getValue(), actual.getValue());
+        }
+        assertFalse(it.hasNext());
+        if (aggregated) {
+            assertEquals(String.join("", expected.values()), tree.aggregate());
+        }
+    }
+
+    /**
+     * Checks the subtree of x, whose keys must lie strictly between lo and
+     * hi, and returns its height.
+     */
+    private static int check(AVLTree<Integer, String> tree, AVLTree.Node<Integer, String> x, Integer lo, Integer hi,
+            boolean aggregated) {
+        AVLTree.Node<Integer, String> nil = tree.nil;
+        if (x == nil) {
+            return 0;
+        }
+        assertTrue(lo == null || x.key > lo, "key order");
+        assertTrue(hi == null || x.key < hi, "key order");
+        if (x.left != nil) {
+            assertSame(x, x.left.parent);
+        }
+        if (x.right != nil) {
+            assertSame(x, x.right.parent);
+        }
+        int left = check(tree, x.left, lo, x.key, aggregated);
+        int right = check(tree, x.right, x.key, hi, aggregated);
+        assertEquals(right - left, x.balanceFactor, "balance factor");
+        assertTrue(Math.abs(right - left) <= 1, "unbalanced");
+        assertEquals(x.left.size + x.right.size + 1, x.size, "subtree size");
+        if (aggregated) {
+            String a = (x.left == nil ? "" : x.left.aggregate) + x.value + (x.right == nil ? "" : x.right.aggregate);
+            assertEquals(a, x.aggregate, "aggregate");
+        } else {
+            assertNull(x.aggregate);
+        }
+        return 1 + Math.max(left, right);
+    }
+
+    private static String value(SplittableRandom random) {
+        return Character.toString('a' + random.nextInt(26));
+    }
+
+    /**
+     * Fills the tree with about n random keys from [offset, offset + range)
+     * and removes some of them again.
+     */
+    private static void fill(AVLTree<Integer, String> tree, TreeMap<Integer, String> expected, SplittableRandom random,
+            int n, int range, int offset) {
+        for (int i = 0; i < n; i++) {
+            int key = offset + random.nextInt(range);
+            String value = value(random);
+            tree.insertNodeInAVLTree(key, value);
+            expected.put(key, value);
+        }
+        for (int i = 0; i < n / 4; i++) {
+            int key = offset + random.nextInt(range);
+            assertEquals(expected.remove(key) != null, tree.deleteNodeFromAVLTree(key));
+        }
+    }
+
+    /**
+     * Single inserts and removes on a tree that came out of a bulk
+     * operation, which must have left it fully consistent.
+     */
+    private static void keepUsing(AVLTree<Integer, String> tree, boolean aggregated, TreeMap<Integer, String> expected,
+            SplittableRandom random, int range) {
+        for (int i = 0; i < 200; i++) {
+            int key = random.nextInt(range + 5);
+            if (random.nextBoolean()) {
+                String value = value(random);
+                tree.insertNodeInAVLTree(key, value);
+                expected.put(key, value);
+            } else {
+                assertEquals(expected.remove(key) != null, tree.deleteNodeFromAVLTree(key));
+            }
+        }
+        check(tree, aggregated, expected);
+    }
+
+    @Test
+    void insertsAndRemovesMatchTreeMap() {
+        SplittableRandom random = new SplittableRandom(1);
+        for (int trial = 0; trial < 200; trial++) {
+            boolean aggregated = trial % 2 == 0;
+            AVLTree<Integer, String> tree = tree(aggregated);
+            TreeMap<Integer, String> expected = new TreeMap<>();
+            int range = 1 + random.nextInt(500);
+            for (int i = 0; i < 1000; i++) {
+                int key = random.nextInt(range);
+                if (random.nextInt(3) < 2) {
+                    String value = value(random);
+                    tree.insertNodeInAVLTree(key, value);
+                    expected.put(key, value);
+                } else {
+                    assertEquals(expected.remove(key) != null, tree.deleteNodeFromAVLTree(key));
+                }
+                assertEquals(expected.get(key), tree.getValueByKey(key));
+            }
+            check(tree, aggregated, expected);
+        }
+    }
+
+    /**
+     * Union, intersection and difference with trees of every relative size;
+     * every twentieth pair is large enough for the parallel path. Large trees
+     * go without a monoid, which the small ones cover, to keep the checks
+     * fast.
+     */
+    @Test
+    void setOperationsMatchTreeMap() {
+        SplittableRandom random = new SplittableRandom(11);
+        for (int trial = 0; trial < 600; trial++) {
+            boolean large = trial % 20 == 0, aggregated = !large && trial % 3 != 0;
+            int range = 1 + random.nextInt(large ? 100000 : 500);
+            TreeMap<Integer, String> ea = new TreeMap<>(), eb = new TreeMap<>();
+            AVLTree<Integer, String> a = tree(aggregated), b = tree(aggregated);
+            fill(a, ea, random, random.nextInt(large ? 20000 : 300), range, 0);
+            int nb = random.nextInt(5) == 0 ? random.nextInt(5) : random.nextInt(large ? 20000 : 300);
+            fill(b, eb, random, nb, range, random.nextInt(3) == 0 ? range / 2 : 0);
+            switch (random.nextInt(3)) {
+                case 0:
+                    a.union(b);
+                    ea.putAll(eb);
+                    break;
+                case 1:
+                    a.intersection(b);
+                    ea.keySet().retainAll(eb.keySet());
+                    break;
+                default:
+                    a.difference(b);
+                    ea.keySet().removeAll(eb.keySet());
+            }
+            check(b, aggregated, new TreeMap<>());
+            check(a, aggregated, ea);
+            keepUsing(a, aggregated, ea, random, range);
+        }
+    }
+
+    @Test
+    void splitAndJoinMatchTreeMap() {
+        SplittableRandom random = new SplittableRandom(12);
+        for (int trial = 0; trial < 600; trial++) {
+            boolean large = trial % 20 == 0, aggregated = !large && trial % 3 != 0;
+            int range = 1 + random.nextInt(large ? 100000 : 500);
+            TreeMap<Integer, String> expected = new TreeMap<>();
+            AVLTree<Integer, String> tree = tree(aggregated);
+            fill(tree, expected, random, random.nextInt(large ? 20000 : 300), range, 0);
+            int key = random.nextInt(range + 2) - 1;
+            AVLTree<Integer, String> right = tree.split(key);
+            TreeMap<Integer, String> expectedRight = new TreeMap<>(expected.tailMap(key, true));
+            expected = new TreeMap<>(expected.headMap(key, false));
+            check(tree, aggregated, expected);
+            check(right, aggregated, expectedRight);
+            if (random.nextBoolean()) {
+                keepUsing(right, aggregated, expectedRight, random, key);
+                expectedRight = new TreeMap<>(expectedRight.tailMap(key, true));
+                right = right.split(key);
+            }
+            tree.join(right);
+            expected.putAll(expectedRight);
+            check(right, aggregated, new TreeMap<>());
+            check(tree, aggregated, expected);
+
+            AVLTree<Integer, String> higher = tree(aggregated);
+            TreeMap<Integer, String> expectedHigher = new TreeMap<>();
+            fill(higher, expectedHigher, random, random.nextInt(large ? 50000 : 400), range + 1, range + 5);
+            tree.join(higher);
+            expected.putAll(expectedHigher);
+            check(higher, aggregated, new TreeMap<>());
+            check(tree, aggregated, expected);
+            keepUsing(tree, aggregated, expected, random, 2 * range + 5);
+        }
+    }
+
+    @Test
+    void joinRejectsOverlappingKeys() {
+        AVLTree<Integer, String> a = tree(true), b = tree(true);
+        TreeMap<Integer, String> expected = new TreeMap<>();
+        for (int key = 0; key < 100; key++) {
+            a.insertNodeInAVLTree(key, "a");
+            expected.put(key, "a");
+        }
+        b.insertNodeInAVLTree(99, "b");
+        assertThrows(IllegalArgumentException.class, () -> a.join(b));
+        check(a, true, expected);
+        check(b, true, new TreeMap<>(Map.of(99, "b")));
+    }
+
+    /**
+     * Trees merge only with the same Monoid instance, so the factories
+     * without parameters must hand out one.
+     */
+    /**
+     * setValue on an entry of the iterator writes through and keeps the
+     * aggregates of every node on the path to the root right.
+     */
+    @Test
+    void setValueUpdatesAggregates() {
+        SplittableRandom random = new SplittableRandom(14);
+        AVLTree<Integer, String> tree = tree(true);
+        TreeMap<Integer, String> expected = new TreeMap<>();
+        fill(tree, expected, random, 500, 1000, 0);
+        for (int round = 0; round < 20; round++) {
+            for (Map.Entry<Integer, String> e : tree) {
+                if (random.nextInt(4) == 0) {
+                    String v = value(random);
+                    assertEquals(expected.put(e.getKey(), v), e.setValue(v));
+                }
+            }
+            check(tree, true, expected);
+        }
+        AVLTree<Integer, Long> sums = new AVLTree<>(Monoid.longSum());
+        sums.insertNodeInAVLTree(1, 1L);
+        sums.insertNodeInAVLTree(2, 1L);
+        sums.iterator().next().setValue(100L);
+        assertEquals(Long.valueOf(101), sums.aggregate());
+    }
+
+    @Test
+    void sumMonoidsAreShared() {
+        assertSame(Monoid.longSum(), Monoid.longSum());
+        assertSame(Monoid.doubleSum(), Monoid.doubleSum());
+        AVLTree<Integer, Long> a = new AVLTree<>(Monoid.longSum()), b = new AVLTree<>(Monoid.longSum());
+        AVLTree<Integer, Long> c = new AVLTree<>(Monoid.longSum()), d = new AVLTree<>(Monoid.longSum());
+        for (int key = 0; key < 100; key++) {
+            a.insertNodeInAVLTree(key, 1L);
+            b.insertNodeInAVLTree(key + 100, 2L);
+            c.insertNodeInAVLTree(key * 3, 4L);
+        }
+        a.join(b);
+        a.union(c);
+        a.difference(d);
+        assertEquals(Long.valueOf(100 + 200 - 34 - 2 * 33 + 4 * 100), a.aggregate());
+        AVLTree<Integer, Long> other = new AVLTree<>(Monoid.of(0L, Long::sum));
+        other.insertNodeInAVLTree(500, 1L);
+        assertThrows(IllegalArgumentException.class, () -> a.join(other));
+        assertThrows(IllegalArgumentException.class, () -> a.union(other));
+        assertThrows(IllegalArgumentException.class, () -> a.union(new AVLTree<>()));
+    }
+
+    @Test
+    void operationsWithItself() {
+        AVLTree<Integer, String> tree = tree(true);
+        TreeMap<Integer, String> expected = new TreeMap<>();
+        for (int key = 0; key < 100; key++) {
+            tree.insertNodeInAVLTree(key, "v");
+            expected.put(key, "v");
+        }
+        tree.union(tree);
+        tree.intersection(tree);
+        tree.join(tree);
+        check(tree, true, expected);
+        tree.difference(tree);
+        check(tree, true, new TreeMap<>());
+    }
+
+    /**
+     * Operations on empty trees and at the ends of the key range, where the
+     * algorithms would be most tempted to write to the nil leaf.
+     */
+    @Test
+    void emptyTreesAndEdges() {
+        TreeMap<Integer, String> empty = new TreeMap<>();
+        AVLTree<Integer, String> a = tree(true), b = tree(true);
+        a.union(b);
+        a.intersection(b);
+        a.difference(b);
+        a.join(b);
+        check(a.split(0), true, empty);
+        a.buildFromSorted(new Integer[0], new String[0]);
+        check(a, true, empty);
+        assertFalse(a.deleteNodeFromAVLTree(1));
+
+        TreeMap<Integer, String> expected = new TreeMap<>();
+        for (int key = 0; key < 10; key++) {
+            a.insertNodeInAVLTree(key, "v");
+            expected.put(key, "v");
+        }
+        check(a.split(100), true, empty);
+        AVLTree<Integer, String> all = a.split(-1);
+        check(a, true, empty);
+        check(all, true, expected);
+        all.union(a);
+        a.union(all);
+        check(all, true, empty);
+        check(a, true, expected);
+        for (int key = 0; key < 10; key++) {
+            a.deleteNodeFromAVLTree(key);
+        }
+        check(a, true, empty);
+    }
+
+    /**
+     * insertAll, upsertAll and removeAll with batches in random and in
+     * ascending order, with duplicate keys, small next to the tree and
+     * large enough to rebuild it.
+     */
+    @Test
+    void batchesMatchTreeMap() {
+        SplittableRandom random = new SplittableRandom(15);
+        for (int trial = 0; trial < 100; trial++) {
+            boolean aggregated = trial % 2 == 0;
+            int range = 1 + random.nextInt(3000);
+            AVLTree<Integer, String> tree = tree(aggregated);
+            TreeMap<Integer, String> expected = new TreeMap<>();
+            for (int step = 0; step < 20; step++) {
+                int n = random.nextInt(4) == 0 ? random.nextInt(2000) : random.nextInt(40);
+                boolean ascending = random.nextInt(4) == 0;
+                int base = random.nextInt(range);
+                Integer[] keys = new Integer[n];
+                String[] values = new String[n];
+                for (int i = 0; i < n; i++) {
+                    keys[i] = ascending ? base + i * (1 + random.nextInt(3)) : random.nextInt(range);
+                    values[i] = value(random);
+                }
+                switch (random.nextInt(3)) {
+                    case 0:
+                        tree.insertAll(keys, values);
+                        for (int i = 0; i < n; i++) {
+                            expected.put(keys[i], values[i]);
+                        }
+                        break;
+                    case 1:
+                        tree.upsertAll(keys, values, String::concat);
+                        for (int i = 0; i < n; i++) {
+                            expected.merge(keys[i], values[i], String::concat);
+                        }
+                        break;
+                    default:
+                        int removed = 0;
+                        for (Integer key : keys) {
+                            if (expected.remove(key) != null) {
+                                removed++;
+                            }
+                        }
+                        assertEquals(removed, tree.removeAll(keys));
+                }
+                check(tree, aggregated, expected);
+            }
+        }
+    }
+
+    /**
+     * Answers of rank, select and countRange from the subtree sizes,
+     * compared with TreeMap after single updates and after the operations
+     * that rebuild or relink subtrees.
+     */
+    @Test
+    void rankSelectAndCountRangeMatchTreeMap() {
+        SplittableRandom random = new SplittableRandom(13);
+        for (int trial = 0; trial < 200; trial++) {
+            int range = 1 + random.nextInt(800);
+            AVLTree<Integer, String> tree = tree(false);
+            TreeMap<Integer, String> expected = new TreeMap<>();
+            for (int step = 0; step < 20; step++) {
+                switch (random.nextInt(5)) {
+                    case 0: {
+                        TreeMap<Integer, String> other = new TreeMap<>();
+                        for (int i = random.nextInt(100); i > 0; i--) {
+                            other.put(random.nextInt(range), value(random));
+                        }
+                        AVLTree<Integer, String> o = tree(false);
+                        o.buildFromSorted(other.keySet().toArray(new Integer[0]), other.values().toArray(new String[0]));
+                        tree.union(o);
+                        expected.putAll(other);
+                        break;
+                    }
+                    case 1: {
+                        int key = random.nextInt(range);
+                        AVLTree<Integer, String> right = tree.split(key);
+                        TreeMap<Integer, String> expectedRight = new TreeMap<>(expected.tailMap(key, true));
+                        assertQueries(right, expectedRight, random, range);
+                        assertQueries(tree, new TreeMap<>(expected.headMap(key, false)), random, range);
+                        tree.join(right);
+                        break;
+                    }
+                    case 2: {
+                        int base = (expected.isEmpty() ? 0 : expected.lastKey()) + 1;
+                        Integer[] keys = new Integer[random.nextInt(200)];
+                        String[] values = new String[keys.length];
+                        for (int i = 0; i < keys.length; i++) {
+                            keys[i] = base + 2 * i;
+                            values[i] = value(random);
+                            expected.put(keys[i], values[i]);
+                        }
+                        tree.appendSorted(keys, values);
+                        range = Math.max(range, base + 2 * keys.length);
+                        break;
+                    }
+                    case 3:
+                        tree = tree(false);
+                        tree.buildFromSorted(new ArrayList<>(expected.entrySet()).iterator(), expected.size());
+                        break;
+                    default:
+                        for (int i = 0; i < 50; i++) {
+                            int key = random.nextInt(range);
+                            if (random.nextInt(3) < 2) {
+                                String value = value(random);
+                                tree.insertNodeInAVLTree(key, value);
+                                expected.put(key, value);
+                            } else {
+                                assertEquals(expected.remove(key) != null, tree.deleteNodeFromAVLTree(key));
+                            }
+                        }
+                }
+                check(tree, false, expected);
+                assertQueries(tree, expected, random, range);
+            }
+        }
+    }
+
+    private static void assertQueries(AVLTree<Integer, String> tree, TreeMap<Integer, String> expected,
+            SplittableRandom random, int range) {
+        List<Integer> keys = new ArrayList<>(expected.keySet());
+        for (int i = 0; i < 20; i++) {
+            int key = random.nextInt(range + 4) - 2;
+            assertEquals(expected.headMap(key, false).size(), tree.rank(key));
+            int lo = random.nextInt(range + 4) - 2, hi = random.nextInt(range + 4) - 2;
+            assertEquals(lo > hi ? 0 : expected.subMap(lo, true, hi, true).size(), tree.countRange(lo, hi));
+            if (!keys.isEmpty()) {
+                int k = random.nextInt(keys.size());
+                Map.Entry<Integer, String> e = tree.select(k);
+                assertEquals(keys.get(k), e.getKey());
+                assertEquals(expected.get(keys.get(k)), e.getValue());
+            }
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> tree.select(-1));
+        assertThrows(IndexOutOfBoundsException.class, () -> tree.select(keys.size()));
+        assertEquals(expected.size(), tree.stream().parallel().count());
+    }
+
+    /**
+     * Runs of increasing keys, which go through the finger, mixed with what
+     * has to reset or move it: removing the finger or its successor, random
+     * inserts, batches, and a split and join around the finger.
+     */
+    @Test
+    void fingerHintMatchesTreeMap() {
+        SplittableRandom random = new SplittableRandom(25);
+        for (int trial = 0; trial < 100; trial++) {
+            AVLTree<Integer, String> tree = tree(true);
+            TreeMap<Integer, String> expected = new TreeMap<>();
+            for (int step = 0; step < 40; step++) {
+                switch (random.nextInt(6)) {
+                    case 0:
+                    case 1:
+                        int key = step % 2 == 0 && !expected.isEmpty() ? expected.lastKey() - random.nextInt(3)
+                                : random.nextInt(1000);
+                        for (int i = 0, n = random.nextInt(60); i < n; i++) {
+                            key += random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(3);
+                            String value = value(random);
+                            tree.insertNodeInAVLTree(key, value);
+                            expected.put(key, value);
+                        }
+                        break;
+                    case 2:
+                        for (int i = 0; i < 2 && !expected.isEmpty(); i++) {
+                            Integer last = random.nextBoolean() ? expected.lastKey() : expected.firstKey();
+                            assertTrue(tree.deleteNodeFromAVLTree(last));
+                            expected.remove(last);
+                        }
+                        break;
+                    case 3:
+                        fill(tree, expected, random, 40, 1000, 0);
+                        break;
+                    case 4:
+                        TreeMap<Integer, String> batch = new TreeMap<>();
+                        for (int i = 0, n = random.nextInt(50); i < n; i++) {
+                            batch.put(random.nextInt(1200), value(random));
+                        }
+                        tree.insertAll(batch.keySet().toArray(new Integer[0]), batch.values().toArray(new String[0]));
+                        expected.putAll(batch);
+                        break;
+                    default:
+                        int at = random.nextInt(1000);
+                        AVLTree<Integer, String> tail = tree.split(at);
+                        TreeMap<Integer, String> head = new TreeMap<>(expected.headMap(at));
+                        int base = head.isEmpty() ? 0 : head.lastKey();
+                        for (int k = base + 1; k <= base + 5 && k < at; k++) {
+                            tree.insertNodeInAVLTree(k, "s");
+                            head.put(k, "s");
+                        }
+                        check(tree, true, head);
+                        tree.join(tail);
+                        expected.putAll(head);
+                }
+                check(tree, true, expected);
+            }
+        }
+        AVLTree<Integer, String> tree = tree(false);
+        for (int key = 0; key < 1 << 20; key++) {
+            tree.insertNodeInAVLTree(key, "v");
+        }
+        assertTrue(tree.height() <= 29, "height " + tree.height());
+    }
+
+    @Test
+    void largeParallelSetOperations() {
+        AVLTree<Integer, String> x = tree(false), y = tree(false);
+        TreeMap<Integer, String> expected = new TreeMap<>();
+        for (int i = 0; i < 300000; i++) {
+            x.insertNodeInAVLTree(2 * i, "x");
+            expected.put(2 * i, "x");
+            y.insertNodeInAVLTree(3 * i, "y");
+        }
+        TreeMap<Integer, String> expectedY = new TreeMap<>();
+        for (int i = 0; i < 300000; i++) {
+            expectedY.put(3 * i, "y");
+        }
+        AVLTree<Integer, String> z = tree(false);
+        z.buildFromSorted(expectedY.keySet().toArray(new Integer[0]), expectedY.values().toArray(new String[0]));
+        x.union(y);
+        expected.putAll(expectedY);
+        check(x, false, expected);
+        x.difference(z);
+        expected.keySet().removeAll(expectedY.keySet());
+        check(x, false, expected);
+    }
+}
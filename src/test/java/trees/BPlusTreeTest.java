@@ -0,0 +1,84 @@
+package trees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * BPlusTree against a TreeMap for the smallest fanout and the default one,
+ * through the SortedStore operations and the callbacks.
+ */
+class BPlusTreeTest {
+
+    private static void assertScan(Map<Integer, Integer> expected, Iterator<Map.Entry<Integer, Integer>> it) {
+        for (Map.Entry<Integer, Integer> e : expected.entrySet()) {
+            assertTrue(it.hasNext());
+            Map.Entry<Integer, Integer> actual = it.next();
+            assertEquals(e.getKey(), actual.getKey());
+            assertEquals(e.getValue(), actual.getValue());
+        }
+        assertFalse(it.hasNext());
+        assertThrows(NoSuchElementException.class, it::next);
+    }
+
+    private static void check(BPlusTree<Integer, Integer> tree, TreeMap<Integer, Integer> expected,
+            SplittableRandom random) {
+        assertEquals(expected.size(), tree.size());
+        assertScan(expected, tree.iterator());
+        List<Integer> keys = new ArrayList<>();
+        tree.forEach((key, value) -> keys.add(key));
+        assertEquals(new ArrayList<>(expected.keySet()), keys);
+        for (int i = 0; i < 10; i++) {
+            int from = random.nextInt(2200) - 100, to = from + random.nextInt(300);
+            assertScan(expected.subMap(from, to), tree.range(from, to));
+            List<Integer> inRange = new ArrayList<>();
+            tree.forEachInRange(from, to, (key, value) -> inRange.add(key));
+            assertEquals(new ArrayList<>(expected.subMap(from, to).keySet()), inRange);
+        }
+    }
+
+    @Test
+    void matchesTreeMap() {
+        for (int fanout : new int[]{4, 5, BPlusTree.DEFAULT_FANOUT}) {
+            SplittableRandom random = new SplittableRandom(fanout);
+            BPlusTree<Integer, Integer> tree = new BPlusTree<>(fanout);
+            SortedStore<Integer, Integer> store = tree;
+            TreeMap<Integer, Integer> expected = new TreeMap<>();
+            check(tree, expected, random);
+            for (int i = 0; i < 40000; i++) {
+                int key = random.nextInt(2000);
+                switch (random.nextInt(3)) {
+                    case 0:
+                        assertEquals(expected.remove(key) != null, store.removeNode(key));
+                        break;
+                    case 1:
+                        assertEquals(expected.get(key), store.getValueByKey(key));
+                        assertEquals(expected.containsKey(key), tree.containsKey(key));
+                        break;
+                    default:
+                        store.insertNode(key, i);
+                        expected.put(key, i);
+                }
+                if (i % 4000 == 0) {
+                    check(tree, expected, random);
+                }
+            }
+            check(tree, expected, random);
+            for (Integer key : new ArrayList<>(expected.keySet())) {
+                assertTrue(store.removeNode(key));
+            }
+            check(tree, new TreeMap<>(), random);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package trees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Recovery of DurableRBTree from its log and checkpoints, including the
+ * states a crash can leave behind: a torn or corrupted log record and a
+ * checkpoint that was written but not yet followed by the new log.
+ */
+class DurableRBTreeTest {
+
+    /**
+     * Header of the log, and size of a PUT record of a Long key and value:
+     * length, checksum, type, key, value.
+     */
+    private static final int LOG_HEADER = 16, PUT_RECORD = 8 + 1 + 8 + 8;
+
+    @TempDir
+    Path dir;
+
+    private DurableRBTree<Long, Long> open(int syncEvery, long checkpointBytes) throws IOException {
+        return new DurableRBTree<>(dir, Codec.longs(), Codec.longs(), syncEvery, checkpointBytes);
+    }
+
+    private static void assertContent(Map<Long, Long> expected, DurableRBTree<Long, Long> tree) {
+        assertEquals(expected.size(), tree.size());
+        Iterator<Map.Entry<Long, Long>> it = tree.iterator();
+        for (Map.Entry<Long, Long> e : expected.entrySet()) {
+            assertTrue(it.hasNext());
+            Map.Entry<Long, Long> actual = it.next();
+            assertEquals(e.getKey(), actual.getKey());
+            assertEquals(e.getValue(), actual.getValue());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    private TreeSet<String> files() throws IOException {
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.map(p -> p.getFileName().toString()).collect(Collectors.toCollection(TreeSet::new));
+        }
+    }
+
+    @Test
+    void reopensWithCheckpointsAndLog() throws IOException {
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        SplittableRandom random = new SplittableRandom(1);
+        for (int round = 0; round < 5; round++) {
+            try (DurableRBTree<Long, Long> tree = open(1, 4096)) {
+                assertContent(expected, tree);
+                for (int i = 0; i < 2000; i++) {
+                    long key = random.nextInt(500);
+                    if (random.nextInt(3) == 0) {
+                        assertEquals(expected.remove(key) != null, tree.removeNodeFromRBTree(key));
+                    } else {
+                        tree.insertNodeInRBTree(key, (long) i);
+                        expected.put(key, (long) i);
+                    }
+                }
+            }
+            assertEquals(2, files().size(), "one checkpoint and one log: " + files());
+        }
+        try (DurableRBTree<Long, Long> tree = open(1, 4096)) {
+            assertContent(expected, tree);
+        }
+    }
+
+    /**
+     * Puts and deletes of the same keys alternate, over more records than
+     * one replay batch holds, so replay must keep the order across batches
+     * and kinds.
+     */
+    @Test
+    void replayKeepsRecordOrder() throws IOException {
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        SplittableRandom random = new SplittableRandom(2);
+        try (DurableRBTree<Long, Long> tree = open(0, Long.MAX_VALUE)) {
+            for (int i = 0; i < 300000; i++) {
+                long key = random.nextInt(64);
+                if (i % 5 == 4) {
+                    tree.removeNodeFromRBTree(key);
+                    expected.remove(key);
+                } else {
+                    tree.insertNodeInRBTree(key, (long) i);
+                    expected.put(key, (long) i);
+                }
+            }
+        }
+        try (DurableRBTree<Long, Long> tree = open(0, Long.MAX_VALUE)) {
+            assertContent(expected, tree);
+        }
+    }
+
+    @Test
+    void emptyLogReopensEmpty() throws IOException {
+        open(1, 4096).close();
+        try (DurableRBTree<Long, Long> tree = open(1, 4096)) {
+            assertEquals(0, tree.size());
+        }
+        assertEquals(LOG_HEADER, Files.size(dir.resolve("wal-0.log")));
+    }
+
+    @Test
+    void truncatedTailIsCutOff() throws IOException {
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        try (DurableRBTree<Long, Long> tree = open(1, Long.MAX_VALUE)) {
+            for (long key = 0; key < 100; key++) {
+                tree.insertNodeInRBTree(key, key * 10);
+                expected.put(key, key * 10);
+            }
+        }
+        Path log = dir.resolve("wal-0.log");
+        try (RandomAccessFile f = new RandomAccessFile(log.toFile(), "rw")) {
+            f.setLength(f.length() - 7);
+        }
+        expected.remove(99L);
+        try (DurableRBTree<Long, Long> tree = open(1, Long.MAX_VALUE)) {
+            assertContent(expected, tree);
+            assertEquals(LOG_HEADER + 99L * PUT_RECORD, Files.size(log));
+            tree.insertNodeInRBTree(1000L, 1L);
+            expected.put(1000L, 1L);
+        }
+        try (DurableRBTree<Long, Long> tree = open(1, Long.MAX_VALUE)) {
+            assertContent(expected, tree);
+        }
+    }
+
+    @Test
+    void corruptedRecordEndsReplay() throws IOException {
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        try (DurableRBTree<Long, Long> tree = open(1, Long.MAX_VALUE)) {
+            for (long key = 0; key < 100; key++) {
+                tree.insertNodeInRBTree(key, key);
+                if (key < 40) {
+                    expected.put(key, key);
+                }
+            }
+        }
+        Path log = dir.resolve("wal-0.log");
+        try (RandomAccessFile f = new RandomAccessFile(log.toFile(), "rw")) {
+            long valueByte = LOG_HEADER + 40L * PUT_RECORD + PUT_RECORD - 1;
+            f.seek(valueByte);
+            int b = f.read();
+            f.seek(valueByte);
+            f.write(b ^ 0x01);
+        }
+        try (DurableRBTree<Long, Long> tree = open(1, Long.MAX_VALUE)) {
+            assertContent(expected, tree);
+            assertEquals(LOG_HEADER + 40L * PUT_RECORD, Files.size(log));
+            tree.insertNodeInRBTree(500L, 5L);
+            expected.put(500L, 5L);
+        }
+        try (DurableRBTree<Long, Long> tree = open(1, Long.MAX_VALUE)) {
+            assertContent(expected, tree);
+        }
+    }
+
+    /**
+     * A crash while the checkpoint is written leaves its .tmp file; the
+     * previous checkpoint and log still hold everything.
+     */
+    @Test
+    void incompleteCheckpointIsIgnored() throws IOException {
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        try (DurableRBTree<Long, Long> tree = open(1, Long.MAX_VALUE)) {
+            for (long key = 0; key < 50; key++) {
+                tree.insertNodeInRBTree(key, key);
+                expected.put(key, key);
+            }
+        }
+        Files.write(dir.resolve("checkpoint-1.snap.tmp"), new byte[]{1, 2, 3});
+        try (DurableRBTree<Long, Long> tree = open(1, Long.MAX_VALUE)) {
+            assertContent(expected, tree);
+        }
+        assertEquals(new TreeSet<>(List.of("wal-0.log")), files());
+    }
+
+    /**
+     * A crash after the new checkpoint was renamed into place but before
+     * the new log was created and the old files deleted. The checkpoint
+     * already covers the old log, which must not be replayed on top of it.
+     */
+    @Test
+    void crashBetweenCheckpointAndLogReset(@TempDir Path saved) throws IOException {
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        try (DurableRBTree<Long, Long> tree = open(1, Long.MAX_VALUE)) {
+            for (long key = 0; key < 50; key++) {
+                tree.insertNodeInRBTree(key, key);
+                expected.put(key, key);
+            }
+            tree.checkpoint();
+            for (long key = 0; key < 50; key += 2) {
+                tree.removeNodeFromRBTree(key);
+                expected.remove(key);
+            }
+            tree.insertNodeInRBTree(7L, 70L);
+            expected.put(7L, 70L);
+        }
+        assertEquals(new TreeSet<>(List.of("checkpoint-1.snap", "wal-1.log")), files());
+        Files.copy(dir.resolve("checkpoint-1.snap"), saved.resolve("checkpoint-1.snap"));
+        Files.copy(dir.resolve("wal-1.log"), saved.resolve("wal-1.log"));
+        try (DurableRBTree<Long, Long> tree = open(1, Long.MAX_VALUE)) {
+            tree.checkpoint();
+        }
+        Files.copy(saved.resolve("checkpoint-1.snap"), dir.resolve("checkpoint-1.snap"), StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(saved.resolve("wal-1.log"), dir.resolve("wal-1.log"), StandardCopyOption.REPLACE_EXISTING);
+        Files.delete(dir.resolve("wal-2.log"));
+        try (DurableRBTree<Long, Long> tree = open(1, Long.MAX_VALUE)) {
+            assertContent(expected, tree);
+            tree.insertNodeInRBTree(7L, 71L);
+            expected.put(7L, 71L);
+        }
+        assertEquals(new TreeSet<>(List.of("checkpoint-2.snap", "wal-2.log")), files());
+        try (DurableRBTree<Long, Long> tree = open(1, Long.MAX_VALUE)) {
+            assertContent(expected, tree);
+        }
+    }
+
+    /**
+     * Scans running while another thread writes: the odd keys are never
+     * changed and must all be seen, every key once and in order. Entries
+     * are copies, so setValue cannot bypass the log.
+     */
+    @Test
+    void iteratorsCopyEntriesUnderTheLock() throws Exception {
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try (DurableRBTree<Long, Long> tree = open(0, Long.MAX_VALUE)) {
+            for (long key = 1; key < 4000; key += 2) {
+                tree.insertNodeInRBTree(key, key * 10);
+                expected.put(key, key * 10);
+            }
+            Future<?> writer = pool.submit(() -> {
+                SplittableRandom random = new SplittableRandom(8);
+                while (!done.get()) {
+                    long key = 2 * random.nextInt(2000);
+                    if (random.nextBoolean()) {
+                        tree.removeNodeFromRBTree(key);
+                    } else {
+                        tree.insertNodeInRBTree(key, key * 10);
+                    }
+                }
+                return null;
+            });
+            for (int scan = 0; scan < 200; scan++) {
+                long from = scan % 2 == 0 ? 0 : scan * 10, to = from + 2000;
+                Iterator<Map.Entry<Long, Long>> it = scan % 2 == 0 ? tree.iterator() : tree.range(from, to);
+                long last = -1, odd = 0;
+                while (it.hasNext()) {
+                    Map.Entry<Long, Long> e = it.next();
+                    assertTrue(e.getKey() > last);
+                    assertEquals(e.getKey() * 10, e.getValue());
+                    last = e.getKey();
+                    odd += last % 2;
+                }
+                assertEquals(scan % 2 == 0 ? 2000 : expected.subMap(from, to).size(), odd);
+                if (scan % 2 != 0) {
+                    assertTrue(last < to);
+                }
+            }
+            done.set(true);
+            writer.get(60, TimeUnit.SECONDS);
+            Map.Entry<Long, Long> e = tree.iterator().next();
+            assertThrows(UnsupportedOperationException.class, () -> e.setValue(1L));
+            for (long key = 0; key < 4000; key += 2) {
+                tree.removeNodeFromRBTree(key);
+            }
+        } finally {
+            done.set(true);
+            pool.shutdownNow();
+        }
+        try (DurableRBTree<Long, Long> tree = open(1, Long.MAX_VALUE)) {
+            assertContent(expected, tree);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package trees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * LSMTree against a TreeMap across reopens, and the parts of it that only
+ * show on disk: the MANIFEST, tombstones in newer runs, which runs are
+ * merged and when a replaced run is deleted.
+ */
+class LSMTreeTest {
+
+    @TempDir
+    Path dir;
+
+    private LSMTree<Long, Long> open(int memtableSize, int maxRuns) throws IOException {
+        return new LSMTree<>(dir, Codec.longs(), Codec.longs(), memtableSize, maxRuns);
+    }
+
+    private static void assertContent(Map<Long, Long> expected, LSMTree<Long, Long> tree) {
+        Iterator<Map.Entry<Long, Long>> it = tree.iterator();
+        for (Map.Entry<Long, Long> e : expected.entrySet()) {
+            assertTrue(it.hasNext());
+            Map.Entry<Long, Long> actual = it.next();
+            assertEquals(e.getKey(), actual.getKey());
+            assertEquals(e.getValue(), actual.getValue());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Names of the runs in the directory, from the oldest to the newest.
+     */
+    private TreeSet<String> runFiles() throws IOException {
+        Comparator<String> byId = Comparator.comparingLong(n -> Long.parseLong(n.substring(4, n.length() - 4)));
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.map(p -> p.getFileName().toString()).filter(n -> n.startsWith("run-") && n.endsWith(".sst"))
+                    .collect(Collectors.toCollection(() -> new TreeSet<>(byId)));
+        }
+    }
+
+    /**
+     * Entry counts of the runs in the directory, tombstones included, from
+     * the oldest run to the newest.
+     */
+    private List<Long> runCounts() throws IOException {
+        List<Long> counts = new ArrayList<>();
+        for (String name : runFiles()) {
+            SortedRun<Long, Long> run = SortedRun.open(dir.resolve(name), Codec.longs(), Codec.longs());
+            counts.add(run.count());
+            run.close(false);
+        }
+        return counts;
+    }
+
+    private static void insertAll(LSMTree<Long, Long> tree, Map<Long, Long> expected, long from, long to) {
+        for (long key = from; key < to; key++) {
+            tree.insertNode(key, key * 10);
+            expected.put(key, key * 10);
+        }
+    }
+
+    @Test
+    void reopensFromManifestAndLogs() throws IOException {
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        SplittableRandom random = new SplittableRandom(1);
+        for (int round = 0; round < 5; round++) {
+            try (LSMTree<Long, Long> tree = open(200, 3)) {
+                assertContent(expected, tree);
+                for (int i = 0; i < 3000; i++) {
+                    long key = random.nextInt(2000);
+                    switch (random.nextInt(3)) {
+                        case 0:
+                            assertEquals(expected.remove(key) != null, tree.removeNode(key));
+                            break;
+                        case 1:
+                            assertEquals(expected.get(key), tree.getValueByKey(key));
+                            break;
+                        default:
+                            tree.insertNode(key, (long) i);
+                            expected.put(key, (long) i);
+                    }
+                }
+            }
+        }
+        try (LSMTree<Long, Long> tree = open(200, 3)) {
+            tree.flush();
+            assertContent(expected, tree);
+            assertTrue(tree.runCount() <= 3);
+            assertEquals(tree.runCount(), runFiles().size());
+        }
+    }
+
+    /**
+     * Files a crash can leave behind: a run that a merge wrote but the
+     * MANIFEST does not list, and unfinished .tmp files. Recovery goes by
+     * the MANIFEST and deletes them.
+     */
+    @Test
+    void filesOutsideTheManifestAreDeleted() throws IOException {
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        try (LSMTree<Long, Long> tree = open(100, 8)) {
+            insertAll(tree, expected, 0, 350);
+            tree.flush();
+        }
+        TreeSet<String> runs = runFiles();
+        Files.copy(dir.resolve(runs.first()), dir.resolve("run-999.sst"));
+        Files.write(dir.resolve("run-1000.sst.tmp"), new byte[]{1, 2, 3});
+        Files.write(dir.resolve("MANIFEST.tmp"), new byte[]{1, 2, 3});
+        try (LSMTree<Long, Long> tree = open(100, 8)) {
+            assertContent(expected, tree);
+        }
+        assertEquals(runs, runFiles());
+        assertFalse(Files.exists(dir.resolve("run-1000.sst.tmp")));
+        assertFalse(Files.exists(dir.resolve("MANIFEST.tmp")));
+    }
+
+    @Test
+    void corruptedManifestIsRejected() throws IOException {
+        try (LSMTree<Long, Long> tree = open(100, 8)) {
+            insertAll(tree, new TreeMap<>(), 0, 150);
+            tree.flush();
+        }
+        Path manifest = dir.resolve("MANIFEST");
+        byte[] b = Files.readAllBytes(manifest);
+        b[12] ^= 0x01;
+        Files.write(manifest, b);
+        assertThrows(StreamCorruptedException.class, () -> open(100, 8));
+    }
+
+    @Test
+    void tombstonesShadowOlderRuns() throws IOException {
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        try (LSMTree<Long, Long> tree = open(1 << 16, 8)) {
+            insertAll(tree, expected, 0, 100);
+            tree.flush();
+            for (long key = 0; key < 100; key += 2) {
+                assertTrue(tree.removeNode(key));
+                expected.remove(key);
+            }
+            tree.flush();
+            assertEquals(2, tree.runCount());
+            for (long key = 0; key < 100; key += 2) {
+                assertNull(tree.getValueByKey(key));
+                assertFalse(tree.containsKey(key));
+                assertFalse(tree.removeNode(key));
+            }
+            assertContent(expected, tree);
+        }
+        assertEquals(List.of(100L, 50L), runCounts());
+        try (LSMTree<Long, Long> tree = open(1 << 16, 8)) {
+            assertContent(expected, tree);
+            assertNull(tree.getValueByKey(0L));
+        }
+    }
+
+    /**
+     * Runs from the newest to the oldest hold 500, 11, 10 and 1000 entries,
+     * so the two in the middle are the smallest adjacent pair. The 11 include
+     * a tombstone for a key of the oldest run, which the merge must keep
+     * because the oldest run takes no part in it; the final merge into one
+     * run drops it.
+     */
+    @Test
+    void mergesSmallestAdjacentPair() throws IOException {
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        try (LSMTree<Long, Long> tree = open(1 << 16, 8)) {
+            insertAll(tree, expected, 0, 1000);
+            tree.flush();
+            insertAll(tree, expected, 1000, 1010);
+            tree.flush();
+            insertAll(tree, expected, 2000, 2010);
+            assertTrue(tree.removeNode(0L));
+            expected.remove(0L);
+            tree.flush();
+            insertAll(tree, expected, 3000, 3500);
+            tree.flush();
+        }
+        assertEquals(List.of(1000L, 10L, 11L, 500L), runCounts());
+        try (LSMTree<Long, Long> tree = open(1 << 16, 3)) {
+            tree.flush();
+            assertEquals(3, tree.runCount());
+            assertNull(tree.getValueByKey(0L));
+            assertContent(expected, tree);
+        }
+        assertEquals(List.of(1000L, 500L, 21L), runCounts());
+        try (LSMTree<Long, Long> tree = open(1 << 16, 1)) {
+            tree.flush();
+            assertEquals(1, tree.runCount());
+            assertNull(tree.getValueByKey(0L));
+            assertContent(expected, tree);
+        }
+        assertEquals(List.of((long) expected.size()), runCounts());
+    }
+
+    /**
+     * A merge replaces the runs an iterator reads; their files stay until
+     * the iterator is exhausted, and it still sees the tree as it was.
+     */
+    @Test
+    void mergedRunsStayUntilIteratorReleasesThem() throws IOException {
+        TreeMap<Long, Long> before = new TreeMap<>();
+        try (LSMTree<Long, Long> tree = open(1 << 16, 1)) {
+            insertAll(tree, before, 0, 100);
+            tree.flush();
+            TreeSet<String> old = runFiles();
+            assertEquals(1, old.size());
+            Iterator<Map.Entry<Long, Long>> it = tree.iterator();
+            TreeMap<Long, Long> after = new TreeMap<>(before);
+            insertAll(tree, after, 100, 200);
+            tree.flush();
+            assertEquals(1, tree.runCount());
+            assertEquals(2, runFiles().size());
+            assertTrue(runFiles().containsAll(old));
+            for (Map.Entry<Long, Long> e : before.entrySet()) {
+                assertTrue(it.hasNext());
+                assertEquals(e.getKey(), it.next().getKey());
+            }
+            assertFalse(it.hasNext());
+            TreeSet<String> left = runFiles();
+            assertEquals(1, left.size());
+            assertFalse(left.containsAll(old));
+            assertContent(after, tree);
+        }
+    }
+}
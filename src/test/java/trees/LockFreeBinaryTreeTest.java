@@ -0,0 +1,196 @@
+package trees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Sequential check against TreeMap and multi-threaded stress of the
+ * flag/mark helping protocol. On few cores the threads still interleave at
+ * preemption points; more cores only make the races more frequent.
+ */
+class LockFreeBinaryTreeTest {
+
+    private static final int THREADS = 4;
+
+    @Test
+    void matchesTreeMapSequentially() {
+        LockFreeBinaryTree<Integer, Integer> tree = new LockFreeBinaryTree<>();
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        SplittableRandom random = new SplittableRandom(1);
+        for (int i = 0; i < 200000; i++) {
+            int key = random.nextInt(1000);
+            switch (random.nextInt(3)) {
+                case 0:
+                    tree.insertNode(key, i);
+                    expected.put(key, i);
+                    break;
+                case 1:
+                    assertEquals(expected.remove(key) != null, tree.removeNode(key));
+                    break;
+                default:
+                    assertEquals(expected.get(key), tree.getValueByKey(key));
+            }
+        }
+        for (int key = 0; key < 1000; key++) {
+            assertEquals(expected.get(key), tree.getValueByKey(key));
+        }
+    }
+
+    /**
+     * Every writer owns the keys congruent to its index and knows what they
+     * must hold at the end. Values are key * 1000 + writer, so a reader
+     * detects a pair that no writer ever stored.
+     */
+    @Test
+    void disjointWritersWithConcurrentReader() throws Exception {
+        int keys = 4096;
+        for (int round = 0; round < 20; round++) {
+            LockFreeBinaryTree<Integer, Integer> tree = new LockFreeBinaryTree<>();
+            List<TreeMap<Integer, Integer>> owned = new ArrayList<>();
+            List<Callable<Void>> tasks = new ArrayList<>();
+            AtomicBoolean done = new AtomicBoolean();
+            AtomicInteger torn = new AtomicInteger();
+            CyclicBarrier start = new CyclicBarrier(THREADS + 1);
+            for (int t = 0; t < THREADS; t++) {
+                int writer = t;
+                TreeMap<Integer, Integer> expected = new TreeMap<>();
+                owned.add(expected);
+                SplittableRandom random = new SplittableRandom(round * THREADS + t);
+                tasks.add(() -> {
+                    start.await();
+                    for (int i = 0; i < 50000; i++) {
+                        int key = random.nextInt(keys / THREADS) * THREADS + writer;
+                        if (random.nextInt(3) == 0) {
+                            assertEquals(expected.remove(key) != null, tree.removeNode(key));
+                        } else {
+                            tree.insertNode(key, key * 1000 + writer);
+                            expected.put(key, key * 1000 + writer);
+                        }
+                    }
+                    return null;
+                });
+            }
+            SplittableRandom readerRandom = new SplittableRandom(round);
+            tasks.add(() -> {
+                start.await();
+                SplittableRandom random = readerRandom;
+                while (!done.get()) {
+                    int key = random.nextInt(keys);
+                    Map.Entry<Integer, Integer> e = tree.searchNode(key);
+                    if (e != null && (e.getKey() != key || e.getValue() != key * 1000 + key % THREADS)) {
+                        torn.incrementAndGet();
+                    }
+                }
+                return null;
+            });
+            runAll(tasks.subList(0, THREADS), tasks.get(THREADS), done);
+            assertEquals(0, torn.get());
+            for (int key = 0; key < keys; key++) {
+                assertEquals(owned.get(key % THREADS).get(key), tree.getValueByKey(key));
+            }
+        }
+    }
+
+    /**
+     * All threads insert the same keys and then all remove them, so every
+     * flag and mark is contended. Each key must be removed exactly once.
+     */
+    @Test
+    void contendedInsertThenRemove() throws Exception {
+        int keys = 2000;
+        for (int round = 0; round < 20; round++) {
+            LockFreeBinaryTree<Integer, Integer> tree = new LockFreeBinaryTree<>();
+            AtomicInteger[] removals = new AtomicInteger[keys];
+            for (int key = 0; key < keys; key++) {
+                removals[key] = new AtomicInteger();
+            }
+            CyclicBarrier phase = new CyclicBarrier(THREADS);
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                SplittableRandom random = new SplittableRandom(round * THREADS + t);
+                tasks.add(() -> {
+                    int[] order = shuffled(keys, random);
+                    phase.await();
+                    for (int key : order) {
+                        tree.insertNode(key, key);
+                    }
+                    phase.await();
+                    for (int key = 0; key < keys; key++) {
+                        assertEquals(key, tree.getValueByKey(key));
+                    }
+                    phase.await();
+                    for (int key : shuffled(keys, random)) {
+                        if (tree.removeNode(key)) {
+                            removals[key].incrementAndGet();
+                        }
+                    }
+                    return null;
+                });
+            }
+            runAll(tasks, null, new AtomicBoolean());
+            for (int key = 0; key < keys; key++) {
+                assertEquals(1, removals[key].get(), "removals of " + key);
+                assertNull(tree.searchNode(key));
+                assertFalse(tree.removeNode(key));
+            }
+        }
+    }
+
+    private static int[] shuffled(int n, SplittableRandom random) {
+        int[] a = new int[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = i;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+        return a;
+    }
+
+    /**
+     * Runs the writers and an optional reader that stops once done is set,
+     * and rethrows the first failure. A writer stuck in a retry loop shows
+     * up as a timeout.
+     */
+    private static void runAll(List<Callable<Void>> writers, Callable<Void> reader, AtomicBoolean done)
+            throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(writers.size() + 1);
+        try {
+            Future<Void> r = reader == null ? null : pool.submit(reader);
+            List<Future<Void>> futures = new ArrayList<>();
+            for (Callable<Void> w : writers) {
+                futures.add(pool.submit(w));
+            }
+            for (Future<Void> f : futures) {
+                f.get(60, TimeUnit.SECONDS);
+            }
+            done.set(true);
+            if (r != null) {
+                r.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            done.set(true);
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package trees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * MappedBPlusTree against a TreeMap across reopens, and the states a crash
+ * can leave in the file: pages written after the last commit, and a torn
+ * meta page. A crash is simulated by copying the file while the tree is
+ * open; the mapping is shared, so the copy holds every page written so far.
+ */
+class MappedBPlusTreeTest {
+
+    /**
+     * Offsets of the generation and the root page in a meta page; meta page
+     * i starts at page i.
+     */
+    private static final int META_GENERATION = 24, META_ROOT = 32;
+
+    @TempDir
+    Path dir;
+
+    private MappedBPlusTree<Long, Long> open(String name) throws IOException {
+        return new MappedBPlusTree<>(dir.resolve(name), Codec.longs(), Codec.longs());
+    }
+
+    private static void assertContent(Map<Long, Long> expected, MappedBPlusTree<Long, Long> tree) {
+        assertEquals(expected.size(), tree.size());
+        Iterator<Map.Entry<Long, Long>> it = tree.iterator();
+        for (Map.Entry<Long, Long> e : expected.entrySet()) {
+            assertTrue(it.hasNext());
+            Map.Entry<Long, Long> actual = it.next();
+            assertEquals(e.getKey(), actual.getKey());
+            assertEquals(e.getValue(), actual.getValue());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Random inserts and removes of keys below 20000, which rewrite pages of
+     * the last commit.
+     */
+    private static void change(MappedBPlusTree<Long, Long> tree, TreeMap<Long, Long> expected, SplittableRandom random,
+            int n) {
+        for (int i = 0; i < n; i++) {
+            long key = random.nextInt(20000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) != null, tree.removeNode(key));
+            } else {
+                long value = random.nextLong();
+                tree.insertNode(key, value);
+                expected.put(key, value);
+            }
+        }
+    }
+
+    @Test
+    void reopensWithCommittedContent() throws IOException {
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        SplittableRandom random = new SplittableRandom(1);
+        for (int round = 0; round < 5; round++) {
+            try (MappedBPlusTree<Long, Long> tree = open("tree")) {
+                assertContent(expected, tree);
+                change(tree, expected, random, 20000);
+                long from = random.nextInt(20000), to = from + random.nextInt(5000);
+                Iterator<Map.Entry<Long, Long>> it = tree.range(from, to);
+                for (Map.Entry<Long, Long> e : expected.subMap(from, to).entrySet()) {
+                    assertEquals(e.getKey(), it.next().getKey());
+                }
+                assertFalse(it.hasNext());
+            }
+        }
+    }
+
+    /**
+     * Copies of the file taken after changes that were not committed open
+     * with the content of the last commit, however many pages were written
+     * since.
+     */
+    @Test
+    void uncommittedChangesAreLostOnCrash() throws IOException {
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        SplittableRandom random = new SplittableRandom(2);
+        try (MappedBPlusTree<Long, Long> tree = open("tree")) {
+            for (int round = 0; round < 5; round++) {
+                change(tree, expected, random, 10000);
+                tree.commit();
+                TreeMap<Long, Long> committed = new TreeMap<>(expected);
+                change(tree, expected, random, 1 + random.nextInt(10000));
+                Path crash = Files.copy(dir.resolve("tree"), dir.resolve("crash-" + round));
+                try (MappedBPlusTree<Long, Long> recovered = open(crash.getFileName().toString())) {
+                    assertContent(committed, recovered);
+                    change(recovered, committed, random, 1000);
+                    assertContent(committed, recovered);
+                }
+                assertContent(expected, tree);
+            }
+        }
+        try (MappedBPlusTree<Long, Long> tree = open("tree")) {
+            assertContent(expected, tree);
+        }
+    }
+
+    /**
+     * A crash while the newest meta page is written leaves it torn; open
+     * then falls back to the other meta page and the commit before.
+     */
+    @Test
+    void tornMetaPageFallsBackToPreviousCommit() throws IOException {
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        SplittableRandom random = new SplittableRandom(3);
+        TreeMap<Long, Long> previous;
+        try (MappedBPlusTree<Long, Long> tree = open("tree")) {
+            change(tree, expected, random, 20000);
+            tree.commit();
+            previous = new TreeMap<>(expected);
+            change(tree, expected, random, 20000);
+        }
+        try (RandomAccessFile f = new RandomAccessFile(dir.resolve("tree").toFile(), "rw")) {
+            f.seek(META_GENERATION);
+            long g0 = f.readLong();
+            f.seek(MappedBPlusTree.PAGE_SIZE + META_GENERATION);
+            long g1 = f.readLong();
+            long root = (g0 > g1 ? 0 : MappedBPlusTree.PAGE_SIZE) + META_ROOT;
+            f.seek(root);
+            int b = f.read();
+            f.seek(root);
+            f.write(b ^ 0x01);
+        }
+        try (MappedBPlusTree<Long, Long> tree = open("tree")) {
+            assertContent(previous, tree);
+            change(tree, previous, random, 5000);
+        }
+        try (MappedBPlusTree<Long, Long> tree = open("tree")) {
+            assertContent(previous, tree);
+        }
+
+        try (RandomAccessFile f = new RandomAccessFile(dir.resolve("tree").toFile(), "rw")) {
+            for (int slot = 0; slot < 2; slot++) {
+                f.seek((long) slot * MappedBPlusTree.PAGE_SIZE);
+                f.writeInt(0);
+            }
+        }
+        assertThrows(IOException.class, () -> open("tree"));
+    }
+
+    /**
+     * Pages freed before a reopen are found again by the walk on open, so
+     * the file does not grow when the tree grows back to its old size.
+     */
+    @Test
+    void freePagesAreRebuiltOnOpen() throws IOException {
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        long pages;
+        try (MappedBPlusTree<Long, Long> tree = open("tree")) {
+            for (long key = 0; key < 50000; key++) {
+                tree.insertNode(key, key);
+                expected.put(key, key);
+            }
+        }
+        try (MappedBPlusTree<Long, Long> tree = open("tree")) {
+            for (long key = 0; key < 50000; key++) {
+                if (key % 100 != 0) {
+                    assertTrue(tree.removeNode(key));
+                    expected.remove(key);
+                }
+            }
+            tree.commit();
+            pages = tree.pageCount();
+        }
+        try (MappedBPlusTree<Long, Long> tree = open("tree")) {
+            for (long key = 100000; key < 150000; key++) {
+                tree.insertNode(key, -key);
+                expected.put(key, -key);
+            }
+            assertContent(expected, tree);
+            assertTrue(tree.pageCount() <= pages + pages / 10, tree.pageCount() + " pages, was " + pages);
+        }
+        try (MappedBPlusTree<Long, Long> tree = open("tree")) {
+            assertContent(expected, tree);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package trees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Scans of PersistentRBTree versions against TreeMap, and the stability of
+ * a version while the tree it came from keeps changing.
+ */
+class PersistentRBTreeTest {
+
+    private static void assertScan(Map<Integer, Integer> expected, Iterator<Map.Entry<Integer, Integer>> it) {
+        for (Map.Entry<Integer, Integer> e : expected.entrySet()) {
+            assertTrue(it.hasNext());
+            Map.Entry<Integer, Integer> actual = it.next();
+            assertEquals(e.getKey(), actual.getKey());
+            assertEquals(e.getValue(), actual.getValue());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    @Test
+    void scansMatchTreeMap() {
+        PersistentRBTree<Integer, Integer> tree = new PersistentRBTree<>();
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        SplittableRandom random = new SplittableRandom(1);
+        for (int i = 0; i < 20000; i++) {
+            int key = random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) != null, tree.removeNode(key));
+            } else {
+                tree.insertNode(key, i);
+                expected.put(key, i);
+            }
+            if (i % 1000 == 0) {
+                int from = random.nextInt(2100) - 50, to = from + random.nextInt(500);
+                assertScan(expected, tree.iterator());
+                assertScan(expected.subMap(from, to), tree.range(from, to));
+                assertScan(expected.tailMap(from), tree.tailFrom(from));
+            }
+        }
+        assertScan(expected, tree.iterator());
+        assertScan(Map.of(), new PersistentRBTree<Integer, Integer>().iterator());
+    }
+
+    /**
+     * A snapshot and a scan that was started before the changes both keep
+     * showing the old version through inserts, removes and batches.
+     */
+    @Test
+    void snapshotScanIsUnaffectedByLaterWrites() {
+        PersistentRBTree<Integer, Integer> tree = new PersistentRBTree<>();
+        TreeMap<Integer, Integer> before = new TreeMap<>();
+        for (int key = 0; key < 1000; key++) {
+            tree.insertNodeInRBTree(key, key);
+            before.put(key, key);
+        }
+        PersistentRBTree<Integer, Integer> snapshot = tree.snapshot();
+        Iterator<Map.Entry<Integer, Integer>> started = tree.iterator();
+        for (int i = 0; i < 100; i++) {
+            started.next();
+        }
+        for (int key = 1; key < 1000; key += 3) {
+            tree.insertNodeInRBTree(key, -key);
+        }
+        for (int key = 0; key < 1000; key += 3) {
+            tree.removeNodeFromRBTree(key);
+        }
+        PersistentRBTree<Integer, Integer>.Batch batch = tree.batch();
+        for (int key = 500; key < 2000; key++) {
+            batch.insertNodeInRBTree(key, 2 * key);
+        }
+        for (int key = 0; key < 500; key += 2) {
+            batch.removeNodeFromRBTree(key);
+        }
+        batch.commit();
+        assertEquals(1000, snapshot.size());
+        assertScan(before, snapshot.iterator());
+        assertScan(before.subMap(250, 750), snapshot.range(250, 750));
+        assertScan(before.tailMap(900), snapshot.tailFrom(900));
+        assertScan(before.tailMap(100), started);
+        Map.Entry<Integer, Integer> e = snapshot.iterator().next();
+        assertThrows(UnsupportedOperationException.class, () -> e.setValue(1));
+    }
+
+    /**
+     * A write to the tree or a commit of another batch while a batch is open
+     * makes the commit fail instead of overwriting that change.
+     */
+    @Test
+    void commitFailsIfTheTreeChanged() {
+        PersistentRBTree<Integer, Integer> tree = new PersistentRBTree<>();
+        tree.insertNodeInRBTree(1, 1);
+        PersistentRBTree<Integer, Integer>.Batch batch = tree.batch();
+        batch.insertNodeInRBTree(2, 2);
+        tree.insertNodeInRBTree(3, 3);
+        assertThrows(IllegalStateException.class, batch::commit);
+        assertThrows(IllegalStateException.class, () -> batch.insertNodeInRBTree(4, 4));
+        assertScan(new TreeMap<>(Map.of(1, 1, 3, 3)), tree.iterator());
+
+        PersistentRBTree<Integer, Integer>.Batch first = tree.batch(), second = tree.batch();
+        first.removeNodeFromRBTree(1);
+        second.insertNodeInRBTree(5, 5);
+        first.commit();
+        assertThrows(IllegalStateException.class, second::commit);
+        assertScan(new TreeMap<>(Map.of(3, 3)), tree.iterator());
+
+        PersistentRBTree<Integer, Integer>.Batch ok = tree.batch();
+        ok.insertNodeInRBTree(6, 6);
+        ok.commit();
+        assertScan(new TreeMap<>(Map.of(3, 3, 6, 6)), tree.iterator());
+    }
+
+    /**
+     * One thread writes while another scans snapshots: every scan must be
+     * sorted and hold as many entries as its version has.
+     */
+    @Test
+    void scansDuringConcurrentWrites() throws Exception {
+        PersistentRBTree<Integer, Integer> tree = new PersistentRBTree<>();
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> reader = pool.submit(() -> {
+                int scans = 0;
+                while (!done.get() || scans == 0) {
+                    PersistentRBTree<Integer, Integer> snapshot = tree.snapshot();
+                    int count = 0, last = Integer.MIN_VALUE;
+                    for (Map.Entry<Integer, Integer> e : snapshot) {
+                        assertTrue(e.getKey() > last);
+                        assertEquals(e.getKey() * 7, e.getValue());
+                        last = e.getKey();
+                        count++;
+                    }
+                    assertEquals(snapshot.size(), count);
+                    scans++;
+                }
+            });
+            SplittableRandom random = new SplittableRandom(3);
+            for (int i = 0; i < 200000; i++) {
+                int key = random.nextInt(5000);
+                if (random.nextInt(3) == 0) {
+                    tree.removeNodeFromRBTree(key);
+                } else {
+                    tree.insertNodeInRBTree(key, key * 7);
+                }
+                if (i % 20000 == 0) {
+                    PersistentRBTree<Integer, Integer>.Batch batch = tree.batch();
+                    for (int k = 0; k < 1000; k++) {
+                        batch.insertNodeInRBTree(k, k * 7);
+                    }
+                    batch.commit();
+                }
+            }
+            done.set(true);
+            reader.get(60, TimeUnit.SECONDS);
+        } finally {
+            done.set(true);
+            pool.shutdownNow();
+        }
+    }
+}
@@ -4,40 +4,360 @@ package trees;
  * Created by Никита on 09.09.2016.
  */
 
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 import static java.lang.Math.abs;
 
-public class AVLTree<T1 extends Comparable<T1>, T2> {
+public class AVLTree<T1 extends Comparable<T1>, T2> implements SortedStore<T1, T2> {
+
+    /**
+     * The nil leaf shared by all trees. No code writes to it, so subtrees can
+     * move from one tree to another without relinking their leaves.
+     */
+    private static final Node<?, ?> NIL = new Node<>(null, null, null);
 
-    Node<T1, T2> nil = new Node<>(null, null);
+    @SuppressWarnings("unchecked")
+    final Node<T1, T2> nil = (Node<T1, T2>) NIL;
     Node<T1, T2> root = nil;
+    /**
+     * Node of the last insert and its successor in key order, or nil: a key
+     * that falls between the two is attached next to them without a descent
+     * from the root. Inserts keep the two adjacent; removing either of them
+     * and the bulk operations reset the finger.
+     */
+    private Node<T1, T2> finger = nil, fingerSuccessor = nil;
+    /**
+     * True while every insert lands right after the one before, as with
+     * increasing keys; only then is the finger tried first.
+     */
+    private boolean sequential;
+    /**
+     * Monoid the values are aggregated with, or null.
+     */
+    private final Monoid<T2> monoid;
+    /**
+     * Counters of this tree, null unless {@link TreeMetrics#ENABLED}.
+     */
+    private final TreeMetrics metrics = TreeMetrics.ENABLED ? new TreeMetrics("AVLTree") : null;
+
+    public AVLTree() {
+        this(null);
+    }
 
-    static class Node<T1, T2> {
+    /**
+     * Creates a tree that keeps in every node the aggregate of the values of
+     * its subtree, for {@link #aggregate(Comparable, Comparable)}. setValue on
+     * an entry updates the aggregates on the path to the root.
+     *
+     * @param monoid operation the values are combined with, or null for a
+     *               tree without aggregates
+     */
+    public AVLTree(Monoid<T2> monoid) {
+        this.monoid = monoid;
+    }
+
+    static class Node<T1, T2> extends TreeEntry<T1, T2> {
 
-        T1 key;
-        T2 value;
         Node<T1, T2> parent, left, right;
         int balanceFactor;
+        /**
+         * Number of nodes in the subtree of this node, 0 for nil.
+         */
+        int size;
+        /**
+         * Values of the subtree combined under the monoid of the tree, null
+         * if the tree has none.
+         */
+        T2 aggregate;
+        /**
+         * Monoid of the tree the node was created in, null if it has none.
+         */
+        final Monoid<T2> monoid;
 
-        private Node(T1 key, T2 value) {
-            this.key = key;
-            this.value = value;
+        private Node(T1 key, T2 value, Monoid<T2> monoid) {
+            super(key, value);
             this.balanceFactor = 0;
+            this.monoid = monoid;
+        }
+
+        /**
+         * Recomputes the aggregate from the children, whose aggregates must
+         * be up to date.
+         */
+        void updateAggregate() {
+            T2 a = value;
+            if (left != NIL) {
+                a = monoid.combine(left.aggregate, a);
+            }
+            if (right != NIL) {
+                a = monoid.combine(a, right.aggregate);
+            }
+            aggregate = a;
+        }
+
+        /**
+         * Writes through to the tree and recomputes the aggregates from this
+         * node up to the root.
+         */
+        @Override
+        public T2 setValue(T2 value) {
+            T2 old = super.setValue(value);
+            if (monoid != null) {
+                for (Node<T1, T2> x = this; x != NIL; x = x.parent) {
+                    x.updateAggregate();
+                }
+            }
+            return old;
         }
 
     }
 
+    /**
+     * compareTo of two keys, counted when metrics are on.
+     */
+    private int compare(T1 a, T1 b) {
+        if (TreeMetrics.ENABLED) {
+            metrics.comparison();
+        }
+        return a.compareTo(b);
+    }
+
     private Node<T1, T2> getNodeByKey(T1 key) {
         Node<T1, T2> x = root;
+        int length = 0;
         while (x != nil) {
-            if (key.compareTo(x.key) == 0) {
-                return x;
-            } else if (key.compareTo(x.key) > 0) {
+            length++;
+            if (compare(key, x.key) == 0) {
+                break;
+            } else if (compare(key, x.key) > 0) {
                 x = x.right;
             } else {
                 x = x.left;
             }
         }
-        return nil;
+        if (TreeMetrics.ENABLED) {
+            metrics.path(length);
+        }
+        return x;
+    }
+
+    @Override
+    public T2 getValueByKey(T1 key) {
+        if (TreeMetrics.ENABLED) {
+            TreeOperationEvent event = metrics.begin();
+            T2 value = getNodeByKey(key).value;
+            metrics.end(event, TreeMetrics.Operation.SEARCH, key);
+            return value;
+        }
+        return getNodeByKey(key).value;
+    }
+
+    /**
+     * Time complexity: O(1)
+     */
+    public int size() {
+        return root.size;
+    }
+
+    /**
+     * Returns the number of nodes on the longest path from the root.
+     *
+     * Time complexity: O(logn)
+     */
+    public int height() {
+        return height(root);
+    }
+
+    /**
+     * Returns the number of nodes at each depth, the root being at depth 0.
+     * The length of the array is the height of the tree.
+     *
+     * Time complexity: O(n)
+     */
+    public int[] depthHistogram() {
+        int[] histogram = new int[0];
+        ArrayDeque<Node<T1, T2>> level = new ArrayDeque<>();
+        if (root != nil) {
+            level.add(root);
+        }
+        for (int depth = 0; !level.isEmpty(); depth++) {
+            int n = level.size();
+            histogram = Arrays.copyOf(histogram, depth + 1);
+            histogram[depth] = n;
+            for (int i = 0; i < n; i++) {
+                Node<T1, T2> x = level.poll();
+                if (x.left != nil) {
+                    level.add(x.left);
+                }
+                if (x.right != nil) {
+                    level.add(x.right);
+                }
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns the counters of this tree, or null unless the JVM runs with
+     * -Dtrees.metrics=true.
+     */
+    public TreeMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the number of keys less than the input key.
+     *
+     * Time complexity: O(logn)
+     */
+    public int rank(T1 key) {
+        int r = 0;
+        Node<T1, T2> x = root;
+        while (x != nil) {
+            if (compare(key, x.key) <= 0) {
+                x = x.left;
+            } else {
+                r += x.left.size + 1;
+                x = x.right;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Returns the number of keys not greater than the input key.
+     *
+     * Time complexity: O(logn)
+     */
+    private int rankInclusive(T1 key) {
+        int r = 0;
+        Node<T1, T2> x = root;
+        while (x != nil) {
+            if (compare(key, x.key) < 0) {
+                x = x.left;
+            } else {
+                r += x.left.size + 1;
+                x = x.right;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Returns the entry with the k-th smallest key, counting from 0.
+     *
+     * Time complexity: O(logn)
+     */
+    public Map.Entry<T1, T2> select(int k) {
+        if (k < 0 || k >= root.size) {
+            throw new IndexOutOfBoundsException("k: " + k + ", size: " + root.size);
+        }
+        Node<T1, T2> x = root;
+        while (k != x.left.size) {
+            if (k < x.left.size) {
+                x = x.left;
+            } else {
+                k -= x.left.size + 1;
+                x = x.right;
+            }
+        }
+        return x;
+    }
+
+    /**
+     * Returns the number of keys k with lo <= k <= hi.
+     *
+     * Time complexity: O(logn)
+     */
+    public int countRange(T1 lo, T1 hi) {
+        if (compare(lo, hi) > 0) {
+            return 0;
+        }
+        return rankInclusive(hi) - rank(lo);
+    }
+
+    /**
+     * Returns the values of all keys combined in ascending key order.
+     *
+     * Time complexity: O(1)
+     *
+     * @throws IllegalStateException if the tree was created without a monoid
+     */
+    public T2 aggregate() {
+        checkAggregates();
+        return root == nil ? monoid.identity() : root.aggregate;
+    }
+
+    /**
+     * Returns the values of the keys k with lo <= k <= hi combined in
+     * ascending key order, or the identity if there are no such keys.
+     *
+     * Time complexity: O(logn)
+     *
+     * @throws IllegalStateException if the tree was created without a monoid
+     */
+    public T2 aggregate(T1 lo, T1 hi) {
+        checkAggregates();
+        T2 left = monoid.identity(), right = monoid.identity();
+        if (compare(lo, hi) > 0) {
+            return left;
+        }
+        Node<T1, T2> x = root;
+        while (x != nil) {
+            if (compare(x.key, lo) < 0) {
+                x = x.right;
+            } else if (compare(x.key, hi) > 0) {
+                x = x.left;
+            } else {
+                break;
+            }
+        }
+        if (x == nil) {
+            return left;
+        }
+        for (Node<T1, T2> y = x.left; y != nil; ) {
+            if (compare(y.key, lo) >= 0) {
+                T2 a = y.right == nil ? y.value : monoid.combine(y.value, y.right.aggregate);
+                left = monoid.combine(a, left);
+                y = y.left;
+            } else {
+                y = y.right;
+            }
+        }
+        for (Node<T1, T2> y = x.right; y != nil; ) {
+            if (compare(y.key, hi) <= 0) {
+                T2 a = y.left == nil ? y.value : monoid.combine(y.left.aggregate, y.value);
+                right = monoid.combine(right, a);
+                y = y.right;
+            } else {
+                y = y.left;
+            }
+        }
+        return monoid.combine(monoid.combine(left, x.value), right);
+    }
+
+    private void checkAggregates() {
+        if (monoid == null) {
+            throw new IllegalStateException("the tree was created without a monoid");
+        }
     }
 
     private Node<T1, T2> getNodeWithMinimumKey(Node<T1, T2> root) {
@@ -52,40 +372,125 @@ public class AVLTree<T1 extends Comparable<T1>, T2> {
     }
 
     public boolean insertNodeInAVLTree(T1 key, T2 value) {
-        Node<T1, T2> x = root, y = nil;
+        if (TreeMetrics.ENABLED) {
+            TreeOperationEvent event = metrics.begin();
+            boolean result = insert(key, value);
+            metrics.end(event, TreeMetrics.Operation.INSERT, key);
+            return result;
+        }
+        return insert(key, value);
+    }
+
+    private boolean insert(T1 key, T2 value) {
+        if (sequential) {
+            if (insertAtFinger(key, value)) {
+                return true;
+            }
+            sequential = false;
+        }
+        Node<T1, T2> x = root, y = nil, successor = nil;
+        int length = 0;
         while (x != nil) {
             y = x;
-            if (key.compareTo(x.key) == 0) {
-                x.value = value;
-                return true;
-            } else if (key.compareTo(x.key) > 0) {
+            length++;
+            if (compare(key, x.key) == 0) {
+                break;
+            } else if (compare(key, x.key) > 0) {
                 x = x.right;
             } else {
+                successor = x;
                 x = x.left;
             }
         }
-        Node<T1, T2> z = new Node<>(key, value);
+        if (TreeMetrics.ENABLED) {
+            metrics.path(length);
+        }
+        if (x != nil) {
+            x.value = value;
+            updateAggregates(x);
+            return true;
+        }
+        Node<T1, T2> z = new Node<>(key, value, monoid);
         z.parent = y;
         if (y == nil) {
             root = z;
-        } else if (key.compareTo(y.key) > 0) {
+        } else if (compare(key, y.key) > 0) {
             y.right = z;
+            sequential = y == finger;
         } else {
             y.left = z;
+            sequential = y == fingerSuccessor && finger != nil;
         }
+        finger = z;
+        fingerSuccessor = successor;
         z.left = nil;
         z.right = nil;
+        z.size = 1;
+        for (; y != nil; y = y.parent) {
+            y.size++;
+        }
+        updateAggregates(z);
         return balanceForInsertingNode(z);
     }
 
-    private boolean rotating(Node<T1, T2> z) {
-        Node<T1, T2> y = z.parent;
-        if (y.balanceFactor > 0) {
-            z = y.right;
+    /**
+     * Inserts the pair next to the finger if its key falls between the
+     * finger and the successor of the finger. For increasing keys that is
+     * always the case: the finger is the maximum and has no successor. The
+     * key is compared with these two nodes only; the new node hangs to the
+     * right of the finger or, if that place is taken, to the left of the
+     * successor.
+     *
+     * Time complexity: O(logn) for the subtree sizes, with at most two key
+     * comparisons
+     *
+     * @return false if the key does not belong next to the finger
+     */
+    private boolean insertAtFinger(T1 key, T2 value) {
+        Node<T1, T2> f = finger, s = fingerSuccessor;
+        if (f == nil) {
+            return false;
+        }
+        int cmp = compare(key, f.key);
+        if (cmp == 0) {
+            f.value = value;
+            updateAggregates(f);
+            return true;
+        }
+        if (cmp < 0 || s != nil && compare(key, s.key) >= 0) {
+            return false;
+        }
+        Node<T1, T2> z = new Node<>(key, value, monoid);
+        Node<T1, T2> y = f.right == nil ? f : s;
+        z.parent = y;
+        if (y == f) {
+            y.right = z;
         } else {
-            z = y.left;
+            y.left = z;
+        }
+        z.left = nil;
+        z.right = nil;
+        z.size = 1;
+        for (; y != nil; y = y.parent) {
+            y.size++;
         }
+        finger = z;
+        updateAggregates(z);
+        balanceForInsertingNode(z);
+        return true;
+    }
+
+    /**
+     * Restores the balance of a node whose balance factor became +2 or -2
+     * with a single or a double rotation.
+     *
+     * @param y unbalanced node
+     * @return root of the rebalanced subtree
+     */
+    private Node<T1, T2> rotating(Node<T1, T2> y) {
+        Node<T1, T2> z, w;
         if (y.balanceFactor > 0) {
+            z = y.right;
             if (z.balanceFactor > -1) {
                 if (z.balanceFactor == 1) {
                     y.balanceFactor = 0;
@@ -95,24 +500,24 @@ public class AVLTree<T1 extends Comparable<T1>, T2> {
                     z.balanceFactor = -1;
                 }
                 leftRotate(y);
+                return z;
+            }
+            w = z.left;
+            if (w.balanceFactor == 1) {
+                y.balanceFactor = -1;
+                z.balanceFactor = 0;
+            } else if (w.balanceFactor == -1) {
+                y.balanceFactor = 0;
+                z.balanceFactor = 1;
             } else {
-                if (z.left.balanceFactor == -1) {
-                    y.balanceFactor = 0;
-                    z.balanceFactor = 1;
-                    z.balanceFactor = 0;
-                } else if (z.left.balanceFactor == 1) {
-                    y.balanceFactor = -1;
-                    z.balanceFactor = 0;
-                    z.balanceFactor = 0;
-                } else {
-                    y.balanceFactor = 0;
-                    z.balanceFactor = 0;
-                    z.balanceFactor = 0;
-                }
-                rightRotate(z);
-                leftRotate(y);
+                y.balanceFactor = 0;
+                z.balanceFactor = 0;
             }
+            w.balanceFactor = 0;
+            rightRotate(z);
+            leftRotate(y);
         } else {
+            z = y.left;
             if (z.balanceFactor < 1) {
                 if (z.balanceFactor == -1) {
                     y.balanceFactor = 0;
@@ -122,36 +527,34 @@ public class AVLTree<T1 extends Comparable<T1>, T2> {
                     z.balanceFactor = 1;
                 }
                 rightRotate(y);
+                return z;
+            }
+            w = z.right;
+            if (w.balanceFactor == -1) {
+                y.balanceFactor = 1;
+                z.balanceFactor = 0;
+            } else if (w.balanceFactor == 1) {
+                y.balanceFactor = 0;
+                z.balanceFactor = -1;
             } else {
-                if (z.right.balanceFactor == 1) {
-                    y.balanceFactor = 0;
-                    z.balanceFactor = -1;
-                    z.balanceFactor = 0;
-                } else if (z.right.balanceFactor == -1) {
-                    y.balanceFactor = 1;
-                    z.balanceFactor = 0;
-                    z.balanceFactor = 0;
-                } else {
-                    y.balanceFactor = 0;
-                    z.balanceFactor = 0;
-                    z.balanceFactor = 0;
-                }
-                leftRotate(z);
-                rightRotate(y);
+                y.balanceFactor = 0;
+                z.balanceFactor = 0;
             }
+            w.balanceFactor = 0;
+            leftRotate(z);
+            rightRotate(y);
         }
-        z = y.parent;
-        return true;
+        return w;
     }
 
     private boolean balanceForInsertingNode(Node<T1, T2> z) {
-        if (z == root) {
-            return true;
-        }
         Node<T1, T2> y;
         while (z != root) {
+            if (TreeMetrics.ENABLED) {
+                metrics.insertFixup();
+            }
             y = z.parent;
-            if (z.key.compareTo(y.key) > 0) {
+            if (z == y.right) {
                 ++y.balanceFactor;
             } else {
                 --y.balanceFactor;
@@ -160,36 +563,62 @@ public class AVLTree<T1 extends Comparable<T1>, T2> {
                 return true;
             }
             if (abs(y.balanceFactor) > 1) {
-                rotating(z);
-                if (z.balanceFactor == 0) {
-                    return true;
-                }
-            } else {
-                z = z.parent;
+                rotating(y);
+                return true;
             }
+            z = y;
         }
         return true;
     }
 
     public boolean deleteNodeFromAVLTree(T1 key) {
+        if (TreeMetrics.ENABLED) {
+            TreeOperationEvent event = metrics.begin();
+            boolean removed = remove(key);
+            metrics.end(event, TreeMetrics.Operation.REMOVE, key);
+            return removed;
+        }
+        return remove(key);
+    }
+
+    /**
+     * Same as {@link #insertNodeInAVLTree(Comparable, Object)}.
+     */
+    @Override
+    public void insertNode(T1 key, T2 value) {
+        insertNodeInAVLTree(key, value);
+    }
+
+    /**
+     * Same as {@link #deleteNodeFromAVLTree(Comparable)}.
+     */
+    @Override
+    public boolean removeNode(T1 key) {
+        return deleteNodeFromAVLTree(key);
+    }
+
+    private boolean remove(T1 key) {
         Node<T1, T2> z = getNodeByKey(key);
-        Node<T1, T2> y = z, x = null;
-        if (y == nil) {
+        Node<T1, T2> y, p;
+        boolean leftShorter;
+        if (z == nil) {
             return false;
         }
-        if (z.left == nil) {
-            x = z.right;
-            transplant(z, z.right);
-        } else if (z.right == nil) {
-            x = z.left;
-            transplant(z, z.left);
+        if (z == finger || z == fingerSuccessor) {
+            finger = nil;
+        }
+        if (z.left == nil || z.right == nil) {
+            p = z.parent;
+            leftShorter = p != nil && p.left == z;
+            transplant(z, z.left == nil ? z.right : z.left);
         } else {
             y = getNodeWithMinimumKey(z.right);
-            x = y.right;
-            //y.right.parent = x;
             if (y.parent == z) {
-                x.parent = y;
+                p = y;
+                leftShorter = false;
             } else {
+                p = y.parent;
+                leftShorter = true;
                 transplant(y, y.right);
                 y.right = z.right;
                 y.right.parent = y;
@@ -197,32 +626,44 @@ public class AVLTree<T1 extends Comparable<T1>, T2> {
             transplant(z, y);
             y.left = z.left;
             y.left.parent = y;
-            //x.balanceFactor;
+            y.balanceFactor = z.balanceFactor;
+            y.size = z.size;
         }
-        return balanceForDeletingNode(x);
+        for (Node<T1, T2> q = p; q != nil; q = q.parent) {
+            q.size--;
+        }
+        updateAggregates(p);
+        return balanceForDeletingNode(p, leftShorter);
     }
 
-    private boolean balanceForDeletingNode(Node<T1, T2> z) {
-        Node<T1, T2> y;
-        System.out.println(z.key);
-        while (z != root) {
-            y = z.parent;
-            if (z.key.compareTo(y.key) > 0) {
-                --y.balanceFactor;
+    /**
+     * Walks up from the parent of the removed position and restores balance
+     * factors until the height of some subtree stops changing.
+     *
+     * @param p node one of whose subtrees became shorter
+     * @param leftShorter true if it is the left subtree of p
+     */
+    private boolean balanceForDeletingNode(Node<T1, T2> p, boolean leftShorter) {
+        while (p != nil) {
+            if (TreeMetrics.ENABLED) {
+                metrics.deleteFixup();
+            }
+            if (leftShorter) {
+                ++p.balanceFactor;
             } else {
-                ++y.balanceFactor;
+                --p.balanceFactor;
             }
-            if (abs(z.balanceFactor) == 1) {
+            if (abs(p.balanceFactor) == 1) {
                 return true;
             }
-            if (abs(y.balanceFactor) > 1) {
-                rotating(z);
-                if (abs(y.parent.balanceFactor) == 1) {
+            if (abs(p.balanceFactor) > 1) {
+                p = rotating(p);
+                if (p.balanceFactor != 0) {
                     return true;
                 }
-            } else {
-                z = z.parent;
             }
+            leftShorter = p == p.parent.left;
+            p = p.parent;
         }
         return true;
     }
@@ -230,14 +671,14 @@ public class AVLTree<T1 extends Comparable<T1>, T2> {
     public void transplant(Node<T1, T2> u, Node<T1, T2> v) {
         if (u.parent == nil) {
             root = v;
-        }
-        if (u.parent.left == u) {
+        } else if (u.parent.left == u) {
             u.parent.left = v;
         } else {
             u.parent.right = v;
         }
-        v.parent = u.parent;
-
+        if (v != nil) {
+            v.parent = u.parent;
+        }
     }
 
     private void leftRotate(Node<T1, T2> x) {
@@ -256,6 +697,12 @@ public class AVLTree<T1 extends Comparable<T1>, T2> {
         }
         y.left = x;
         x.parent = y;
+        y.size = x.size;
+        y.aggregate = x.aggregate;
+        update(x);
+        if (TreeMetrics.ENABLED) {
+            metrics.rotation();
+        }
     }
 
     private void rightRotate(Node<T1, T2> x) {
@@ -274,6 +721,403 @@ public class AVLTree<T1 extends Comparable<T1>, T2> {
         }
         y.right = x;
         x.parent = y;
+        y.size = x.size;
+        y.aggregate = x.aggregate;
+        update(x);
+        if (TreeMetrics.ENABLED) {
+            metrics.rotation();
+        }
+    }
+
+    /**
+     * Recomputes the size and the aggregate of x from its children.
+     */
+    private void update(Node<T1, T2> x) {
+        x.size = x.left.size + x.right.size + 1;
+        updateAggregate(x);
+    }
+
+    private void updateAggregate(Node<T1, T2> x) {
+        if (monoid != null) {
+            x.updateAggregate();
+        }
+    }
+
+    /**
+     * Recomputes the aggregates from x up to the root.
+     */
+    private void updateAggregates(Node<T1, T2> x) {
+        if (monoid != null) {
+            for (; x != nil; x = x.parent) {
+                updateAggregate(x);
+            }
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Node<T1, T2>[] newNodeArray(int length) {
+        return new Node[length];
+    }
+
+    /**
+     * Replaces the content of the tree with the given pairs, which must be
+     * sorted by strictly ascending key. Every subtree is split at its middle
+     * element, so the balance factors follow from the subtree sizes.
+     * Time complexity: O(n).
+     */
+    public void buildFromSorted(T1[] keys, T2[] values) {
+        checkSorted(keys, values);
+        finger = nil;
+        Node<T1, T2>[] nodes = newNodeArray(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            nodes[i] = new Node<>(keys[i], values[i], monoid);
+        }
+        root = linkSorted(nodes, 0, nodes.length - 1, nil);
+    }
+
+    /**
+     * Same as {@link #buildFromSorted(Comparable[], Object[])} for an iterator
+     * returning size sorted entries.
+     */
+    public void buildFromSorted(Iterator<? extends Map.Entry<? extends T1, ? extends T2>> entries, int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size < 0: " + size);
+        }
+        Node<T1, T2> r = buildFromSorted(entries, 0, size - 1, newNodeArray(1));
+        if (r != nil) {
+            r.parent = nil;
+        }
+        root = r;
+        finger = nil;
+    }
+
+    /**
+     * Writes the entries in ascending key order to the channel as a
+     * versioned binary snapshot, which any of RBTree, AVLTree and BinaryTree
+     * can load. Writes go through one 64 KiB buffer. The channel is not
+     * closed.
+     *
+     * Time complexity: O(n)
+     *
+     * @param keyCodec encoding of the keys
+     * @param valueCodec encoding of the values
+     */
+    public void saveSnapshot(WritableByteChannel channel, Codec<T1> keyCodec, Codec<T2> valueCodec) throws IOException {
+        TreeSnapshot.write(channel, iterator(), size(), keyCodec, valueCodec);
+    }
+
+    /**
+     * Replaces the content of the tree with a snapshot written by
+     * saveSnapshot, read with codecs of the same sizes. The entries are
+     * already sorted, so the tree is built bottom-up as in buildFromSorted.
+     * The tree is left unchanged if the snapshot turns out to be malformed.
+     *
+     * Time complexity: O(n)
+     */
+    public void loadSnapshot(ReadableByteChannel channel, Codec<T1> keyCodec, Codec<T2> valueCodec) throws IOException {
+        TreeSnapshot.Reader<T1, T2> reader = new TreeSnapshot.Reader<>(channel, keyCodec, valueCodec);
+        if (reader.size() > Integer.MAX_VALUE) {
+            throw new IOException("snapshot has more entries than a tree can hold: " + reader.size());
+        }
+        int size = (int) reader.size();
+        Node<T1, T2> r;
+        try {
+            r = buildFromSorted(reader, 0, size - 1, newNodeArray(1));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (IllegalArgumentException e) {
+            throw new StreamCorruptedException(e.getMessage());
+        }
+        reader.finish();
+        if (r != nil) {
+            r.parent = nil;
+        }
+        root = r;
+        finger = nil;
+    }
+
+    /**
+     * Returns an immutable copy of the entries laid out for fast lookups,
+     * see {@link FrozenTree}. Later changes to the tree are not reflected
+     * in the copy.
+     *
+     * Time complexity: O(n)
+     */
+    public FrozenTree<T1, T2> freeze() {
+        return new FrozenTree<>(iterator(), size());
+    }
+
+    /**
+     * Adds a batch of pairs sorted by strictly ascending key; present keys
+     * get the new value. A small batch is inserted key by key, a larger one
+     * is merged with the in-order sequence of the tree and the tree is
+     * rebuilt, reusing its nodes. Time complexity: O(min(m * logn, n + m)).
+     */
+    public void appendSorted(T1[] keys, T2[] values) {
+        checkSorted(keys, values);
+        insertSorted(keys, values, null);
+    }
+
+    /**
+     * Inserts a batch of pairs given in any order. A present key gets the new
+     * value; of equal keys within the batch the later pair wins.
+     *
+     * The batch is sorted first. A batch that is small next to the tree is
+     * inserted in key order, and each descent starts from the node the
+     * previous key went to rather than from the root. A larger batch is
+     * merged with the in-order sequence of the tree and the tree is rebuilt
+     * from the result, reusing its nodes, so it is rebalanced once for the
+     * whole batch.
+     *
+     * Time complexity: O(m * logm + min(m * logn, n + m)), m is the batch size
+     *
+     * @param keys keys in any order
+     * @param values values, values[i] belongs to keys[i]
+     */
+    public void insertAll(T1[] keys, T2[] values) {
+        SortedBatch<T1, T2> batch = SortedBatch.of(keys, values, null);
+        insertSorted(batch.keys, batch.values, null);
+    }
+
+    /**
+     * Same as {@link #insertAll(Comparable[], Object[])}, but a key that is
+     * already present, in the tree or earlier in the batch, gets
+     * remapping.apply(old value, new value).
+     *
+     * Time complexity: O(m * logm + min(m * logn, n + m)), m is the batch size
+     */
+    public void upsertAll(T1[] keys, T2[] values, BiFunction<? super T2, ? super T2, ? extends T2> remapping) {
+        Objects.requireNonNull(remapping);
+        SortedBatch<T1, T2> batch = SortedBatch.of(keys, values, remapping);
+        insertSorted(batch.keys, batch.values, remapping);
+    }
+
+    /**
+     * Removes a batch of keys given in any order. The keys are sorted first;
+     * a large batch is removed by rebuilding the tree from the entries that
+     * remain.
+     *
+     * Time complexity: O(m * logm + min(m * logn, n + m)), m is the batch size
+     *
+     * @return number of keys that were present
+     */
+    public int removeAll(T1[] keys) {
+        SortedBatch<T1, T2> batch = SortedBatch.of(keys, null, null);
+        int m = batch.size(), n = root.size;
+        if (m == 0 || root == nil) {
+            return 0;
+        }
+        if (!isLargeBatch(m)) {
+            for (T1 key : batch.keys) {
+                deleteNodeFromAVLTree(key);
+            }
+            return n - root.size;
+        }
+        Node<T1, T2>[] nodes = inorderNodes(root, 0);
+        int i = 0, j = 0, k = 0;
+        while (i < n) {
+            int cmp = j == m ? -1 : compare(nodes[i].key, batch.keys[j]);
+            if (cmp < 0) {
+                nodes[k++] = nodes[i++];
+            } else if (cmp == 0) {
+                i++;
+                j++;
+            } else {
+                j++;
+            }
+        }
+        Arrays.fill(nodes, k, n, null);
+        root = linkSorted(nodes, 0, k - 1, nil);
+        finger = nil;
+        return n - k;
+    }
+
+    /**
+     * A rebuild costs about as much per node as an eighth of one insert from
+     * a sorted batch, for trees of 10^4 to 10^6 keys.
+     */
+    private static final int REBUILD_RATIO = 8;
+
+    /**
+     * Tells whether a batch of m keys is cheaper to merge into a rebuilt tree
+     * of all n + m nodes than to insert or remove key by key.
+     */
+    private boolean isLargeBatch(int m) {
+        return (long) m * REBUILD_RATIO >= (long) root.size + m;
+    }
+
+    /**
+     * Inserts pairs sorted by strictly ascending key, key by key for a small
+     * batch and by rebuilding the tree for a large one.
+     *
+     * @param remapping combines the old and the new value of a present key,
+     *                  or null to replace the old one
+     */
+    private void insertSorted(T1[] keys, T2[] values, BiFunction<? super T2, ? super T2, ? extends T2> remapping) {
+        int m = keys.length;
+        if (m == 0) {
+            return;
+        }
+        finger = nil;
+        if (root == nil) {
+            buildFromSorted(keys, values);
+            return;
+        }
+        if (!isLargeBatch(m)) {
+            Node<T1, T2> cursor = nil;
+            for (int i = 0; i < m; i++) {
+                cursor = insertFrom(cursor, keys[i], values[i], remapping);
+            }
+            return;
+        }
+        // merge from the back into the m free slots at the end of nodes
+        Node<T1, T2>[] nodes = inorderNodes(root, m);
+        int n = nodes.length - m;
+        int i = n - 1, j = m - 1, k = n + m;
+        while (j >= 0) {
+            int cmp = i < 0 ? -1 : compare(nodes[i].key, keys[j]);
+            if (cmp > 0) {
+                nodes[--k] = nodes[i--];
+            } else if (cmp == 0) {
+                nodes[i].value = remapping == null ? values[j] : remapping.apply(nodes[i].value, values[j]);
+                j--;
+                nodes[--k] = nodes[i--];
+            } else {
+                nodes[--k] = new Node<>(keys[j], values[j], monoid);
+                j--;
+            }
+        }
+        k -= i + 1;
+        System.arraycopy(nodes, 0, nodes, k, i + 1);
+        root = linkSorted(nodes, k, n + m - 1, nil);
+    }
+
+    /**
+     * Inserts the pair like insertNodeInAVLTree, but starts the descent from
+     * the cursor: it climbs to the lowest ancestor whose subtree must hold
+     * the key. Every key in the subtree of a node lies below the key of the
+     * nearest ancestor it hangs to the left of.
+     *
+     * @param cursor node with a key less than the input key, or nil
+     * @return node that holds the key
+     */
+    private Node<T1, T2> insertFrom(Node<T1, T2> cursor, T1 key, T2 value, BiFunction<? super T2, ? super T2, ? extends T2> remapping) {
+        Node<T1, T2> x = cursor == nil ? root : cursor, y = nil;
+        while (x.parent != nil && !(x == x.parent.left && compare(key, x.parent.key) < 0)) {
+            x = x.parent;
+        }
+        int cmp = 0;
+        while (x != nil) {
+            y = x;
+            cmp = compare(key, x.key);
+            if (cmp == 0) {
+                x.value = remapping == null ? value : remapping.apply(x.value, value);
+                updateAggregates(x);
+                return x;
+            }
+            x = cmp > 0 ? x.right : x.left;
+        }
+        Node<T1, T2> z = new Node<>(key, value, monoid);
+        z.parent = y;
+        if (cmp > 0) {
+            y.right = z;
+        } else {
+            y.left = z;
+        }
+        z.left = nil;
+        z.right = nil;
+        z.size = 1;
+        for (; y != nil; y = y.parent) {
+            y.size++;
+        }
+        updateAggregates(z);
+        balanceForInsertingNode(z);
+        return z;
+    }
+
+    private void checkSorted(T1[] keys, T2[] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("keys.length != values.length");
+        }
+        for (int i = 1; i < keys.length; i++) {
+            if (compare(keys[i - 1], keys[i]) >= 0) {
+                throw new IllegalArgumentException("keys are not strictly ascending at index " + i);
+            }
+        }
+    }
+
+    private Node<T1, T2>[] inorderNodes(Node<T1, T2> x, int extra) {
+        Node<T1, T2>[] nodes = newNodeArray(16 + extra);
+        Node<T1, T2>[] stack = newNodeArray(64);
+        int n = 0, top = 0;
+        while (x != nil || top > 0) {
+            while (x != nil) {
+                if (top == stack.length) {
+                    stack = Arrays.copyOf(stack, top * 2);
+                }
+                stack[top++] = x;
+                x = x.left;
+            }
+            x = stack[--top];
+            if (n == nodes.length - extra) {
+                nodes = Arrays.copyOf(nodes, (nodes.length - extra) * 2 + extra);
+            }
+            nodes[n++] = x;
+            x = x.right;
+        }
+        return Arrays.copyOf(nodes, n + extra);
+    }
+
+    /**
+     * Height of a subtree of size nodes built by splitting at the middle.
+     */
+    private static int sortedHeight(int size) {
+        return 32 - Integer.numberOfLeadingZeros(size);
+    }
+
+    private Node<T1, T2> linkSorted(Node<T1, T2>[] nodes, int lo, int hi, Node<T1, T2> parent) {
+        if (hi < lo) {
+            return nil;
+        }
+        int mid = (lo + hi) >>> 1;
+        Node<T1, T2> x = nodes[mid];
+        x.parent = parent;
+        x.balanceFactor = sortedHeight(hi - mid) - sortedHeight(mid - lo);
+        x.size = hi - lo + 1;
+        x.left = linkSorted(nodes, lo, mid - 1, x);
+        x.right = linkSorted(nodes, mid + 1, hi, x);
+        updateAggregate(x);
+        return x;
+    }
+
+    private Node<T1, T2> buildFromSorted(Iterator<? extends Map.Entry<? extends T1, ? extends T2>> entries,
+            int lo, int hi, Node<T1, T2>[] last) {
+        if (hi < lo) {
+            return nil;
+        }
+        int mid = (lo + hi) >>> 1;
+        Node<T1, T2> left = buildFromSorted(entries, lo, mid - 1, last);
+        if (!entries.hasNext()) {
+            throw new IllegalArgumentException("iterator returned fewer entries than size");
+        }
+        Map.Entry<? extends T1, ? extends T2> e = entries.next();
+        if (last[0] != null && compare(last[0].key, e.getKey()) >= 0) {
+            throw new IllegalArgumentException("keys are not strictly ascending at index " + mid);
+        }
+        Node<T1, T2> x = new Node<>(e.getKey(), e.getValue(), monoid);
+        last[0] = x;
+        x.balanceFactor = sortedHeight(hi - mid) - sortedHeight(mid - lo);
+        x.size = hi - lo + 1;
+        x.left = left;
+        if (left != nil) {
+            left.parent = x;
+        }
+        x.right = buildFromSorted(entries, mid + 1, hi, last);
+        if (x.right != nil) {
+            x.right.parent = x;
+        }
+        updateAggregate(x);
+        return x;
     }
 
     public boolean isBalanced(Node<T1, T2> x) {
@@ -286,17 +1130,668 @@ public class AVLTree<T1 extends Comparable<T1>, T2> {
         }
     }
 
-    public void printAVLTreeInorderWalk() {
-        printAVLTreeInorderWalk(root);
-        System.out.println();
+    /**
+     * Moves all entries with keys not less than the input key into a new
+     * tree and returns it.
+     *
+     * Time complexity: O(logn)
+     */
+    public AVLTree<T1, T2> split(T1 key) {
+        Split<T1, T2> s = split(root, height(root), key);
+        if (s.found != nil) {
+            s.right = join(empty(), s.found, s.right);
+        }
+        AVLTree<T1, T2> right = new AVLTree<>(monoid);
+        setRoot(s.left);
+        right.setRoot(s.right);
+        return right;
     }
 
-    private void printAVLTreeInorderWalk(Node<T1, T2> x) {
+    /**
+     * Moves all entries of the other tree into this one. Every key of the
+     * other tree must be greater than every key of this tree. The other tree
+     * is left empty.
+     *
+     * Time complexity: O(logn)
+     *
+     * @throws IllegalArgumentException if a key of the other tree is not
+     *                                  greater than every key of this tree,
+     *                                  or the trees were not created with
+     *                                  the same Monoid instance
+     */
+    public void join(AVLTree<T1, T2> other) {
+        if (other == this || other.root == nil) {
+            return;
+        }
+        checkMonoid(other);
+        if (root != nil && compare(getNodeWithMaximumKey(root).key, getNodeWithMinimumKey(other.root).key) >= 0) {
+            throw new IllegalArgumentException("keys of the joined tree must be greater than the keys of this tree");
+        }
+        setRoot(join2(new Subtree<>(root, height(root)), new Subtree<>(other.root, height(other.root))));
+        other.root = nil;
+        other.finger = nil;
+    }
+
+    /**
+     * Moves the entries of the other tree into this one; for a key present
+     * in both trees the value of the other tree wins. The other tree is left
+     * empty.
+     *
+     * Large trees are merged in parallel in the common fork-join pool.
+     *
+     * Time complexity: O(m log(n/m + 1)), m is the size of the smaller tree
+     *
+     * @throws IllegalArgumentException if the trees were not created with
+     *                                  the same Monoid instance
+     */
+    public void union(AVLTree<T1, T2> other) {
+        setOperation(UNION, other);
+    }
+
+    /**
+     * Keeps only the entries whose keys are present in the other tree. The
+     * other tree is left empty.
+     *
+     * Time complexity: O(m log(n/m + 1)), m is the size of the smaller tree
+     *
+     * @throws IllegalArgumentException if the trees were not created with
+     *                                  the same Monoid instance
+     */
+    public void intersection(AVLTree<T1, T2> other) {
+        setOperation(INTERSECTION, other);
+    }
+
+    /**
+     * Removes the entries whose keys are present in the other tree. The
+     * other tree is left empty.
+     *
+     * Time complexity: O(m log(n/m + 1)), m is the size of the smaller tree
+     *
+     * @throws IllegalArgumentException if the trees were not created with
+     *                                  the same Monoid instance
+     */
+    public void difference(AVLTree<T1, T2> other) {
+        setOperation(DIFFERENCE, other);
+    }
+
+    /**
+     * Nodes move between the trees as they are, so both trees must keep the
+     * same aggregates.
+     */
+    private void checkMonoid(AVLTree<T1, T2> other) {
+        if (other.monoid != monoid) {
+            throw new IllegalArgumentException("the trees aggregate with different monoids");
+        }
+    }
+
+    private static final int UNION = 0, INTERSECTION = 1, DIFFERENCE = 2;
+
+    /**
+     * Set operations fork their two halves only for subtrees of at least
+     * this height, that is of at least a few hundred nodes.
+     */
+    private static final int PARALLEL_HEIGHT = 12;
+
+    private void setOperation(int op, AVLTree<T1, T2> other) {
+        if (other == this) {
+            if (op == DIFFERENCE) {
+                root = nil;
+                finger = nil;
+            }
+            return;
+        }
+        checkMonoid(other);
+        Subtree<T1, T2> a = new Subtree<>(root, height(root));
+        Subtree<T1, T2> b = new Subtree<>(other.root, height(other.root));
+        other.root = nil;
+        other.finger = nil;
+        setRoot(ForkJoinPool.commonPool().invoke(new SetOperation(op, a, b)));
+    }
+
+    /**
+     * A detached subtree together with its height.
+     */
+    private static final class Subtree<T1, T2> {
+
+        final Node<T1, T2> root;
+        final int height;
+
+        Subtree(Node<T1, T2> root, int height) {
+            this.root = root;
+            this.height = height;
+        }
+    }
+
+    /**
+     * Result of a split: the subtrees with smaller and greater keys and the
+     * node with the split key, or nil.
+     */
+    private static final class Split<T1, T2> {
+
+        Subtree<T1, T2> left, right;
+        final Node<T1, T2> found;
+
+        Split(Subtree<T1, T2> left, Node<T1, T2> found, Subtree<T1, T2> right) {
+            this.left = left;
+            this.found = found;
+            this.right = right;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class SetOperation extends RecursiveTask<Subtree<T1, T2>> {
+
+        private final int op;
+        private final Subtree<T1, T2> a, b;
+
+        SetOperation(int op, Subtree<T1, T2> a, Subtree<T1, T2> b) {
+            this.op = op;
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        protected Subtree<T1, T2> compute() {
+            switch (op) {
+                case UNION:
+                    return union(a, b);
+                case INTERSECTION:
+                    return intersection(a, b);
+                default:
+                    return difference(a, b);
+            }
+        }
+    }
+
+    private void setRoot(Subtree<T1, T2> t) {
+        root = t.root;
+        finger = nil;
+        if (root != nil) {
+            root.parent = nil;
+        }
+    }
+
+    private Subtree<T1, T2> empty() {
+        return new Subtree<>(nil, 0);
+    }
+
+    private int height(Node<T1, T2> x) {
+        int h = 0;
+        for (; x != nil; x = x.balanceFactor > 0 ? x.right : x.left) {
+            h++;
+        }
+        return h;
+    }
+
+    private static int leftHeight(Node<?, ?> x, int height) {
+        return height - 1 - Math.max(x.balanceFactor, 0);
+    }
+
+    private static int rightHeight(Node<?, ?> x, int height) {
+        return height - 1 + Math.min(x.balanceFactor, 0);
+    }
+
+    /**
+     * Cuts x off its parent and returns it as a subtree.
+     */
+    private Subtree<T1, T2> detach(Node<T1, T2> x, int height) {
         if (x != nil) {
-            printAVLTreeInorderWalk(x.left);
+            x.parent = nil;
+        }
+        return new Subtree<>(x, height);
+    }
+
+    /**
+     * Makes left and right the children of k and sets its balance factor.
+     *
+     * @return height of the subtree of k
+     */
+    private int link(Node<T1, T2> k, Node<T1, T2> left, int hl, Node<T1, T2> right, int hr) {
+        k.left = left;
+        k.right = right;
+        if (left != nil) {
+            left.parent = k;
+        }
+        if (right != nil) {
+            right.parent = k;
+        }
+        k.balanceFactor = hr - hl;
+        update(k);
+        return Math.max(hl, hr) + 1;
+    }
+
+    /**
+     * Joins the subtrees with k between them: all keys of l are less than
+     * the key of k, all keys of r greater. The node k is reused.
+     *
+     * Algorithm from: Blelloch, Ferizovic and Sun, "Just Join for Parallel
+     * Ordered Sets", SPAA 2016.
+     *
+     * Time complexity: O(|h(l) - h(r)| + 1)
+     */
+    private Subtree<T1, T2> join(Subtree<T1, T2> l, Node<T1, T2> k, Subtree<T1, T2> r) {
+        Subtree<T1, T2> t;
+        if (l.height > r.height + 1) {
+            t = joinRight(l.root, l.height, k, r.root, r.height);
+        } else if (r.height > l.height + 1) {
+            t = joinLeft(l.root, l.height, k, r.root, r.height);
+        } else {
+            t = new Subtree<>(k, link(k, l.root, l.height, r.root, r.height));
+        }
+        t.root.parent = nil;
+        return t;
+    }
+
+    /**
+     * Walks down the right spine of a to the first node c that is at most
+     * one level taller than b and puts k there, with c and b as children.
+     * A node that becomes unbalanced on the way back is rotated.
+     */
+    private Subtree<T1, T2> joinRight(Node<T1, T2> a, int ha, Node<T1, T2> k, Node<T1, T2> b, int hb) {
+        Node<T1, T2> l = a.left, c = a.right;
+        int hl = leftHeight(a, ha), hc = rightHeight(a, ha);
+        if (hc <= hb + 1) {
+            int ht = link(k, c, hc, b, hb);
+            if (ht <= hl + 1) {
+                return new Subtree<>(a, link(a, l, hl, k, ht));
+            }
+            Node<T1, T2> cl = c.left, cr = c.right;
+            int hcl = leftHeight(c, hc), hcr = rightHeight(c, hc);
+            int hk = link(k, cr, hcr, b, hb);
+            int hn = link(a, l, hl, cl, hcl);
+            return new Subtree<>(c, link(c, a, hn, k, hk));
+        }
+        Subtree<T1, T2> t = joinRight(c, hc, k, b, hb);
+        if (t.height <= hl + 1) {
+            return new Subtree<>(a, link(a, l, hl, t.root, t.height));
+        }
+        Node<T1, T2> tl = t.root.left, tr = t.root.right;
+        int htl = leftHeight(t.root, t.height), htr = rightHeight(t.root, t.height);
+        int hn = link(a, l, hl, tl, htl);
+        return new Subtree<>(t.root, link(t.root, a, hn, tr, htr));
+    }
+
+    private Subtree<T1, T2> joinLeft(Node<T1, T2> a, int ha, Node<T1, T2> k, Node<T1, T2> b, int hb) {
+        Node<T1, T2> c = b.left, r = b.right;
+        int hc = leftHeight(b, hb), hr = rightHeight(b, hb);
+        if (hc <= ha + 1) {
+            int ht = link(k, a, ha, c, hc);
+            if (ht <= hr + 1) {
+                return new Subtree<>(b, link(b, k, ht, r, hr));
+            }
+            Node<T1, T2> cl = c.left, cr = c.right;
+            int hcl = leftHeight(c, hc), hcr = rightHeight(c, hc);
+            int hk = link(k, a, ha, cl, hcl);
+            int hn = link(b, cr, hcr, r, hr);
+            return new Subtree<>(c, link(c, k, hk, b, hn));
+        }
+        Subtree<T1, T2> t = joinLeft(a, ha, k, c, hc);
+        if (t.height <= hr + 1) {
+            return new Subtree<>(b, link(b, t.root, t.height, r, hr));
+        }
+        Node<T1, T2> tl = t.root.left, tr = t.root.right;
+        int htl = leftHeight(t.root, t.height), htr = rightHeight(t.root, t.height);
+        int hn = link(b, tr, htr, r, hr);
+        return new Subtree<>(t.root, link(t.root, tl, htl, b, hn));
+    }
+
+    /**
+     * Joins two subtrees without a middle node: the maximum of l is taken
+     * out and used as one.
+     *
+     * Time complexity: O(logn)
+     */
+    private Subtree<T1, T2> join2(Subtree<T1, T2> l, Subtree<T1, T2> r) {
+        if (l.root == nil) {
+            return r;
+        }
+        if (r.root == nil) {
+            return l;
+        }
+        Split<T1, T2> s = splitLast(l.root, l.height);
+        return join(s.left, s.found, r);
+    }
+
+    private Split<T1, T2> splitLast(Node<T1, T2> x, int h) {
+        if (x.right == nil) {
+            return new Split<>(detach(x.left, leftHeight(x, h)), x, null);
+        }
+        Split<T1, T2> s = splitLast(x.right, rightHeight(x, h));
+        s.left = join(detach(x.left, leftHeight(x, h)), x, s.left);
+        return s;
+    }
+
+    /**
+     * Splits the subtree of x by the key. The nodes on the search path are
+     * joined back into the two halves.
+     *
+     * Time complexity: O(logn)
+     */
+    private Split<T1, T2> split(Node<T1, T2> x, int h, T1 key) {
+        if (x == nil) {
+            return new Split<>(empty(), nil, empty());
+        }
+        int hl = leftHeight(x, h), hr = rightHeight(x, h);
+        int cmp = compare(key, x.key);
+        if (cmp == 0) {
+            return new Split<>(detach(x.left, hl), x, detach(x.right, hr));
+        } else if (cmp < 0) {
+            Split<T1, T2> s = split(x.left, hl, key);
+            s.right = join(s.right, x, detach(x.right, hr));
+            return s;
+        } else {
+            Split<T1, T2> s = split(x.right, hr, key);
+            s.left = join(detach(x.left, hl), x, s.left);
+            return s;
+        }
+    }
+
+    private Subtree<T1, T2> union(Subtree<T1, T2> a, Subtree<T1, T2> b) {
+        if (a.root == nil) {
+            return b;
+        }
+        if (b.root == nil) {
+            return a;
+        }
+        Node<T1, T2> k = a.root;
+        Split<T1, T2> s = split(b.root, b.height, k.key);
+        if (s.found != nil) {
+            k.value = s.found.value;
+        }
+        Subtree<T1, T2> al = detach(k.left, leftHeight(k, a.height)), ar = detach(k.right, rightHeight(k, a.height));
+        Subtree<T1, T2> l, r;
+        if (a.height >= PARALLEL_HEIGHT) {
+            SetOperation right = new SetOperation(UNION, ar, s.right);
+            right.fork();
+            l = union(al, s.left);
+            r = right.join();
+        } else {
+            l = union(al, s.left);
+            r = union(ar, s.right);
+        }
+        return join(l, k, r);
+    }
+
+    private Subtree<T1, T2> intersection(Subtree<T1, T2> a, Subtree<T1, T2> b) {
+        if (a.root == nil || b.root == nil) {
+            return empty();
+        }
+        Node<T1, T2> k = a.root;
+        Split<T1, T2> s = split(b.root, b.height, k.key);
+        Subtree<T1, T2> al = detach(k.left, leftHeight(k, a.height)), ar = detach(k.right, rightHeight(k, a.height));
+        Subtree<T1, T2> l, r;
+        if (a.height >= PARALLEL_HEIGHT) {
+            SetOperation right = new SetOperation(INTERSECTION, ar, s.right);
+            right.fork();
+            l = intersection(al, s.left);
+            r = right.join();
+        } else {
+            l = intersection(al, s.left);
+            r = intersection(ar, s.right);
+        }
+        return s.found != nil ? join(l, k, r) : join2(l, r);
+    }
+
+    private Subtree<T1, T2> difference(Subtree<T1, T2> a, Subtree<T1, T2> b) {
+        if (a.root == nil || b.root == nil) {
+            return a;
+        }
+        Node<T1, T2> k = b.root;
+        Split<T1, T2> s = split(a.root, a.height, k.key);
+        Subtree<T1, T2> bl = detach(k.left, leftHeight(k, b.height)), br = detach(k.right, rightHeight(k, b.height));
+        Subtree<T1, T2> l, r;
+        if (b.height >= PARALLEL_HEIGHT) {
+            SetOperation right = new SetOperation(DIFFERENCE, s.right, br);
+            right.fork();
+            l = difference(s.left, bl);
+            r = right.join();
+        } else {
+            l = difference(s.left, bl);
+            r = difference(s.right, br);
+        }
+        return join2(l, r);
+    }
+
+    /**
+     * Returns Node with maximum key in the specified subAVLTree with input root
+     *
+     * Time complexity: O(logn)
+     */
+    private Node<T1, T2> getNodeWithMaximumKey(Node<T1, T2> x) {
+        if (x == nil) {
+            return nil;
+        }
+        while (x.right != nil) {
+            x = x.right;
+        }
+        return x;
+    }
+
+    /**
+     * Returns the Node with the smallest key that is not less than the input
+     * key, or nil.
+     *
+     * Time complexity: O(logn)
+     */
+    private Node<T1, T2> getCeilingNode(T1 key) {
+        Node<T1, T2> x = root, y = nil;
+        while (x != nil) {
+            int cmp = compare(key, x.key);
+            if (cmp == 0) {
+                return x;
+            } else if (cmp < 0) {
+                y = x;
+                x = x.left;
+            } else {
+                x = x.right;
+            }
+        }
+        return y;
+    }
+
+    /**
+     * Returns the Node that follows x in key order, or nil.
+     *
+     * Time complexity: O(logn), O(1) amortized over a walk of the tree
+     */
+    private Node<T1, T2> successorNode(Node<T1, T2> x) {
+        if (x.right != nil) {
+            x = x.right;
+            while (x.left != nil) {
+                x = x.left;
+            }
+            return x;
+        }
+        Node<T1, T2> y = x.parent;
+        while (y != nil && x == y.right) {
+            x = y;
+            y = y.parent;
+        }
+        return y;
+    }
+
+    /**
+     * Returns the Node that precedes x in key order, or nil.
+     *
+     * Time complexity: O(logn), O(1) amortized over a walk of the tree
+     */
+    private Node<T1, T2> predecessorNode(Node<T1, T2> x) {
+        if (x.left != nil) {
+            return getNodeWithMaximumKey(x.left);
+        }
+        Node<T1, T2> y = x.parent;
+        while (y != nil && x == y.left) {
+            x = y;
+            y = y.parent;
+        }
+        return y;
+    }
+
+    /**
+     * Iterates over the entries in ascending key order. The entries are the
+     * nodes of the tree; the tree must not be modified during the iteration.
+     */
+    @Override
+    public Iterator<Map.Entry<T1, T2>> iterator() {
+        return new EntryIterator(root == nil ? nil : getNodeWithMinimumKey(root), null, false);
+    }
+
+    /**
+     * Iterates over the entries in descending key order.
+     */
+    public Iterator<Map.Entry<T1, T2>> descendingIterator() {
+        return new EntryIterator(getNodeWithMaximumKey(root), null, true);
+    }
+
+    /**
+     * Iterates in ascending order over the entries with from <= key < to.
+     *
+     * Time complexity: O(logn) to start, O(1) amortized per entry
+     */
+    @Override
+    public Iterator<Map.Entry<T1, T2>> range(T1 from, T1 to) {
+        return new EntryIterator(getCeilingNode(from), to, false);
+    }
+
+    /**
+     * Iterates in ascending order over the entries with key >= from.
+     *
+     * Time complexity: O(logn) to start, O(1) amortized per entry
+     */
+    public Iterator<Map.Entry<T1, T2>> tailFrom(T1 from) {
+        return new EntryIterator(getCeilingNode(from), null, false);
+    }
+
+    /**
+     * Splits by subtrees: the first split hands off the left subtree of the
+     * root, later splits the left subtrees of the nodes below.
+     */
+    @Override
+    public Spliterator<Map.Entry<T1, T2>> spliterator() {
+        Node<T1, T2> first = root == nil ? nil : getNodeWithMinimumKey(root);
+        return new EntrySpliterator(first, nil, root, root.size);
+    }
+
+    /**
+     * Returns a sequential stream of the entries in ascending key order; call
+     * parallel() on it to scan with several threads.
+     */
+    public Stream<Map.Entry<T1, T2>> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<T1, T2>> {
+
+        private Node<T1, T2> next;
+        private final T1 to;
+        private final boolean descending;
+
+        EntryIterator(Node<T1, T2> first, T1 to, boolean descending) {
+            this.to = to;
+            this.descending = descending;
+            this.next = bound(first);
+        }
+
+        private Node<T1, T2> bound(Node<T1, T2> x) {
+            return x != nil && to != null && compare(x.key, to) >= 0 ? nil : x;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != nil;
+        }
+
+        @Override
+        public Map.Entry<T1, T2> next() {
+            Node<T1, T2> x = next;
+            if (x == nil) {
+                throw new NoSuchElementException();
+            }
+            next = bound(descending ? predecessorNode(x) : successorNode(x));
+            return x;
+        }
+    }
+
+    /**
+     * Covers the nodes from current up to fence, exclusive. All of them except
+     * current lie in the subtree of split, which is where the next split
+     * happens. The size estimate comes from the subtree sizes and is exact
+     * for the part that is left after a split.
+     */
+    private final class EntrySpliterator implements Spliterator<Map.Entry<T1, T2>> {
+
+        private Node<T1, T2> current, split;
+        private final Node<T1, T2> fence;
+        private long estimate;
+
+        EntrySpliterator(Node<T1, T2> current, Node<T1, T2> fence, Node<T1, T2> split, long estimate) {
+            this.current = current;
+            this.fence = fence;
+            this.split = split;
+            this.estimate = estimate;
+        }
+
+        @Override
+        public Spliterator<Map.Entry<T1, T2>> trySplit() {
+            Node<T1, T2> s = split;
+            if (current == fence) {
+                return null;
+            }
+            while (s != nil && compare(current.key, s.key) >= 0) {
+                s = s.right;
+            }
+            if (s == nil) {
+                split = nil;
+                return null;
+            }
+            EntrySpliterator prefix = new EntrySpliterator(current, s, s.left, s.left.size);
+            current = s;
+            split = s.right;
+            estimate = s.right.size + 1;
+            return prefix;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Map.Entry<T1, T2>> action) {
+            if (current == fence) {
+                return false;
+            }
+            Node<T1, T2> x = current;
+            current = successorNode(x);
+            action.accept(x);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Map.Entry<T1, T2>> action) {
+            Node<T1, T2> x = current;
+            current = fence;
+            for (; x != fence; x = successorNode(x)) {
+                action.accept(x);
+            }
+        }
+
+        @Override
+        public long estimateSize() {
+            return estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.SORTED | Spliterator.NONNULL;
+        }
+
+        @Override
+        public Comparator<? super Map.Entry<T1, T2>> getComparator() {
+            return Map.Entry.comparingByKey();
+        }
+    }
+
+    public void printAVLTreeInorderWalk() {
+        for (Node<T1, T2> x = root == nil ? nil : getNodeWithMinimumKey(root); x != nil; x = successorNode(x)) {
             System.out.println("Node: " + x.key + ";   BalanceFactor: " + x.balanceFactor + ";   Parent: " + x.parent.key);
-            printAVLTreeInorderWalk(x.right);
         }
+        System.out.println();
     }
 
 }
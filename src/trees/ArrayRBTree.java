@@ -0,0 +1,453 @@
+package trees;
+
+import java.util.Arrays;
+
+/**
+ * Red-black tree whose nodes live in parallel arrays instead of separate
+ * objects.
+ *
+ * A node is an int index: left, right and parent links are int arrays, the
+ * color is one bit of a long array and keys and values sit in two object
+ * arrays. Index 0 is the nil sentinel. Freed slots are chained through the
+ * left array and reused by later inserts, and the arrays only ever grow.
+ *
+ * Compared with RBTree this drops the per-node object header, the color
+ * reference and the four node references, and the whole structure is a
+ * handful of large arrays for the garbage collector.
+ *
+ * The algorithms are the ones of {@link RBTree}.
+ *
+ * @param <T1> Key type
+ * @param <T2> Value type
+ */
+public class ArrayRBTree<T1 extends Comparable<T1>, T2> {
+
+    private static final int NIL = 0;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] left, right, parent;
+    private long[] red;
+    private Object[] keys, values;
+    private int root = NIL;
+    private int free = NIL;
+    private int next = 1;
+    private int size;
+
+    public ArrayRBTree() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of entries to allocate room for up front
+     */
+    public ArrayRBTree(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity < 0: " + capacity);
+        }
+        int n = capacity + 1;
+        left = new int[n];
+        right = new int[n];
+        parent = new int[n];
+        red = new long[(n + 63) >>> 6];
+        keys = new Object[n];
+        values = new Object[n];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private boolean isRed(int x) {
+        return (red[x >>> 6] & (1L << x)) != 0;
+    }
+
+    private void setRed(int x) {
+        red[x >>> 6] |= 1L << x;
+    }
+
+    private void setBlack(int x) {
+        red[x >>> 6] &= ~(1L << x);
+    }
+
+    private void setColor(int x, boolean isRed) {
+        if (isRed) {
+            setRed(x);
+        } else {
+            setBlack(x);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T1 key(int x) {
+        return (T1) keys[x];
+    }
+
+    /**
+     * Takes a slot from the free list, or the next unused one, growing the
+     * arrays by half when they are full.
+     */
+    private int allocate(T1 key, T2 value) {
+        int z;
+        if (free != NIL) {
+            z = free;
+            free = left[z];
+        } else {
+            if (next == keys.length) {
+                grow();
+            }
+            z = next++;
+        }
+        keys[z] = key;
+        values[z] = value;
+        left[z] = NIL;
+        right[z] = NIL;
+        parent[z] = NIL;
+        setRed(z);
+        size++;
+        return z;
+    }
+
+    private void release(int z) {
+        keys[z] = null;
+        values[z] = null;
+        left[z] = free;
+        free = z;
+        size--;
+    }
+
+    private void grow() {
+        int n = keys.length;
+        int capacity = n + Math.max(DEFAULT_CAPACITY, n >> 1);
+        if (capacity < 0) {
+            capacity = Integer.MAX_VALUE - 8;
+            if (n >= capacity) {
+                throw new IllegalStateException("ArrayRBTree is full");
+            }
+        }
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        red = Arrays.copyOf(red, (capacity + 63) >>> 6);
+        keys = Arrays.copyOf(keys, capacity);
+        values = Arrays.copyOf(values, capacity);
+    }
+
+    /**
+     * Left rotation
+     *
+     * @param x Node which was rotated
+     *
+     * Time complexity: O(1)
+     */
+    private void leftRotate(int x) {
+        int y = right[x];
+        right[x] = left[y];
+        if (left[y] != NIL) {
+            parent[left[y]] = x;
+        }
+        parent[y] = parent[x];
+        if (parent[x] == NIL) {
+            root = y;
+        } else if (x == left[parent[x]]) {
+            left[parent[x]] = y;
+        } else {
+            right[parent[x]] = y;
+        }
+        left[y] = x;
+        parent[x] = y;
+    }
+
+    /**
+     * Right rotation
+     *
+     * @param x node which was rotated
+     *
+     * Time complexity: O(1)
+     */
+    private void rightRotate(int x) {
+        int y = left[x];
+        left[x] = right[y];
+        if (right[y] != NIL) {
+            parent[right[y]] = x;
+        }
+        parent[y] = parent[x];
+        if (parent[x] == NIL) {
+            root = y;
+        } else if (x == right[parent[x]]) {
+            right[parent[x]] = y;
+        } else {
+            left[parent[x]] = y;
+        }
+        right[y] = x;
+        parent[x] = y;
+    }
+
+    /**
+     * Inserts a key-value pair, replacing the value if the key is present.
+     *
+     * Time complexity: O(logn)
+     */
+    public void insertNodeInRBTree(T1 key, T2 value) {
+        int x = root, y = NIL;
+        int cmp = 0;
+        while (x != NIL) {
+            y = x;
+            cmp = key.compareTo(key(x));
+            if (cmp == 0) {
+                values[x] = value;
+                return;
+            } else if (cmp > 0) {
+                x = right[x];
+            } else {
+                x = left[x];
+            }
+        }
+        int z = allocate(key, value);
+        parent[z] = y;
+        if (y == NIL) {
+            root = z;
+        } else if (cmp > 0) {
+            right[y] = z;
+        } else {
+            left[y] = z;
+        }
+        insertRBfixUp(z);
+    }
+
+    /**
+     * Fixes up tree after a insert action. Restored property №4
+     *
+     * Time complexity: O(logn)
+     */
+    private void insertRBfixUp(int z) {
+        while (isRed(parent[z])) {
+            int p = parent[z], g = parent[p];
+            if (p == left[g]) {
+                int y = right[g];
+                if (isRed(y)) {
+                    setBlack(p);
+                    setBlack(y);
+                    setRed(g);
+                    z = g;
+                } else {
+                    if (z == right[p]) {
+                        z = p;
+                        leftRotate(z);
+                    }
+                    setBlack(parent[z]);
+                    setRed(parent[parent[z]]);
+                    rightRotate(parent[parent[z]]);
+                }
+            } else {
+                int y = left[g];
+                if (isRed(y)) {
+                    setBlack(p);
+                    setBlack(y);
+                    setRed(g);
+                    z = g;
+                } else {
+                    if (z == left[p]) {
+                        z = p;
+                        rightRotate(z);
+                    }
+                    setBlack(parent[z]);
+                    setRed(parent[parent[z]]);
+                    leftRotate(parent[parent[z]]);
+                }
+            }
+        }
+        setBlack(root);
+    }
+
+    /* Return the Node for the input key
+     *
+     * Time complexity: O(logn)
+     */
+    private int getNodeByKey(T1 key) {
+        int x = root;
+        while (x != NIL) {
+            int cmp = key.compareTo(key(x));
+            if (cmp == 0) {
+                return x;
+            } else if (cmp > 0) {
+                x = right[x];
+            } else {
+                x = left[x];
+            }
+        }
+        return NIL;
+    }
+
+    /**
+     * Returns the value stored under the key, or null if there is no such key.
+     *
+     * Time complexity: O(logn)
+     */
+    @SuppressWarnings("unchecked")
+    public T2 getValueByKey(T1 key) {
+        return (T2) values[getNodeByKey(key)];
+    }
+
+    /**
+     * Time complexity: O(logn)
+     */
+    public boolean containsKey(T1 key) {
+        return getNodeByKey(key) != NIL;
+    }
+
+    /**
+     * It function removes a Node u and puts in its place another Node v
+     *
+     * Time complexity: O(1)
+     */
+    private void transplantRBTree(int u, int v) {
+        if (parent[u] == NIL) {
+            root = v;
+        } else if (left[parent[u]] == u) {
+            left[parent[u]] = v;
+        } else {
+            right[parent[u]] = v;
+        }
+        parent[v] = parent[u];
+    }
+
+    /**
+     * Deletes the Node by key from the tree and puts its slot on the free
+     * list.
+     *
+     * Time complexity: O(logn)
+     *
+     * @param key key of deleted Node
+     * @return boolean result
+     */
+    public boolean removeNodeFromRBTree(T1 key) {
+        int z = getNodeByKey(key);
+        int y = z, x;
+        if (y == NIL) {
+            return false;
+        }
+        boolean yOriginalRed = isRed(y);
+        if (left[z] == NIL) {
+            x = right[z];
+            transplantRBTree(z, right[z]);
+        } else if (right[z] == NIL) {
+            x = left[z];
+            transplantRBTree(z, left[z]);
+        } else {
+            y = getNodeWithMinimumKey(right[z]);
+            yOriginalRed = isRed(y);
+            x = right[y];
+            if (parent[y] == z) {
+                parent[x] = y;
+            } else {
+                transplantRBTree(y, right[y]);
+                right[y] = right[z];
+                parent[right[y]] = y;
+            }
+            transplantRBTree(z, y);
+            left[y] = left[z];
+            parent[left[y]] = y;
+            setColor(y, isRed(z));
+        }
+        release(z);
+        if (!yOriginalRed) {
+            deleteRBfixUp(x);
+        }
+        return true;
+    }
+
+    private int getNodeWithMinimumKey(int x) {
+        while (left[x] != NIL) {
+            x = left[x];
+        }
+        return x;
+    }
+
+    /**
+     * Fixes up tree after a delete action.
+     *
+     * @param x	Child node of the deleted node's successor.
+     *
+     * Time complexity: O(logn)
+     */
+    private void deleteRBfixUp(int x) {
+        while (x != root && !isRed(x)) {
+            int p = parent[x];
+            if (x == left[p]) {
+                int w = right[p];
+                if (isRed(w)) {
+                    setBlack(w);
+                    setRed(p);
+                    leftRotate(p);
+                    w = right[parent[x]];
+                }
+                if (!isRed(left[w]) && !isRed(right[w])) {
+                    setRed(w);
+                    x = parent[x];
+                } else {
+                    if (!isRed(right[w])) {
+                        setBlack(left[w]);
+                        setRed(w);
+                        rightRotate(w);
+                        w = right[parent[x]];
+                    }
+                    setColor(w, isRed(parent[x]));
+                    setBlack(parent[x]);
+                    setBlack(right[w]);
+                    leftRotate(parent[x]);
+                    x = root;
+                }
+            } else {
+                int w = left[p];
+                if (isRed(w)) {
+                    setBlack(w);
+                    setRed(p);
+                    rightRotate(p);
+                    w = left[parent[x]];
+                }
+                if (!isRed(right[w]) && !isRed(left[w])) {
+                    setRed(w);
+                    x = parent[x];
+                } else {
+                    if (!isRed(left[w])) {
+                        setBlack(right[w]);
+                        setRed(w);
+                        leftRotate(w);
+                        w = left[parent[x]];
+                    }
+                    setColor(w, isRed(parent[x]));
+                    setBlack(parent[x]);
+                    setBlack(left[w]);
+                    rightRotate(parent[x]);
+                    x = root;
+                }
+            }
+        }
+        setBlack(x);
+    }
+
+    /**
+     * Print RBTree inOrder Walk
+     *
+     * Time complexity: O(n)
+     */
+    public void printRBTreeInorderWalk() {
+        int[] stack = new int[64];
+        int depth = 0;
+        int x = root;
+        while (x != NIL || depth > 0) {
+            while (x != NIL) {
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, 2 * depth);
+                }
+                stack[depth++] = x;
+                x = left[x];
+            }
+            x = stack[--depth];
+            System.out.println("Node: " + keys[x] + "; " + (isRed(x) ? "RED" : "BLACK") + "; ParentNode: " + keys[parent[x]]);
+            x = right[x];
+        }
+        System.out.println();
+    }
+
+}
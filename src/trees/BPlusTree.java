@@ -0,0 +1,517 @@
+package trees;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+
+/**
+ * B+tree
+ *
+ * Entries live in the leaves, sorted, and the leaves are linked in key order.
+ * Inner nodes hold only separator keys: child i of an inner node holds the
+ * keys below keys[i] and child i + 1 the keys from keys[i] up.
+ *
+ * A node holds up to fanout keys in one array, so a lookup visits
+ * log_fanout(n) nodes instead of the log2(n) of a binary tree, and the binary
+ * search inside a node reads neighbouring slots of that array. With the
+ * default fanout of 64 the key array of a node takes four 64-byte cache lines
+ * with compressed references. An ordered scan follows the leaf links and
+ * never goes back up the tree.
+ *
+ * Every node except the root is at least half full. Separators are not
+ * updated when the key they were copied from is removed, they stay valid
+ * bounds for their subtrees.
+ *
+ * @param <T1> Key type
+ * @param <T2> Value type
+ */
+public class BPlusTree<T1 extends Comparable<T1>, T2> implements SortedStore<T1, T2> {
+
+    public static final int DEFAULT_FANOUT = 64;
+
+    private abstract static class Node {
+
+        /**
+         * Number of keys. An inner node has size + 1 children.
+         */
+        int size;
+        final Object[] keys;
+
+        Node(int capacity) {
+            keys = new Object[capacity];
+        }
+    }
+
+    private static final class Leaf extends Node {
+
+        final Object[] values;
+        Leaf next, prev;
+
+        Leaf(int fanout) {
+            super(fanout + 1);
+            values = new Object[fanout + 1];
+        }
+    }
+
+    private static final class Inner extends Node {
+
+        final Node[] children;
+
+        Inner(int fanout) {
+            super(fanout);
+            children = new Node[fanout + 1];
+        }
+    }
+
+    private final int fanout;
+    private final int minLeafSize, minInnerSize;
+    private Node root;
+    private Leaf head;
+    private int size;
+
+    /**
+     * Separator pushed up by the last split, the second result of insert.
+     */
+    private Object promoted;
+
+    public BPlusTree() {
+        this(DEFAULT_FANOUT);
+    }
+
+    /**
+     * @param fanout maximum number of entries in a leaf and of children of an
+     *               inner node, at least 4
+     */
+    public BPlusTree(int fanout) {
+        if (fanout < 4) {
+            throw new IllegalArgumentException("fanout < 4: " + fanout);
+        }
+        this.fanout = fanout;
+        this.minLeafSize = fanout / 2;
+        this.minInnerSize = (fanout + 1) / 2 - 1;
+        this.root = this.head = new Leaf(fanout);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T1 key(Node x, int i) {
+        return (T1) x.keys[i];
+    }
+
+    /**
+     * Binary search in the keys of x.
+     *
+     * @return index of the key, or (-(insertion point) - 1) as in
+     * {@link Arrays#binarySearch(Object[], Object)}
+     */
+    private int search(Node x, T1 key) {
+        int lo = 0, hi = x.size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = key.compareTo(key(x, mid));
+            if (cmp > 0) {
+                lo = mid + 1;
+            } else if (cmp < 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    private static int childIndex(int i) {
+        return i >= 0 ? i + 1 : -i - 1;
+    }
+
+    /**
+     * Returns the leaf that holds the key, or would hold it.
+     *
+     * Time complexity: O(logn)
+     */
+    private Leaf getLeafByKey(T1 key) {
+        Node x = root;
+        while (x instanceof Inner) {
+            x = ((Inner) x).children[childIndex(search(x, key))];
+        }
+        return (Leaf) x;
+    }
+
+    /**
+     * Returns the value stored under the key, or null if there is no such key.
+     *
+     * Time complexity: O(logn)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public T2 getValueByKey(T1 key) {
+        Leaf x = getLeafByKey(key);
+        int i = search(x, key);
+        return i >= 0 ? (T2) x.values[i] : null;
+    }
+
+    /**
+     * Time complexity: O(logn)
+     */
+    public boolean containsKey(T1 key) {
+        return search(getLeafByKey(key), key) >= 0;
+    }
+
+    /**
+     * Inserts a key-value pair, replacing the value if the key is present.
+     *
+     * Time complexity: O(logn)
+     */
+    public void insertNodeInBPlusTree(T1 key, T2 value) {
+        Node sibling = insert(root, key, value);
+        if (sibling != null) {
+            Inner r = new Inner(fanout);
+            r.keys[0] = promoted;
+            r.children[0] = root;
+            r.children[1] = sibling;
+            r.size = 1;
+            root = r;
+            promoted = null;
+        }
+    }
+
+    /**
+     * Same as {@link #insertNodeInBPlusTree(Comparable, Object)}.
+     */
+    @Override
+    public void insertNode(T1 key, T2 value) {
+        insertNodeInBPlusTree(key, value);
+    }
+
+    /**
+     * Inserts into the subtree of x.
+     *
+     * @return the new right sibling of x if x was split, with its separator
+     * in {@link #promoted}, otherwise null
+     */
+    private Node insert(Node x, T1 key, T2 value) {
+        int i = search(x, key);
+        if (x instanceof Leaf) {
+            Leaf leaf = (Leaf) x;
+            if (i >= 0) {
+                leaf.values[i] = value;
+                return null;
+            }
+            i = -i - 1;
+            System.arraycopy(leaf.keys, i, leaf.keys, i + 1, leaf.size - i);
+            System.arraycopy(leaf.values, i, leaf.values, i + 1, leaf.size - i);
+            leaf.keys[i] = key;
+            leaf.values[i] = value;
+            leaf.size++;
+            size++;
+            return leaf.size > fanout ? splitLeaf(leaf) : null;
+        }
+        Inner inner = (Inner) x;
+        int c = childIndex(i);
+        Node sibling = insert(inner.children[c], key, value);
+        if (sibling == null) {
+            return null;
+        }
+        System.arraycopy(inner.keys, c, inner.keys, c + 1, inner.size - c);
+        System.arraycopy(inner.children, c + 1, inner.children, c + 2, inner.size - c);
+        inner.keys[c] = promoted;
+        inner.children[c + 1] = sibling;
+        inner.size++;
+        return inner.size == fanout ? splitInner(inner) : null;
+    }
+
+    private Leaf splitLeaf(Leaf x) {
+        Leaf y = new Leaf(fanout);
+        int half = x.size / 2;
+        y.size = x.size - half;
+        System.arraycopy(x.keys, half, y.keys, 0, y.size);
+        System.arraycopy(x.values, half, y.values, 0, y.size);
+        Arrays.fill(x.keys, half, x.size, null);
+        Arrays.fill(x.values, half, x.size, null);
+        x.size = half;
+        y.next = x.next;
+        if (y.next != null) {
+            y.next.prev = y;
+        }
+        y.prev = x;
+        x.next = y;
+        promoted = y.keys[0];
+        return y;
+    }
+
+    private Inner splitInner(Inner x) {
+        Inner y = new Inner(fanout);
+        int half = x.size / 2;
+        y.size = x.size - half - 1;
+        System.arraycopy(x.keys, half + 1, y.keys, 0, y.size);
+        System.arraycopy(x.children, half + 1, y.children, 0, y.size + 1);
+        promoted = x.keys[half];
+        Arrays.fill(x.keys, half, x.size, null);
+        Arrays.fill(x.children, half + 1, x.size + 1, null);
+        x.size = half;
+        return y;
+    }
+
+    /**
+     * Deletes the entry by key from the tree.
+     *
+     * Time complexity: O(logn)
+     *
+     * @param key key of deleted entry
+     * @return true if the key was present
+     */
+    public boolean removeNodeFromBPlusTree(T1 key) {
+        if (!remove(root, key)) {
+            return false;
+        }
+        if (root.size == 0 && root instanceof Inner) {
+            root = ((Inner) root).children[0];
+        }
+        return true;
+    }
+
+    /**
+     * Same as {@link #removeNodeFromBPlusTree(Comparable)}.
+     */
+    @Override
+    public boolean removeNode(T1 key) {
+        return removeNodeFromBPlusTree(key);
+    }
+
+    private boolean remove(Node x, T1 key) {
+        int i = search(x, key);
+        if (x instanceof Leaf) {
+            if (i < 0) {
+                return false;
+            }
+            Leaf leaf = (Leaf) x;
+            System.arraycopy(leaf.keys, i + 1, leaf.keys, i, leaf.size - i - 1);
+            System.arraycopy(leaf.values, i + 1, leaf.values, i, leaf.size - i - 1);
+            leaf.size--;
+            leaf.keys[leaf.size] = null;
+            leaf.values[leaf.size] = null;
+            size--;
+            return true;
+        }
+        Inner inner = (Inner) x;
+        int c = childIndex(i);
+        if (!remove(inner.children[c], key)) {
+            return false;
+        }
+        Node child = inner.children[c];
+        if (child.size < minSize(child)) {
+            rebalance(inner, c);
+        }
+        return true;
+    }
+
+    private int minSize(Node x) {
+        return x instanceof Leaf ? minLeafSize : minInnerSize;
+    }
+
+    /**
+     * Refills child c of p, which has one key less than the minimum, from a
+     * sibling, or merges it with a sibling if both are at the minimum.
+     */
+    private void rebalance(Inner p, int c) {
+        if (c > 0 && p.children[c - 1].size > minSize(p.children[c - 1])) {
+            borrowFromLeft(p, c);
+        } else if (c < p.size && p.children[c + 1].size > minSize(p.children[c + 1])) {
+            borrowFromRight(p, c);
+        } else if (c > 0) {
+            merge(p, c - 1);
+        } else {
+            merge(p, c);
+        }
+    }
+
+    private void borrowFromLeft(Inner p, int c) {
+        Node x = p.children[c], l = p.children[c - 1];
+        System.arraycopy(x.keys, 0, x.keys, 1, x.size);
+        if (x instanceof Leaf) {
+            Leaf leaf = (Leaf) x, left = (Leaf) l;
+            System.arraycopy(leaf.values, 0, leaf.values, 1, leaf.size);
+            leaf.keys[0] = left.keys[left.size - 1];
+            leaf.values[0] = left.values[left.size - 1];
+            left.keys[left.size - 1] = null;
+            left.values[left.size - 1] = null;
+            p.keys[c - 1] = leaf.keys[0];
+        } else {
+            Inner inner = (Inner) x, left = (Inner) l;
+            System.arraycopy(inner.children, 0, inner.children, 1, inner.size + 1);
+            inner.keys[0] = p.keys[c - 1];
+            inner.children[0] = left.children[left.size];
+            p.keys[c - 1] = left.keys[left.size - 1];
+            left.keys[left.size - 1] = null;
+            left.children[left.size] = null;
+        }
+        x.size++;
+        l.size--;
+    }
+
+    private void borrowFromRight(Inner p, int c) {
+        Node x = p.children[c], r = p.children[c + 1];
+        if (x instanceof Leaf) {
+            Leaf leaf = (Leaf) x, right = (Leaf) r;
+            leaf.keys[leaf.size] = right.keys[0];
+            leaf.values[leaf.size] = right.values[0];
+            System.arraycopy(right.keys, 1, right.keys, 0, right.size - 1);
+            System.arraycopy(right.values, 1, right.values, 0, right.size - 1);
+            right.keys[right.size - 1] = null;
+            right.values[right.size - 1] = null;
+            p.keys[c] = right.keys[0];
+        } else {
+            Inner inner = (Inner) x, right = (Inner) r;
+            inner.keys[inner.size] = p.keys[c];
+            inner.children[inner.size + 1] = right.children[0];
+            p.keys[c] = right.keys[0];
+            System.arraycopy(right.keys, 1, right.keys, 0, right.size - 1);
+            System.arraycopy(right.children, 1, right.children, 0, right.size);
+            right.keys[right.size - 1] = null;
+            right.children[right.size] = null;
+        }
+        x.size++;
+        r.size--;
+    }
+
+    /**
+     * Moves child k + 1 of p into child k and drops separator k.
+     */
+    private void merge(Inner p, int k) {
+        Node l = p.children[k], r = p.children[k + 1];
+        if (l instanceof Leaf) {
+            Leaf left = (Leaf) l, right = (Leaf) r;
+            System.arraycopy(right.keys, 0, left.keys, left.size, right.size);
+            System.arraycopy(right.values, 0, left.values, left.size, right.size);
+            left.size += right.size;
+            left.next = right.next;
+            if (left.next != null) {
+                left.next.prev = left;
+            }
+        } else {
+            Inner left = (Inner) l, right = (Inner) r;
+            left.keys[left.size] = p.keys[k];
+            System.arraycopy(right.keys, 0, left.keys, left.size + 1, right.size);
+            System.arraycopy(right.children, 0, left.children, left.size + 1, right.size + 1);
+            left.size += right.size + 1;
+        }
+        System.arraycopy(p.keys, k + 1, p.keys, k, p.size - k - 1);
+        System.arraycopy(p.children, k + 2, p.children, k + 1, p.size - k - 1);
+        p.size--;
+        p.keys[p.size] = null;
+        p.children[p.size + 1] = null;
+    }
+
+    /**
+     * Passes every entry to the action in ascending key order.
+     *
+     * Time complexity: O(n)
+     */
+    public void forEach(BiConsumer<? super T1, ? super T2> action) {
+        for (Leaf x = head; x != null; x = x.next) {
+            forEachInLeaf(x, 0, x.size, action);
+        }
+    }
+
+    /**
+     * Passes the entries with from <= key < to to the action in ascending
+     * key order.
+     *
+     * Time complexity: O(logn + m), m is the number of entries in the range
+     */
+    public void forEachInRange(T1 from, T1 to, BiConsumer<? super T1, ? super T2> action) {
+        Leaf x = getLeafByKey(from);
+        int i = search(x, from);
+        i = i >= 0 ? i : -i - 1;
+        for (; x != null; x = x.next, i = 0) {
+            int end = x.size;
+            if (end > 0 && to.compareTo(key(x, end - 1)) <= 0) {
+                int j = search(x, to);
+                forEachInLeaf(x, i, j >= 0 ? j : -j - 1, action);
+                return;
+            }
+            forEachInLeaf(x, i, end, action);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void forEachInLeaf(Leaf x, int from, int to, BiConsumer<? super T1, ? super T2> action) {
+        for (int i = from; i < to; i++) {
+            action.accept((T1) x.keys[i], (T2) x.values[i]);
+        }
+    }
+
+    /**
+     * Iterates over the entries in ascending key order. The entries are
+     * copies; the tree must not be modified during the iteration.
+     */
+    @Override
+    public Iterator<Map.Entry<T1, T2>> iterator() {
+        return new EntryIterator(head, 0, null);
+    }
+
+    /**
+     * Iterates in ascending order over the entries with from <= key < to.
+     *
+     * Time complexity: O(logn) to start, O(1) amortized per entry
+     */
+    @Override
+    public Iterator<Map.Entry<T1, T2>> range(T1 from, T1 to) {
+        Leaf x = getLeafByKey(from);
+        int i = search(x, from);
+        return new EntryIterator(x, i >= 0 ? i : -i - 1, to);
+    }
+
+    /**
+     * Follows the leaf links from the entry at index of leaf, up to the
+     * first key that is not below to.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<T1, T2>> {
+
+        private Leaf leaf;
+        private int index;
+        private final T1 to;
+
+        EntryIterator(Leaf leaf, int index, T1 to) {
+            this.leaf = leaf;
+            this.index = index;
+            this.to = to;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (leaf != null && index == leaf.size) {
+                leaf = leaf.next;
+                index = 0;
+            }
+            return leaf != null && (to == null || to.compareTo(key(leaf, index)) > 0);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map.Entry<T1, T2> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<T1, T2> e = new AbstractMap.SimpleImmutableEntry<>(key(leaf, index), (T2) leaf.values[index]);
+            index++;
+            return e;
+        }
+    }
+
+    /**
+     * Print BPlusTree inOrder Walk
+     *
+     * Time complexity: O(n)
+     */
+    public void printBPlusTreeInorderWalk() {
+        forEach((key, value) -> System.out.println("Node: " + key + "; Value: " + value));
+        System.out.println();
+    }
+}
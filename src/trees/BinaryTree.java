@@ -1,36 +1,126 @@
 package trees;
 
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 /**
  * Created by Никита on 09.09.2016.
  */
-public class BinaryTree<T1 extends Comparable<T1>, T2> {
+public class BinaryTree<T1 extends Comparable<T1>, T2> implements Iterable<Map.Entry<T1, T2>> {
 
     public Node<T1, T2> root = null;
 
-    static class Node<T1, T2> {
+    /**
+     * Counters of this tree, null unless {@link TreeMetrics#ENABLED}.
+     */
+    private final TreeMetrics metrics = TreeMetrics.ENABLED ? new TreeMetrics("BinaryTree") : null;
+
+    static class Node<T1, T2> extends TreeEntry<T1, T2> {
 
-        T1 key;
-        T2 value;
         Node<T1, T2> left, right, parent;
 
         Node(T1 key, T2 value) {
-            this.key = key;
-            this.value = value;
+            super(key, value);
+        }
+    }
+
+    /**
+     * compareTo of two keys, counted when metrics are on.
+     */
+    private int compare(T1 a, T1 b) {
+        if (TreeMetrics.ENABLED) {
+            metrics.comparison();
         }
+        return a.compareTo(b);
     }
 
     public Node<T1, T2> searchNode(T1 key) {
         Node<T1, T2> x = root;
+        int length = 0;
         while (x != null) {
-            if (key.compareTo(x.key) == 0) {
-                return x;
-            } else if (key.compareTo(x.key) > 0) {
+            length++;
+            if (compare(key, x.key) == 0) {
+                break;
+            } else if (compare(key, x.key) > 0) {
                 x = x.right;
             } else {
                 x = x.left;
             }
         }
-        return null;
+        if (TreeMetrics.ENABLED) {
+            metrics.path(length);
+        }
+        return x;
+    }
+
+    public T2 getValueByKey(T1 key) {
+        if (TreeMetrics.ENABLED) {
+            TreeOperationEvent event = metrics.begin();
+            Node<T1, T2> x = searchNode(key);
+            metrics.end(event, TreeMetrics.Operation.SEARCH, key);
+            return x == null ? null : x.value;
+        }
+        Node<T1, T2> x = searchNode(key);
+        return x == null ? null : x.value;
+    }
+
+    /**
+     * Returns the number of nodes on the longest path from the root.
+     *
+     * Time complexity: O(n)
+     */
+    public int height() {
+        return depthHistogram().length;
+    }
+
+    /**
+     * Returns the number of nodes at each depth, the root being at depth 0.
+     * The length of the array is the height of the tree.
+     *
+     * Time complexity: O(n)
+     */
+    public int[] depthHistogram() {
+        int[] histogram = new int[0];
+        ArrayDeque<Node<T1, T2>> level = new ArrayDeque<>();
+        if (root != null) {
+            level.add(root);
+        }
+        for (int depth = 0; !level.isEmpty(); depth++) {
+            int n = level.size();
+            histogram = Arrays.copyOf(histogram, depth + 1);
+            histogram[depth] = n;
+            for (int i = 0; i < n; i++) {
+                Node<T1, T2> x = level.poll();
+                if (x.left != null) {
+                    level.add(x.left);
+                }
+                if (x.right != null) {
+                    level.add(x.right);
+                }
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns the counters of this tree, or null unless the JVM runs with
+     * -Dtrees.metrics=true.
+     */
+    public TreeMetrics metrics() {
+        return metrics;
     }
 
     public Node<T1, T2> nodeWithMinimumKey(Node<T1, T2> x) {
@@ -82,6 +172,16 @@ public class BinaryTree<T1 extends Comparable<T1>, T2> {
     }
 
     public void insertNode(T1 key, T2 value) {
+        if (TreeMetrics.ENABLED) {
+            TreeOperationEvent event = metrics.begin();
+            insert(key, value);
+            metrics.end(event, TreeMetrics.Operation.INSERT, key);
+        } else {
+            insert(key, value);
+        }
+    }
+
+    private void insert(T1 key, T2 value) {
         Node<T1, T2> y = searchNode(key), z = null;
         if (y != null) {
             y.value = value;
@@ -93,15 +193,20 @@ public class BinaryTree<T1 extends Comparable<T1>, T2> {
             return;
         }
         y = root;
+        int length = 0;
         while (y != null) {
             z = y;
-            if (key.compareTo(y.key) > 0) {
+            length++;
+            if (compare(key, y.key) > 0) {
                 y = y.right;
             } else {
                 y = y.left;
             }
         }
-        if (key.compareTo(z.key) > 0) {
+        if (TreeMetrics.ENABLED) {
+            metrics.path(length);
+        }
+        if (compare(key, z.key) > 0) {
             z.right = x;
             x.parent = z;
         } else {
@@ -110,12 +215,130 @@ public class BinaryTree<T1 extends Comparable<T1>, T2> {
         }
     }
 
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Node<T1, T2>[] newNodeArray(int length) {
+        return new Node[length];
+    }
+
+    /**
+     * Replaces the content of the tree with size entries of the iterator,
+     * which must come in strictly ascending key order. The tree is built
+     * bottom-up without rotations and is perfectly balanced.
+     *
+     * Time complexity: O(n)
+     */
+    public void buildFromSorted(Iterator<? extends Map.Entry<? extends T1, ? extends T2>> entries, int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size < 0: " + size);
+        }
+        Node<T1, T2> r = buildFromSorted(entries, 0, size - 1, newNodeArray(1));
+        if (r != null) {
+            r.parent = null;
+        }
+        root = r;
+    }
+
+    private Node<T1, T2> buildFromSorted(Iterator<? extends Map.Entry<? extends T1, ? extends T2>> entries,
+            int lo, int hi, Node<T1, T2>[] last) {
+        if (hi < lo) {
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        Node<T1, T2> left = buildFromSorted(entries, lo, mid - 1, last);
+        if (!entries.hasNext()) {
+            throw new IllegalArgumentException("iterator returned fewer entries than size");
+        }
+        Map.Entry<? extends T1, ? extends T2> e = entries.next();
+        if (last[0] != null && compare(last[0].key, e.getKey()) >= 0) {
+            throw new IllegalArgumentException("keys are not strictly ascending at index " + mid);
+        }
+        Node<T1, T2> x = new Node<>(e.getKey(), e.getValue());
+        last[0] = x;
+        x.left = left;
+        if (left != null) {
+            left.parent = x;
+        }
+        x.right = buildFromSorted(entries, mid + 1, hi, last);
+        if (x.right != null) {
+            x.right.parent = x;
+        }
+        return x;
+    }
+
+    /**
+     * Writes the entries in ascending key order to the channel as a
+     * versioned binary snapshot, which any of RBTree, AVLTree and BinaryTree
+     * can load. Writes go through one 64 KiB buffer. The channel is not
+     * closed.
+     *
+     * Time complexity: O(n)
+     *
+     * @param keyCodec encoding of the keys
+     * @param valueCodec encoding of the values
+     */
+    public void saveSnapshot(WritableByteChannel channel, Codec<T1> keyCodec, Codec<T2> valueCodec) throws IOException {
+        TreeSnapshot.write(channel, iterator(), countEntries(), keyCodec, valueCodec);
+    }
+
+    /**
+     * Replaces the content of the tree with a snapshot written by
+     * saveSnapshot, read with codecs of the same sizes. The entries are
+     * already sorted, so the tree is built bottom-up as in buildFromSorted.
+     * The tree is left unchanged if the snapshot turns out to be malformed.
+     *
+     * Time complexity: O(n)
+     */
+    public void loadSnapshot(ReadableByteChannel channel, Codec<T1> keyCodec, Codec<T2> valueCodec) throws IOException {
+        TreeSnapshot.Reader<T1, T2> reader = new TreeSnapshot.Reader<>(channel, keyCodec, valueCodec);
+        if (reader.size() > Integer.MAX_VALUE) {
+            throw new IOException("snapshot has more entries than a tree can hold: " + reader.size());
+        }
+        int size = (int) reader.size();
+        Node<T1, T2> r;
+        try {
+            r = buildFromSorted(reader, 0, size - 1, newNodeArray(1));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (IllegalArgumentException e) {
+            throw new StreamCorruptedException(e.getMessage());
+        }
+        reader.finish();
+        if (r != null) {
+            r.parent = null;
+        }
+        root = r;
+    }
+
+    /**
+     * Returns an immutable copy of the entries laid out for fast lookups,
+     * see {@link FrozenTree}. Later changes to the tree are not reflected
+     * in the copy.
+     *
+     * Time complexity: O(n)
+     */
+    public FrozenTree<T1, T2> freeze() {
+        long n = countEntries();
+        if (n > Integer.MAX_VALUE - 1) {
+            throw new IllegalStateException("too many entries to freeze: " + n);
+        }
+        return new FrozenTree<>(iterator(), (int) n);
+    }
+
+    /**
+     * Time complexity: O(n), the tree does not keep its size
+     */
+    private long countEntries() {
+        long n = 0;
+        for (Map.Entry<T1, T2> e : this) {
+            n++;
+        }
+        return n;
+    }
+
     public void transplant(Node<T1, T2> u, Node<T1, T2> v) {
         if (u.parent == null) {
             root = v;
-            return;
-        }
-        if (u.parent.left == u) {
+        } else if (u.parent.left == u) {
             u.parent.left = v;
         } else {
             u.parent.right = v;
@@ -126,6 +349,16 @@ public class BinaryTree<T1 extends Comparable<T1>, T2> {
     }
 
     public void removeNode(T1 key) {
+        if (TreeMetrics.ENABLED) {
+            TreeOperationEvent event = metrics.begin();
+            remove(key);
+            metrics.end(event, TreeMetrics.Operation.REMOVE, key);
+        } else {
+            remove(key);
+        }
+    }
+
+    private void remove(T1 key) {
         Node<T1, T2> y = searchNode(key);
         if (y == null) {
             return;
@@ -135,7 +368,7 @@ public class BinaryTree<T1 extends Comparable<T1>, T2> {
         } else if (y.right == null) {
             transplant(y, y.left);
         } else {
-            Node<T1, T2> x = nodeWithMaximumKey(y.right);
+            Node<T1, T2> x = nodeWithMinimumKey(y.right);
             if (x.parent != y) {
                 transplant(x, x.right);
                 x.right = y.right;
@@ -143,21 +376,201 @@ public class BinaryTree<T1 extends Comparable<T1>, T2> {
             }
             transplant(y, x);
             x.left = y.left;
-            y.left.parent = y;
+            x.left.parent = x;
         }
     }
 
-    public void printBinaryTreeInorderWalk() {
-        printBinaryTreeInorderWalk(root);
-        System.out.println();
+    /**
+     * Returns the Node with the smallest key that is not less than the input
+     * key, or null.
+     *
+     * Time complexity: O(h), h is the height of the tree
+     */
+    private Node<T1, T2> getCeilingNode(T1 key) {
+        Node<T1, T2> x = root, y = null;
+        while (x != null) {
+            int cmp = compare(key, x.key);
+            if (cmp == 0) {
+                return x;
+            } else if (cmp < 0) {
+                y = x;
+                x = x.left;
+            } else {
+                x = x.right;
+            }
+        }
+        return y;
+    }
+
+    /**
+     * Iterates over the entries in ascending key order. The entries are the
+     * nodes of the tree; the tree must not be modified during the iteration.
+     */
+    @Override
+    public Iterator<Map.Entry<T1, T2>> iterator() {
+        return new EntryIterator(nodeWithMinimumKey(root), null, false);
+    }
+
+    /**
+     * Iterates over the entries in descending key order.
+     */
+    public Iterator<Map.Entry<T1, T2>> descendingIterator() {
+        return new EntryIterator(nodeWithMaximumKey(root), null, true);
+    }
+
+    /**
+     * Iterates in ascending order over the entries with from <= key < to.
+     *
+     * Time complexity: O(h) to start, O(1) amortized per entry
+     */
+    public Iterator<Map.Entry<T1, T2>> range(T1 from, T1 to) {
+        return new EntryIterator(getCeilingNode(from), to, false);
+    }
+
+    /**
+     * Iterates in ascending order over the entries with key >= from.
+     *
+     * Time complexity: O(h) to start, O(1) amortized per entry
+     */
+    public Iterator<Map.Entry<T1, T2>> tailFrom(T1 from) {
+        return new EntryIterator(getCeilingNode(from), null, false);
+    }
+
+    /**
+     * Splits by subtrees: the first split hands off the left subtree of the
+     * root, later splits the left subtrees of the nodes below.
+     */
+    @Override
+    public Spliterator<Map.Entry<T1, T2>> spliterator() {
+        Node<T1, T2> first = nodeWithMinimumKey(root);
+        int depth = 0;
+        for (Node<T1, T2> x = root; x != null; x = x.left) {
+            depth++;
+        }
+        return new EntrySpliterator(first, null, root, depth == 0 ? 0 : 1L << Math.min(depth, 62));
+    }
+
+    /**
+     * Returns a sequential stream of the entries in ascending key order; call
+     * parallel() on it to scan with several threads.
+     */
+    public Stream<Map.Entry<T1, T2>> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<T1, T2>> {
+
+        private Node<T1, T2> next;
+        private final T1 to;
+        private final boolean descending;
+
+        EntryIterator(Node<T1, T2> first, T1 to, boolean descending) {
+            this.to = to;
+            this.descending = descending;
+            this.next = bound(first);
+        }
+
+        private Node<T1, T2> bound(Node<T1, T2> x) {
+            return x != null && to != null && compare(x.key, to) >= 0 ? null : x;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<T1, T2> next() {
+            Node<T1, T2> x = next;
+            if (x == null) {
+                throw new NoSuchElementException();
+            }
+            next = bound(descending ? predecessorNode(x) : successorNode(x));
+            return x;
+        }
     }
 
-    private void printBinaryTreeInorderWalk(Node<T1, T2> x) {
-        if (x != null) {
-            printBinaryTreeInorderWalk(x.left);
+    /**
+     * Covers the nodes from current up to fence, exclusive. All of them except
+     * current lie in the subtree of split, which is where the next split
+     * happens. The tree keeps no count of its nodes, so the size estimate
+     * starts at 2^(depth of the leftmost node) and halves with every split;
+     * a degenerate tree splits poorly.
+     */
+    private final class EntrySpliterator implements Spliterator<Map.Entry<T1, T2>> {
+
+        private Node<T1, T2> current, split;
+        private final Node<T1, T2> fence;
+        private long estimate;
+
+        EntrySpliterator(Node<T1, T2> current, Node<T1, T2> fence, Node<T1, T2> split, long estimate) {
+            this.current = current;
+            this.fence = fence;
+            this.split = split;
+            this.estimate = estimate;
+        }
+
+        @Override
+        public Spliterator<Map.Entry<T1, T2>> trySplit() {
+            Node<T1, T2> s = split;
+            if (current == fence) {
+                return null;
+            }
+            while (s != null && compare(current.key, s.key) >= 0) {
+                s = s.right;
+            }
+            if (s == null) {
+                split = null;
+                return null;
+            }
+            estimate >>>= 1;
+            EntrySpliterator prefix = new EntrySpliterator(current, s, s.left, estimate);
+            current = s;
+            split = s.right;
+            return prefix;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Map.Entry<T1, T2>> action) {
+            if (current == fence) {
+                return false;
+            }
+            Node<T1, T2> x = current;
+            current = successorNode(x);
+            action.accept(x);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Map.Entry<T1, T2>> action) {
+            Node<T1, T2> x = current;
+            current = fence;
+            for (; x != fence; x = successorNode(x)) {
+                action.accept(x);
+            }
+        }
+
+        @Override
+        public long estimateSize() {
+            return estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.SORTED | Spliterator.NONNULL;
+        }
+
+        @Override
+        public Comparator<? super Map.Entry<T1, T2>> getComparator() {
+            return Map.Entry.comparingByKey();
+        }
+    }
+
+    public void printBinaryTreeInorderWalk() {
+        for (Node<T1, T2> x = nodeWithMinimumKey(root); x != null; x = successorNode(x)) {
             System.out.print(x.key + " ");
-            printBinaryTreeInorderWalk(x.right);
         }
+        System.out.println();
     }
 }
 
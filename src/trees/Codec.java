@@ -0,0 +1,169 @@
+package trees;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary encoding of keys or values in tree snapshots, see
+ * RBTree.saveSnapshot. A codec reads and writes through a ByteBuffer that
+ * has room for the whole value.
+ *
+ * A codec either has a fixed size, in which case every value takes exactly
+ * fixedSize() bytes and may not be null, or a variable size, in which case
+ * the snapshot stores the size of every value in front of it and null is
+ * stored as a size alone.
+ *
+ * @param <T> Type of the encoded values
+ */
+public interface Codec<T> {
+
+    /**
+     * Returns the number of bytes every value takes, or -1 if it depends on
+     * the value.
+     */
+    default int fixedSize() {
+        return -1;
+    }
+
+    /**
+     * Returns the number of bytes write puts for the value, which is not
+     * null. Codecs of a fixed size need not implement it.
+     */
+    default int size(T value) {
+        return fixedSize();
+    }
+
+    /**
+     * Puts the value, which is not null, at the position of the buffer.
+     */
+    void write(T value, ByteBuffer buffer);
+
+    /**
+     * Reads a value of size bytes from the position of the buffer.
+     */
+    T read(ByteBuffer buffer, int size);
+
+    static Codec<Integer> ints() {
+        return new Codec<Integer>() {
+            @Override
+            public int fixedSize() {
+                return Integer.BYTES;
+            }
+
+            @Override
+            public void write(Integer value, ByteBuffer buffer) {
+                buffer.putInt(value);
+            }
+
+            @Override
+            public Integer read(ByteBuffer buffer, int size) {
+                return buffer.getInt();
+            }
+        };
+    }
+
+    static Codec<Long> longs() {
+        return new Codec<Long>() {
+            @Override
+            public int fixedSize() {
+                return Long.BYTES;
+            }
+
+            @Override
+            public void write(Long value, ByteBuffer buffer) {
+                buffer.putLong(value);
+            }
+
+            @Override
+            public Long read(ByteBuffer buffer, int size) {
+                return buffer.getLong();
+            }
+        };
+    }
+
+    static Codec<Double> doubles() {
+        return new Codec<Double>() {
+            @Override
+            public int fixedSize() {
+                return Double.BYTES;
+            }
+
+            @Override
+            public void write(Double value, ByteBuffer buffer) {
+                buffer.putDouble(value);
+            }
+
+            @Override
+            public Double read(ByteBuffer buffer, int size) {
+                return buffer.getDouble();
+            }
+        };
+    }
+
+    /**
+     * Strings in UTF-8. Strings with unpaired surrogates have no UTF-8 form
+     * and are rejected.
+     */
+    static Codec<String> strings() {
+        return new Codec<String>() {
+            @Override
+            public int size(String value) {
+                int n = value.length(), size = 0;
+                for (int i = 0; i < n; i++) {
+                    char c = value.charAt(i);
+                    if (c < 0x80) {
+                        size++;
+                    } else if (c < 0x800) {
+                        size += 2;
+                    } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        size += 4;
+                        i++;
+                    } else if (Character.isSurrogate(c)) {
+                        throw new IllegalArgumentException("unpaired surrogate at index " + i);
+                    } else {
+                        size += 3;
+                    }
+                }
+                return size;
+            }
+
+            @Override
+            public void write(String value, ByteBuffer buffer) {
+                buffer.put(value.getBytes(StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public String read(ByteBuffer buffer, int size) {
+                if (!buffer.hasArray()) {
+                    byte[] b = new byte[size];
+                    buffer.get(b);
+                    return new String(b, StandardCharsets.UTF_8);
+                }
+                String s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), size, StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + size);
+                return s;
+            }
+        };
+    }
+
+    static Codec<byte[]> bytes() {
+        return new Codec<byte[]>() {
+            @Override
+            public int size(byte[] value) {
+                return value.length;
+            }
+
+            @Override
+            public void write(byte[] value, ByteBuffer buffer) {
+                buffer.put(value);
+            }
+
+            @Override
+            public byte[] read(ByteBuffer buffer, int size) {
+                byte[] b = new byte[size];
+                buffer.get(b);
+                return b;
+            }
+        };
+    }
+}
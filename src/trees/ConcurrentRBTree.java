@@ -0,0 +1,100 @@
+package trees;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Thread-safe wrapper around {@link RBTree} whose lookups do not lock.
+ *
+ * Writers take the write mode of a StampedLock and run the usual insert and
+ * remove with insertRBfixUp/deleteRBfixUp balancing. A reader walks the
+ * tree under an optimistic stamp and keeps the result only if no writer
+ * held the lock in the meantime; otherwise it repeats the lookup in read
+ * mode. Readers therefore never write shared memory on the fast path and
+ * scale with the number of cores as long as writes are rare.
+ *
+ * @param <T1> Key type
+ * @param <T2> Value type
+ */
+public class ConcurrentRBTree<T1 extends Comparable<T1>, T2> {
+
+    private final RBTree<T1, T2> tree = new RBTree<>();
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * Returns the value stored under the key, or null if there is no such key.
+     *
+     * Time complexity: O(logn)
+     */
+    public T2 getValueByKey(T1 key) {
+        return tree.readByKey(key, lock, x -> x.value);
+    }
+
+    /**
+     * Time complexity: O(logn)
+     */
+    public boolean containsKey(T1 key) {
+        return tree.readByKey(key, lock, x -> x.key != null);
+    }
+
+    /**
+     * Time complexity: O(logn)
+     */
+    public void insertNodeInRBTree(T1 key, T2 value) {
+        long stamp = lock.writeLock();
+        try {
+            tree.insertNodeInRBTree(key, value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Time complexity: O(logn)
+     */
+    public boolean removeNodeFromRBTree(T1 key) {
+        long stamp = lock.writeLock();
+        try {
+            return tree.removeNodeFromRBTree(key);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @see RBTree#buildFromSorted(Comparable[], Object[])
+     */
+    public void buildFromSorted(T1[] keys, T2[] values) {
+        long stamp = lock.writeLock();
+        try {
+            tree.buildFromSorted(keys, values);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @see RBTree#buildFromSorted(Iterator, int)
+     */
+    public void buildFromSorted(Iterator<? extends Map.Entry<? extends T1, ? extends T2>> entries, int size) {
+        long stamp = lock.writeLock();
+        try {
+            tree.buildFromSorted(entries, size);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @see RBTree#appendSorted(Comparable[], Object[])
+     */
+    public void appendSorted(T1[] keys, T2[] values) {
+        long stamp = lock.writeLock();
+        try {
+            tree.appendSorted(keys, values);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+}
@@ -0,0 +1,566 @@
+package trees;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * {@link RBTree} in memory whose updates survive a restart.
+ *
+ * Every insert and remove is appended to a write-ahead log before it changes
+ * the tree, and a checkpoint now and then writes the whole tree as a
+ * snapshot, see {@link RBTree#saveSnapshot}, after which a new log starts.
+ * The directory of the tree holds the files of one generation g:
+ * <pre>
+ * checkpoint-g.snap  the tree as of the start of wal-g.log, absent for g = 0
+ * wal-g.log          the updates since
+ * </pre>
+ * Opening the directory loads the newest checkpoint and replays its log, so
+ * a restart reads the tree once and the updates since the last checkpoint.
+ * A checkpoint is taken as soon as the log grows beyond checkpointBytes,
+ * which bounds the replay.
+ *
+ * The log is forced to the disk after every syncEvery records; a write that
+ * completes such a group returns only after the force. Forcing is a group
+ * commit: one thread forces the log for all records appended until then,
+ * and writers that wait for a record of the same group return together with
+ * it instead of forcing again. With syncEvery = 1, the default, a write
+ * returns once it is durable; with a larger value up to syncEvery - 1 of the
+ * last writes may be lost in a crash; with 0 the log is forced only by
+ * {@link #sync()}, {@link #checkpoint()} and {@link #close()}.
+ *
+ * The tree is thread-safe. Lookups read under an optimistic stamp as in
+ * {@link ConcurrentRBTree}; writers append to the log and change the tree
+ * under the write lock, a checkpoint holds the read lock while it writes
+ * the snapshot. Iterators copy up to CHUNK entries at a time under the read
+ * lock, continuing after the last key they returned, as in
+ * {@link ShardedTree}; their entries are copies, so values are changed only
+ * through the log. Once a write to the log failed, further updates throw,
+ * since the log may end in the middle of a record.
+ *
+ * @param <T1> Key type
+ * @param <T2> Value type
+ */
+public class DurableRBTree<T1 extends Comparable<T1>, T2> implements SortedStore<T1, T2>, AutoCloseable {
+
+    private static final String CHECKPOINT = "checkpoint-", CHECKPOINT_SUFFIX = ".snap";
+    private static final String LOG = "wal-", LOG_SUFFIX = ".log";
+    private static final int CHUNK = 256;
+
+    private final RBTree<T1, T2> tree = new RBTree<>();
+    private final StampedLock lock = new StampedLock();
+    /**
+     * Held while the log is forced or replaced; taken before lock.
+     */
+    private final Object syncLock = new Object();
+
+    private final Path directory;
+    private final Codec<T1> keyCodec;
+    private final Codec<T2> valueCodec;
+    private final int syncEvery;
+    private final long checkpointBytes;
+
+    private WriteAheadLog<T1, T2> log;
+    private long generation;
+    /**
+     * Records appended since the tree was opened; guarded by lock.
+     */
+    private long appended;
+    /**
+     * Of these, the records known to be on the disk.
+     */
+    private volatile long durable;
+    private volatile IOException failure;
+    private boolean closed;
+
+    /**
+     * Opens the tree in the directory with syncEvery = 1 and a checkpoint
+     * every 64 MiB of log.
+     */
+    public DurableRBTree(Path directory, Codec<T1> keyCodec, Codec<T2> valueCodec) throws IOException {
+        this(directory, keyCodec, valueCodec, 1, 64L << 20);
+    }
+
+    /**
+     * Opens the tree in the directory, creating the directory if it does not
+     * exist, and recovers its content from the newest checkpoint and log.
+     *
+     * @param syncEvery       number of records after which the log is
+     *                        forced, 0 to force only on request
+     * @param checkpointBytes size of the log that triggers a checkpoint
+     */
+    public DurableRBTree(Path directory, Codec<T1> keyCodec, Codec<T2> valueCodec, int syncEvery, long checkpointBytes) throws IOException {
+        if (syncEvery < 0) {
+            throw new IllegalArgumentException("syncEvery must not be negative: " + syncEvery);
+        }
+        if (checkpointBytes <= 0) {
+            throw new IllegalArgumentException("checkpointBytes must be positive: " + checkpointBytes);
+        }
+        this.directory = directory;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.syncEvery = syncEvery;
+        this.checkpointBytes = checkpointBytes;
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    private void recover() throws IOException {
+        long newest = -1;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                long g = StoreFiles.numberOf(file, CHECKPOINT, CHECKPOINT_SUFFIX);
+                if (g > newest) {
+                    newest = g;
+                }
+            }
+        }
+        if (newest >= 0) {
+            try (FileChannel channel = FileChannel.open(checkpointFile(newest), StandardOpenOption.READ)) {
+                tree.loadSnapshot(channel, keyCodec, valueCodec);
+            }
+        }
+        generation = Math.max(newest, 0);
+        ReplayBatch<T1, T2> replay = new ReplayBatch<>(tree);
+        log = new WriteAheadLog<>(logFile(generation), keyCodec, valueCodec, replay);
+        replay.flush();
+        deleteOlderThan(generation);
+    }
+
+    /**
+     * Replays the log in batches of REPLAY_BATCH updates of the same kind
+     * through insertAll and removeAll, which sort the batch and so walk the
+     * tree in key order instead of jumping around in it for every record.
+     * The batch arrays grow with the log, so an empty or short log costs
+     * no large allocation.
+     */
+    private static final class ReplayBatch<T1 extends Comparable<T1>, T2> implements WriteAheadLog.Replay<T1, T2> {
+
+        private static final int REPLAY_BATCH = 1 << 18;
+
+        private final RBTree<T1, T2> tree;
+        private T1[] keys;
+        private T2[] values;
+        private int count;
+        private boolean puts;
+
+        ReplayBatch(RBTree<T1, T2> tree) {
+            this.tree = tree;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private void grow() {
+            if (keys == null) {
+                keys = (T1[]) new Comparable[16];
+                values = (T2[]) new Object[16];
+            } else if (count == keys.length) {
+                keys = Arrays.copyOf(keys, Math.min(2 * count, REPLAY_BATCH));
+                values = Arrays.copyOf(values, keys.length);
+            }
+        }
+
+        @Override
+        public void put(T1 key, T2 value) {
+            if (!puts || count == REPLAY_BATCH) {
+                flush();
+                puts = true;
+            }
+            grow();
+            keys[count] = key;
+            values[count++] = value;
+        }
+
+        @Override
+        public void delete(T1 key) {
+            if (puts || count == REPLAY_BATCH) {
+                flush();
+                puts = false;
+            }
+            grow();
+            keys[count++] = key;
+        }
+
+        void flush() {
+            if (count == 0) {
+                return;
+            }
+            T1[] k = Arrays.copyOf(keys, count);
+            if (puts) {
+                tree.insertAll(k, Arrays.copyOf(values, count));
+            } else {
+                tree.removeAll(k);
+            }
+            Arrays.fill(keys, 0, count, null);
+            Arrays.fill(values, 0, count, null);
+            count = 0;
+        }
+    }
+
+    private Path checkpointFile(long g) {
+        return directory.resolve(CHECKPOINT + g + CHECKPOINT_SUFFIX);
+    }
+
+    private Path logFile(long g) {
+        return directory.resolve(LOG + g + LOG_SUFFIX);
+    }
+
+    /**
+     * Deletes the checkpoints and logs of older generations and checkpoints
+     * that were not completed.
+     */
+    private void deleteOlderThan(long g) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                long c = StoreFiles.numberOf(file, CHECKPOINT, CHECKPOINT_SUFFIX);
+                long l = StoreFiles.numberOf(file, LOG, LOG_SUFFIX);
+                if (c >= 0 && c < g || l >= 0 && l < g || StoreFiles.numberOf(file, CHECKPOINT, CHECKPOINT_SUFFIX + ".tmp") >= 0) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the value stored under the key, or null if there is no such key.
+     *
+     * Time complexity: O(logn)
+     */
+    @Override
+    public T2 getValueByKey(T1 key) {
+        return tree.readByKey(key, lock, x -> x.value);
+    }
+
+    /**
+     * Time complexity: O(logn)
+     */
+    public boolean containsKey(T1 key) {
+        return tree.readByKey(key, lock, x -> x.key != null);
+    }
+
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return tree.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Inserts the pair, or replaces the value if the key is present, after
+     * the update was appended to the log.
+     *
+     * Time complexity: O(logn), plus a force of the log after every
+     * syncEvery updates
+     *
+     * @throws UncheckedIOException if the log cannot be written
+     */
+    public void insertNodeInRBTree(T1 key, T2 value) {
+        long record;
+        boolean full;
+        long stamp = lock.writeLock();
+        try {
+            ensureWritable();
+            try {
+                log.put(key, value);
+            } catch (IOException e) {
+                throw fail(e);
+            }
+            tree.insertNodeInRBTree(key, value);
+            record = ++appended;
+            full = log.size() >= checkpointBytes;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        afterAppend(record, full);
+    }
+
+    /**
+     * Removes the key, after the removal was appended to the log. Removing a
+     * key that is not present writes no record.
+     *
+     * Time complexity: O(logn), plus a force of the log after every
+     * syncEvery updates
+     *
+     * @return true if the key was present
+     * @throws UncheckedIOException if the log cannot be written
+     */
+    public boolean removeNodeFromRBTree(T1 key) {
+        long record;
+        boolean full;
+        long stamp = lock.writeLock();
+        try {
+            ensureWritable();
+            if (tree.getNodeByKeyOptimistically(key).key == null) {
+                return false;
+            }
+            try {
+                log.delete(key);
+            } catch (IOException e) {
+                throw fail(e);
+            }
+            tree.removeNodeFromRBTree(key);
+            record = ++appended;
+            full = log.size() >= checkpointBytes;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        afterAppend(record, full);
+        return true;
+    }
+
+    @Override
+    public void insertNode(T1 key, T2 value) {
+        insertNodeInRBTree(key, value);
+    }
+
+    @Override
+    public boolean removeNode(T1 key) {
+        return removeNodeFromRBTree(key);
+    }
+
+    private void ensureWritable() {
+        if (closed) {
+            throw new IllegalStateException("tree is closed");
+        }
+        if (failure != null) {
+            throw new UncheckedIOException("an earlier write to the log failed", failure);
+        }
+    }
+
+    private UncheckedIOException fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+        return new UncheckedIOException(e);
+    }
+
+    /**
+     * Forces the log if the record completes a group, or takes a checkpoint
+     * if the log has grown large enough, which makes the record durable as
+     * well.
+     */
+    private void afterAppend(long record, boolean full) {
+        try {
+            if (full) {
+                checkpoint(true);
+            } else if (syncEvery > 0 && record - durable >= syncEvery) {
+                sync(record);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Makes all updates made so far durable.
+     */
+    public void sync() throws IOException {
+        long stamp = lock.readLock();
+        long record;
+        try {
+            record = appended;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        sync(record);
+    }
+
+    /**
+     * Returns once the first record updates are durable. The thread that gets
+     * the sync lock first forces the log for everything appended up to then;
+     * threads that queued behind it usually find their record covered.
+     */
+    private void sync(long record) throws IOException {
+        synchronized (syncLock) {
+            if (durable >= record) {
+                return;
+            }
+            WriteAheadLog<T1, T2> l;
+            long upTo;
+            long stamp = lock.writeLock();
+            try {
+                ensureWritable();
+                l = log;
+                upTo = appended;
+                try {
+                    l.flush();
+                } catch (IOException e) {
+                    throw fail(e);
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            try {
+                l.force();
+            } catch (IOException e) {
+                throw fail(e);
+            }
+            durable = upTo;
+        }
+    }
+
+    /**
+     * Writes the tree to a new checkpoint and starts a new, empty log. The
+     * checkpoint becomes the one used on restart only once it is complete
+     * on the disk; then the previous checkpoint and log are deleted.
+     *
+     * Lookups go on during a checkpoint, updates wait for it.
+     *
+     * Time complexity: O(n)
+     */
+    public void checkpoint() throws IOException {
+        checkpoint(false);
+    }
+
+    /**
+     * Takes a checkpoint; if onlyIfFull, only if no other thread took one
+     * since the log outgrew checkpointBytes.
+     */
+    private void checkpoint(boolean onlyIfFull) throws IOException {
+        synchronized (syncLock) {
+            long stamp = lock.readLock();
+            try {
+                ensureWritable();
+                if (onlyIfFull && log.size() < checkpointBytes) {
+                    return;
+                }
+                long next = generation + 1;
+                Path tmp = directory.resolve(CHECKPOINT + next + CHECKPOINT_SUFFIX + ".tmp");
+                try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE)) {
+                    tree.saveSnapshot(channel, keyCodec, valueCodec);
+                    channel.force(true);
+                }
+                Files.move(tmp, checkpointFile(next), StandardCopyOption.ATOMIC_MOVE);
+                StoreFiles.forceDirectory(directory);
+                WriteAheadLog<T1, T2> old = log;
+                Files.deleteIfExists(logFile(next));
+                log = new WriteAheadLog<>(logFile(next), keyCodec, valueCodec, null);
+                generation = next;
+                durable = appended;
+                old.close();
+                deleteOlderThan(next);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    /**
+     * Forces the log and closes it. The tree cannot be updated afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            long stamp = lock.writeLock();
+            try {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                log.close();
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Iterates in ascending key order, see the class comment for what it
+     * sees of concurrent updates.
+     */
+    @Override
+    public Iterator<Map.Entry<T1, T2>> iterator() {
+        return new EntryIterator(null, null);
+    }
+
+    /**
+     * Iterates in ascending order over the entries with from <= key < to.
+     */
+    @Override
+    public Iterator<Map.Entry<T1, T2>> range(T1 from, T1 to) {
+        return new EntryIterator(from, to);
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<T1, T2>> {
+
+        private final T1 to;
+        /**
+         * The next entry has a key at least position, or greater than it
+         * if inclusive is false; null is the start of the key space.
+         */
+        private T1 position;
+        private boolean inclusive = true;
+        private boolean done;
+        private final List<Map.Entry<T1, T2>> chunk = new ArrayList<>(CHUNK);
+        private int next;
+
+        EntryIterator(T1 from, T1 to) {
+            this.position = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == chunk.size() && !done) {
+                fill();
+            }
+            return next < chunk.size();
+        }
+
+        @Override
+        public Map.Entry<T1, T2> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return chunk.get(next++);
+        }
+
+        /**
+         * Copies the next entries after position.
+         */
+        private void fill() {
+            chunk.clear();
+            next = 0;
+            long stamp = lock.readLock();
+            try {
+                Iterator<Map.Entry<T1, T2>> it = position == null ? tree.iterator() : tree.tailFrom(position);
+                while (chunk.size() < CHUNK) {
+                    if (!it.hasNext()) {
+                        done = true;
+                        break;
+                    }
+                    Map.Entry<T1, T2> e = it.next();
+                    T1 key = e.getKey();
+                    if (to != null && key.compareTo(to) >= 0) {
+                        done = true;
+                        break;
+                    }
+                    if (inclusive || key.compareTo(position) > 0) {
+                        chunk.add(new AbstractMap.SimpleImmutableEntry<>(key, e.getValue()));
+                    }
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+            if (!chunk.isEmpty()) {
+                position = chunk.get(chunk.size() - 1).getKey();
+                inclusive = false;
+            }
+        }
+    }
+}
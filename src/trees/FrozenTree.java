@@ -0,0 +1,254 @@
+package trees;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable copy of the entries of a tree, made by freeze() of
+ * {@link RBTree}, {@link AVLTree} or {@link BinaryTree} for data that is
+ * built once and then only queried.
+ *
+ * Keys and values sit in two arrays in Eytzinger (breadth-first) order:
+ * slot 1 is the root and the children of slot i are slots 2i and 2i + 1.
+ * The first levels of every search share a few cache lines, and the two
+ * children of a slot are next to each other. The result of a comparison
+ * becomes the next index by arithmetic. Long and Integer keys are kept
+ * unboxed in a long array; their lookup always walks down to a leaf and
+ * checks the match once at the end, so the loop exit is its only branch
+ * and the search touches no key objects at all. Other keys are compared
+ * with compareTo, which branches anyway, and their lookup stops at the
+ * match to save the remaining calls.
+ *
+ * Besides the entry objects the index needs two array slots per entry,
+ * where a tree needs a node of about 40 bytes.
+ *
+ * Later changes to the source tree are not reflected.
+ *
+ * @param <T1> Key type
+ * @param <T2> Value type
+ */
+public final class FrozenTree<T1 extends Comparable<T1>, T2> implements Iterable<Map.Entry<T1, T2>> {
+
+    private static final byte OBJECT = 0, LONG = 1, INT = 2;
+
+    private final int size;
+    private final byte kind;
+    /**
+     * Keys in Eytzinger order, slot 0 unused; null unless kind is OBJECT.
+     */
+    private final Object[] keys;
+    /**
+     * Unboxed keys in Eytzinger order; null if kind is OBJECT.
+     */
+    private final long[] longKeys;
+    private final Object[] values;
+
+    /**
+     * @param entries entries sorted by strictly ascending key
+     * @param size number of entries the iterator returns
+     */
+    FrozenTree(Iterator<? extends Map.Entry<T1, T2>> entries, int size) {
+        Object[] sortedKeys = new Object[size];
+        Object[] sortedValues = new Object[size];
+        boolean allLong = true, allInt = true;
+        for (int i = 0; i < size; i++) {
+            if (!entries.hasNext()) {
+                throw new IllegalStateException("expected " + size + " entries, got " + i);
+            }
+            Map.Entry<T1, T2> e = entries.next();
+            sortedKeys[i] = e.getKey();
+            sortedValues[i] = e.getValue();
+            allLong &= sortedKeys[i] instanceof Long;
+            allInt &= sortedKeys[i] instanceof Integer;
+        }
+        if (entries.hasNext()) {
+            throw new IllegalStateException("more than " + size + " entries");
+        }
+        this.size = size;
+        this.kind = size == 0 ? OBJECT : allLong ? LONG : allInt ? INT : OBJECT;
+        int[] slots = new int[size];
+        inorder(slots, 1, 0, size);
+        values = new Object[size + 1];
+        if (kind == OBJECT) {
+            keys = new Object[size + 1];
+            longKeys = null;
+            for (int i = 0; i < size; i++) {
+                keys[slots[i]] = sortedKeys[i];
+            }
+        } else {
+            keys = null;
+            longKeys = new long[size + 1];
+            for (int i = 0; i < size; i++) {
+                longKeys[slots[i]] = ((Number) sortedKeys[i]).longValue();
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            values[slots[i]] = sortedValues[i];
+        }
+    }
+
+    /**
+     * Fills slots[pos..] with the slots of the subtree rooted at slot i in
+     * key order.
+     *
+     * @return position after the subtree
+     */
+    private static int inorder(int[] slots, int i, int pos, int n) {
+        if (i <= n) {
+            pos = inorder(slots, 2 * i, pos, n);
+            slots[pos++] = i;
+            pos = inorder(slots, 2 * i + 1, pos, n);
+        }
+        return pos;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value stored under the key, or null if there is no such key.
+     *
+     * Time complexity: O(logn)
+     */
+    @SuppressWarnings("unchecked")
+    public T2 getValueByKey(T1 key) {
+        int n = size;
+        int i = 1;
+        if (kind == OBJECT) {
+            Object[] k = keys;
+            while (i <= n) {
+                int c = ((T1) k[i]).compareTo(key);
+                if (c == 0) {
+                    return (T2) values[i];
+                }
+                i = 2 * i + (c >>> 31);
+            }
+            return null;
+        }
+        long v = ((Number) key).longValue();
+        long[] k = longKeys;
+        while (i <= n) {
+            i = 2 * i + (k[i] < v ? 1 : 0);
+        }
+        i = ancestor(i);
+        return i != 0 && k[i] == v ? (T2) values[i] : null;
+    }
+
+    /**
+     * Slot of the smallest key >= key, 0 if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    private int ceilingSlot(T1 key) {
+        int n = size;
+        int i = 1;
+        if (kind == OBJECT) {
+            while (i <= n) {
+                i = 2 * i + (((T1) keys[i]).compareTo(key) >>> 31);
+            }
+        } else {
+            long v = ((Number) key).longValue();
+            while (i <= n) {
+                i = 2 * i + (longKeys[i] < v ? 1 : 0);
+            }
+        }
+        return ancestor(i);
+    }
+
+    /**
+     * Where a search ended below the leaves at i, the last slot at which it
+     * went left: drop the trailing right turns and the left turn before.
+     */
+    private static int ancestor(int i) {
+        return i >>> (Integer.numberOfTrailingZeros(~i) + 1);
+    }
+
+    /**
+     * Slot of the next key in ascending order, 0 after the last one.
+     */
+    private int successor(int i) {
+        if (2 * i + 1 <= size) {
+            i = 2 * i + 1;
+            while (2 * i <= size) {
+                i = 2 * i;
+            }
+            return i;
+        }
+        return ancestor(i);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T1 key(int i) {
+        switch (kind) {
+            case LONG:
+                return (T1) Long.valueOf(longKeys[i]);
+            case INT:
+                return (T1) Integer.valueOf((int) longKeys[i]);
+            default:
+                return (T1) keys[i];
+        }
+    }
+
+    /**
+     * Iterates over the entries in ascending key order.
+     */
+    @Override
+    public Iterator<Map.Entry<T1, T2>> iterator() {
+        int first = size == 0 ? 0 : 1;
+        while (first != 0 && 2 * first <= size) {
+            first = 2 * first;
+        }
+        return new EntryIterator(first, null);
+    }
+
+    /**
+     * Iterates in ascending order over the entries with from <= key < to.
+     *
+     * Time complexity: O(logn) to start, O(1) amortized per entry
+     */
+    public Iterator<Map.Entry<T1, T2>> range(T1 from, T1 to) {
+        return new EntryIterator(ceilingSlot(from), to);
+    }
+
+    /**
+     * Iterates in ascending order over the entries with key >= from.
+     *
+     * Time complexity: O(logn) to start, O(1) amortized per entry
+     */
+    public Iterator<Map.Entry<T1, T2>> tailFrom(T1 from) {
+        return new EntryIterator(ceilingSlot(from), null);
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<T1, T2>> {
+
+        private int next;
+        private final T1 to;
+
+        EntryIterator(int first, T1 to) {
+            this.to = to;
+            this.next = bound(first);
+        }
+
+        private int bound(int i) {
+            return i != 0 && to != null && key(i).compareTo(to) >= 0 ? 0 : i;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != 0;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map.Entry<T1, T2> next() {
+            int i = next;
+            if (i == 0) {
+                throw new NoSuchElementException();
+            }
+            next = bound(successor(i));
+            return new AbstractMap.SimpleImmutableEntry<>(key(i), (T2) values[i]);
+        }
+    }
+}
@@ -0,0 +1,390 @@
+// Generated by codegen/GeneratePrimitiveTrees.java from PrimitiveAVLTree.template, do not edit.
+package trees;
+
+import java.util.NoSuchElementException;
+
+import static java.lang.Math.abs;
+
+/**
+ * AVL tree specialized for int keys.
+ *
+ * Keys are stored unboxed and compared with primitive comparisons, so lookups
+ * allocate nothing and do no virtual compareTo calls. The operations and
+ * their complexity are the same as in {@link AVLTree}.
+ *
+ * @param <T2> Value type
+ */
+public class IntAVLTree<T2> {
+
+    Node<T2> nil = new Node<>(0, null);
+    Node<T2> root = nil;
+    private int size;
+
+    static class Node<T2> {
+
+        int key;
+        T2 value;
+        Node<T2> parent, left, right;
+        int balanceFactor;
+
+        private Node(int key, T2 value) {
+            this.key = key;
+            this.value = value;
+            this.balanceFactor = 0;
+        }
+
+    }
+
+    private Node<T2> getNodeByKey(int key) {
+        Node<T2> x = root;
+        while (x != nil) {
+            if (key == x.key) {
+                return x;
+            } else if (key > x.key) {
+                x = x.right;
+            } else {
+                x = x.left;
+            }
+        }
+        return nil;
+    }
+
+    public T2 getValueByKey(int key) {
+        return getNodeByKey(key).value;
+    }
+
+    public boolean containsKey(int key) {
+        return getNodeByKey(key) != nil;
+    }
+
+    /**
+     * Time complexity: O(1)
+     */
+    public int size() {
+        return size;
+    }
+
+    private Node<T2> getNodeWithMinimumKey(Node<T2> root) {
+        if (root == nil) {
+            return null;
+        }
+        Node<T2> x = root;
+        while (x.left != nil) {
+            x = x.left;
+        }
+        return x;
+    }
+
+    public boolean insertNodeInAVLTree(int key, T2 value) {
+        Node<T2> x = root, y = nil;
+        while (x != nil) {
+            y = x;
+            if (key == x.key) {
+                x.value = value;
+                return true;
+            } else if (key > x.key) {
+                x = x.right;
+            } else {
+                x = x.left;
+            }
+        }
+        Node<T2> z = new Node<>(key, value);
+        z.parent = y;
+        if (y == nil) {
+            root = z;
+        } else if (key > y.key) {
+            y.right = z;
+        } else {
+            y.left = z;
+        }
+        z.left = nil;
+        z.right = nil;
+        size++;
+        return balanceForInsertingNode(z);
+    }
+
+    /**
+     * Restores the balance of a node whose balance factor became +2 or -2
+     * with a single or a double rotation.
+     *
+     * @param y unbalanced node
+     * @return root of the rebalanced subtree
+     */
+    private Node<T2> rotating(Node<T2> y) {
+        Node<T2> z, w;
+        if (y.balanceFactor > 0) {
+            z = y.right;
+            if (z.balanceFactor > -1) {
+                if (z.balanceFactor == 1) {
+                    y.balanceFactor = 0;
+                    z.balanceFactor = 0;
+                } else {
+                    y.balanceFactor = 1;
+                    z.balanceFactor = -1;
+                }
+                leftRotate(y);
+                return z;
+            }
+            w = z.left;
+            if (w.balanceFactor == 1) {
+                y.balanceFactor = -1;
+                z.balanceFactor = 0;
+            } else if (w.balanceFactor == -1) {
+                y.balanceFactor = 0;
+                z.balanceFactor = 1;
+            } else {
+                y.balanceFactor = 0;
+                z.balanceFactor = 0;
+            }
+            w.balanceFactor = 0;
+            rightRotate(z);
+            leftRotate(y);
+        } else {
+            z = y.left;
+            if (z.balanceFactor < 1) {
+                if (z.balanceFactor == -1) {
+                    y.balanceFactor = 0;
+                    z.balanceFactor = 0;
+                } else {
+                    y.balanceFactor = -1;
+                    z.balanceFactor = 1;
+                }
+                rightRotate(y);
+                return z;
+            }
+            w = z.right;
+            if (w.balanceFactor == -1) {
+                y.balanceFactor = 1;
+                z.balanceFactor = 0;
+            } else if (w.balanceFactor == 1) {
+                y.balanceFactor = 0;
+                z.balanceFactor = -1;
+            } else {
+                y.balanceFactor = 0;
+                z.balanceFactor = 0;
+            }
+            w.balanceFactor = 0;
+            leftRotate(z);
+            rightRotate(y);
+        }
+        return w;
+    }
+
+    private boolean balanceForInsertingNode(Node<T2> z) {
+        Node<T2> y;
+        while (z != root) {
+            y = z.parent;
+            if (z == y.right) {
+                ++y.balanceFactor;
+            } else {
+                --y.balanceFactor;
+            }
+            if (y.balanceFactor == 0) {
+                return true;
+            }
+            if (abs(y.balanceFactor) > 1) {
+                rotating(y);
+                return true;
+            }
+            z = y;
+        }
+        return true;
+    }
+
+    public boolean deleteNodeFromAVLTree(int key) {
+        Node<T2> z = getNodeByKey(key);
+        Node<T2> y, p;
+        boolean leftShorter;
+        if (z == nil) {
+            return false;
+        }
+        size--;
+        if (z.left == nil || z.right == nil) {
+            p = z.parent;
+            leftShorter = p != nil && p.left == z;
+            transplant(z, z.left == nil ? z.right : z.left);
+        } else {
+            y = getNodeWithMinimumKey(z.right);
+            if (y.parent == z) {
+                p = y;
+                leftShorter = false;
+            } else {
+                p = y.parent;
+                leftShorter = true;
+                transplant(y, y.right);
+                y.right = z.right;
+                y.right.parent = y;
+            }
+            transplant(z, y);
+            y.left = z.left;
+            y.left.parent = y;
+            y.balanceFactor = z.balanceFactor;
+        }
+        return balanceForDeletingNode(p, leftShorter);
+    }
+
+    /**
+     * Walks up from the parent of the removed position and restores balance
+     * factors until the height of some subtree stops changing.
+     *
+     * @param p node one of whose subtrees became shorter
+     * @param leftShorter true if it is the left subtree of p
+     */
+    private boolean balanceForDeletingNode(Node<T2> p, boolean leftShorter) {
+        while (p != nil) {
+            if (leftShorter) {
+                ++p.balanceFactor;
+            } else {
+                --p.balanceFactor;
+            }
+            if (abs(p.balanceFactor) == 1) {
+                return true;
+            }
+            if (abs(p.balanceFactor) > 1) {
+                p = rotating(p);
+                if (p.balanceFactor != 0) {
+                    return true;
+                }
+            }
+            leftShorter = p == p.parent.left;
+            p = p.parent;
+        }
+        return true;
+    }
+
+    public void transplant(Node<T2> u, Node<T2> v) {
+        if (u.parent == nil) {
+            root = v;
+        } else if (u.parent.left == u) {
+            u.parent.left = v;
+        } else {
+            u.parent.right = v;
+        }
+        v.parent = u.parent;
+
+    }
+
+    private void leftRotate(Node<T2> x) {
+        Node<T2> y = x.right;
+        x.right = y.left;
+        if (y.left != nil) {
+            y.left.parent = x;
+        }
+        y.parent = x.parent;
+        if (x.parent == nil) {
+            root = y;
+        } else if (x == x.parent.left) {
+            x.parent.left = y;
+        } else {
+            x.parent.right = y;
+        }
+        y.left = x;
+        x.parent = y;
+    }
+
+    private void rightRotate(Node<T2> x) {
+        Node<T2> y = x.left;
+        x.left = y.right;
+        if (y.right != nil) {
+            y.right.parent = x;
+        }
+        y.parent = x.parent;
+        if (x.parent == nil) {
+            root = y;
+        } else if (x == x.parent.right) {
+            x.parent.right = y;
+        } else {
+            x.parent.left = y;
+        }
+        y.right = x;
+        x.parent = y;
+    }
+
+    public boolean isBalanced(Node<T2> x) {
+        if (abs(x.balanceFactor) > 1) {
+            return false;
+        } else if (x == nil) {
+            return true;
+        } else {
+            return isBalanced(x.left) && isBalanced(x.right);
+        }
+    }
+
+    /**
+     * Returns the node with the next larger key, nil after the last one.
+     *
+     * Time complexity: O(logn), O(1) amortized over a full walk
+     */
+    private Node<T2> successorNode(Node<T2> x) {
+        if (x.right != nil) {
+            return getNodeWithMinimumKey(x.right);
+        }
+        Node<T2> y = x.parent;
+        while (y != nil && x == y.right) {
+            x = y;
+            y = y.parent;
+        }
+        return y;
+    }
+
+    /**
+     * Returns a cursor over the entries in ascending key order, placed before
+     * the first one. Keys and values are read without boxing. The tree must
+     * not be modified while the cursor is in use.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * In-order cursor: next() moves to the following entry, key() and value()
+     * read the current one.
+     */
+    public final class Cursor {
+
+        private Node<T2> current = nil;
+        private Node<T2> next = root == nil ? nil : getNodeWithMinimumKey(root);
+
+        private Cursor() {
+        }
+
+        /**
+         * Moves to the next entry.
+         *
+         * Time complexity: O(1) amortized
+         *
+         * @return false if there is none
+         */
+        public boolean next() {
+            current = next;
+            if (current == nil) {
+                return false;
+            }
+            next = successorNode(current);
+            return true;
+        }
+
+        public int key() {
+            return entry().key;
+        }
+
+        public T2 value() {
+            return entry().value;
+        }
+
+        private Node<T2> entry() {
+            if (current == nil) {
+                throw new NoSuchElementException();
+            }
+            return current;
+        }
+    }
+
+    public void printAVLTreeInorderWalk() {
+        for (Node<T2> x = root == nil ? nil : getNodeWithMinimumKey(root); x != nil; x = successorNode(x)) {
+            System.out.println("Node: " + x.key + ";   BalanceFactor: " + x.balanceFactor + ";   Parent: " + x.parent.key);
+        }
+        System.out.println();
+    }
+
+}
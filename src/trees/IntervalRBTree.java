@@ -0,0 +1,577 @@
+package trees;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Interval tree: a red-black tree of closed intervals [low, high], ordered by
+ * low endpoint and then by high endpoint.
+ *
+ * This is the augmented tree of Cormen, Leiserson and Rivest, Introduction to
+ * Algorithms, section 14.3. Every node also stores the greatest high endpoint
+ * in its subtree. Rotations and both fix-up routines keep it up to date, and
+ * an overlap query skips every subtree whose maximum lies before the query.
+ *
+ * An interval identifies its entry the way a key does in {@link RBTree}:
+ * inserting an interval that is already present replaces its value.
+ *
+ * The queries return the matching intervals lazily and in ascending order.
+ * A query costs O(logn) to find the first match. Each further match usually
+ * costs O(1) amortized, and at most O(logn).
+ *
+ * @param <T1> Endpoint type
+ * @param <T2> Value type
+ */
+public class IntervalRBTree<T1 extends Comparable<T1>, T2> {
+
+    private static final Interval<?, ?> NIL = new Interval<>(null, null, null, ColorEnum.BLACK);
+
+    @SuppressWarnings("unchecked")
+    private final Interval<T1, T2> nil = (Interval<T1, T2>) NIL;
+    private Interval<T1, T2> root = nil;
+    private int size;
+
+    protected enum ColorEnum {
+        RED,
+        BLACK
+    };
+
+    /**
+     * A stored interval together with its value. The queries return the nodes
+     * of the tree themselves.
+     */
+    public static final class Interval<T1, T2> {
+
+        private final T1 low, high;
+        private T2 value;
+        /**
+         * Greatest high endpoint in the subtree of this node, null for nil.
+         */
+        private T1 max;
+        private ColorEnum color;
+        private Interval<T1, T2> left, right, parent;
+
+        private Interval(T1 low, T1 high, T2 value, ColorEnum color) {
+            this.low = low;
+            this.high = high;
+            this.value = value;
+            this.max = high;
+            this.color = color;
+        }
+
+        public T1 getLow() {
+            return low;
+        }
+
+        public T1 getHigh() {
+            return high;
+        }
+
+        public T2 getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + low + ", " + high + "]=" + value;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static <T1 extends Comparable<T1>> T1 max(T1 a, T1 b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+
+    private static <T1 extends Comparable<T1>> void updateMax(Interval<T1, ?> x) {
+        x.max = max(x.high, max(x.left.max, x.right.max));
+    }
+
+    private static <T1 extends Comparable<T1>> int compare(T1 low, T1 high, Interval<T1, ?> x) {
+        int cmp = low.compareTo(x.low);
+        return cmp != 0 ? cmp : high.compareTo(x.high);
+    }
+
+    private static <T1 extends Comparable<T1>> void checkInterval(T1 low, T1 high) {
+        if (low.compareTo(high) > 0) {
+            throw new IllegalArgumentException("low > high: [" + low + ", " + high + "]");
+        }
+    }
+
+    /**
+     * Left rotation
+     *
+     * @param x Node which was rotated
+     *
+     * Time complexity: O(1)
+     */
+    private void leftRotate(Interval<T1, T2> x) {
+        Interval<T1, T2> y = x.right;
+        x.right = y.left;
+        if (y.left != nil) {
+            y.left.parent = x;
+        }
+        y.parent = x.parent;
+        if (x.parent == nil) {
+            root = y;
+        } else if (x == x.parent.left) {
+            x.parent.left = y;
+        } else {
+            x.parent.right = y;
+        }
+        y.left = x;
+        x.parent = y;
+        y.max = x.max;
+        updateMax(x);
+    }
+
+    /**
+     * Right rotation
+     *
+     * @param x node which was rotated
+     *
+     * Time complexity: O(1)
+     */
+    private void rightRotate(Interval<T1, T2> x) {
+        Interval<T1, T2> y = x.left;
+        x.left = y.right;
+        if (y.right != nil) {
+            y.right.parent = x;
+        }
+        y.parent = x.parent;
+        if (x.parent == nil) {
+            root = y;
+        } else if (x == x.parent.right) {
+            x.parent.right = y;
+        } else {
+            x.parent.left = y;
+        }
+        y.right = x;
+        x.parent = y;
+        y.max = x.max;
+        updateMax(x);
+    }
+
+    /**
+     * Inserts the interval [low, high], or replaces the value if the interval
+     * is present.
+     *
+     * Time complexity: O(logn)
+     *
+     * @throws IllegalArgumentException if low > high
+     */
+    public void insertInterval(T1 low, T1 high, T2 value) {
+        checkInterval(low, high);
+        Interval<T1, T2> x = root, y = nil;
+        int cmp = 0;
+        while (x != nil) {
+            y = x;
+            cmp = compare(low, high, x);
+            if (cmp == 0) {
+                x.value = value;
+                return;
+            }
+            x = cmp > 0 ? x.right : x.left;
+        }
+        Interval<T1, T2> z = new Interval<>(low, high, value, ColorEnum.RED);
+        z.left = nil;
+        z.right = nil;
+        z.parent = y;
+        if (y == nil) {
+            root = z;
+        } else if (cmp > 0) {
+            y.right = z;
+        } else {
+            y.left = z;
+        }
+        for (Interval<T1, T2> p = y; p != nil && high.compareTo(p.max) > 0; p = p.parent) {
+            p.max = high;
+        }
+        size++;
+        insertRBfixUp(z);
+    }
+
+    /**
+     * Fixes up tree after a insert action. Restored property №4
+     *
+     * Time complexity: O(logn)
+     */
+    private void insertRBfixUp(Interval<T1, T2> z) {
+        while (z.parent.color == ColorEnum.RED) {
+            if (z.parent == z.parent.parent.left) {
+                Interval<T1, T2> y = z.parent.parent.right;
+                if (y.color == ColorEnum.RED) {
+                    z.parent.color = ColorEnum.BLACK;
+                    y.color = ColorEnum.BLACK;
+                    z.parent.parent.color = ColorEnum.RED;
+                    z = z.parent.parent;
+                } else {
+                    if (z == z.parent.right) {
+                        z = z.parent;
+                        leftRotate(z);
+                    }
+                    z.parent.color = ColorEnum.BLACK;
+                    z.parent.parent.color = ColorEnum.RED;
+                    rightRotate(z.parent.parent);
+                }
+            } else {
+                Interval<T1, T2> y = z.parent.parent.left;
+                if (y.color == ColorEnum.RED) {
+                    z.parent.color = ColorEnum.BLACK;
+                    y.color = ColorEnum.BLACK;
+                    z.parent.parent.color = ColorEnum.RED;
+                    z = z.parent.parent;
+                } else {
+                    if (z == z.parent.left) {
+                        z = z.parent;
+                        rightRotate(z);
+                    }
+                    z.parent.color = ColorEnum.BLACK;
+                    z.parent.parent.color = ColorEnum.RED;
+                    leftRotate(z.parent.parent);
+                }
+            }
+        }
+        root.color = ColorEnum.BLACK;
+    }
+
+    private Interval<T1, T2> getNodeByInterval(T1 low, T1 high) {
+        Interval<T1, T2> x = root;
+        while (x != nil) {
+            int cmp = compare(low, high, x);
+            if (cmp == 0) {
+                return x;
+            }
+            x = cmp > 0 ? x.right : x.left;
+        }
+        return nil;
+    }
+
+    /**
+     * Returns the value stored under the interval [low, high], or null if
+     * there is no such interval.
+     *
+     * Time complexity: O(logn)
+     */
+    public T2 getValueByInterval(T1 low, T1 high) {
+        return getNodeByInterval(low, high).value;
+    }
+
+    /**
+     * It function removes a Node u and puts in its place another Node v
+     *
+     * Time complexity: O(1)
+     */
+    private void transplant(Interval<T1, T2> u, Interval<T1, T2> v) {
+        if (u.parent == nil) {
+            root = v;
+        } else if (u.parent.left == u) {
+            u.parent.left = v;
+        } else {
+            u.parent.right = v;
+        }
+        if (v != nil) {
+            v.parent = u.parent;
+        }
+    }
+
+    /**
+     * Removes the interval [low, high].
+     *
+     * Time complexity: O(logn)
+     *
+     * @return true if the interval was present
+     */
+    public boolean removeInterval(T1 low, T1 high) {
+        Interval<T1, T2> z = getNodeByInterval(low, high);
+        Interval<T1, T2> y = z, x, xParent;
+        if (z == nil) {
+            return false;
+        }
+        ColorEnum yOriginalColor = y.color;
+        if (z.left == nil) {
+            x = z.right;
+            xParent = z.parent;
+            transplant(z, z.right);
+        } else if (z.right == nil) {
+            x = z.left;
+            xParent = z.parent;
+            transplant(z, z.left);
+        } else {
+            y = z.right;
+            while (y.left != nil) {
+                y = y.left;
+            }
+            yOriginalColor = y.color;
+            x = y.right;
+            if (y.parent == z) {
+                xParent = y;
+            } else {
+                xParent = y.parent;
+                transplant(y, y.right);
+                y.right = z.right;
+                y.right.parent = y;
+            }
+            transplant(z, y);
+            y.left = z.left;
+            y.left.parent = y;
+            y.color = z.color;
+        }
+        for (Interval<T1, T2> p = xParent; p != nil; p = p.parent) {
+            updateMax(p);
+        }
+        size--;
+        if (yOriginalColor == ColorEnum.BLACK) {
+            deleteRBfixUp(x, xParent);
+        }
+        return true;
+    }
+
+    /**
+     * Fixes up tree after a delete action. The parent of x is passed along
+     * because x may be nil, which has no parent of its own.
+     *
+     * @param x	Child node of the deleted node's successor.
+     * @param p	Parent of x.
+     *
+     * Time complexity: O(logn)
+     */
+    private void deleteRBfixUp(Interval<T1, T2> x, Interval<T1, T2> p) {
+        while (x != root && x.color == ColorEnum.BLACK) {
+            if (x == p.left) {
+                Interval<T1, T2> w = p.right;
+                if (w.color == ColorEnum.RED) {
+                    w.color = ColorEnum.BLACK;
+                    p.color = ColorEnum.RED;
+                    leftRotate(p);
+                    w = p.right;
+                }
+                if (w.left.color == ColorEnum.BLACK && w.right.color == ColorEnum.BLACK) {
+                    w.color = ColorEnum.RED;
+                    x = p;
+                    p = x.parent;
+                } else {
+                    if (w.right.color == ColorEnum.BLACK) {
+                        w.left.color = ColorEnum.BLACK;
+                        w.color = ColorEnum.RED;
+                        rightRotate(w);
+                        w = p.right;
+                    }
+                    w.color = p.color;
+                    p.color = ColorEnum.BLACK;
+                    w.right.color = ColorEnum.BLACK;
+                    leftRotate(p);
+                    x = root;
+                }
+            } else {
+                Interval<T1, T2> w = p.left;
+                if (w.color == ColorEnum.RED) {
+                    w.color = ColorEnum.BLACK;
+                    p.color = ColorEnum.RED;
+                    rightRotate(p);
+                    w = p.left;
+                }
+                if (w.right.color == ColorEnum.BLACK && w.left.color == ColorEnum.BLACK) {
+                    w.color = ColorEnum.RED;
+                    x = p;
+                    p = x.parent;
+                } else {
+                    if (w.left.color == ColorEnum.BLACK) {
+                        w.right.color = ColorEnum.BLACK;
+                        w.color = ColorEnum.RED;
+                        leftRotate(w);
+                        w = p.left;
+                    }
+                    w.color = p.color;
+                    p.color = ColorEnum.BLACK;
+                    w.left.color = ColorEnum.BLACK;
+                    rightRotate(p);
+                    x = root;
+                }
+            }
+        }
+        if (x != nil) {
+            x.color = ColorEnum.BLACK;
+        }
+    }
+
+    /**
+     * Returns some interval that overlaps [lo, hi], or null if there is none.
+     * This is INTERVAL-SEARCH from the book.
+     *
+     * Time complexity: O(logn)
+     */
+    public Interval<T1, T2> searchOverlapping(T1 lo, T1 hi) {
+        Interval<T1, T2> x = root;
+        while (x != nil && (hi.compareTo(x.low) < 0 || x.high.compareTo(lo) < 0)) {
+            if (x.left != nil && x.left.max.compareTo(lo) >= 0) {
+                x = x.left;
+            } else {
+                x = x.right;
+            }
+        }
+        return x == nil ? null : x;
+    }
+
+    /**
+     * Iterates in ascending order over the intervals that contain the point.
+     * The tree must not be modified during the iteration.
+     */
+    public Iterator<Interval<T1, T2>> stab(T1 point) {
+        return overlapping(point, point);
+    }
+
+    /**
+     * Iterates in ascending order over the intervals that overlap [lo, hi],
+     * that is the intervals with low <= hi and high >= lo. The tree must not
+     * be modified during the iteration.
+     *
+     * Time complexity: O(logn) to start; each further interval usually costs
+     * O(1) amortized, and at most O(logn)
+     */
+    public Iterator<Interval<T1, T2>> overlapping(T1 lo, T1 hi) {
+        checkInterval(lo, hi);
+        return new OverlapIterator(lo, hi);
+    }
+
+    /**
+     * Returns a sequential stream of the intervals that contain the point.
+     */
+    public Stream<Interval<T1, T2>> stabStream(T1 point) {
+        return overlappingStream(point, point);
+    }
+
+    /**
+     * Returns a sequential stream of the intervals that overlap [lo, hi], in
+     * ascending order.
+     */
+    public Stream<Interval<T1, T2>> overlappingStream(T1 lo, T1 hi) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(overlapping(lo, hi),
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Passes every interval that overlaps [lo, hi] to the action, in
+     * ascending order.
+     */
+    public void forEachOverlapping(T1 lo, T1 hi, Consumer<? super Interval<T1, T2>> action) {
+        overlapping(lo, hi).forEachRemaining(action);
+    }
+
+    /**
+     * Returns the number of intervals that overlap [lo, hi].
+     */
+    public int countOverlapping(T1 lo, T1 hi) {
+        int count = 0;
+        for (Iterator<Interval<T1, T2>> it = overlapping(lo, hi); it.hasNext(); it.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * In-order walk that only descends into subtrees whose max endpoint is
+     * >= lo and stops at the first node with low > hi. The stack holds the
+     * nodes whose left subtree is being walked.
+     */
+    private final class OverlapIterator implements Iterator<Interval<T1, T2>> {
+
+        private final T1 lo, hi;
+        private final ArrayDeque<Interval<T1, T2>> stack = new ArrayDeque<>();
+        private Interval<T1, T2> next;
+
+        OverlapIterator(T1 lo, T1 hi) {
+            this.lo = lo;
+            this.hi = hi;
+            pushLeft(root);
+            next = advance();
+        }
+
+        private void pushLeft(Interval<T1, T2> x) {
+            while (x != nil && x.max.compareTo(lo) >= 0) {
+                stack.push(x);
+                x = x.left;
+            }
+        }
+
+        private Interval<T1, T2> advance() {
+            while (!stack.isEmpty()) {
+                Interval<T1, T2> x = stack.pop();
+                if (x.low.compareTo(hi) > 0) {
+                    stack.clear();
+                    return null;
+                }
+                pushLeft(x.right);
+                if (x.high.compareTo(lo) >= 0) {
+                    return x;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Interval<T1, T2> next() {
+            Interval<T1, T2> x = next;
+            if (x == null) {
+                throw new NoSuchElementException();
+            }
+            next = advance();
+            return x;
+        }
+    }
+
+    /**
+     * Returns the interval that follows x in the tree order, nil after the
+     * last one.
+     */
+    private Interval<T1, T2> successorNode(Interval<T1, T2> x) {
+        if (x.right != nil) {
+            x = x.right;
+            while (x.left != nil) {
+                x = x.left;
+            }
+            return x;
+        }
+        Interval<T1, T2> y = x.parent;
+        while (y != nil && x == y.right) {
+            x = y;
+            y = y.parent;
+        }
+        return y;
+    }
+
+    /**
+     * Print IntervalRBTree inOrder Walk
+     *
+     * Time complexity: O(n)
+     */
+    public void printIntervalTreeInorderWalk() {
+        Interval<T1, T2> x = root;
+        while (x != nil && x.left != nil) {
+            x = x.left;
+        }
+        for (; x != nil; x = successorNode(x)) {
+            System.out.println("Node: " + x + "; max: " + x.max + "; " + x.color);
+        }
+        System.out.println();
+    }
+}
@@ -0,0 +1,828 @@
+package trees;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Log-structured merge tree: an {@link RBTree} in memory takes the writes,
+ * immutable sorted files on disk hold the bulk of the data.
+ *
+ * A write goes to a {@link WriteAheadLog} and to the memtable, an RBTree
+ * in which a removed key maps to a tombstone. Once the memtable holds
+ * memtableSize entries it is frozen and a new one takes over; a background
+ * thread writes the frozen memtable in key order to a new
+ * {@link SortedRun} and then drops its log. Writes therefore cost a
+ * sequential append and an insert into a tree that stays small enough for
+ * the cache, and the disk sees only sequential writes. Writers wait only if
+ * the background thread falls MAX_FROZEN memtables behind.
+ *
+ * A lookup asks the memtable, the frozen memtables and the runs from the
+ * newest to the oldest and stops at the first that knows the key. To bound
+ * the number of runs a lookup may have to read, the background thread
+ * merges runs after every flush until at most maxRuns are left: it merges
+ * the two adjacent runs, in age order, that are the smallest together, so
+ * the runs form tiers of growing size and every entry is rewritten about
+ * log(n / memtableSize) times. Tombstones are dropped when the oldest run
+ * takes part in a merge.
+ *
+ * The directory of the tree holds the runs, the logs of the memtables not
+ * yet written out, and a MANIFEST that lists the runs from the newest to
+ * the oldest and the first log still needed. The manifest is replaced
+ * atomically after a run is complete, so a restart finds the runs of the
+ * last flush or merge and replays the logs written since. Writes are
+ * appended to the log but forced to the disk only when the memtable is
+ * frozen and by {@link #sync()} and {@link #close()}.
+ *
+ * The tree is thread-safe. Writers and the lookups in the memtable share
+ * one lock; the runs are read outside of it. An iterator reads a copy of
+ * the part of the memtable it covers and the frozen memtables and runs as
+ * they were when it was created; the runs are kept on disk until it has
+ * been run to the end or the tree is closed.
+ *
+ * @param <T1> Key type
+ * @param <T2> Value type
+ */
+public class LSMTree<T1 extends Comparable<T1>, T2> implements SortedStore<T1, T2>, AutoCloseable {
+
+    private static final int MAX_FROZEN = 2;
+
+    private static final String MANIFEST = "MANIFEST";
+    private static final int MANIFEST_MAGIC = 0x4C534D4D;
+    private static final int MANIFEST_VERSION = 1;
+    private static final String RUN = "run-", RUN_SUFFIX = ".sst";
+    private static final String LOG = "wal-", LOG_SUFFIX = ".log";
+
+    private static final Object TOMBSTONE = SortedRun.TOMBSTONE;
+    private static final Object ABSENT = SortedRun.ABSENT;
+
+    /**
+     * A frozen memtable and the id of its log.
+     */
+    private static final class Frozen<T1 extends Comparable<T1>> {
+
+        final RBTree<T1, Object> tree;
+        final long logId;
+
+        Frozen(RBTree<T1, Object> tree, long logId) {
+            this.tree = tree;
+            this.logId = logId;
+        }
+    }
+
+    private final Path directory;
+    private final Codec<T1> keyCodec;
+    private final Codec<T2> valueCodec;
+    private final int memtableSize;
+    private final int maxRuns;
+
+    private final Object lock = new Object();
+    private final ExecutorService background;
+
+    /*
+     * Guarded by lock. frozen and runs are never changed, only replaced,
+     * so a reader can take them out of the lock; both go from the newest to
+     * the oldest. Only the background thread replaces runs.
+     */
+    private RBTree<T1, Object> memtable = new RBTree<>();
+    private WriteAheadLog<T1, T2> log;
+    private long logId;
+    private List<Frozen<T1>> frozen = List.of();
+    private List<SortedRun<T1, T2>> runs = List.of();
+    private long nextId;
+    private boolean closed;
+    private volatile Throwable failure;
+
+    /**
+     * Opens the tree in the directory with memtables of 65536 entries and
+     * at most 8 runs.
+     */
+    public LSMTree(Path directory, Codec<T1> keyCodec, Codec<T2> valueCodec) throws IOException {
+        this(directory, keyCodec, valueCodec, 1 << 16, 8);
+    }
+
+    /**
+     * Opens the tree in the directory, creating the directory if it does not
+     * exist. The memtable recovered from the logs of the last session is
+     * written to a run right away.
+     *
+     * @param memtableSize number of entries at which the memtable is frozen
+     * @param maxRuns      number of runs above which runs are merged
+     */
+    public LSMTree(Path directory, Codec<T1> keyCodec, Codec<T2> valueCodec, int memtableSize, int maxRuns) throws IOException {
+        if (memtableSize <= 0) {
+            throw new IllegalArgumentException("memtableSize must be positive: " + memtableSize);
+        }
+        if (maxRuns <= 0) {
+            throw new IllegalArgumentException("maxRuns must be positive: " + maxRuns);
+        }
+        this.directory = directory;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.memtableSize = memtableSize;
+        this.maxRuns = maxRuns;
+        Files.createDirectories(directory);
+        try {
+            recover();
+        } catch (IOException | RuntimeException e) {
+            for (SortedRun<T1, T2> run : runs) {
+                run.close(false);
+            }
+            throw e;
+        }
+        background = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "LSMTree " + directory.getFileName());
+            t.setDaemon(true);
+            return t;
+        });
+        if (runs.size() > maxRuns) {
+            background.execute(this::compact);
+        }
+    }
+
+    private void recover() throws IOException {
+        long minLog = 0;
+        List<Long> ids = new ArrayList<>();
+        Path manifest = directory.resolve(MANIFEST);
+        if (Files.exists(manifest)) {
+            ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(manifest));
+            if (b.remaining() < 32 || b.getInt() != MANIFEST_MAGIC) {
+                throw new StreamCorruptedException("not an LSM tree manifest: " + manifest);
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(b.array(), 0, b.limit() - 4);
+            if ((int) crc.getValue() != b.getInt(b.limit() - 4)) {
+                throw new StreamCorruptedException("manifest checksum mismatch: " + manifest);
+            }
+            int version = b.getInt();
+            if (version != MANIFEST_VERSION) {
+                throw new StreamCorruptedException("unsupported manifest version " + version);
+            }
+            nextId = b.getLong();
+            minLog = b.getLong();
+            int count = b.getInt();
+            if (count < 0 || count != (b.remaining() - 4) / 8) {
+                throw new StreamCorruptedException("malformed manifest: " + manifest);
+            }
+            for (int i = 0; i < count; i++) {
+                ids.add(b.getLong());
+            }
+        }
+        List<SortedRun<T1, T2>> opened = new ArrayList<>();
+        runs = opened;
+        for (long id : ids) {
+            opened.add(SortedRun.open(runFile(id), keyCodec, valueCodec));
+        }
+        Set<Long> live = new HashSet<>(ids);
+        TreeMap<Long, Path> logs = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long run = StoreFiles.numberOf(file, RUN, RUN_SUFFIX);
+                long l = StoreFiles.numberOf(file, LOG, LOG_SUFFIX);
+                nextId = Math.max(nextId, Math.max(run, l) + 1);
+                if (run >= 0 && !live.contains(run) || l >= 0 && l < minLog || name.endsWith(".tmp")) {
+                    Files.delete(file);
+                } else if (l >= 0) {
+                    logs.put(l, file);
+                }
+            }
+        }
+        WriteAheadLog.Replay<T1, T2> replay = new WriteAheadLog.Replay<>() {
+            @Override
+            public void put(T1 key, T2 value) {
+                memtable.insertNodeInRBTree(key, value);
+            }
+
+            @Override
+            public void delete(T1 key) {
+                memtable.insertNodeInRBTree(key, TOMBSTONE);
+            }
+        };
+        for (Path file : logs.values()) {
+            new WriteAheadLog<>(file, keyCodec, valueCodec, replay).close();
+        }
+        logId = nextId++;
+        log = new WriteAheadLog<>(logFile(logId), keyCodec, valueCodec, null);
+        if (memtable.size() > 0) {
+            long id = nextId++;
+            opened.add(0, SortedRun.write(runFile(id), memtable.iterator(), memtable.size(), keyCodec, valueCodec));
+            memtable = new RBTree<>();
+        }
+        runs = List.copyOf(opened);
+        writeManifest(runs, logId);
+        for (Path file : logs.values()) {
+            Files.delete(file);
+        }
+    }
+
+    private Path runFile(long id) {
+        return directory.resolve(RUN + id + RUN_SUFFIX);
+    }
+
+    private Path logFile(long id) {
+        return directory.resolve(LOG + id + LOG_SUFFIX);
+    }
+
+    private long nextId() {
+        synchronized (lock) {
+            return nextId++;
+        }
+    }
+
+    /**
+     * Replaces the manifest with one that lists the runs and minLog as the
+     * first log to replay.
+     */
+    private void writeManifest(List<SortedRun<T1, T2>> runs, long minLog) throws IOException {
+        long next;
+        synchronized (lock) {
+            next = nextId;
+        }
+        ByteBuffer b = ByteBuffer.allocate(32 + 8 * runs.size());
+        b.putInt(MANIFEST_MAGIC).putInt(MANIFEST_VERSION).putLong(next).putLong(minLog).putInt(runs.size());
+        for (SortedRun<T1, T2> run : runs) {
+            b.putLong(StoreFiles.numberOf(run.file(), RUN, RUN_SUFFIX));
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(b.array(), 0, b.position());
+        b.putInt((int) crc.getValue()).flip();
+        Path tmp = directory.resolve(MANIFEST + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            while (b.hasRemaining()) {
+                channel.write(b);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, directory.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE);
+        StoreFiles.forceDirectory(directory);
+    }
+
+    private void ensureWritable() {
+        if (closed) {
+            throw new IllegalStateException("tree is closed");
+        }
+        if (failure != null) {
+            throw new IllegalStateException("background flush or merge failed", failure);
+        }
+    }
+
+    /**
+     * Returns the value stored under the key, or null if there is no such key.
+     *
+     * Time complexity: O(logn) in the memtables, plus one block read per run
+     * that has to be asked
+     *
+     * @throws UncheckedIOException if a run cannot be read
+     */
+    @Override
+    public T2 getValueByKey(T1 key) {
+        Object value = lookUp(key);
+        return value == ABSENT ? null : value(value);
+    }
+
+    /**
+     * @throws UncheckedIOException if a run cannot be read
+     */
+    public boolean containsKey(T1 key) {
+        return lookUp(key) != ABSENT;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T2> T2 value(Object value) {
+        return value == TOMBSTONE ? null : (T2) value;
+    }
+
+    /**
+     * Returns the value of the key, ABSENT if it is not in the tree.
+     */
+    private Object lookUp(T1 key) {
+        List<Frozen<T1>> f;
+        List<SortedRun<T1, T2>> r;
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("tree is closed");
+            }
+            RBTree.Node<T1, Object> x = memtable.getNodeByKeyOptimistically(key);
+            if (x.key != null) {
+                return x.value == TOMBSTONE ? ABSENT : x.value;
+            }
+            f = frozen;
+            r = runs;
+            retain(r);
+        }
+        try {
+            Object value = lookUp(key, f, r);
+            return value == TOMBSTONE ? ABSENT : value;
+        } finally {
+            release(r);
+        }
+    }
+
+    /**
+     * Asks the frozen memtables and the runs for the key and returns the
+     * first answer: the value, TOMBSTONE or ABSENT.
+     */
+    private Object lookUp(T1 key, List<Frozen<T1>> f, List<SortedRun<T1, T2>> r) {
+        for (Frozen<T1> m : f) {
+            RBTree.Node<T1, Object> x = m.tree.getNodeByKeyOptimistically(key);
+            if (x.key != null) {
+                return x.value;
+            }
+        }
+        try {
+            for (SortedRun<T1, T2> run : r) {
+                Object value = run.get(key);
+                if (value != ABSENT) {
+                    return value;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return ABSENT;
+    }
+
+    private void retain(List<SortedRun<T1, T2>> r) {
+        for (SortedRun<T1, T2> run : r) {
+            run.refs++;
+        }
+    }
+
+    /**
+     * Drops a reference to each of the runs; a run that the tree no longer
+     * holds is deleted once nobody reads it.
+     */
+    private void release(List<SortedRun<T1, T2>> r) {
+        synchronized (lock) {
+            for (SortedRun<T1, T2> run : r) {
+                if (--run.refs == 0) {
+                    try {
+                        run.close(!closed);
+                    } catch (IOException e) {
+                        // the file is gone from the manifest; a restart removes it
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Inserts the pair, or replaces the value if the key is present.
+     *
+     * Time complexity: O(logm), m is memtableSize
+     *
+     * @throws UncheckedIOException if the log cannot be written
+     */
+    @Override
+    public void insertNode(T1 key, T2 value) {
+        synchronized (lock) {
+            awaitRoom();
+            try {
+                log.put(key, value);
+            } catch (IOException e) {
+                failure = e;
+                throw new UncheckedIOException(e);
+            }
+            memtable.insertNodeInRBTree(key, value);
+            if (memtable.size() >= memtableSize) {
+                freeze();
+            }
+        }
+    }
+
+    /**
+     * Removes the key. To tell whether the key was present, the key is
+     * looked up first, in the memtables and the runs; the removal itself
+     * is a tombstone in the memtable.
+     *
+     * Time complexity: that of getValueByKey
+     *
+     * @return true if the key was present
+     * @throws UncheckedIOException if the log cannot be written or a run
+     *                              cannot be read
+     */
+    @Override
+    public boolean removeNode(T1 key) {
+        synchronized (lock) {
+            awaitRoom();
+            RBTree.Node<T1, Object> x = memtable.getNodeByKeyOptimistically(key);
+            Object value = x.key != null ? x.value : lookUp(key, frozen, runs);
+            if (value == ABSENT || value == TOMBSTONE) {
+                return false;
+            }
+            try {
+                log.delete(key);
+            } catch (IOException e) {
+                failure = e;
+                throw new UncheckedIOException(e);
+            }
+            memtable.insertNodeInRBTree(key, TOMBSTONE);
+            if (memtable.size() >= memtableSize) {
+                freeze();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Waits while the background thread is MAX_FROZEN memtables behind.
+     * Called with the lock held.
+     */
+    private void awaitRoom() {
+        ensureWritable();
+        boolean interrupted = false;
+        while (frozen.size() >= MAX_FROZEN && failure == null) {
+            try {
+                lock.wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        ensureWritable();
+    }
+
+    /**
+     * Closes the log of the memtable, which forces it, hands the memtable to
+     * the background thread and starts a new one. Called with the lock held.
+     */
+    private void freeze() {
+        long id = nextId++;
+        WriteAheadLog<T1, T2> next;
+        try {
+            log.close();
+            next = new WriteAheadLog<>(logFile(id), keyCodec, valueCodec, null);
+        } catch (IOException e) {
+            failure = e;
+            throw new UncheckedIOException(e);
+        }
+        List<Frozen<T1>> f = new ArrayList<>(frozen.size() + 1);
+        f.add(new Frozen<>(memtable, logId));
+        f.addAll(frozen);
+        frozen = List.copyOf(f);
+        memtable = new RBTree<>();
+        log = next;
+        logId = id;
+        background.execute(this::flushOldest);
+    }
+
+    /**
+     * Writes the oldest frozen memtable to a run and merges runs if there
+     * are too many. Runs in the background thread.
+     */
+    private void flushOldest() {
+        if (failure != null) {
+            return;
+        }
+        try {
+            Frozen<T1> oldest;
+            synchronized (lock) {
+                oldest = frozen.get(frozen.size() - 1);
+            }
+            SortedRun<T1, T2> run = SortedRun.write(runFile(nextId()), oldest.tree.iterator(), oldest.tree.size(), keyCodec, valueCodec);
+            List<SortedRun<T1, T2>> r = new ArrayList<>(runs.size() + 1);
+            r.add(run);
+            r.addAll(runs);
+            r = List.copyOf(r);
+            long minLog;
+            synchronized (lock) {
+                minLog = frozen.size() > 1 ? frozen.get(frozen.size() - 2).logId : logId;
+            }
+            writeManifest(r, minLog);
+            synchronized (lock) {
+                runs = r;
+                frozen = List.copyOf(frozen.subList(0, frozen.size() - 1));
+                lock.notifyAll();
+            }
+            Files.delete(logFile(oldest.logId));
+            while (runs.size() > maxRuns) {
+                mergeSmallestPair();
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Merges runs until at most maxRuns are left. Runs in the background
+     * thread.
+     */
+    private void compact() {
+        if (failure != null) {
+            return;
+        }
+        try {
+            while (runs.size() > maxRuns) {
+                mergeSmallestPair();
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(Throwable e) {
+        failure = e;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Merges the two adjacent runs whose sizes add up to the least.
+     */
+    private void mergeSmallestPair() throws IOException {
+        List<SortedRun<T1, T2>> r = runs;
+        int best = 0;
+        for (int i = 1; i + 1 < r.size(); i++) {
+            if (r.get(i).bytes() + r.get(i + 1).bytes() < r.get(best).bytes() + r.get(best + 1).bytes()) {
+                best = i;
+            }
+        }
+        SortedRun<T1, T2> newer = r.get(best), older = r.get(best + 1);
+        boolean oldest = best + 2 == r.size();
+        Iterator<Map.Entry<T1, Object>> merged = new MergingIterator<>(List.of(newer.iterator(null), older.iterator(null)), null, oldest);
+        SortedRun<T1, T2> run = SortedRun.write(runFile(nextId()), merged, newer.count() + older.count(), keyCodec, valueCodec);
+        List<SortedRun<T1, T2>> next = new ArrayList<>(r.subList(0, best));
+        if (run.count() > 0) {
+            next.add(run);
+        }
+        next.addAll(r.subList(best + 2, r.size()));
+        next = List.copyOf(next);
+        long minLog;
+        synchronized (lock) {
+            minLog = frozen.isEmpty() ? logId : frozen.get(frozen.size() - 1).logId;
+        }
+        writeManifest(next, minLog);
+        synchronized (lock) {
+            runs = next;
+        }
+        release(List.of(newer, older));
+        if (run.count() == 0) {
+            run.close(true);
+        }
+    }
+
+    /**
+     * Freezes the memtable if it holds anything and waits until every
+     * frozen memtable is written to a run and at most maxRuns runs are left.
+     */
+    public void flush() throws IOException {
+        synchronized (lock) {
+            ensureWritable();
+            if (memtable.size() > 0) {
+                freeze();
+            }
+        }
+        try {
+            background.submit(this::compact).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the flush");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        Throwable t = failure;
+        if (t != null) {
+            throw t instanceof IOException ? (IOException) t : new IOException(t);
+        }
+    }
+
+    /**
+     * Forces the log of the memtable, so that every write made so far
+     * survives a crash.
+     */
+    public void sync() throws IOException {
+        synchronized (lock) {
+            ensureWritable();
+            log.flush();
+            log.force();
+        }
+    }
+
+    /**
+     * Number of runs on disk.
+     */
+    public int runCount() {
+        synchronized (lock) {
+            return runs.size();
+        }
+    }
+
+    /**
+     * Iterates in ascending key order over a view of the tree as of the call.
+     */
+    @Override
+    public Iterator<Map.Entry<T1, T2>> iterator() {
+        return iterator(null, null);
+    }
+
+    /**
+     * Iterates in ascending order over the entries with from <= key < to, as
+     * of the call.
+     */
+    @Override
+    public Iterator<Map.Entry<T1, T2>> range(T1 from, T1 to) {
+        return iterator(from, to);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Iterator<Map.Entry<T1, T2>> iterator(T1 from, T1 to) {
+        List<Iterator<? extends Map.Entry<T1, Object>>> sources = new ArrayList<>();
+        List<SortedRun<T1, T2>> r;
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("tree is closed");
+            }
+            List<Map.Entry<T1, Object>> copy = new ArrayList<>();
+            Iterator<Map.Entry<T1, Object>> it = from == null ? memtable.iterator() : memtable.tailFrom(from);
+            while (it.hasNext()) {
+                Map.Entry<T1, Object> e = it.next();
+                if (to != null && e.getKey().compareTo(to) >= 0) {
+                    break;
+                }
+                copy.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), e.getValue()));
+            }
+            sources.add(copy.iterator());
+            for (Frozen<T1> f : frozen) {
+                sources.add(from == null ? f.tree.iterator() : f.tree.tailFrom(from));
+            }
+            r = runs;
+            retain(r);
+        }
+        for (SortedRun<T1, T2> run : r) {
+            sources.add(run.iterator(from));
+        }
+        MergingIterator<T1> merged = new MergingIterator<>(sources, to, true);
+        return (Iterator) new Iterator<Map.Entry<T1, Object>>() {
+
+            private boolean released;
+
+            @Override
+            public boolean hasNext() {
+                boolean hasNext = merged.hasNext();
+                if (!hasNext && !released) {
+                    released = true;
+                    release(r);
+                }
+                return hasNext;
+            }
+
+            @Override
+            public Map.Entry<T1, Object> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return merged.next();
+            }
+        };
+    }
+
+    /**
+     * Merges sorted sources, given from the newest to the oldest, into one
+     * sorted sequence in which every key appears once, with its value from
+     * the newest source that has it. Stops before to, if to is not null;
+     * drops keys whose newest value is a tombstone if dropTombstones.
+     */
+    private static final class MergingIterator<T1 extends Comparable<T1>> implements Iterator<Map.Entry<T1, Object>> {
+
+        private static final class Cursor<T1> {
+
+            final Iterator<? extends Map.Entry<T1, Object>> source;
+            final int age;
+            T1 key;
+            Object value;
+
+            Cursor(Iterator<? extends Map.Entry<T1, Object>> source, int age) {
+                this.source = source;
+                this.age = age;
+            }
+        }
+
+        private final PriorityQueue<Cursor<T1>> queue;
+        private final T1 to;
+        private final boolean dropTombstones;
+        private Map.Entry<T1, Object> next;
+
+        MergingIterator(List<? extends Iterator<? extends Map.Entry<T1, Object>>> sources, T1 to, boolean dropTombstones) {
+            Comparator<Cursor<T1>> order = (a, b) -> {
+                int cmp = a.key.compareTo(b.key);
+                return cmp != 0 ? cmp : Integer.compare(a.age, b.age);
+            };
+            queue = new PriorityQueue<>(Math.max(sources.size(), 1), order);
+            this.to = to;
+            this.dropTombstones = dropTombstones;
+            for (int i = 0; i < sources.size(); i++) {
+                step(new Cursor<>(sources.get(i), i));
+            }
+            next = advance();
+        }
+
+        private void step(Cursor<T1> c) {
+            if (c.source.hasNext()) {
+                Map.Entry<T1, Object> e = c.source.next();
+                c.key = e.getKey();
+                c.value = e.getValue();
+                queue.add(c);
+            }
+        }
+
+        private Map.Entry<T1, Object> advance() {
+            while (!queue.isEmpty()) {
+                Cursor<T1> c = queue.poll();
+                T1 key = c.key;
+                Object value = c.value;
+                if (to != null && key.compareTo(to) >= 0) {
+                    queue.clear();
+                    return null;
+                }
+                step(c);
+                while (!queue.isEmpty() && queue.peek().key.compareTo(key) == 0) {
+                    step(queue.poll());
+                }
+                if (value != TOMBSTONE || !dropTombstones) {
+                    return new AbstractMap.SimpleImmutableEntry<>(key, value);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<T1, Object> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<T1, Object> e = next;
+            next = advance();
+            return e;
+        }
+    }
+
+    /**
+     * Waits for the background thread to write the frozen memtables, then
+     * closes the log and the runs. The memtable stays in its log and is
+     * written to a run on the next open.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            lock.notifyAll();
+        }
+        background.shutdown();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (background.awaitTermination(1, TimeUnit.MINUTES)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (lock) {
+            log.close();
+            for (SortedRun<T1, T2> run : runs) {
+                run.close(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package trees;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Lock-free concurrent binary search tree.
+ *
+ * This is the non-blocking external BST of Ellen, Fatourou, Ruppert and van
+ * Breugel, "Non-blocking Binary Search Trees", PODC 2010. Like
+ * {@link BinaryTree} it does no balancing, so it suits randomly distributed
+ * keys. Entries live in immutable leaves and internal nodes only route the
+ * search. Every internal node has an update field; an insert flags the parent
+ * of the leaf it replaces, a delete flags the grandparent and marks the
+ * parent, and then swings one child link with a CAS. A thread that runs into
+ * a flag finishes the pending operation before it retries, so no thread ever
+ * waits for another one. All operations are linearizable; a lookup is a
+ * plain walk from the root and never writes.
+ *
+ * Replacing the value of a present key swaps in a new leaf through the
+ * insert protocol, so lookups always see a consistent key-value pair.
+ *
+ * @param <T1> Key type
+ * @param <T2> Value type
+ */
+public class LockFreeBinaryTree<T1 extends Comparable<T1>, T2> {
+
+    private static final int CLEAN = 0, IFLAG = 1, DFLAG = 2, MARK = 3;
+
+    private static final VarHandle LEFT, RIGHT, UPDATE;
+
+    static {
+        try {
+            MethodHandles.Lookup l = MethodHandles.lookup();
+            LEFT = l.findVarHandle(Internal.class, "left", Node.class);
+            RIGHT = l.findVarHandle(Internal.class, "right", Node.class);
+            UPDATE = l.findVarHandle(Internal.class, "update", Update.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Keys of the two sentinel leaves are "infinity 1" and "infinity 2":
+     * inf is 0 for real keys and orders the sentinels after all of them.
+     */
+    abstract static class Node<T1, T2> {
+
+        final T1 key;
+        final int inf;
+
+        Node(T1 key, int inf) {
+            this.key = key;
+            this.inf = inf;
+        }
+    }
+
+    static final class Leaf<T1, T2> extends Node<T1, T2> implements Map.Entry<T1, T2> {
+
+        final T2 value;
+
+        Leaf(T1 key, T2 value, int inf) {
+            super(key, inf);
+            this.value = value;
+        }
+
+        @Override
+        public T1 getKey() {
+            return key;
+        }
+
+        @Override
+        public T2 getValue() {
+            return value;
+        }
+
+        @Override
+        public T2 setValue(T2 value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return Objects.equals(key, e.getKey()) && Objects.equals(value, e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    static final class Internal<T1, T2> extends Node<T1, T2> {
+
+        volatile Node<T1, T2> left, right;
+        volatile Update update;
+
+        Internal(T1 key, int inf, Node<T1, T2> left, Node<T1, T2> right) {
+            super(key, inf);
+            this.left = left;
+            this.right = right;
+            this.update = new Update(CLEAN, null);
+        }
+    }
+
+    /**
+     * State of an internal node together with the operation that set it.
+     * Every state change installs a new object, so a CAS on the update field
+     * cannot succeed against an outdated value.
+     */
+    static final class Update {
+
+        final int state;
+        final Info info;
+
+        Update(int state, Info info) {
+            this.state = state;
+            this.info = info;
+        }
+    }
+
+    abstract static class Info {
+    }
+
+    static final class InsertInfo<T1, T2> extends Info {
+
+        final Internal<T1, T2> p;
+        final Leaf<T1, T2> l;
+        final Node<T1, T2> replacement;
+        final Update flag = new Update(IFLAG, this);
+
+        InsertInfo(Internal<T1, T2> p, Leaf<T1, T2> l, Node<T1, T2> replacement) {
+            this.p = p;
+            this.l = l;
+            this.replacement = replacement;
+        }
+    }
+
+    static final class DeleteInfo<T1, T2> extends Info {
+
+        final Internal<T1, T2> gp, p;
+        final Leaf<T1, T2> l;
+        final Update pupdate;
+        final Update flag = new Update(DFLAG, this);
+        final Update mark = new Update(MARK, this);
+
+        DeleteInfo(Internal<T1, T2> gp, Internal<T1, T2> p, Leaf<T1, T2> l, Update pupdate) {
+            this.gp = gp;
+            this.p = p;
+            this.l = l;
+            this.pupdate = pupdate;
+        }
+    }
+
+    private final Internal<T1, T2> root = new Internal<>(null, 2,
+            new Leaf<>(null, null, 1), new Leaf<>(null, null, 2));
+
+    /**
+     * Result of a search: the leaf where the key is or would be, its parent
+     * and grandparent and the update fields read on the way.
+     */
+    private static final class Path<T1, T2> {
+
+        Internal<T1, T2> gp, p;
+        Leaf<T1, T2> l;
+        Update gpupdate, pupdate;
+    }
+
+    private static <T1 extends Comparable<T1>> int compare(T1 key, Node<T1, ?> x) {
+        return x.inf != 0 ? -1 : key.compareTo(x.key);
+    }
+
+    private static <T1 extends Comparable<T1>> boolean isKeyOf(T1 key, Node<T1, ?> x) {
+        return x.inf == 0 && key.compareTo(x.key) == 0;
+    }
+
+    private Path<T1, T2> search(T1 key) {
+        Path<T1, T2> path = new Path<>();
+        Internal<T1, T2> gp = null, p = null;
+        Update gpupdate = null, pupdate = null;
+        Node<T1, T2> l = root;
+        while (l instanceof Internal) {
+            gp = p;
+            p = (Internal<T1, T2>) l;
+            gpupdate = pupdate;
+            pupdate = p.update;
+            l = compare(key, p) < 0 ? p.left : p.right;
+        }
+        path.gp = gp;
+        path.p = p;
+        path.l = (Leaf<T1, T2>) l;
+        path.gpupdate = gpupdate;
+        path.pupdate = pupdate;
+        return path;
+    }
+
+    /**
+     * Returns the entry for the key, or null if there is no such key.
+     *
+     * Time complexity: O(h), h is the height of the tree
+     */
+    public Map.Entry<T1, T2> searchNode(T1 key) {
+        Node<T1, T2> l = root;
+        while (l instanceof Internal) {
+            Internal<T1, T2> p = (Internal<T1, T2>) l;
+            l = compare(key, p) < 0 ? p.left : p.right;
+        }
+        return isKeyOf(key, l) ? (Leaf<T1, T2>) l : null;
+    }
+
+    public T2 getValueByKey(T1 key) {
+        Map.Entry<T1, T2> e = searchNode(key);
+        return e == null ? null : e.getValue();
+    }
+
+    /**
+     * Inserts the pair, or replaces the value if the key is present.
+     *
+     * Time complexity: O(h), plus retries under contention
+     */
+    public void insertNode(T1 key, T2 value) {
+        Leaf<T1, T2> leaf = new Leaf<>(key, value, 0);
+        while (true) {
+            Path<T1, T2> path = search(key);
+            Internal<T1, T2> p = path.p;
+            Leaf<T1, T2> l = path.l;
+            if (path.pupdate.state != CLEAN) {
+                help(path.pupdate);
+                continue;
+            }
+            Node<T1, T2> replacement;
+            if (isKeyOf(key, l)) {
+                replacement = leaf;
+            } else {
+                Leaf<T1, T2> sibling = new Leaf<>(l.key, l.value, l.inf);
+                replacement = compare(key, l) < 0
+                        ? new Internal<>(l.key, l.inf, leaf, sibling)
+                        : new Internal<>(key, 0, sibling, leaf);
+            }
+            InsertInfo<T1, T2> op = new InsertInfo<>(p, l, replacement);
+            Update witness = (Update) UPDATE.compareAndExchange(p, path.pupdate, op.flag);
+            if (witness == path.pupdate) {
+                helpInsert(op);
+                return;
+            }
+            help(witness);
+        }
+    }
+
+    /**
+     * Removes the key.
+     *
+     * Time complexity: O(h), plus retries under contention
+     *
+     * @return true if the key was present
+     */
+    public boolean removeNode(T1 key) {
+        while (true) {
+            Path<T1, T2> path = search(key);
+            if (!isKeyOf(key, path.l)) {
+                return false;
+            }
+            if (path.gpupdate.state != CLEAN) {
+                help(path.gpupdate);
+            } else if (path.pupdate.state != CLEAN) {
+                help(path.pupdate);
+            } else {
+                DeleteInfo<T1, T2> op = new DeleteInfo<>(path.gp, path.p, path.l, path.pupdate);
+                Update witness = (Update) UPDATE.compareAndExchange(path.gp, path.gpupdate, op.flag);
+                if (witness == path.gpupdate) {
+                    if (helpDelete(op)) {
+                        return true;
+                    }
+                } else {
+                    help(witness);
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void help(Update u) {
+        switch (u.state) {
+            case IFLAG:
+                helpInsert((InsertInfo<T1, T2>) u.info);
+                break;
+            case MARK:
+                helpMarked((DeleteInfo<T1, T2>) u.info);
+                break;
+            case DFLAG:
+                helpDelete((DeleteInfo<T1, T2>) u.info);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void helpInsert(InsertInfo<T1, T2> op) {
+        casChild(op.p, op.l, op.replacement);
+        UPDATE.compareAndSet(op.p, op.flag, new Update(CLEAN, op));
+    }
+
+    private boolean helpDelete(DeleteInfo<T1, T2> op) {
+        Update witness = (Update) UPDATE.compareAndExchange(op.p, op.pupdate, op.mark);
+        if (witness == op.pupdate || witness == op.mark) {
+            helpMarked(op);
+            return true;
+        }
+        help(witness);
+        UPDATE.compareAndSet(op.gp, op.flag, new Update(CLEAN, op));
+        return false;
+    }
+
+    private void helpMarked(DeleteInfo<T1, T2> op) {
+        Node<T1, T2> other = op.p.right == op.l ? op.p.left : op.p.right;
+        casChild(op.gp, op.p, other);
+        UPDATE.compareAndSet(op.gp, op.flag, new Update(CLEAN, op));
+    }
+
+    /**
+     * Swings the child link of parent that leads towards replacement's key
+     * from old to replacement.
+     */
+    private static <T1 extends Comparable<T1>, T2> void casChild(Internal<T1, T2> parent, Node<T1, T2> old, Node<T1, T2> replacement) {
+        boolean left = replacement.inf == 0
+                ? compare(replacement.key, parent) < 0
+                : replacement.inf < parent.inf;
+        if (left) {
+            LEFT.compareAndSet(parent, old, replacement);
+        } else {
+            RIGHT.compareAndSet(parent, old, replacement);
+        }
+    }
+
+    public void printBinaryTreeInorderWalk() {
+        Deque<Node<T1, T2>> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node<T1, T2> x = stack.pop();
+            if (x instanceof Internal) {
+                stack.push(((Internal<T1, T2>) x).right);
+                stack.push(((Internal<T1, T2>) x).left);
+            } else if (x.inf == 0) {
+                System.out.print(x.key + " ");
+            }
+        }
+        System.out.println();
+    }
+}
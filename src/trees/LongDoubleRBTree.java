@@ -0,0 +1,435 @@
+// Generated by codegen/GeneratePrimitiveTrees.java from PrimitiveRBTree.template, do not edit.
+package trees;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Red-black tree specialized for long keys and double values.
+ *
+ * Keys are stored unboxed and compared with primitive comparisons, so lookups
+ * allocate nothing and do no virtual compareTo calls. The operations and
+ * their complexity are the same as in {@link RBTree}.
+ */
+public class LongDoubleRBTree {
+
+    private Node nil = new Node(0, 0, ColorEnum.BLACK);
+    private Node root = nil;
+    private int size;
+
+    protected enum ColorEnum {
+        RED,
+        BLACK
+    };
+
+    static class Node {
+
+        long key;
+        double value;
+        ColorEnum color;
+        Node left, right, parent;
+
+        Node(long key, double value, ColorEnum color) {
+            this.key = key;
+            this.value = value;
+            this.color = color;
+        }
+    }
+
+    /**
+     * Left rotation
+     *
+     * @param x Node which was rotated
+     *
+     * Time complexity: O(1)
+     */
+    private void leftRotate(Node x) {
+        Node y = x.right;
+        x.right = y.left;
+        if (y.left != nil) {
+            y.left.parent = x;
+        }
+        y.parent = x.parent;
+        if (x.parent == nil) {
+            root = y;
+        } else if (x == x.parent.left) {
+            x.parent.left = y;
+        } else {
+            x.parent.right = y;
+        }
+        y.left = x;
+        x.parent = y;
+    }
+
+    /**
+     * Right rotation
+     *
+     * @param x node which was rotated
+     *
+     * Time complexity: O(1)
+     */
+    private void rightRotate(Node x) {
+        Node y = x.left;
+        x.left = y.right;
+        if (y.right != nil) {
+            y.right.parent = x;
+        }
+        y.parent = x.parent;
+        if (x.parent == nil) {
+            root = y;
+        } else if (x == x.parent.right) {
+            x.parent.right = y;
+        } else {
+            x.parent.left = y;
+        }
+        y.right = x;
+        x.parent = y;
+    }
+
+    /* Inserts a Node with  to a Red-Black tree in a valid way.
+     *
+     * @param key is key of Node
+     * @param value is value of Node
+
+     * Time complexity: O(logn)
+     */
+    public void insertNodeInRBTree(long key, double value) {
+        Node x = root, y = nil;
+        while (x != nil) {
+            y = x;
+            if (key == x.key) {
+                x.value = value;
+                return;
+            } else if (key > x.key) {
+                x = x.right;
+            } else {
+                x = x.left;
+            }
+        }
+        Node z = new Node(key, value, ColorEnum.RED);
+        z.parent = y;
+        if (y == nil) {
+            root = z;
+        } else if (key > y.key) {
+            y.right = z;
+        } else {
+            y.left = z;
+        }
+        z.left = nil;
+        z.right = nil;
+        size++;
+        //RBTree balancing
+        insertRBfixUp(z);
+    }
+
+    /**
+     * Fixes up tree after a insert action. Restored property №4
+     *
+     * @param z Inserted Node. Time complexity: O(logn)
+     *
+     */
+    private void insertRBfixUp(Node z) {
+        while (z.parent.color == ColorEnum.RED) {
+            if (z.parent == z.parent.parent.left) {
+                Node y = z.parent.parent.right;
+                if (y.color == ColorEnum.RED) {
+                    z.parent.color = ColorEnum.BLACK; //var1
+                    y.color = ColorEnum.BLACK; //var1
+                    z.parent.parent.color = ColorEnum.RED; //var1
+                    z = z.parent.parent; //var1
+                } else {
+                    if (z == z.parent.right) {
+                        z = z.parent; //var2
+                        leftRotate(z); //var2
+                    }
+                    z.parent.color = ColorEnum.BLACK; //var3
+                    z.parent.parent.color = ColorEnum.RED; //var3
+                    rightRotate(z.parent.parent); //var3
+                }
+            } else {
+                Node y = z.parent.parent.left;
+                if (y.color == ColorEnum.RED) {
+                    z.parent.color = ColorEnum.BLACK; //var1
+                    y.color = ColorEnum.BLACK; //var1
+                    z.parent.parent.color = ColorEnum.RED; //var1
+                    z = z.parent.parent; //var1
+                } else {
+                    if (z == z.parent.left) {
+                        z = z.parent;
+                        rightRotate(z);
+                    }
+                    z.parent.color = ColorEnum.BLACK;
+                    z.parent.parent.color = ColorEnum.RED;
+                    leftRotate(z.parent.parent);
+                }
+            }
+        }
+        root.color = ColorEnum.BLACK;
+    }
+
+    /* Return the Node for the input key
+     *
+     * Time complexity: O(logn)
+     */
+    private Node getNodeByKey(long key) {
+        Node x = root;
+        while (x != nil) {
+            if (key == x.key) {
+                return x;
+            } else if (key > x.key) {
+                x = x.right;
+            } else {
+                x = x.left;
+            }
+        }
+        return nil;
+    }
+
+    /**
+     * Returns the value stored under the key, or defaultValue if there is no
+     * such key.
+     *
+     * Time complexity: O(logn)
+     */
+    public double getValueByKey(long key, double defaultValue) {
+        Node x = getNodeByKey(key);
+        return x == nil ? defaultValue : x.value;
+    }
+
+    /**
+     * Time complexity: O(logn)
+     */
+    public boolean containsKey(long key) {
+        return getNodeByKey(key) != nil;
+    }
+
+    /**
+     * Time complexity: O(1)
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * It function removes a Node u and puts in its place another Node v
+     *
+     * Time complexity: O(1)
+     */
+    private void transplantRBTree(Node u, Node v) {
+        if (u.parent == nil) {
+            root = v;
+        } else if (u.parent.left == u) {
+            u.parent.left = v;
+        } else {
+            u.parent.right = v;
+        }
+        v.parent = u.parent;
+    }
+
+    /**
+     * Deletes the Node by key from the RBTree.
+     *
+     * Time complexity: O(logn)
+     *
+     * @param key key of deleted Node
+     * @return boolean result
+     */
+    public boolean removeNodeFromRBTree(long key) {
+        Node z = getNodeByKey(key);
+        Node y = z, x = null;
+        if (y == nil) {
+            return false;
+        }
+        size--;
+        ColorEnum yOriginalColor = y.color;
+        if (z.left == nil) {
+            x = z.right;
+            transplantRBTree(z, z.right);
+        } else if (z.right == nil) {
+            x = z.left;
+            transplantRBTree(z, z.left);
+        } else {
+            y = getNodeWithMinimumKey(z.right);
+            yOriginalColor = y.color;
+            x = y.right;
+            if (y.parent == z) {
+                x.parent = y;
+            } else {
+                transplantRBTree(y, y.right);
+                y.right = z.right;
+                y.right.parent = y;
+            }
+            transplantRBTree(z, y);
+            y.left = z.left;
+            y.left.parent = y;
+            y.color = z.color;
+        }
+        if (yOriginalColor == ColorEnum.BLACK) {
+            return deleteRBfixUp(x);
+        }
+        return true;
+    }
+
+    /**
+     * Returns Node with minimum key in the specified subRBTree with input root
+     *
+     * @param x	root subRBTree
+     *
+     * Time complexity: O(logn)
+     */
+    private Node getNodeWithMinimumKey(Node root) {
+        if (root == nil) {
+            return null;
+        }
+        Node x = root;
+        while (x.left != nil) {
+            x = x.left;
+        }
+        return x;
+    }
+
+    /**
+     * Returns the node with the next larger key, nil after the last one.
+     *
+     * Time complexity: O(logn), O(1) amortized over a full walk
+     */
+    private Node successorNode(Node x) {
+        if (x.right != nil) {
+            return getNodeWithMinimumKey(x.right);
+        }
+        Node y = x.parent;
+        while (y != nil && x == y.right) {
+            x = y;
+            y = y.parent;
+        }
+        return y;
+    }
+
+    /**
+     * Fixes up tree after a delete action.
+     *
+     * @param x	Child node of the deleted node's successor.
+     *
+     * Time complexity: O(logn)
+     */
+    private boolean deleteRBfixUp(Node x) {
+        while (x != root && x.color == ColorEnum.BLACK) {
+            if (x == x.parent.left) {
+                Node w = x.parent.right;
+                if (w.color == ColorEnum.RED) {
+                    w.color = ColorEnum.BLACK; //var1
+                    x.parent.color = ColorEnum.RED; //var1
+                    leftRotate(x.parent); //var1
+                    w = x.parent.right; //var1
+                }
+                if (w.left.color == ColorEnum.BLACK && w.right.color == ColorEnum.BLACK) {
+                    w.color = ColorEnum.RED; //var2
+                    x = x.parent; //var2
+                } else {
+                    if (w.right.color == ColorEnum.BLACK) {
+                        w.left.color = ColorEnum.BLACK;
+                        w.color = ColorEnum.RED;
+                        rightRotate(w);
+                        w = x.parent.right;
+                    }
+                    w.color = x.parent.color;
+                    x.parent.color = ColorEnum.BLACK;
+                    w.right.color = ColorEnum.BLACK;
+                    leftRotate(x.parent);
+                    x = root;
+                }
+            } else {
+                Node w = x.parent.left;
+                if (w.color == ColorEnum.RED) {
+                    w.color = ColorEnum.BLACK; //var1
+                    x.parent.color = ColorEnum.RED; //var1
+                    rightRotate(x.parent); //var1
+                    w = x.parent.left; //var1
+                }
+                if (w.right.color == ColorEnum.BLACK && w.left.color == ColorEnum.BLACK) {
+                    w.color = ColorEnum.RED; //var2
+                    x = x.parent; //var2
+                } else {
+                    if (w.left.color == ColorEnum.BLACK) {
+                        w.right.color = ColorEnum.BLACK;
+                        w.color = ColorEnum.RED;
+                        leftRotate(w);
+                        w = x.parent.left;
+                    }
+                    w.color = x.parent.color;
+                    x.parent.color = ColorEnum.BLACK;
+                    w.left.color = ColorEnum.BLACK;
+                    rightRotate(x.parent);
+                    x = root;
+                }
+            }
+        }
+        x.color = ColorEnum.BLACK;
+        return true;
+    }
+
+    /**
+     * Returns a cursor over the entries in ascending key order, placed before
+     * the first one. Keys and values are read without boxing. The tree must
+     * not be modified while the cursor is in use.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * In-order cursor: next() moves to the following entry, key() and value()
+     * read the current one.
+     */
+    public final class Cursor {
+
+        private Node current = nil;
+        private Node next = root == nil ? nil : getNodeWithMinimumKey(root);
+
+        private Cursor() {
+        }
+
+        /**
+         * Moves to the next entry.
+         *
+         * Time complexity: O(1) amortized
+         *
+         * @return false if there is none
+         */
+        public boolean next() {
+            current = next;
+            if (current == nil) {
+                return false;
+            }
+            next = successorNode(current);
+            return true;
+        }
+
+        public long key() {
+            return entry().key;
+        }
+
+        public double value() {
+            return entry().value;
+        }
+
+        private Node entry() {
+            if (current == nil) {
+                throw new NoSuchElementException();
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Print RBTree inOrder Walk
+     *
+     * Time complexity: O(n)
+     */
+    public void printRBTreeInorderWalk() {
+        for (Node x = root == nil ? nil : getNodeWithMinimumKey(root); x != nil; x = successorNode(x)) {
+            System.out.println("Node: " + x.key + "; " + x.color + "; ParentNode: " + x.parent.key + "; " + x.parent.color + "; RightNode " + x.right.key + "; " + x.right.color + "; LeftNode " + x.left.key + ";  " + x.left.color);
+        }
+        System.out.println();
+    }
+
+}
@@ -0,0 +1,893 @@
+package trees;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32C;
+
+/**
+ * B+tree stored in a file, for data sets larger than the memory.
+ *
+ * The file is a sequence of 4 KiB pages, mapped into memory with
+ * FileChannel.map in segments of 16 MiB. Every segment is mapped once, when
+ * a page in it is first used, and stays mapped until {@link #close()}; the
+ * operating system keeps the hot pages in memory and writes back and drops
+ * the others, so the Java heap holds only the segment table and two bitmaps
+ * of the pages.
+ *
+ * Pages 0 and 1 are meta pages, the others are nodes. A leaf holds sorted
+ * entries, an inner node child page numbers and separator keys: child i
+ * holds the keys below key i and child i + 1 the keys from key i up, as in
+ * {@link BPlusTree}. Keys and values are encoded with codecs of a fixed
+ * size, so every slot of a page has the same width.
+ *
+ * Updates are copy-on-write: a page that is part of the last committed tree
+ * is never changed. Changing it writes a copy to a free page and changes
+ * the parent to point to the copy, up to a new root. Pages written since the
+ * last commit are changed in place, so a burst of updates copies each page
+ * at most once. {@link #commit()} flushes the new pages and then writes the
+ * new root into the meta page that does not hold the last commit, with a
+ * higher generation and a checksum. On open the valid meta page with the
+ * higher generation wins, so a crash at any point leaves the tree of one of
+ * the last two commits. Pages the last commit no longer uses are free for
+ * reuse; on open they are found by walking the inner nodes.
+ *
+ * Changes are visible to the tree right away and durable after commit() or
+ * close(). Values may not be null. Not thread-safe.
+ *
+ * @param <T1> Key type
+ * @param <T2> Value type
+ */
+public class MappedBPlusTree<T1 extends Comparable<T1>, T2> implements SortedStore<T1, T2>, AutoCloseable {
+
+    public static final int PAGE_SIZE = 4096;
+    private static final int SEGMENT_SHIFT = 12;
+    private static final int SEGMENT_PAGES = 1 << SEGMENT_SHIFT;
+    private static final long SEGMENT_SIZE = (long) SEGMENT_PAGES * PAGE_SIZE;
+
+    private static final int MAGIC = 0x42505452;
+    private static final int VERSION = 1;
+    private static final int META_SIZE = 64;
+    private static final int META_GENERATION = 24, META_ROOT = 32, META_PAGES = 40, META_SIZE_FIELD = 48, META_CRC = 56;
+    private static final long FIRST_NODE = 2;
+
+    /**
+     * Node header: type byte, then the number of keys as an int at offset 4.
+     */
+    private static final int HEADER = 8;
+    private static final byte LEAF = 0, INNER = 1;
+    private static final long NONE = -1;
+    private static final int MAX_HEIGHT = 64;
+
+    private final Codec<T1> keyCodec;
+    private final Codec<T2> valueCodec;
+    private final int keySize, valueSize, entrySize;
+    /**
+     * Maximum number of entries of a leaf and of keys of an inner node.
+     */
+    private final int leafCapacity, innerCapacity;
+    private final int minLeafSize, minInnerSize;
+    /**
+     * Offset of the first key in an inner node, after the children.
+     */
+    private final int innerKeys;
+
+    private FileChannel channel;
+    private MappedByteBuffer[] segments = new MappedByteBuffer[8];
+    private final BitSet dirtySegments = new BitSet();
+
+    private long root;
+    private long pageCount;
+    private long size;
+    private long generation;
+    /**
+     * Pages written since the last commit, which are changed in place.
+     */
+    private final BitSet fresh = new BitSet();
+    /**
+     * Pages that can be allocated, and pages that the last commit uses but
+     * the current tree does not, which become free at the next commit.
+     */
+    private final BitSet free = new BitSet(), pendingFree = new BitSet();
+    private int firstFree = Integer.MAX_VALUE;
+    private boolean changed;
+    private int modCount;
+
+    /**
+     * Separator and right sibling produced by the last split of insert.
+     */
+    private byte[] splitKey;
+    private long splitPage = NONE;
+
+    /**
+     * Opens the tree in the file, or creates the file if it does not exist.
+     *
+     * @param keyCodec encoding of the keys, of a fixed size
+     * @param valueCodec encoding of the values, of a fixed size
+     * @throws IOException if the file cannot be opened or holds no valid
+     * tree written with codecs of the same sizes
+     */
+    public MappedBPlusTree(Path file, Codec<T1> keyCodec, Codec<T2> valueCodec) throws IOException {
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        keySize = keyCodec.fixedSize();
+        valueSize = valueCodec.fixedSize();
+        if (keySize <= 0 || valueSize < 0) {
+            throw new IllegalArgumentException("MappedBPlusTree needs codecs of a fixed size");
+        }
+        entrySize = keySize + valueSize;
+        leafCapacity = (PAGE_SIZE - HEADER) / entrySize;
+        innerCapacity = (PAGE_SIZE - HEADER - Long.BYTES) / (keySize + Long.BYTES);
+        if (leafCapacity < 4 || innerCapacity < 3) {
+            throw new IllegalArgumentException("keys and values too large for a page: " + keySize + " + " + valueSize + " bytes");
+        }
+        minLeafSize = leafCapacity / 2;
+        minInnerSize = innerCapacity / 2;
+        innerKeys = HEADER + Long.BYTES * (innerCapacity + 1);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0) {
+                create();
+            } else {
+                open();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void create() throws IOException {
+        pageCount = FIRST_NODE;
+        byte[] leaf = new byte[PAGE_SIZE];
+        leaf[0] = LEAF;
+        root = allocate();
+        store(root, leaf);
+        changed = true;
+        commit();
+    }
+
+    private void open() throws IOException {
+        ByteBuffer meta = null;
+        for (int slot = 0; slot < 2; slot++) {
+            ByteBuffer m = ByteBuffer.allocate(META_SIZE);
+            channel.read(m, (long) slot * PAGE_SIZE);
+            if (isValidMeta(m) && (meta == null || m.getLong(META_GENERATION) > meta.getLong(META_GENERATION))) {
+                meta = m;
+            }
+        }
+        if (meta == null) {
+            throw new IOException("no valid meta page, not a MappedBPlusTree file");
+        }
+        if (meta.getInt(8) != PAGE_SIZE || meta.getInt(12) != keySize || meta.getInt(16) != valueSize) {
+            throw new IOException("file was written with another page size or codecs of other sizes");
+        }
+        generation = meta.getLong(META_GENERATION);
+        root = meta.getLong(META_ROOT);
+        pageCount = meta.getLong(META_PAGES);
+        size = meta.getLong(META_SIZE_FIELD);
+        // every node page the committed tree does not reach is free
+        BitSet used = new BitSet();
+        long[] stack = new long[MAX_HEIGHT * (innerCapacity + 1)];
+        int top = 0;
+        stack[top++] = root;
+        used.set((int) root);
+        while (top > 0) {
+            long page = stack[--top];
+            ByteBuffer b = segment(page);
+            int base = offset(page);
+            if (b.get(base) == INNER) {
+                for (int i = 0, n = count(b, base); i <= n; i++) {
+                    long c = child(b, base, i);
+                    used.set((int) c);
+                    stack[top++] = c;
+                }
+            }
+        }
+        free.set((int) FIRST_NODE, (int) pageCount);
+        free.andNot(used);
+        firstFree = (int) FIRST_NODE;
+    }
+
+    private static boolean isValidMeta(ByteBuffer m) {
+        if (m.getInt(0) != MAGIC || m.getInt(4) != VERSION) {
+            return false;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(m.array(), 0, META_CRC);
+        return m.getInt(META_CRC) == (int) crc.getValue();
+    }
+
+    private void ensureOpen() {
+        if (channel == null) {
+            throw new IllegalStateException("tree is closed");
+        }
+    }
+
+    /**
+     * Returns the mapped segment that holds the page, mapping it first if
+     * needed. Mapping past the end of the file extends the file.
+     */
+    private MappedByteBuffer segment(long page) {
+        int s = (int) (page >>> SEGMENT_SHIFT);
+        if (s >= segments.length) {
+            segments = Arrays.copyOf(segments, Math.max(s + 1, segments.length * 2));
+        }
+        MappedByteBuffer b = segments[s];
+        if (b == null) {
+            try {
+                b = channel.map(FileChannel.MapMode.READ_WRITE, s * SEGMENT_SIZE, SEGMENT_SIZE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            segments[s] = b;
+        }
+        return b;
+    }
+
+    private static int offset(long page) {
+        return (int) (page & (SEGMENT_PAGES - 1)) * PAGE_SIZE;
+    }
+
+    private byte[] image(long page) {
+        byte[] image = new byte[PAGE_SIZE];
+        segment(page).get(offset(page), image);
+        return image;
+    }
+
+    private void store(long page, byte[] image) {
+        segment(page).put(offset(page), image);
+        dirtySegments.set((int) (page >>> SEGMENT_SHIFT));
+    }
+
+    private long allocate() {
+        long page;
+        int p = firstFree == Integer.MAX_VALUE ? -1 : free.nextSetBit(firstFree);
+        if (p >= 0) {
+            free.clear(p);
+            firstFree = p + 1;
+            page = p;
+        } else {
+            if (pageCount == Integer.MAX_VALUE) {
+                throw new IllegalStateException("MappedBPlusTree is full");
+            }
+            page = pageCount++;
+        }
+        fresh.set((int) page);
+        return page;
+    }
+
+    /**
+     * Gives up a page the current tree no longer uses.
+     */
+    private void release(long page) {
+        if (fresh.get((int) page)) {
+            fresh.clear((int) page);
+            free.set((int) page);
+            firstFree = Math.min(firstFree, (int) page);
+        } else {
+            pendingFree.set((int) page);
+        }
+    }
+
+    /**
+     * Writes the new image of a page, in place if the page was written since
+     * the last commit and to a new page otherwise.
+     *
+     * @return the page that now holds the image
+     */
+    private long write(long page, byte[] image) {
+        if (!fresh.get((int) page)) {
+            release(page);
+            page = allocate();
+        }
+        store(page, image);
+        return page;
+    }
+
+    private long writeNew(byte[] image) {
+        long page = allocate();
+        store(page, image);
+        return page;
+    }
+
+    private static int count(ByteBuffer b, int base) {
+        return b.getInt(base + 4);
+    }
+
+    private static void setCount(ByteBuffer b, int n) {
+        b.putInt(4, n);
+    }
+
+    private static long child(ByteBuffer b, int base, int i) {
+        return b.getLong(base + HEADER + Long.BYTES * i);
+    }
+
+    private static void setChild(ByteBuffer b, int i, long page) {
+        b.putLong(HEADER + Long.BYTES * i, page);
+    }
+
+    private int entryOffset(int i) {
+        return HEADER + i * entrySize;
+    }
+
+    private int keyOffset(int i) {
+        return innerKeys + i * keySize;
+    }
+
+    private T1 key(ByteBuffer b, int base, boolean leaf, int i) {
+        b.position(base + (leaf ? entryOffset(i) : keyOffset(i)));
+        return keyCodec.read(b, keySize);
+    }
+
+    private T2 value(ByteBuffer b, int base, int i) {
+        b.position(base + entryOffset(i) + keySize);
+        return valueCodec.read(b, valueSize);
+    }
+
+    private void put(ByteBuffer b, int position, T1 key, T2 value) {
+        b.position(position);
+        keyCodec.write(key, b);
+        valueCodec.write(value, b);
+        if (b.position() != position + entrySize) {
+            throw new IllegalStateException("codec wrote a value of another size than its fixed size");
+        }
+    }
+
+    /**
+     * Binary search in the keys of the node at base.
+     *
+     * @return index of the key, or (-(insertion point) - 1) as in
+     * {@link Arrays#binarySearch(Object[], Object)}
+     */
+    private int search(ByteBuffer b, int base, T1 key) {
+        boolean leaf = b.get(base) == LEAF;
+        int lo = 0, hi = count(b, base) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = key.compareTo(key(b, base, leaf, mid));
+            if (cmp > 0) {
+                lo = mid + 1;
+            } else if (cmp < 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    private static int childIndex(int i) {
+        return i >= 0 ? i + 1 : -i - 1;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of pages in use or free, including the meta pages.
+     */
+    public long pageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Returns the value stored under the key, or null if there is no such key.
+     *
+     * Time complexity: O(logn)
+     */
+    @Override
+    public T2 getValueByKey(T1 key) {
+        ensureOpen();
+        long page = root;
+        while (true) {
+            ByteBuffer b = segment(page);
+            int base = offset(page);
+            int i = search(b, base, key);
+            if (b.get(base) == LEAF) {
+                return i >= 0 ? value(b, base, i) : null;
+            }
+            page = child(b, base, childIndex(i));
+        }
+    }
+
+    /**
+     * Time complexity: O(logn)
+     */
+    public boolean containsKey(T1 key) {
+        ensureOpen();
+        long page = root;
+        while (true) {
+            ByteBuffer b = segment(page);
+            int base = offset(page);
+            int i = search(b, base, key);
+            if (b.get(base) == LEAF) {
+                return i >= 0;
+            }
+            page = child(b, base, childIndex(i));
+        }
+    }
+
+    /**
+     * Inserts a key-value pair, replacing the value if the key is present.
+     *
+     * Time complexity: O(logn)
+     */
+    @Override
+    public void insertNode(T1 key, T2 value) {
+        ensureOpen();
+        if (key == null || value == null) {
+            throw new NullPointerException("MappedBPlusTree does not store null keys or values");
+        }
+        long r = insert(root, key, value);
+        if (splitPage != NONE) {
+            byte[] image = new byte[PAGE_SIZE];
+            ByteBuffer b = ByteBuffer.wrap(image);
+            image[0] = INNER;
+            setCount(b, 1);
+            setChild(b, 0, r);
+            setChild(b, 1, splitPage);
+            System.arraycopy(splitKey, 0, image, keyOffset(0), keySize);
+            splitKey = null;
+            splitPage = NONE;
+            r = writeNew(image);
+        }
+        root = r;
+        changed = true;
+        modCount++;
+    }
+
+    /**
+     * Inserts into the subtree of the page.
+     *
+     * @return the page that holds the subtree now; if it was split, its new
+     * right sibling is in {@link #splitPage} with the separator in
+     * {@link #splitKey}
+     */
+    private long insert(long page, T1 key, T2 value) {
+        ByteBuffer m = segment(page);
+        int base = offset(page);
+        int i = search(m, base, key);
+        int n = count(m, base);
+        if (m.get(base) == LEAF) {
+            byte[] image = image(page);
+            ByteBuffer b = ByteBuffer.wrap(image);
+            if (i >= 0) {
+                b.position(entryOffset(i) + keySize);
+                valueCodec.write(value, b);
+                return write(page, image);
+            }
+            i = -i - 1;
+            size++;
+            if (n < leafCapacity) {
+                System.arraycopy(image, entryOffset(i), image, entryOffset(i + 1), (n - i) * entrySize);
+                put(b, entryOffset(i), key, value);
+                setCount(b, n + 1);
+                return write(page, image);
+            }
+            return splitLeaf(page, image, i, key, value);
+        }
+        int c = childIndex(i);
+        long child = child(m, base, c);
+        long newChild = insert(child, key, value);
+        if (splitPage == NONE && newChild == child) {
+            return page;
+        }
+        byte[] image = image(page);
+        ByteBuffer b = ByteBuffer.wrap(image);
+        setChild(b, c, newChild);
+        if (splitPage == NONE) {
+            return write(page, image);
+        }
+        byte[] k = splitKey;
+        long s = splitPage;
+        splitKey = null;
+        splitPage = NONE;
+        if (n < innerCapacity) {
+            System.arraycopy(image, keyOffset(c), image, keyOffset(c + 1), (n - c) * keySize);
+            System.arraycopy(image, HEADER + Long.BYTES * (c + 1), image, HEADER + Long.BYTES * (c + 2), (n - c) * Long.BYTES);
+            System.arraycopy(k, 0, image, keyOffset(c), keySize);
+            setChild(b, c + 1, s);
+            setCount(b, n + 1);
+            return write(page, image);
+        }
+        return splitInner(page, image, c, k, s);
+    }
+
+    /**
+     * Splits a full leaf while inserting the entry at index i. The left half
+     * stays in the page.
+     */
+    private long splitLeaf(long page, byte[] image, int i, T1 key, T2 value) {
+        int n = leafCapacity;
+        byte[] all = new byte[(n + 1) * entrySize];
+        System.arraycopy(image, HEADER, all, 0, i * entrySize);
+        put(ByteBuffer.wrap(all), i * entrySize, key, value);
+        System.arraycopy(image, entryOffset(i), all, (i + 1) * entrySize, (n - i) * entrySize);
+        int half = (n + 1) / 2;
+        byte[] left = new byte[PAGE_SIZE], right = new byte[PAGE_SIZE];
+        left[0] = LEAF;
+        right[0] = LEAF;
+        System.arraycopy(all, 0, left, HEADER, half * entrySize);
+        System.arraycopy(all, half * entrySize, right, HEADER, (n + 1 - half) * entrySize);
+        setCount(ByteBuffer.wrap(left), half);
+        setCount(ByteBuffer.wrap(right), n + 1 - half);
+        splitKey = Arrays.copyOfRange(right, HEADER, HEADER + keySize);
+        splitPage = writeNew(right);
+        return write(page, left);
+    }
+
+    /**
+     * Splits a full inner node while inserting separator k at index c and
+     * child s at index c + 1. The left half stays in the page.
+     */
+    private long splitInner(long page, byte[] image, int c, byte[] k, long s) {
+        int n = innerCapacity;
+        ByteBuffer b = ByteBuffer.wrap(image);
+        byte[] keys = new byte[(n + 1) * keySize];
+        long[] children = new long[n + 2];
+        System.arraycopy(image, keyOffset(0), keys, 0, c * keySize);
+        System.arraycopy(k, 0, keys, c * keySize, keySize);
+        System.arraycopy(image, keyOffset(c), keys, (c + 1) * keySize, (n - c) * keySize);
+        for (int j = 0, t = 0; j <= n + 1; j++) {
+            children[j] = j == c + 1 ? s : child(b, 0, t++);
+        }
+        int half = (n + 1) / 2;
+        byte[] left = new byte[PAGE_SIZE], right = new byte[PAGE_SIZE];
+        left[0] = INNER;
+        right[0] = INNER;
+        ByteBuffer lb = ByteBuffer.wrap(left), rb = ByteBuffer.wrap(right);
+        System.arraycopy(keys, 0, left, keyOffset(0), half * keySize);
+        System.arraycopy(keys, (half + 1) * keySize, right, keyOffset(0), (n - half) * keySize);
+        for (int j = 0; j <= half; j++) {
+            setChild(lb, j, children[j]);
+        }
+        for (int j = half + 1; j <= n + 1; j++) {
+            setChild(rb, j - half - 1, children[j]);
+        }
+        setCount(lb, half);
+        setCount(rb, n - half);
+        splitKey = Arrays.copyOfRange(keys, half * keySize, (half + 1) * keySize);
+        splitPage = writeNew(right);
+        return write(page, left);
+    }
+
+    /**
+     * Deletes the entry by key from the tree.
+     *
+     * Time complexity: O(logn)
+     *
+     * @return true if the key was present
+     */
+    @Override
+    public boolean removeNode(T1 key) {
+        if (!containsKey(key)) {
+            return false;
+        }
+        long r = remove(root, key);
+        ByteBuffer b = segment(r);
+        int base = offset(r);
+        if (b.get(base) == INNER && count(b, base) == 0) {
+            long c = child(b, base, 0);
+            release(r);
+            r = c;
+        }
+        root = r;
+        size--;
+        changed = true;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Removes the key, which is present, from the subtree of the page.
+     *
+     * @return the page that holds the subtree now
+     */
+    private long remove(long page, T1 key) {
+        byte[] image = image(page);
+        ByteBuffer b = ByteBuffer.wrap(image);
+        int i = search(b, 0, key);
+        int n = count(b, 0);
+        if (image[0] == LEAF) {
+            System.arraycopy(image, entryOffset(i + 1), image, entryOffset(i), (n - i - 1) * entrySize);
+            Arrays.fill(image, entryOffset(n - 1), entryOffset(n), (byte) 0);
+            setCount(b, n - 1);
+            return write(page, image);
+        }
+        int c = childIndex(i);
+        long child = child(b, 0, c);
+        long newChild = remove(child, key);
+        setChild(b, c, newChild);
+        ByteBuffer m = segment(newChild);
+        int base = offset(newChild);
+        if (count(m, base) < (m.get(base) == LEAF ? minLeafSize : minInnerSize)) {
+            rebalance(b, c);
+        } else if (newChild == child) {
+            return page;
+        }
+        return write(page, image);
+    }
+
+    private int minSize(byte[] node) {
+        return node[0] == LEAF ? minLeafSize : minInnerSize;
+    }
+
+    /**
+     * Refills child c of the parent image, which has one key less than the
+     * minimum, from a sibling, or merges it with a sibling if both are at
+     * the minimum. The changed children are written and the parent image is
+     * updated to point to them.
+     */
+    private void rebalance(ByteBuffer p, int c) {
+        int n = count(p, 0);
+        byte[] x = image(child(p, 0, c));
+        if (c > 0) {
+            byte[] l = image(child(p, 0, c - 1));
+            if (count(ByteBuffer.wrap(l), 0) > minSize(l)) {
+                borrowFromLeft(p, c, l, x);
+                return;
+            }
+            if (c == n || count(ByteBuffer.wrap(image(child(p, 0, c + 1))), 0) <= minSize(x)) {
+                merge(p, c - 1, l, x);
+                return;
+            }
+        }
+        byte[] r = image(child(p, 0, c + 1));
+        if (count(ByteBuffer.wrap(r), 0) > minSize(r)) {
+            borrowFromRight(p, c, x, r);
+        } else {
+            merge(p, c, x, r);
+        }
+    }
+
+    private void borrowFromLeft(ByteBuffer p, int c, byte[] l, byte[] x) {
+        ByteBuffer lb = ByteBuffer.wrap(l), xb = ByteBuffer.wrap(x);
+        int ln = count(lb, 0), xn = count(xb, 0);
+        byte[] pi = p.array();
+        if (x[0] == LEAF) {
+            System.arraycopy(x, entryOffset(0), x, entryOffset(1), xn * entrySize);
+            System.arraycopy(l, entryOffset(ln - 1), x, entryOffset(0), entrySize);
+            Arrays.fill(l, entryOffset(ln - 1), entryOffset(ln), (byte) 0);
+            System.arraycopy(x, entryOffset(0), pi, keyOffset(c - 1), keySize);
+        } else {
+            System.arraycopy(x, keyOffset(0), x, keyOffset(1), xn * keySize);
+            System.arraycopy(x, HEADER, x, HEADER + Long.BYTES, (xn + 1) * Long.BYTES);
+            System.arraycopy(pi, keyOffset(c - 1), x, keyOffset(0), keySize);
+            setChild(xb, 0, child(lb, 0, ln));
+            System.arraycopy(l, keyOffset(ln - 1), pi, keyOffset(c - 1), keySize);
+            Arrays.fill(l, keyOffset(ln - 1), keyOffset(ln), (byte) 0);
+            setChild(lb, ln, 0);
+        }
+        setCount(xb, xn + 1);
+        setCount(lb, ln - 1);
+        setChild(p, c - 1, write(child(p, 0, c - 1), l));
+        setChild(p, c, write(child(p, 0, c), x));
+    }
+
+    private void borrowFromRight(ByteBuffer p, int c, byte[] x, byte[] r) {
+        ByteBuffer xb = ByteBuffer.wrap(x), rb = ByteBuffer.wrap(r);
+        int xn = count(xb, 0), rn = count(rb, 0);
+        byte[] pi = p.array();
+        if (x[0] == LEAF) {
+            System.arraycopy(r, entryOffset(0), x, entryOffset(xn), entrySize);
+            System.arraycopy(r, entryOffset(1), r, entryOffset(0), (rn - 1) * entrySize);
+            Arrays.fill(r, entryOffset(rn - 1), entryOffset(rn), (byte) 0);
+            System.arraycopy(r, entryOffset(0), pi, keyOffset(c), keySize);
+        } else {
+            System.arraycopy(pi, keyOffset(c), x, keyOffset(xn), keySize);
+            setChild(xb, xn + 1, child(rb, 0, 0));
+            System.arraycopy(r, keyOffset(0), pi, keyOffset(c), keySize);
+            System.arraycopy(r, keyOffset(1), r, keyOffset(0), (rn - 1) * keySize);
+            System.arraycopy(r, HEADER + Long.BYTES, r, HEADER, rn * Long.BYTES);
+            Arrays.fill(r, keyOffset(rn - 1), keyOffset(rn), (byte) 0);
+            setChild(rb, rn, 0);
+        }
+        setCount(xb, xn + 1);
+        setCount(rb, rn - 1);
+        setChild(p, c, write(child(p, 0, c), x));
+        setChild(p, c + 1, write(child(p, 0, c + 1), r));
+    }
+
+    /**
+     * Moves child k + 1 of the parent into child k and drops separator k.
+     */
+    private void merge(ByteBuffer p, int k, byte[] l, byte[] r) {
+        ByteBuffer lb = ByteBuffer.wrap(l), rb = ByteBuffer.wrap(r);
+        int ln = count(lb, 0), rn = count(rb, 0), n = count(p, 0);
+        byte[] pi = p.array();
+        if (l[0] == LEAF) {
+            System.arraycopy(r, entryOffset(0), l, entryOffset(ln), rn * entrySize);
+            setCount(lb, ln + rn);
+        } else {
+            System.arraycopy(pi, keyOffset(k), l, keyOffset(ln), keySize);
+            System.arraycopy(r, keyOffset(0), l, keyOffset(ln + 1), rn * keySize);
+            System.arraycopy(r, HEADER, l, HEADER + Long.BYTES * (ln + 1), (rn + 1) * Long.BYTES);
+            setCount(lb, ln + rn + 1);
+        }
+        release(child(p, 0, k + 1));
+        setChild(p, k, write(child(p, 0, k), l));
+        System.arraycopy(pi, keyOffset(k + 1), pi, keyOffset(k), (n - k - 1) * keySize);
+        System.arraycopy(pi, HEADER + Long.BYTES * (k + 2), pi, HEADER + Long.BYTES * (k + 1), (n - k - 1) * Long.BYTES);
+        Arrays.fill(pi, keyOffset(n - 1), keyOffset(n), (byte) 0);
+        setChild(p, n, 0);
+        setCount(p, n - 1);
+    }
+
+    /**
+     * Makes all changes since the last commit durable: flushes the pages
+     * written since then and switches the meta page to the new root.
+     */
+    public void commit() throws IOException {
+        ensureOpen();
+        if (!changed) {
+            return;
+        }
+        for (int s = dirtySegments.nextSetBit(0); s >= 0; s = dirtySegments.nextSetBit(s + 1)) {
+            segments[s].force();
+        }
+        dirtySegments.clear();
+        generation++;
+        ByteBuffer meta = ByteBuffer.allocate(META_SIZE);
+        meta.putInt(MAGIC).putInt(VERSION).putInt(PAGE_SIZE).putInt(keySize).putInt(valueSize).putInt(0)
+                .putLong(generation).putLong(root).putLong(pageCount).putLong(size);
+        CRC32C crc = new CRC32C();
+        crc.update(meta.array(), 0, META_CRC);
+        meta.putInt((int) crc.getValue());
+        MappedByteBuffer b = segment(0);
+        int slot = (int) (generation & 1) * PAGE_SIZE;
+        b.put(slot, meta.array());
+        b.force(slot, META_SIZE);
+        int p = pendingFree.nextSetBit(0);
+        if (p >= 0) {
+            free.or(pendingFree);
+            firstFree = Math.min(firstFree, p);
+            pendingFree.clear();
+        }
+        fresh.clear();
+        changed = false;
+    }
+
+    /**
+     * Commits and closes the file. Calling it again has no effect.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        try {
+            commit();
+        } finally {
+            for (int s = 0; s < segments.length; s++) {
+                if (segments[s] != null) {
+                    OffHeapRBTree.Cleaner.free(segments[s]);
+                    segments[s] = null;
+                }
+            }
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Iterates over the entries in ascending key order. The entries are
+     * copies; the tree must not be modified during the iteration.
+     */
+    @Override
+    public Iterator<Map.Entry<T1, T2>> iterator() {
+        ensureOpen();
+        return new EntryIterator(null, null);
+    }
+
+    /**
+     * Iterates in ascending order over the entries with from <= key < to.
+     *
+     * Time complexity: O(logn) to start, O(1) amortized per entry
+     */
+    @Override
+    public Iterator<Map.Entry<T1, T2>> range(T1 from, T1 to) {
+        ensureOpen();
+        return new EntryIterator(from, to);
+    }
+
+    /**
+     * In-order walk with the path from the root on a stack: pages[d] is the
+     * node at depth d and index[d] the child, or in the leaf the entry, the
+     * walk is at.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<T1, T2>> {
+
+        private final long[] pages = new long[MAX_HEIGHT];
+        private final int[] index = new int[MAX_HEIGHT];
+        private final int leafDepth;
+        private final T1 to;
+        private final int expectedModCount = modCount;
+        private Map.Entry<T1, T2> next;
+
+        EntryIterator(T1 from, T1 to) {
+            this.to = to;
+            long page = root;
+            int d = 0;
+            while (true) {
+                ByteBuffer b = segment(page);
+                int base = offset(page);
+                int i = from == null ? -1 : search(b, base, from);
+                pages[d] = page;
+                if (b.get(base) == LEAF) {
+                    index[d] = i >= 0 ? i : -i - 1;
+                    break;
+                }
+                index[d] = from == null ? 0 : childIndex(i);
+                page = child(b, base, index[d]);
+                d++;
+            }
+            leafDepth = d;
+            next = advance();
+        }
+
+        private Map.Entry<T1, T2> advance() {
+            int d = leafDepth;
+            while (true) {
+                long page = pages[d];
+                ByteBuffer b = segment(page);
+                int base = offset(page);
+                int n = count(b, base);
+                if (d == leafDepth) {
+                    if (index[d] < n) {
+                        int i = index[d]++;
+                        T1 key = key(b, base, true, i);
+                        if (to != null && key.compareTo(to) >= 0) {
+                            return null;
+                        }
+                        return new AbstractMap.SimpleImmutableEntry<>(key, value(b, base, i));
+                    }
+                } else if (index[d] < n) {
+                    long p = child(b, base, ++index[d]);
+                    for (d++; d < leafDepth; d++) {
+                        pages[d] = p;
+                        index[d] = 0;
+                        p = child(segment(p), offset(p), 0);
+                    }
+                    pages[d] = p;
+                    index[d] = 0;
+                    continue;
+                }
+                if (d == 0) {
+                    return null;
+                }
+                d--;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<T1, T2> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<T1, T2> e = next;
+            next = advance();
+            return e;
+        }
+    }
+}
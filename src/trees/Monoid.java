@@ -0,0 +1,74 @@
+package trees;
+
+import java.util.Comparator;
+import java.util.function.BinaryOperator;
+
+/**
+ * An associative operation with an identity element. RBTree and AVLTree use
+ * it to keep the combined value of every subtree, which lets them aggregate
+ * the values of a key range in O(logn).
+ *
+ * combine must be associative, but it need not be commutative: values are
+ * always combined in ascending key order.
+ *
+ * Trees tell monoids apart by identity: two trees can be joined, split into
+ * each other or combined by the set operations only if they were created
+ * with the same instance.
+ *
+ * @param <T> Value type
+ */
+public interface Monoid<T> {
+
+    T identity();
+
+    T combine(T a, T b);
+
+    /**
+     * Returns a new instance on every call.
+     */
+    static <T> Monoid<T> of(T identity, BinaryOperator<T> combine) {
+        return new Monoid<T>() {
+            @Override
+            public T identity() {
+                return identity;
+            }
+
+            @Override
+            public T combine(T a, T b) {
+                return combine.apply(a, b);
+            }
+        };
+    }
+
+    /**
+     * The sum of the values. Every call returns the same instance.
+     */
+    static Monoid<Long> longSum() {
+        return Monoids.LONG_SUM;
+    }
+
+    /**
+     * The sum of the values. Every call returns the same instance.
+     */
+    static Monoid<Double> doubleSum() {
+        return Monoids.DOUBLE_SUM;
+    }
+
+    /**
+     * The smallest value; the identity is null, which stands for "no value".
+     * Returns a new instance on every call, so trees that are to be joined
+     * or combined must share one.
+     */
+    static <T> Monoid<T> min(Comparator<? super T> comparator) {
+        return of(null, (a, b) -> a == null ? b : b == null ? a : comparator.compare(a, b) <= 0 ? a : b);
+    }
+
+    /**
+     * The greatest value; the identity is null, which stands for "no value".
+     * Returns a new instance on every call, so trees that are to be joined
+     * or combined must share one.
+     */
+    static <T> Monoid<T> max(Comparator<? super T> comparator) {
+        return of(null, (a, b) -> a == null ? b : b == null ? a : comparator.compare(a, b) >= 0 ? a : b);
+    }
+}
@@ -0,0 +1,15 @@
+package trees;
+
+/**
+ * The shared instances behind the factories of {@link Monoid}. Trees compare
+ * monoids by identity, so a factory without parameters must return the same
+ * object on every call.
+ */
+final class Monoids {
+
+    static final Monoid<Long> LONG_SUM = Monoid.of(0L, Long::sum);
+    static final Monoid<Double> DOUBLE_SUM = Monoid.of(0.0, Double::sum);
+
+    private Monoids() {
+    }
+}
@@ -0,0 +1,526 @@
+package trees;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Red-black tree with long keys and long values kept outside the Java heap.
+ *
+ * Nodes are 32-byte records in direct ByteBuffers: key, value, left, right,
+ * parent and color. A node is an int index split into a chunk number and a
+ * record inside that chunk. Index 0 is the nil sentinel. The tree grows one
+ * chunk at a time, so a full chunk is never copied, and freed records are
+ * chained through their left field and reused.
+ *
+ * The heap holds only the chunk table, so the garbage collector does not see
+ * the entries at all. The memory is released by {@link #close()}; a closed
+ * tree throws IllegalStateException on every operation.
+ *
+ * The algorithms are the ones of {@link RBTree}. Not thread-safe.
+ */
+public class OffHeapRBTree implements AutoCloseable {
+
+    private static final int NIL = 0;
+    private static final int NODE_SIZE = 32;
+    private static final int KEY = 0, VALUE = 8, LEFT = 16, RIGHT = 20, PARENT = 24, COLOR = 28;
+    private static final int RED = 1, BLACK = 0;
+    private static final int DEFAULT_NODES_PER_CHUNK = 1 << 20;
+
+    private final int chunkShift, chunkMask;
+    private ByteBuffer[] chunks;
+    private int chunkCount;
+    private int root = NIL;
+    private int free = NIL;
+    private int next = 1;
+    private long size;
+
+    public OffHeapRBTree() {
+        this(DEFAULT_NODES_PER_CHUNK);
+    }
+
+    /**
+     * @param nodesPerChunk number of nodes in one direct buffer, a power of
+     * two between 64 and 2^25 (1 GB per buffer)
+     */
+    public OffHeapRBTree(int nodesPerChunk) {
+        if (nodesPerChunk < 64 || nodesPerChunk > 1 << 25 || Integer.bitCount(nodesPerChunk) != 1) {
+            throw new IllegalArgumentException("nodesPerChunk must be a power of two in [64, 2^25]: " + nodesPerChunk);
+        }
+        chunkShift = Integer.numberOfTrailingZeros(nodesPerChunk);
+        chunkMask = nodesPerChunk - 1;
+        chunks = new ByteBuffer[8];
+        addChunk();
+        setColor(NIL, BLACK);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of off-heap bytes held by the tree.
+     */
+    public long allocatedBytes() {
+        return (long) chunkCount << chunkShift << 5;
+    }
+
+    private void addChunk() {
+        if ((long) (chunkCount + 1) << chunkShift > Integer.MAX_VALUE) {
+            throw new IllegalStateException("OffHeapRBTree is full");
+        }
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+        }
+        chunks[chunkCount++] = ByteBuffer.allocateDirect(NODE_SIZE << chunkShift).order(ByteOrder.nativeOrder());
+    }
+
+    private ByteBuffer chunk(int x) {
+        return chunks[x >>> chunkShift];
+    }
+
+    private int offset(int x) {
+        return (x & chunkMask) << 5;
+    }
+
+    private long key(int x) {
+        return chunk(x).getLong(offset(x) + KEY);
+    }
+
+    private long value(int x) {
+        return chunk(x).getLong(offset(x) + VALUE);
+    }
+
+    private void setValue(int x, long value) {
+        chunk(x).putLong(offset(x) + VALUE, value);
+    }
+
+    private int left(int x) {
+        return chunk(x).getInt(offset(x) + LEFT);
+    }
+
+    private void setLeft(int x, int y) {
+        chunk(x).putInt(offset(x) + LEFT, y);
+    }
+
+    private int right(int x) {
+        return chunk(x).getInt(offset(x) + RIGHT);
+    }
+
+    private void setRight(int x, int y) {
+        chunk(x).putInt(offset(x) + RIGHT, y);
+    }
+
+    private int parent(int x) {
+        return chunk(x).getInt(offset(x) + PARENT);
+    }
+
+    private void setParent(int x, int y) {
+        chunk(x).putInt(offset(x) + PARENT, y);
+    }
+
+    private int color(int x) {
+        return chunk(x).getInt(offset(x) + COLOR);
+    }
+
+    private void setColor(int x, int color) {
+        chunk(x).putInt(offset(x) + COLOR, color);
+    }
+
+    private void ensureOpen() {
+        if (chunks == null) {
+            throw new IllegalStateException("OffHeapRBTree is closed");
+        }
+    }
+
+    private int allocate(long key, long value) {
+        int z;
+        if (free != NIL) {
+            z = free;
+            free = left(z);
+        } else {
+            if (next >>> chunkShift == chunkCount) {
+                addChunk();
+            }
+            z = next++;
+        }
+        ByteBuffer b = chunk(z);
+        int o = offset(z);
+        b.putLong(o + KEY, key);
+        b.putLong(o + VALUE, value);
+        b.putInt(o + LEFT, NIL);
+        b.putInt(o + RIGHT, NIL);
+        b.putInt(o + PARENT, NIL);
+        b.putInt(o + COLOR, RED);
+        size++;
+        return z;
+    }
+
+    private void release(int z) {
+        setLeft(z, free);
+        free = z;
+        size--;
+    }
+
+    /**
+     * Left rotation
+     *
+     * @param x Node which was rotated
+     *
+     * Time complexity: O(1)
+     */
+    private void leftRotate(int x) {
+        int y = right(x);
+        int yl = left(y);
+        setRight(x, yl);
+        if (yl != NIL) {
+            setParent(yl, x);
+        }
+        int xp = parent(x);
+        setParent(y, xp);
+        if (xp == NIL) {
+            root = y;
+        } else if (x == left(xp)) {
+            setLeft(xp, y);
+        } else {
+            setRight(xp, y);
+        }
+        setLeft(y, x);
+        setParent(x, y);
+    }
+
+    /**
+     * Right rotation
+     *
+     * @param x node which was rotated
+     *
+     * Time complexity: O(1)
+     */
+    private void rightRotate(int x) {
+        int y = left(x);
+        int yr = right(y);
+        setLeft(x, yr);
+        if (yr != NIL) {
+            setParent(yr, x);
+        }
+        int xp = parent(x);
+        setParent(y, xp);
+        if (xp == NIL) {
+            root = y;
+        } else if (x == right(xp)) {
+            setRight(xp, y);
+        } else {
+            setLeft(xp, y);
+        }
+        setRight(y, x);
+        setParent(x, y);
+    }
+
+    /**
+     * Inserts a key-value pair, replacing the value if the key is present.
+     *
+     * Time complexity: O(logn)
+     */
+    public void insertNodeInRBTree(long key, long value) {
+        ensureOpen();
+        int x = root, y = NIL;
+        long k = 0;
+        while (x != NIL) {
+            y = x;
+            k = key(x);
+            if (key == k) {
+                setValue(x, value);
+                return;
+            } else if (key > k) {
+                x = right(x);
+            } else {
+                x = left(x);
+            }
+        }
+        int z = allocate(key, value);
+        setParent(z, y);
+        if (y == NIL) {
+            root = z;
+        } else if (key > k) {
+            setRight(y, z);
+        } else {
+            setLeft(y, z);
+        }
+        insertRBfixUp(z);
+    }
+
+    /**
+     * Fixes up tree after a insert action. Restored property №4
+     *
+     * Time complexity: O(logn)
+     */
+    private void insertRBfixUp(int z) {
+        while (color(parent(z)) == RED) {
+            int p = parent(z), g = parent(p);
+            if (p == left(g)) {
+                int y = right(g);
+                if (color(y) == RED) {
+                    setColor(p, BLACK);
+                    setColor(y, BLACK);
+                    setColor(g, RED);
+                    z = g;
+                } else {
+                    if (z == right(p)) {
+                        z = p;
+                        leftRotate(z);
+                    }
+                    p = parent(z);
+                    g = parent(p);
+                    setColor(p, BLACK);
+                    setColor(g, RED);
+                    rightRotate(g);
+                }
+            } else {
+                int y = left(g);
+                if (color(y) == RED) {
+                    setColor(p, BLACK);
+                    setColor(y, BLACK);
+                    setColor(g, RED);
+                    z = g;
+                } else {
+                    if (z == left(p)) {
+                        z = p;
+                        rightRotate(z);
+                    }
+                    p = parent(z);
+                    g = parent(p);
+                    setColor(p, BLACK);
+                    setColor(g, RED);
+                    leftRotate(g);
+                }
+            }
+        }
+        setColor(root, BLACK);
+    }
+
+    private int getNodeByKey(long key) {
+        ensureOpen();
+        int x = root;
+        while (x != NIL) {
+            long k = key(x);
+            if (key == k) {
+                return x;
+            } else if (key > k) {
+                x = right(x);
+            } else {
+                x = left(x);
+            }
+        }
+        return NIL;
+    }
+
+    /**
+     * Returns the value stored under the key, or defaultValue if there is no
+     * such key.
+     *
+     * Time complexity: O(logn)
+     */
+    public long getValueByKey(long key, long defaultValue) {
+        int x = getNodeByKey(key);
+        return x == NIL ? defaultValue : value(x);
+    }
+
+    /**
+     * Time complexity: O(logn)
+     */
+    public boolean containsKey(long key) {
+        return getNodeByKey(key) != NIL;
+    }
+
+    /**
+     * It function removes a Node u and puts in its place another Node v
+     *
+     * Time complexity: O(1)
+     */
+    private void transplantRBTree(int u, int v) {
+        int up = parent(u);
+        if (up == NIL) {
+            root = v;
+        } else if (left(up) == u) {
+            setLeft(up, v);
+        } else {
+            setRight(up, v);
+        }
+        setParent(v, up);
+    }
+
+    /**
+     * Deletes the Node by key from the tree and puts its record on the free
+     * list.
+     *
+     * Time complexity: O(logn)
+     *
+     * @param key key of deleted Node
+     * @return boolean result
+     */
+    public boolean removeNodeFromRBTree(long key) {
+        int z = getNodeByKey(key);
+        int y = z, x;
+        if (y == NIL) {
+            return false;
+        }
+        int yOriginalColor = color(y);
+        if (left(z) == NIL) {
+            x = right(z);
+            transplantRBTree(z, x);
+        } else if (right(z) == NIL) {
+            x = left(z);
+            transplantRBTree(z, x);
+        } else {
+            y = right(z);
+            while (left(y) != NIL) {
+                y = left(y);
+            }
+            yOriginalColor = color(y);
+            x = right(y);
+            if (parent(y) == z) {
+                setParent(x, y);
+            } else {
+                transplantRBTree(y, x);
+                setRight(y, right(z));
+                setParent(right(y), y);
+            }
+            transplantRBTree(z, y);
+            setLeft(y, left(z));
+            setParent(left(y), y);
+            setColor(y, color(z));
+        }
+        release(z);
+        if (yOriginalColor == BLACK) {
+            deleteRBfixUp(x);
+        }
+        return true;
+    }
+
+    /**
+     * Fixes up tree after a delete action.
+     *
+     * @param x	Child node of the deleted node's successor.
+     *
+     * Time complexity: O(logn)
+     */
+    private void deleteRBfixUp(int x) {
+        while (x != root && color(x) == BLACK) {
+            int p = parent(x);
+            if (x == left(p)) {
+                int w = right(p);
+                if (color(w) == RED) {
+                    setColor(w, BLACK);
+                    setColor(p, RED);
+                    leftRotate(p);
+                    p = parent(x);
+                    w = right(p);
+                }
+                if (color(left(w)) == BLACK && color(right(w)) == BLACK) {
+                    setColor(w, RED);
+                    x = p;
+                } else {
+                    if (color(right(w)) == BLACK) {
+                        setColor(left(w), BLACK);
+                        setColor(w, RED);
+                        rightRotate(w);
+                        w = right(p);
+                    }
+                    setColor(w, color(p));
+                    setColor(p, BLACK);
+                    setColor(right(w), BLACK);
+                    leftRotate(p);
+                    x = root;
+                }
+            } else {
+                int w = left(p);
+                if (color(w) == RED) {
+                    setColor(w, BLACK);
+                    setColor(p, RED);
+                    rightRotate(p);
+                    p = parent(x);
+                    w = left(p);
+                }
+                if (color(right(w)) == BLACK && color(left(w)) == BLACK) {
+                    setColor(w, RED);
+                    x = p;
+                } else {
+                    if (color(left(w)) == BLACK) {
+                        setColor(right(w), BLACK);
+                        setColor(w, RED);
+                        leftRotate(w);
+                        w = left(p);
+                    }
+                    setColor(w, color(p));
+                    setColor(p, BLACK);
+                    setColor(left(w), BLACK);
+                    rightRotate(p);
+                    x = root;
+                }
+            }
+        }
+        setColor(x, BLACK);
+    }
+
+    /**
+     * Frees the off-heap memory right away instead of waiting for the
+     * buffers to be collected. Calling it again has no effect.
+     */
+    @Override
+    public void close() {
+        if (chunks == null) {
+            return;
+        }
+        ByteBuffer[] c = chunks;
+        chunks = null;
+        root = NIL;
+        size = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            Cleaner.free(c[i]);
+            c[i] = null;
+        }
+        chunkCount = 0;
+    }
+
+    /**
+     * Releases direct and mapped buffers through
+     * sun.misc.Unsafe.invokeCleaner when the runtime exposes it, otherwise
+     * leaves them to the garbage collector.
+     */
+    static final class Cleaner {
+
+        private static final Object UNSAFE;
+        private static final Method INVOKE_CLEANER;
+
+        static {
+            Object unsafe = null;
+            Method invokeCleaner = null;
+            try {
+                Class<?> c = Class.forName("sun.misc.Unsafe");
+                Field f = c.getDeclaredField("theUnsafe");
+                f.setAccessible(true);
+                unsafe = f.get(null);
+                invokeCleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                unsafe = null;
+                invokeCleaner = null;
+            }
+            UNSAFE = unsafe;
+            INVOKE_CLEANER = invokeCleaner;
+        }
+
+        static void free(ByteBuffer buffer) {
+            if (INVOKE_CLEANER == null) {
+                return;
+            }
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } catch (ReflectiveOperationException e) {
+                // the buffer is still released when it becomes unreachable
+            }
+        }
+    }
+
+}
@@ -0,0 +1,496 @@
+package trees;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Persistent red-black tree: an update never changes a node that a reader
+ * can see, it copies the path from the root to the changed node instead.
+ *
+ * The balancing is the left-leaning variant of the red-black tree from
+ * Sedgewick, "Left-leaning Red-Black Trees", 2008, whose recursive insert and
+ * delete lend themselves to path copying. Every version of the tree is a
+ * root pointer, so {@link #snapshot()} is O(1) and a reader of any version
+ * needs no lock. Versions that nobody references any more are reclaimed by
+ * the garbage collector.
+ *
+ * Updates through the tree itself copy O(logn) nodes each. A {@link Batch}
+ * marks the nodes it creates with its own edit token and changes those in
+ * place, so a bulk update copies each node at most once; the batch becomes
+ * visible to readers of the tree only at {@link Batch#commit()}. A batch
+ * commits only if the tree has not changed since it was started.
+ *
+ * Readers may run in any number of threads. Writes to one tree, including
+ * batches on it, must come from one thread at a time. An iterator walks the
+ * version that was current when it was created, with a stack of its own and
+ * without a lock, so a long scan sees a stable view while writers go on.
+ * Its entries are the nodes of that version and do not support setValue.
+ *
+ * @param <T1> Key type
+ * @param <T2> Value type
+ */
+public class PersistentRBTree<T1 extends Comparable<T1>, T2> implements SortedStore<T1, T2> {
+
+    private static final boolean RED = true, BLACK = false;
+
+    static final class Node<T1, T2> extends TreeEntry<T1, T2> {
+
+        Node<T1, T2> left, right;
+        boolean color;
+        final Object edit;
+
+        Node(T1 key, T2 value, boolean color, Node<T1, T2> left, Node<T1, T2> right, Object edit) {
+            super(key, value);
+            this.color = color;
+            this.left = left;
+            this.right = right;
+            this.edit = edit;
+        }
+
+        /**
+         * The node may be shared by several versions.
+         */
+        @Override
+        public T2 setValue(T2 value) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Root and size of one version, published together.
+     */
+    private static final class Version<T1, T2> {
+
+        final Node<T1, T2> root;
+        final int size;
+
+        Version(Node<T1, T2> root, int size) {
+            this.root = root;
+            this.size = size;
+        }
+    }
+
+    private volatile Version<T1, T2> version;
+
+    public PersistentRBTree() {
+        this(new Version<>(null, 0));
+    }
+
+    private PersistentRBTree(Version<T1, T2> version) {
+        this.version = version;
+    }
+
+    /**
+     * Returns a tree holding the current version. Later updates of either
+     * tree are not visible in the other one.
+     *
+     * Time complexity: O(1)
+     */
+    public PersistentRBTree<T1, T2> snapshot() {
+        return new PersistentRBTree<>(version);
+    }
+
+    public int size() {
+        return version.size;
+    }
+
+    /**
+     * Returns the value stored under the key, or null if there is no such key.
+     *
+     * Time complexity: O(logn)
+     */
+    @Override
+    public T2 getValueByKey(T1 key) {
+        Node<T1, T2> x = getNodeByKey(version.root, key);
+        return x == null ? null : x.value;
+    }
+
+    public boolean containsKey(T1 key) {
+        return getNodeByKey(version.root, key) != null;
+    }
+
+    /**
+     * Iterates in ascending key order over the version current at the call.
+     */
+    @Override
+    public Iterator<Map.Entry<T1, T2>> iterator() {
+        return new EntryIterator<>(version.root, null, null);
+    }
+
+    /**
+     * Iterates in ascending order over the entries with from <= key < to, in
+     * the version current at the call.
+     *
+     * Time complexity: O(logn) to start, O(1) amortized per entry
+     */
+    @Override
+    public Iterator<Map.Entry<T1, T2>> range(T1 from, T1 to) {
+        return new EntryIterator<>(version.root, from, to);
+    }
+
+    /**
+     * Iterates in ascending order over the entries with key >= from, in the
+     * version current at the call.
+     *
+     * Time complexity: O(logn) to start, O(1) amortized per entry
+     */
+    public Iterator<Map.Entry<T1, T2>> tailFrom(T1 from) {
+        return new EntryIterator<>(version.root, from, null);
+    }
+
+    /**
+     * In-order walk of one version. The stack holds the nodes whose left
+     * subtree is being visited, so its top is the next entry.
+     */
+    private static final class EntryIterator<T1 extends Comparable<T1>, T2> implements Iterator<Map.Entry<T1, T2>> {
+
+        private final Deque<Node<T1, T2>> stack = new ArrayDeque<>();
+        private final T1 to;
+
+        /**
+         * @param from least key, null for the first entry
+         * @param to   key to stop before, null for none
+         */
+        EntryIterator(Node<T1, T2> root, T1 from, T1 to) {
+            this.to = to;
+            Node<T1, T2> x = root;
+            while (x != null) {
+                if (from == null || from.compareTo(x.key) <= 0) {
+                    stack.push(x);
+                    x = x.left;
+                } else {
+                    x = x.right;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            Node<T1, T2> x = stack.peek();
+            return x != null && (to == null || x.key.compareTo(to) < 0);
+        }
+
+        @Override
+        public Map.Entry<T1, T2> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Node<T1, T2> x = stack.pop();
+            for (Node<T1, T2> y = x.right; y != null; y = y.left) {
+                stack.push(y);
+            }
+            return x;
+        }
+    }
+
+    /**
+     * Inserts the pair, or replaces the value if the key is present, and
+     * publishes the new version.
+     *
+     * Time complexity: O(logn)
+     */
+    public void insertNodeInRBTree(T1 key, T2 value) {
+        Version<T1, T2> v = version;
+        int[] size = {v.size};
+        version = new Version<>(insert(v.root, key, value, new Object(), size), size[0]);
+    }
+
+    /**
+     * Removes the key and publishes the new version.
+     *
+     * Time complexity: O(logn)
+     *
+     * @return true if the key was present
+     */
+    public boolean removeNodeFromRBTree(T1 key) {
+        Version<T1, T2> v = version;
+        if (getNodeByKey(v.root, key) == null) {
+            return false;
+        }
+        version = new Version<>(remove(v.root, key, new Object()), v.size - 1);
+        return true;
+    }
+
+    /**
+     * Same as {@link #insertNodeInRBTree(Comparable, Object)}.
+     */
+    @Override
+    public void insertNode(T1 key, T2 value) {
+        insertNodeInRBTree(key, value);
+    }
+
+    /**
+     * Same as {@link #removeNodeFromRBTree(Comparable)}.
+     */
+    @Override
+    public boolean removeNode(T1 key) {
+        return removeNodeFromRBTree(key);
+    }
+
+    /**
+     * Starts a batch of updates on the current version. Until the batch is
+     * committed the tree must not be changed otherwise, or the commit
+     * fails.
+     */
+    public Batch batch() {
+        return new Batch(version);
+    }
+
+    /**
+     * A series of updates that changes nodes created within the batch in
+     * place. The tree keeps showing the version the batch started from until
+     * {@link #commit()}, which replaces it with the result of the batch.
+     */
+    public final class Batch {
+
+        private Object edit = new Object();
+        private final Version<T1, T2> start;
+        private Node<T1, T2> root;
+        private final int[] size = new int[1];
+
+        private Batch(Version<T1, T2> start) {
+            this.start = start;
+            root = start.root;
+            size[0] = start.size;
+        }
+
+        private void ensureOpen() {
+            if (edit == null) {
+                throw new IllegalStateException("batch is already committed or failed to commit");
+            }
+        }
+
+        public T2 getValueByKey(T1 key) {
+            ensureOpen();
+            Node<T1, T2> x = getNodeByKey(root, key);
+            return x == null ? null : x.value;
+        }
+
+        public void insertNodeInRBTree(T1 key, T2 value) {
+            ensureOpen();
+            root = insert(root, key, value, edit, size);
+        }
+
+        public boolean removeNodeFromRBTree(T1 key) {
+            ensureOpen();
+            if (getNodeByKey(root, key) == null) {
+                return false;
+            }
+            root = remove(root, key, edit);
+            size[0]--;
+            return true;
+        }
+
+        /**
+         * Publishes the batch as the current version of the tree. The batch
+         * cannot be used afterwards.
+         *
+         * @throws IllegalStateException if the tree was changed since the
+         *                               batch was started, by the tree
+         *                               itself or another batch; the
+         *                               updates of this batch are lost
+         *                               then, since publishing them would
+         *                               drop those changes
+         */
+        public void commit() {
+            ensureOpen();
+            edit = null;
+            if (version != start) {
+                throw new IllegalStateException("tree was changed while the batch was open");
+            }
+            version = new Version<>(root, size[0]);
+        }
+    }
+
+    private static <T1 extends Comparable<T1>, T2> Node<T1, T2> getNodeByKey(Node<T1, T2> x, T1 key) {
+        while (x != null) {
+            int cmp = key.compareTo(x.key);
+            if (cmp == 0) {
+                return x;
+            }
+            x = cmp > 0 ? x.right : x.left;
+        }
+        return null;
+    }
+
+    private static boolean isRed(Node<?, ?> x) {
+        return x != null && x.color == RED;
+    }
+
+    /**
+     * Returns x itself if it was created under the edit token, otherwise a
+     * copy of it that is.
+     */
+    private static <T1, T2> Node<T1, T2> editable(Node<T1, T2> x, Object edit) {
+        if (x.edit == edit) {
+            return x;
+        }
+        return new Node<>(x.key, x.value, x.color, x.left, x.right, edit);
+    }
+
+    private static <T1 extends Comparable<T1>, T2> Node<T1, T2> insert(Node<T1, T2> root, T1 key, T2 value, Object edit, int[] size) {
+        Node<T1, T2> r = insertNode(root, key, value, edit, size);
+        if (r.color == RED) {
+            r = editable(r, edit);
+            r.color = BLACK;
+        }
+        return r;
+    }
+
+    private static <T1 extends Comparable<T1>, T2> Node<T1, T2> insertNode(Node<T1, T2> h, T1 key, T2 value, Object edit, int[] size) {
+        if (h == null) {
+            size[0]++;
+            return new Node<>(key, value, RED, null, null, edit);
+        }
+        h = editable(h, edit);
+        int cmp = key.compareTo(h.key);
+        if (cmp < 0) {
+            h.left = insertNode(h.left, key, value, edit, size);
+        } else if (cmp > 0) {
+            h.right = insertNode(h.right, key, value, edit, size);
+        } else {
+            h.value = value;
+        }
+        return balance(h, edit);
+    }
+
+    private static <T1 extends Comparable<T1>, T2> Node<T1, T2> remove(Node<T1, T2> root, T1 key, Object edit) {
+        if (!isRed(root.left) && !isRed(root.right)) {
+            root = editable(root, edit);
+            root.color = RED;
+        }
+        Node<T1, T2> r = removeNode(root, key, edit);
+        if (r != null && r.color == RED) {
+            r = editable(r, edit);
+            r.color = BLACK;
+        }
+        return r;
+    }
+
+    /**
+     * Removes the key, which must be present in the subtree of h.
+     */
+    private static <T1 extends Comparable<T1>, T2> Node<T1, T2> removeNode(Node<T1, T2> h, T1 key, Object edit) {
+        h = editable(h, edit);
+        if (key.compareTo(h.key) < 0) {
+            if (!isRed(h.left) && !isRed(h.left.left)) {
+                h = moveRedLeft(h, edit);
+            }
+            h.left = removeNode(h.left, key, edit);
+        } else {
+            if (isRed(h.left)) {
+                h = rotateRight(h, edit);
+            }
+            if (key.compareTo(h.key) == 0 && h.right == null) {
+                return null;
+            }
+            if (!isRed(h.right) && !isRed(h.right.left)) {
+                h = moveRedRight(h, edit);
+            }
+            if (key.compareTo(h.key) == 0) {
+                Node<T1, T2> x = h.right;
+                while (x.left != null) {
+                    x = x.left;
+                }
+                h.key = x.key;
+                h.value = x.value;
+                h.right = removeMin(h.right, edit);
+            } else {
+                h.right = removeNode(h.right, key, edit);
+            }
+        }
+        return balance(h, edit);
+    }
+
+    private static <T1, T2> Node<T1, T2> removeMin(Node<T1, T2> h, Object edit) {
+        if (h.left == null) {
+            return null;
+        }
+        h = editable(h, edit);
+        if (!isRed(h.left) && !isRed(h.left.left)) {
+            h = moveRedLeft(h, edit);
+        }
+        h.left = removeMin(h.left, edit);
+        return balance(h, edit);
+    }
+
+    /**
+     * Rotations and color flips expect h to be editable already and make
+     * editable copies of the other nodes they change.
+     */
+    private static <T1, T2> Node<T1, T2> rotateLeft(Node<T1, T2> h, Object edit) {
+        Node<T1, T2> x = editable(h.right, edit);
+        h.right = x.left;
+        x.left = h;
+        x.color = h.color;
+        h.color = RED;
+        return x;
+    }
+
+    private static <T1, T2> Node<T1, T2> rotateRight(Node<T1, T2> h, Object edit) {
+        Node<T1, T2> x = editable(h.left, edit);
+        h.left = x.right;
+        x.right = h;
+        x.color = h.color;
+        h.color = RED;
+        return x;
+    }
+
+    private static <T1, T2> void flipColors(Node<T1, T2> h, Object edit) {
+        h.color = !h.color;
+        h.left = editable(h.left, edit);
+        h.left.color = !h.left.color;
+        h.right = editable(h.right, edit);
+        h.right.color = !h.right.color;
+    }
+
+    private static <T1, T2> Node<T1, T2> moveRedLeft(Node<T1, T2> h, Object edit) {
+        flipColors(h, edit);
+        if (isRed(h.right.left)) {
+            h.right = rotateRight(h.right, edit);
+            h = rotateLeft(h, edit);
+            flipColors(h, edit);
+        }
+        return h;
+    }
+
+    private static <T1, T2> Node<T1, T2> moveRedRight(Node<T1, T2> h, Object edit) {
+        flipColors(h, edit);
+        if (isRed(h.left.left)) {
+            h = rotateRight(h, edit);
+            flipColors(h, edit);
+        }
+        return h;
+    }
+
+    private static <T1, T2> Node<T1, T2> balance(Node<T1, T2> h, Object edit) {
+        if (isRed(h.right) && !isRed(h.left)) {
+            h = rotateLeft(h, edit);
+        }
+        if (isRed(h.left) && isRed(h.left.left)) {
+            h = rotateRight(h, edit);
+        }
+        if (isRed(h.left) && isRed(h.right)) {
+            flipColors(h, edit);
+        }
+        return h;
+    }
+
+    public void printRBTreeInorderWalk() {
+        Deque<Node<T1, T2>> stack = new ArrayDeque<>();
+        Node<T1, T2> x = version.root;
+        while (x != null || !stack.isEmpty()) {
+            while (x != null) {
+                stack.push(x);
+                x = x.left;
+            }
+            x = stack.pop();
+            System.out.println("Node: " + x.key + "; " + (x.color == RED ? "RED" : "BLACK"));
+            x = x.right;
+        }
+        System.out.println();
+    }
+}
@@ -0,0 +1,442 @@
+package trees;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Thread-safe ordered map that splits the key space into ranges, each held
+ * by its own {@link RBTree} behind its own lock, so writers of different
+ * ranges do not wait for each other.
+ *
+ * Every shard works like a {@link ConcurrentRBTree}: lookups walk the tree
+ * under an optimistic stamp, writers take the write mode of the shard's
+ * StampedLock. An immutable routing table maps a key to its shard by the
+ * lower bounds of the shards.
+ *
+ * The tree starts with one shard and adapts the ranges to the keys: a
+ * shard that grows beyond twice the average size is split at its median
+ * with {@link RBTree#split}, and once there are maxShards shards, the two
+ * adjacent shards that are smallest together are joined with
+ * {@link RBTree#join} in the same step. Rebalancing locks only the shards
+ * it changes, then publishes a new routing table and retires the old
+ * shards; an operation that lands on a retired shard routes again.
+ *
+ * Iteration goes through the shards in key order and copies up to CHUNK
+ * entries at a time under the read lock of one shard, continuing after the
+ * last key it returned. An iterator thus sees every key in ascending order
+ * at most once, never blocks writers for long and reflects the updates
+ * made while it runs in the part of the key space it has not reached.
+ *
+ * @param <T1> Key type
+ * @param <T2> Value type
+ */
+public class ShardedTree<T1 extends Comparable<T1>, T2> implements SortedStore<T1, T2> {
+
+    private static final int CHUNK = 256;
+    /**
+     * A shard is checked for splitting whenever its size reaches a multiple
+     * of this, and never split below it.
+     */
+    private static final int CHECK_INTERVAL = 1024;
+
+    private static final Object ABSENT = new Object();
+
+    static final class Shard<T1 extends Comparable<T1>, T2> {
+
+        final RBTree<T1, T2> tree;
+        final StampedLock lock = new StampedLock();
+        /**
+         * Set under the write lock when the shard is replaced.
+         */
+        volatile boolean retired;
+
+        Shard(RBTree<T1, T2> tree) {
+            this.tree = tree;
+        }
+    }
+
+    /**
+     * Shards in key order; shard i holds the keys k with
+     * bounds[i - 1] <= k < bounds[i].
+     */
+    private static final class Routing<T1 extends Comparable<T1>, T2> {
+
+        final Shard<T1, T2>[] shards;
+        final T1[] bounds;
+
+        Routing(Shard<T1, T2>[] shards, T1[] bounds) {
+            this.shards = shards;
+            this.bounds = bounds;
+        }
+
+        int indexOf(T1 key) {
+            int lo = 0, hi = bounds.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (key.compareTo(bounds[mid]) >= 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    private final int maxShards;
+    private volatile Routing<T1, T2> routing;
+    private final ReentrantLock rebalanceLock = new ReentrantLock();
+    private final LongAdder size = new LongAdder();
+
+    /**
+     * Creates a tree with up to one shard per available processor.
+     */
+    public ShardedTree() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param maxShards number of shards the key space is divided into once
+     *                  the tree is large enough
+     */
+    public ShardedTree(int maxShards) {
+        if (maxShards <= 0) {
+            throw new IllegalArgumentException("maxShards must be positive: " + maxShards);
+        }
+        this.maxShards = maxShards;
+        Shard<T1, T2>[] shards = newShardArray(1);
+        shards[0] = new Shard<>(new RBTree<T1, T2>());
+        routing = new Routing<>(shards, newKeyArray(0));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T1 extends Comparable<T1>, T2> Shard<T1, T2>[] newShardArray(int length) {
+        return new Shard[length];
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T1 extends Comparable<T1>> T1[] newKeyArray(int length) {
+        return (T1[]) new Comparable[length];
+    }
+
+    private Shard<T1, T2> shardOf(T1 key) {
+        Routing<T1, T2> r = routing;
+        return r.shards[r.indexOf(key)];
+    }
+
+    /**
+     * Returns the value stored under the key, or null if there is no such key.
+     *
+     * Time complexity: O(logn)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public T2 getValueByKey(T1 key) {
+        Object value = lookUp(key);
+        return value == ABSENT ? null : (T2) value;
+    }
+
+    /**
+     * Time complexity: O(logn)
+     */
+    public boolean containsKey(T1 key) {
+        return lookUp(key) != ABSENT;
+    }
+
+    /**
+     * Returns the value of the key, or ABSENT, as it was at one point during
+     * the call, see {@link RBTree#readByKey}. A shard is retired under its
+     * write lock and stays retired, so the value holds if the shard is still
+     * live after the read.
+     */
+    private Object lookUp(T1 key) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        while (true) {
+            Shard<T1, T2> s = shardOf(key);
+            Object value = s.tree.readByKey(key, s.lock, x -> x.key == null ? ABSENT : x.value);
+            if (!s.retired) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Inserts the pair, or replaces the value if the key is present.
+     *
+     * Time complexity: O(logn), plus O(logn) now and then for rebalancing
+     */
+    @Override
+    public void insertNode(T1 key, T2 value) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        while (true) {
+            Shard<T1, T2> s = shardOf(key);
+            int n;
+            long stamp = s.lock.writeLock();
+            try {
+                if (s.retired) {
+                    continue;
+                }
+                n = s.tree.size();
+                s.tree.insertNodeInRBTree(key, value);
+                if (s.tree.size() == n) {
+                    return;
+                }
+                n++;
+            } finally {
+                s.lock.unlockWrite(stamp);
+            }
+            size.increment();
+            if (n % CHECK_INTERVAL == 0) {
+                rebalance(s, n);
+            }
+            return;
+        }
+    }
+
+    /**
+     * Removes the key.
+     *
+     * Time complexity: O(logn)
+     *
+     * @return true if the key was present
+     */
+    @Override
+    public boolean removeNode(T1 key) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        while (true) {
+            Shard<T1, T2> s = shardOf(key);
+            long stamp = s.lock.writeLock();
+            try {
+                if (s.retired) {
+                    continue;
+                }
+                if (!s.tree.removeNodeFromRBTree(key)) {
+                    return false;
+                }
+            } finally {
+                s.lock.unlockWrite(stamp);
+            }
+            size.decrement();
+            return true;
+        }
+    }
+
+    /**
+     * Number of entries; exact when no update runs at the same time.
+     */
+    public int size() {
+        return size.intValue();
+    }
+
+    public int shardCount() {
+        return routing.shards.length;
+    }
+
+    /**
+     * Returns the sizes of the shards in key order, read one shard at a
+     * time.
+     */
+    public int[] shardSizes() {
+        Shard<T1, T2>[] shards = routing.shards;
+        int[] sizes = new int[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            long stamp = shards[i].lock.readLock();
+            try {
+                sizes[i] = shards[i].tree.size();
+            } finally {
+                shards[i].lock.unlockRead(stamp);
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * Splits the shard, which had n entries, if it is large next to the
+     * others, and joins the smallest adjacent pair if the number of shards
+     * would exceed maxShards. Skipped if another thread is rebalancing.
+     */
+    private void rebalance(Shard<T1, T2> s, int n) {
+        if (!rebalanceLock.tryLock()) {
+            return;
+        }
+        try {
+            Routing<T1, T2> r = routing;
+            int count = r.shards.length;
+            if (s.retired || count >= maxShards && n <= 2 * (size.sum() / count)) {
+                return;
+            }
+            int i = Arrays.asList(r.shards).indexOf(s);
+            int j = -1;
+            if (count >= maxShards) {
+                // the pair to join, which must end up smaller than the shard
+                // that is split or nothing is gained
+                long best = n;
+                for (int k = 0; k + 1 < count; k++) {
+                    if (k + 1 < i || k > i) {
+                        long pair = r.shards[k].tree.size() + (long) r.shards[k + 1].tree.size();
+                        if (pair < best) {
+                            best = pair;
+                            j = k;
+                        }
+                    }
+                }
+                if (j < 0) {
+                    return;
+                }
+            }
+            List<Shard<T1, T2>> order = j < 0 ? List.of(s) : i < j ? List.of(s, r.shards[j], r.shards[j + 1])
+                    : List.of(r.shards[j], r.shards[j + 1], s);
+            Shard<T1, T2>[] locked = order.toArray(newShardArray(order.size()));
+            long[] stamps = new long[locked.length];
+            for (int k = 0; k < locked.length; k++) {
+                stamps[k] = locked[k].lock.writeLock();
+            }
+            try {
+                if (s.tree.size() < 2) {
+                    return;
+                }
+                T1 median = s.tree.select(s.tree.size() / 2).getKey();
+                RBTree<T1, T2> right = s.tree.split(median);
+                List<Shard<T1, T2>> shards = new ArrayList<>(count + 1);
+                List<T1> bounds = new ArrayList<>(count);
+                for (int k = 0; k < count; k++) {
+                    boolean joined = j >= 0 && k == j + 1;
+                    if (k > 0 && !joined) {
+                        bounds.add(r.bounds[k - 1]);
+                    }
+                    if (k == i) {
+                        shards.add(new Shard<>(s.tree));
+                        bounds.add(median);
+                        shards.add(new Shard<>(right));
+                    } else if (k == j) {
+                        r.shards[k].tree.join(r.shards[k + 1].tree);
+                        shards.add(new Shard<>(r.shards[k].tree));
+                    } else if (!joined) {
+                        shards.add(r.shards[k]);
+                    }
+                }
+                for (Shard<T1, T2> old : locked) {
+                    old.retired = true;
+                }
+                Shard<T1, T2>[] shardArray = shards.toArray(newShardArray(shards.size()));
+                T1[] boundArray = bounds.toArray(newKeyArray(bounds.size()));
+                routing = new Routing<>(shardArray, boundArray);
+            } finally {
+                for (int k = locked.length - 1; k >= 0; k--) {
+                    locked[k].lock.unlockWrite(stamps[k]);
+                }
+            }
+        } finally {
+            rebalanceLock.unlock();
+        }
+    }
+
+    /**
+     * Iterates in ascending key order, see the class comment for what it
+     * sees of concurrent updates.
+     */
+    @Override
+    public Iterator<Map.Entry<T1, T2>> iterator() {
+        return new EntryIterator(null, null);
+    }
+
+    /**
+     * Iterates in ascending order over the entries with from <= key < to.
+     */
+    @Override
+    public Iterator<Map.Entry<T1, T2>> range(T1 from, T1 to) {
+        return new EntryIterator(from, to);
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<T1, T2>> {
+
+        private final T1 to;
+        /**
+         * The next entry has a key at least position, or greater than it
+         * if inclusive is false; null is the start of the key space.
+         */
+        private T1 position;
+        private boolean inclusive = true;
+        private boolean done;
+        private final List<Map.Entry<T1, T2>> chunk = new ArrayList<>(CHUNK);
+        private int next;
+
+        EntryIterator(T1 from, T1 to) {
+            this.position = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == chunk.size() && !done) {
+                fill();
+            }
+            return next < chunk.size();
+        }
+
+        @Override
+        public Map.Entry<T1, T2> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return chunk.get(next++);
+        }
+
+        /**
+         * Copies the next entries of the shard that holds position, or
+         * moves position to the next shard if there are none.
+         */
+        private void fill() {
+            chunk.clear();
+            next = 0;
+            Routing<T1, T2> r = routing;
+            int i = position == null ? 0 : r.indexOf(position);
+            Shard<T1, T2> s = r.shards[i];
+            long stamp = s.lock.readLock();
+            try {
+                if (s.retired) {
+                    return;
+                }
+                Iterator<Map.Entry<T1, T2>> it = position == null ? s.tree.iterator() : s.tree.tailFrom(position);
+                while (it.hasNext() && chunk.size() < CHUNK) {
+                    Map.Entry<T1, T2> e = it.next();
+                    T1 key = e.getKey();
+                    if (to != null && key.compareTo(to) >= 0) {
+                        done = true;
+                        break;
+                    }
+                    if (inclusive || key.compareTo(position) > 0) {
+                        chunk.add(new AbstractMap.SimpleImmutableEntry<>(key, e.getValue()));
+                    }
+                }
+            } finally {
+                s.lock.unlockRead(stamp);
+            }
+            if (!chunk.isEmpty()) {
+                position = chunk.get(chunk.size() - 1).getKey();
+                inclusive = false;
+            } else if (!done) {
+                if (i == r.bounds.length) {
+                    done = true;
+                } else {
+                    position = r.bounds[i];
+                    inclusive = true;
+                }
+            }
+        }
+    }
+}
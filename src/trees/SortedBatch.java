@@ -0,0 +1,118 @@
+package trees;
+
+import java.util.Arrays;
+import java.util.function.BiFunction;
+
+/**
+ * A batch of key-value pairs sorted by strictly ascending key, as the batch
+ * operations of {@link RBTree} and {@link AVLTree} consume it. Pairs with
+ * equal keys are folded into one in batch order: the later value wins, or
+ * the values are combined with the remapping function if there is one.
+ *
+ * @param <T1> Key type
+ * @param <T2> Value type
+ */
+final class SortedBatch<T1 extends Comparable<T1>, T2> {
+
+    final T1[] keys;
+    final T2[] values;
+
+    private SortedBatch(T1[] keys, T2[] values) {
+        this.keys = keys;
+        this.values = values;
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    /**
+     * Sorts a copy of the pairs; input that is already sorted is only
+     * copied.
+     *
+     * Time complexity: O(m * logm)
+     *
+     * @param values values, values[i] belongs to keys[i], or null for a batch
+     *               of keys only
+     * @param remapping combines the value of a duplicate key with the one
+     *                  before it, or null to keep the later value
+     */
+    static <T1 extends Comparable<T1>, T2> SortedBatch<T1, T2> of(T1[] keys, T2[] values,
+            BiFunction<? super T2, ? super T2, ? extends T2> remapping) {
+        if (values != null && keys.length != values.length) {
+            throw new IllegalArgumentException("keys.length != values.length");
+        }
+        int m = keys.length;
+        boolean sorted = true;
+        for (int i = 1; i < m && sorted; i++) {
+            sorted = keys[i - 1].compareTo(keys[i]) < 0;
+        }
+        T1[] k = Arrays.copyOf(keys, m);
+        T2[] v = values == null ? null : Arrays.copyOf(values, m);
+        if (sorted) {
+            return new SortedBatch<>(k, v);
+        }
+        if (v == null) {
+            Arrays.sort(k);
+            int n = 0;
+            for (int i = 0; i < m; i++) {
+                if (n == 0 || k[n - 1].compareTo(k[i]) != 0) {
+                    k[n++] = k[i];
+                }
+            }
+            return new SortedBatch<>(Arrays.copyOf(k, n), null);
+        }
+        mergeSort(k, v, Arrays.copyOf(k, m), Arrays.copyOf(v, m), 0, m);
+        int n = 0;
+        for (int i = 0; i < m; i++) {
+            if (n > 0 && k[n - 1].compareTo(k[i]) == 0) {
+                v[n - 1] = remapping == null ? v[i] : remapping.apply(v[n - 1], v[i]);
+            } else {
+                k[n] = k[i];
+                v[n] = v[i];
+                n++;
+            }
+        }
+        return new SortedBatch<>(Arrays.copyOf(k, n), Arrays.copyOf(v, n));
+    }
+
+    /**
+     * Stable merge sort of keys[lo..hi) together with values[lo..hi). The
+     * temporary arrays hold a copy of the same range and swap roles with
+     * the output on every level.
+     */
+    private static <T1 extends Comparable<T1>, T2> void mergeSort(T1[] keys, T2[] values, T1[] tmpKeys, T2[] tmpValues,
+            int lo, int hi) {
+        if (hi - lo < 16) {
+            for (int i = lo + 1; i < hi; i++) {
+                T1 key = keys[i];
+                T2 value = values[i];
+                int j = i - 1;
+                for (; j >= lo && keys[j].compareTo(key) > 0; j--) {
+                    keys[j + 1] = keys[j];
+                    values[j + 1] = values[j];
+                }
+                keys[j + 1] = key;
+                values[j + 1] = value;
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        mergeSort(tmpKeys, tmpValues, keys, values, lo, mid);
+        mergeSort(tmpKeys, tmpValues, keys, values, mid, hi);
+        if (tmpKeys[mid - 1].compareTo(tmpKeys[mid]) <= 0) {
+            System.arraycopy(tmpKeys, lo, keys, lo, hi - lo);
+            System.arraycopy(tmpValues, lo, values, lo, hi - lo);
+            return;
+        }
+        for (int i = lo, p = lo, q = mid; i < hi; i++) {
+            if (q >= hi || p < mid && tmpKeys[p].compareTo(tmpKeys[q]) <= 0) {
+                keys[i] = tmpKeys[p];
+                values[i] = tmpValues[p++];
+            } else {
+                keys[i] = tmpKeys[q];
+                values[i] = tmpValues[q++];
+            }
+        }
+    }
+}
@@ -0,0 +1,515 @@
+package trees;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32C;
+
+/**
+ * Immutable file of entries sorted by key, the on-disk part of an
+ * {@link LSMTree}.
+ *
+ * The file is a sequence of blocks, an index, a Bloom filter and a footer.
+ * All numbers are big-endian.
+ * <pre>
+ * block:  entries, about BLOCK_SIZE bytes
+ * entry:  byte PUT, key, value | byte DELETE, key
+ * index:  per block: first key, long offset, int CRC32C of the block
+ * filter: long words of the bit array
+ * footer: long index offset, long filter offset, int block count,
+ *         long entry count, int key size, int value size,
+ *         int CRC32C of index and filter, int version, int magic "SRUN"
+ * </pre>
+ * Keys and values are encoded as in {@link WriteAheadLog}. A block ends at
+ * the first entry boundary after BLOCK_SIZE bytes, so a lookup reads the
+ * one block the sparse index points to and scans it. The index is held in
+ * memory, one key per block; the blocks are read with positional reads and
+ * left to the page cache of the operating system.
+ *
+ * The Bloom filter has BITS_PER_KEY bits per entry and HASHES hash
+ * functions, which lets about 1% of the lookups of keys that are not in
+ * the run through to a block read. It hashes the encoded key, so it does not
+ * depend on hashCode.
+ *
+ * A DELETE entry is a tombstone: it hides the key in older runs.
+ */
+final class SortedRun<T1 extends Comparable<T1>, T2> {
+
+    /**
+     * Value of a deleted key, in memtables and as returned by get.
+     */
+    static final Object TOMBSTONE = new Object();
+    /**
+     * Returned by get for a key that is not in the run.
+     */
+    static final Object ABSENT = new Object();
+
+    static final int BLOCK_SIZE = 4096;
+
+    private static final int MAGIC = 0x5352554E;
+    private static final int VERSION = 1;
+    private static final int FOOTER_SIZE = 48;
+    private static final int BITS_PER_KEY = 10;
+    private static final int HASHES = 7;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final Codec<T1> keyCodec;
+    private final Codec<T2> valueCodec;
+    private final T1[] firstKeys;
+    /**
+     * Start of every block and, as the last element, the start of the index.
+     */
+    private final long[] offsets;
+    private final int[] checksums;
+    private final long[] filter;
+    private final long count;
+    private final long bytes;
+    /**
+     * Holders of the run: the tree while the run is part of it and every
+     * lookup and iterator that reads it. Guarded by the lock of the tree.
+     */
+    int refs = 1;
+
+    private SortedRun(Path file, Codec<T1> keyCodec, Codec<T2> valueCodec) throws IOException {
+        this.file = file;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            bytes = channel.size();
+            if (bytes < FOOTER_SIZE) {
+                throw new StreamCorruptedException("run is truncated: " + file);
+            }
+            ByteBuffer footer = read(bytes - FOOTER_SIZE, FOOTER_SIZE);
+            long indexOffset = footer.getLong();
+            long filterOffset = footer.getLong();
+            int blocks = footer.getInt();
+            count = footer.getLong();
+            int keySize = footer.getInt();
+            int valueSize = footer.getInt();
+            int indexChecksum = footer.getInt();
+            int version = footer.getInt();
+            if (footer.getInt() != MAGIC) {
+                throw new StreamCorruptedException("not a sorted run: " + file);
+            }
+            if (version != VERSION) {
+                throw new StreamCorruptedException("unsupported run version " + version);
+            }
+            if (keySize != keyCodec.fixedSize() || valueSize != valueCodec.fixedSize()) {
+                throw new StreamCorruptedException("run was written with codecs of other sizes: " + file);
+            }
+            long indexSize = filterOffset - indexOffset;
+            long filterSize = bytes - FOOTER_SIZE - filterOffset;
+            if (indexOffset < 0 || indexSize < 0 || filterSize <= 0 || filterSize % Long.BYTES != 0
+                    || indexSize + filterSize > Integer.MAX_VALUE || blocks < 0 || blocks > indexSize / 13) {
+                throw new StreamCorruptedException("malformed run footer: " + file);
+            }
+            ByteBuffer index = read(indexOffset, (int) (indexSize + filterSize));
+            CRC32C crc = new CRC32C();
+            crc.update(index.duplicate());
+            if ((int) crc.getValue() != indexChecksum) {
+                throw new StreamCorruptedException("run index checksum mismatch: " + file);
+            }
+            filter = new long[(int) (filterSize / Long.BYTES)];
+            index.slice((int) indexSize, (int) filterSize).asLongBuffer().get(filter);
+            index.limit((int) indexSize);
+            firstKeys = newKeyArray(blocks);
+            offsets = new long[blocks + 1];
+            checksums = new int[blocks];
+            for (int i = 0; i < blocks; i++) {
+                firstKeys[i] = WriteAheadLog.get(keyCodec, index, index.limit());
+                if (index.remaining() < 12) {
+                    throw new StreamCorruptedException("run index is truncated: " + file);
+                }
+                offsets[i] = index.getLong();
+                checksums[i] = index.getInt();
+            }
+            offsets[blocks] = indexOffset;
+            for (int i = 0; i < blocks; i++) {
+                if (firstKeys[i] == null || offsets[i] >= offsets[i + 1] || offsets[i + 1] - offsets[i] > Integer.MAX_VALUE) {
+                    throw new StreamCorruptedException("malformed run index: " + file);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T1 extends Comparable<T1>> T1[] newKeyArray(int length) {
+        return (T1[]) new Comparable[length];
+    }
+
+    /**
+     * Opens the run in the file.
+     */
+    static <T1 extends Comparable<T1>, T2> SortedRun<T1, T2> open(Path file, Codec<T1> keyCodec, Codec<T2> valueCodec) throws IOException {
+        return new SortedRun<>(file, keyCodec, valueCodec);
+    }
+
+    /**
+     * Writes the entries, which must come in strictly ascending key order
+     * and may have TOMBSTONE as value, to the file and opens it. The file
+     * appears under its name only once it is complete on the disk.
+     *
+     * @param expected upper bound of the number of entries, which sizes the
+     *                 Bloom filter
+     */
+    static <T1 extends Comparable<T1>, T2> SortedRun<T1, T2> write(Path file, Iterator<? extends Map.Entry<T1, ?>> entries,
+            long expected, Codec<T1> keyCodec, Codec<T2> valueCodec) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            new Writer<>(out, expected, keyCodec, valueCodec).write(entries);
+            out.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+        return open(file, keyCodec, valueCodec);
+    }
+
+    private static final class Writer<T1, T2> {
+
+        private final FileChannel out;
+        private final Codec<T1> keyCodec;
+        private final Codec<T2> valueCodec;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private ByteBuffer block = ByteBuffer.allocate(2 * BLOCK_SIZE);
+        private final CRC32C crc = new CRC32C();
+        private long offset;
+        private int blocks;
+        private Object[] firstKeys = new Object[16];
+        private long[] offsets = new long[16];
+        private int[] checksums = new int[16];
+        private final long[] filter;
+        private T1 first;
+
+        Writer(FileChannel out, long expected, Codec<T1> keyCodec, Codec<T2> valueCodec) {
+            long words = (Math.max(expected, 1) * BITS_PER_KEY + 63) / 64;
+            if (words > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("too many entries for one run: " + expected);
+            }
+            filter = new long[(int) words];
+            this.out = out;
+            this.keyCodec = keyCodec;
+            this.valueCodec = valueCodec;
+        }
+
+        @SuppressWarnings("unchecked")
+        void write(Iterator<? extends Map.Entry<T1, ?>> entries) throws IOException {
+            long count = 0;
+            while (entries.hasNext()) {
+                Map.Entry<T1, ?> e = entries.next();
+                T1 key = e.getKey();
+                Object value = e.getValue();
+                boolean tombstone = value == TOMBSTONE;
+                int size = 1 + WriteAheadLog.encodedSize(keyCodec, key)
+                        + (tombstone ? 0 : WriteAheadLog.encodedSize(valueCodec, (T2) value));
+                if (block.remaining() < size) {
+                    ByteBuffer b = ByteBuffer.allocate(block.position() + size);
+                    block.flip();
+                    block = b.put(block);
+                }
+                if (block.position() == 0) {
+                    first = key;
+                }
+                block.put(tombstone ? WriteAheadLog.DELETE : WriteAheadLog.PUT);
+                int keyStart = block.position();
+                WriteAheadLog.put(keyCodec, key, block);
+                addToFilter(filter, hash(block.array(), keyStart, block.position()));
+                if (!tombstone) {
+                    WriteAheadLog.put(valueCodec, (T2) value, block);
+                }
+                count++;
+                if (block.position() >= BLOCK_SIZE) {
+                    finishBlock();
+                }
+            }
+            if (block.position() > 0) {
+                finishBlock();
+            }
+            long indexOffset = offset;
+            long filterOffset = indexOffset;
+            flush();
+            crc.reset();
+            for (int i = 0; i < blocks; i++) {
+                T1 key = (T1) firstKeys[i];
+                int size = WriteAheadLog.encodedSize(keyCodec, key) + 12;
+                filterOffset += size;
+                if (buffer.remaining() < size) {
+                    crc.update(buffer.array(), 0, buffer.position());
+                    flush();
+                }
+                WriteAheadLog.put(keyCodec, key, buffer);
+                buffer.putLong(offsets[i]).putInt(checksums[i]);
+            }
+            for (long word : filter) {
+                if (buffer.remaining() < Long.BYTES) {
+                    crc.update(buffer.array(), 0, buffer.position());
+                    flush();
+                }
+                buffer.putLong(word);
+            }
+            crc.update(buffer.array(), 0, buffer.position());
+            if (buffer.remaining() < FOOTER_SIZE) {
+                flush();
+            }
+            buffer.putLong(indexOffset).putLong(filterOffset).putInt(blocks).putLong(count).putInt(keyCodec.fixedSize()).putInt(valueCodec.fixedSize())
+                    .putInt((int) crc.getValue()).putInt(VERSION).putInt(MAGIC);
+            flush();
+        }
+
+        private void finishBlock() throws IOException {
+            if (blocks == offsets.length) {
+                firstKeys = Arrays.copyOf(firstKeys, 2 * blocks);
+                offsets = Arrays.copyOf(offsets, 2 * blocks);
+                checksums = Arrays.copyOf(checksums, 2 * blocks);
+            }
+            block.flip();
+            crc.reset();
+            crc.update(block.duplicate());
+            firstKeys[blocks] = first;
+            offsets[blocks] = offset;
+            checksums[blocks++] = (int) crc.getValue();
+            offset += block.remaining();
+            if (buffer.remaining() < block.remaining()) {
+                flush();
+            }
+            if (buffer.remaining() < block.remaining()) {
+                while (block.hasRemaining()) {
+                    out.write(block);
+                }
+            } else {
+                buffer.put(block);
+            }
+            block.clear();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Hash of an encoded key: FNV-1a, then the finalizer of MurmurHash3 to
+     * spread the bits.
+     */
+    private static long hash(byte[] a, int from, int to) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = from; i < to; i++) {
+            h = (h ^ (a[i] & 0xFF)) * 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ h >>> 33;
+    }
+
+    /**
+     * Sets the HASHES bits of the hash, derived from its two halves as in
+     * Kirsch and Mitzenmacher, "Less Hashing, Same Performance", 2006.
+     */
+    private static void addToFilter(long[] filter, long hash) {
+        long bits = filter.length * 64L;
+        int h1 = (int) hash, h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASHES; i++) {
+            long bit = ((h1 + i * h2) & 0x7FFFFFFF) % bits;
+            filter[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    private boolean mightContain(T1 key) {
+        ByteBuffer b = ByteBuffer.allocate(WriteAheadLog.encodedSize(keyCodec, key));
+        WriteAheadLog.put(keyCodec, key, b);
+        long hash = hash(b.array(), 0, b.position());
+        long bits = filter.length * 64L;
+        int h1 = (int) hash, h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASHES; i++) {
+            long bit = ((h1 + i * h2) & 0x7FFFFFFF) % bits;
+            if ((filter[(int) (bit >>> 6)] & 1L << bit) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    Path file() {
+        return file;
+    }
+
+    long count() {
+        return count;
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    private ByteBuffer read(long position, int size) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(size);
+        while (b.hasRemaining()) {
+            if (channel.read(b, position + b.position()) < 0) {
+                throw new StreamCorruptedException("run is truncated: " + file);
+            }
+        }
+        return b.flip();
+    }
+
+    private ByteBuffer readBlock(int i) throws IOException {
+        ByteBuffer b = read(offsets[i], (int) (offsets[i + 1] - offsets[i]));
+        CRC32C crc = new CRC32C();
+        crc.update(b.duplicate());
+        if ((int) crc.getValue() != checksums[i]) {
+            throw new StreamCorruptedException("block checksum mismatch at " + offsets[i] + " in " + file);
+        }
+        return b;
+    }
+
+    /**
+     * Returns the index of the last block whose first key is at most key,
+     * or -1 if key is below the first key of the run.
+     */
+    private int floorBlock(T1 key) {
+        int lo = 0, hi = firstKeys.length - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (firstKeys[mid].compareTo(key) <= 0) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the value of the key, TOMBSTONE if the run deletes it or
+     * ABSENT if the run does not mention it.
+     *
+     * Time complexity: O(logb) for b blocks, plus the read of one block
+     * unless the Bloom filter rules the key out
+     */
+    Object get(T1 key) throws IOException {
+        int i = floorBlock(key);
+        if (i < 0 || !mightContain(key)) {
+            return ABSENT;
+        }
+        ByteBuffer b = readBlock(i);
+        int end = b.limit();
+        while (b.hasRemaining()) {
+            byte kind = b.get();
+            int cmp = key.compareTo(WriteAheadLog.get(keyCodec, b, end));
+            if (cmp == 0) {
+                return kind == WriteAheadLog.DELETE ? TOMBSTONE : WriteAheadLog.get(valueCodec, b, end);
+            }
+            if (cmp < 0) {
+                break;
+            }
+            if (kind == WriteAheadLog.PUT) {
+                skip(valueCodec, b, end);
+            }
+        }
+        return ABSENT;
+    }
+
+    private static void skip(Codec<?> codec, ByteBuffer b, int end) throws IOException {
+        int size = codec.fixedSize();
+        if (size < 0) {
+            int v = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (shift >= 32 || b.position() >= end) {
+                    throw new StreamCorruptedException("malformed size in run");
+                }
+                byte x = b.get();
+                v |= (x & 0x7F) << shift;
+                if (x >= 0) {
+                    break;
+                }
+            }
+            size = Math.max(v - 1, 0);
+        }
+        if (size > end - b.position()) {
+            throw new StreamCorruptedException("run entry is shorter than its content");
+        }
+        b.position(b.position() + size);
+    }
+
+    /**
+     * Iterates in ascending order over the entries with key >= from, all of
+     * them if from is null, tombstones included. Throws
+     * UncheckedIOException if the file cannot be read.
+     */
+    Iterator<Map.Entry<T1, Object>> iterator(T1 from) {
+        return new Iterator<>() {
+
+            private int block = from == null ? 0 : Math.max(floorBlock(from), 0);
+            private ByteBuffer b;
+            private Map.Entry<T1, Object> next = advance();
+
+            private Map.Entry<T1, Object> advance() {
+                try {
+                    while (true) {
+                        while (b == null || !b.hasRemaining()) {
+                            if (block == firstKeys.length) {
+                                return null;
+                            }
+                            b = readBlock(block++);
+                        }
+                        byte kind = b.get();
+                        T1 key = WriteAheadLog.get(keyCodec, b, b.limit());
+                        Object value = kind == WriteAheadLog.DELETE ? TOMBSTONE : WriteAheadLog.get(valueCodec, b, b.limit());
+                        if (from == null || key.compareTo(from) >= 0) {
+                            return new AbstractMap.SimpleImmutableEntry<>(key, value);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<T1, Object> next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<T1, Object> e = next;
+                next = advance();
+                return e;
+            }
+        };
+    }
+
+    /**
+     * Closes the file and, if delete, removes it.
+     */
+    void close(boolean delete) throws IOException {
+        channel.close();
+        if (delete) {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package trees;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The operations an ordered key-value store shares with the in-memory
+ * trees, so that code written against it runs unchanged on an
+ * {@link RBTree}, an {@link AVLTree}, a {@link BPlusTree} or a
+ * {@link MappedBPlusTree} on disk.
+ *
+ * @param <T1> Key type
+ * @param <T2> Value type
+ */
+public interface SortedStore<T1 extends Comparable<T1>, T2> extends Iterable<Map.Entry<T1, T2>> {
+
+    /**
+     * Returns the value stored under the key, or null if there is no such key.
+     */
+    T2 getValueByKey(T1 key);
+
+    /**
+     * Inserts the pair, or replaces the value if the key is present.
+     */
+    void insertNode(T1 key, T2 value);
+
+    /**
+     * Removes the key.
+     *
+     * @return true if the key was present
+     */
+    boolean removeNode(T1 key);
+
+    /**
+     * Iterates in ascending order over the entries with from <= key < to.
+     */
+    Iterator<Map.Entry<T1, T2>> range(T1 from, T1 to);
+}
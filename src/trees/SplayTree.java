@@ -0,0 +1,542 @@
+package trees;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Self-adjusting binary search tree (Sleator and Tarjan, 1985). Every
+ * lookup, insert and remove splays the node it ends at towards the root,
+ * so frequently and recently used keys stay near the top and a skewed
+ * access pattern costs less than log n per access. The tree is not
+ * balanced: a single operation can take O(n), a sequence of m operations
+ * takes O((m + n) log n).
+ *
+ * A full splay moves the node to the root. A semi-splay, chosen in the
+ * constructor, only halves the depth of the nodes on the path and makes
+ * about half the rotations; it adapts more slowly but writes less on
+ * lookups of keys that are already hot.
+ *
+ * Lookups change the structure of the tree. They must not run during an
+ * iteration or concurrently with other operations, even other lookups.
+ *
+ * @param <T1> Key type
+ * @param <T2> Value type
+ */
+public class SplayTree<T1 extends Comparable<T1>, T2> implements SortedStore<T1, T2> {
+
+    Node<T1, T2> root = null;
+    private int size;
+    /**
+     * Result of the last comparison made by descend.
+     */
+    private int lastComparison;
+    /**
+     * True to semi-splay instead of splaying to the root.
+     */
+    private final boolean semiSplay;
+    /**
+     * Counters of this tree, null unless {@link TreeMetrics#ENABLED}.
+     */
+    private final TreeMetrics metrics = TreeMetrics.ENABLED ? new TreeMetrics("SplayTree") : null;
+
+    public SplayTree() {
+        this(false);
+    }
+
+    /**
+     * @param semiSplay true to semi-splay accessed nodes, false to splay
+     *                  them to the root
+     */
+    public SplayTree(boolean semiSplay) {
+        this.semiSplay = semiSplay;
+    }
+
+    static class Node<T1, T2> extends TreeEntry<T1, T2> {
+
+        Node<T1, T2> left, right, parent;
+
+        Node(T1 key, T2 value) {
+            super(key, value);
+        }
+    }
+
+    /**
+     * compareTo of two keys, counted when metrics are on.
+     */
+    private int compare(T1 a, T1 b) {
+        if (TreeMetrics.ENABLED) {
+            metrics.comparison();
+        }
+        return a.compareTo(b);
+    }
+
+    /**
+     * Descends by key and returns the node with the key, or the last node
+     * visited if there is none; null only for an empty tree. The comparison
+     * of the key with that node is left in lastComparison.
+     */
+    private Node<T1, T2> descend(T1 key) {
+        Node<T1, T2> x = root, y = null;
+        int length = 0, c = 0;
+        while (x != null) {
+            y = x;
+            length++;
+            c = compare(key, x.key);
+            if (c == 0) {
+                break;
+            }
+            x = c > 0 ? x.right : x.left;
+        }
+        lastComparison = c;
+        if (TreeMetrics.ENABLED) {
+            metrics.path(length);
+        }
+        return y;
+    }
+
+    /**
+     * Returns the value stored under the key, or null if there is no such
+     * key, and splays the last node of the search.
+     *
+     * Time complexity: O(logn) amortized
+     */
+    @Override
+    public T2 getValueByKey(T1 key) {
+        if (TreeMetrics.ENABLED) {
+            TreeOperationEvent event = metrics.begin();
+            T2 value = search(key);
+            metrics.end(event, TreeMetrics.Operation.SEARCH, key);
+            return value;
+        }
+        return search(key);
+    }
+
+    private T2 search(T1 key) {
+        Node<T1, T2> x = descend(key);
+        if (x == null) {
+            return null;
+        }
+        splay(x);
+        return lastComparison == 0 ? x.value : null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of nodes on the longest path from the root.
+     *
+     * Time complexity: O(n)
+     */
+    public int height() {
+        return depthHistogram().length;
+    }
+
+    /**
+     * Returns the number of nodes at each depth, the root being at depth 0.
+     * The length of the array is the height of the tree.
+     *
+     * Time complexity: O(n)
+     */
+    public int[] depthHistogram() {
+        int[] histogram = new int[0];
+        ArrayDeque<Node<T1, T2>> level = new ArrayDeque<>();
+        if (root != null) {
+            level.add(root);
+        }
+        for (int depth = 0; !level.isEmpty(); depth++) {
+            int n = level.size();
+            histogram = Arrays.copyOf(histogram, depth + 1);
+            histogram[depth] = n;
+            for (int i = 0; i < n; i++) {
+                Node<T1, T2> x = level.poll();
+                if (x.left != null) {
+                    level.add(x.left);
+                }
+                if (x.right != null) {
+                    level.add(x.right);
+                }
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns the counters of this tree, or null unless the JVM runs with
+     * -Dtrees.metrics=true.
+     */
+    public TreeMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Inserts the pair, or replaces the value if the key is present, and
+     * splays the node of the key.
+     *
+     * Time complexity: O(logn) amortized
+     *
+     * @return true if the key was not present
+     */
+    public boolean insertNodeInSplayTree(T1 key, T2 value) {
+        if (TreeMetrics.ENABLED) {
+            TreeOperationEvent event = metrics.begin();
+            boolean inserted = insert(key, value);
+            metrics.end(event, TreeMetrics.Operation.INSERT, key);
+            return inserted;
+        }
+        return insert(key, value);
+    }
+
+    private boolean insert(T1 key, T2 value) {
+        Node<T1, T2> y = descend(key);
+        if (y == null) {
+            root = new Node<>(key, value);
+            size++;
+            return true;
+        }
+        int c = lastComparison;
+        if (c == 0) {
+            y.value = value;
+            splay(y);
+            return false;
+        }
+        Node<T1, T2> x = new Node<>(key, value);
+        x.parent = y;
+        if (c > 0) {
+            y.right = x;
+        } else {
+            y.left = x;
+        }
+        size++;
+        splay(x);
+        return true;
+    }
+
+    /**
+     * Removes the key and splays the parent of the node that was unlinked.
+     *
+     * Time complexity: O(logn) amortized
+     *
+     * @return true if the key was present
+     */
+    public boolean removeNodeFromSplayTree(T1 key) {
+        if (TreeMetrics.ENABLED) {
+            TreeOperationEvent event = metrics.begin();
+            boolean removed = remove(key);
+            metrics.end(event, TreeMetrics.Operation.REMOVE, key);
+            return removed;
+        }
+        return remove(key);
+    }
+
+    @Override
+    public void insertNode(T1 key, T2 value) {
+        insertNodeInSplayTree(key, value);
+    }
+
+    @Override
+    public boolean removeNode(T1 key) {
+        return removeNodeFromSplayTree(key);
+    }
+
+    private boolean remove(T1 key) {
+        Node<T1, T2> y = descend(key);
+        if (y == null) {
+            return false;
+        }
+        if (lastComparison != 0) {
+            splay(y);
+            return false;
+        }
+        Node<T1, T2> p;
+        if (y.left == null) {
+            p = y.parent;
+            transplant(y, y.right);
+        } else if (y.right == null) {
+            p = y.parent;
+            transplant(y, y.left);
+        } else {
+            Node<T1, T2> x = nodeWithMinimumKey(y.right);
+            p = x.parent == y ? x : x.parent;
+            if (x.parent != y) {
+                transplant(x, x.right);
+                x.right = y.right;
+                x.right.parent = x;
+            }
+            transplant(y, x);
+            x.left = y.left;
+            x.left.parent = x;
+        }
+        size--;
+        if (p != null) {
+            splay(p);
+        }
+        return true;
+    }
+
+    private void transplant(Node<T1, T2> u, Node<T1, T2> v) {
+        if (u.parent == null) {
+            root = v;
+        } else if (u.parent.left == u) {
+            u.parent.left = v;
+        } else {
+            u.parent.right = v;
+        }
+        if (v != null) {
+            v.parent = u.parent;
+        }
+    }
+
+    /**
+     * Rotates x above its parent.
+     */
+    private void rotateUp(Node<T1, T2> x) {
+        Node<T1, T2> p = x.parent, g = p.parent;
+        if (p.left == x) {
+            p.left = x.right;
+            if (x.right != null) {
+                x.right.parent = p;
+            }
+            x.right = p;
+        } else {
+            p.right = x.left;
+            if (x.left != null) {
+                x.left.parent = p;
+            }
+            x.left = p;
+        }
+        p.parent = x;
+        x.parent = g;
+        if (g == null) {
+            root = x;
+        } else if (g.left == p) {
+            g.left = x;
+        } else {
+            g.right = x;
+        }
+        if (TreeMetrics.ENABLED) {
+            metrics.rotation();
+        }
+    }
+
+    /**
+     * Splays x: zig-zig and zig-zag steps up to the root, with a final zig
+     * if x ends as a child of the root. A semi-splay rotates only the parent
+     * in the zig-zig case and goes on from there, so x itself ends about
+     * half way up and the rest of the path is halved as well.
+     */
+    private void splay(Node<T1, T2> x) {
+        while (x.parent != null) {
+            Node<T1, T2> p = x.parent, g = p.parent;
+            if (g == null) {
+                rotateUp(x);
+            } else if ((g.left == p) == (p.left == x)) {
+                rotateUp(p);
+                if (semiSplay) {
+                    x = p;
+                } else {
+                    rotateUp(x);
+                }
+            } else {
+                rotateUp(x);
+                rotateUp(x);
+            }
+        }
+    }
+
+    private static <T1, T2> Node<T1, T2> nodeWithMinimumKey(Node<T1, T2> x) {
+        while (x.left != null) {
+            x = x.left;
+        }
+        return x;
+    }
+
+    private static <T1, T2> Node<T1, T2> nodeWithMaximumKey(Node<T1, T2> x) {
+        while (x.right != null) {
+            x = x.right;
+        }
+        return x;
+    }
+
+    private static <T1, T2> Node<T1, T2> successorNode(Node<T1, T2> x) {
+        if (x.right != null) {
+            return nodeWithMinimumKey(x.right);
+        }
+        Node<T1, T2> y = x.parent;
+        while (y != null && x == y.right) {
+            x = y;
+            y = y.parent;
+        }
+        return y;
+    }
+
+    private static <T1, T2> Node<T1, T2> predecessorNode(Node<T1, T2> x) {
+        if (x.left != null) {
+            return nodeWithMaximumKey(x.left);
+        }
+        Node<T1, T2> y = x.parent;
+        while (y != null && x == y.left) {
+            x = y;
+            y = y.parent;
+        }
+        return y;
+    }
+
+    /**
+     * Returns the node with the smallest key >= key, or null. Does not
+     * splay, so that iterators can start without changing the tree.
+     */
+    private Node<T1, T2> getCeilingNode(T1 key) {
+        Node<T1, T2> x = root, y = null;
+        while (x != null) {
+            if (compare(key, x.key) <= 0) {
+                y = x;
+                x = x.left;
+            } else {
+                x = x.right;
+            }
+        }
+        return y;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Node<T1, T2>[] newNodeArray(int length) {
+        return new Node[length];
+    }
+
+    /**
+     * Replaces the content of the tree with size entries of the iterator,
+     * which must come in strictly ascending key order. The tree is built
+     * bottom-up without rotations and is perfectly balanced.
+     *
+     * Time complexity: O(n)
+     */
+    public void buildFromSorted(Iterator<? extends Map.Entry<? extends T1, ? extends T2>> entries, int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size < 0: " + size);
+        }
+        Node<T1, T2> r = buildFromSorted(entries, 0, size - 1, newNodeArray(1));
+        if (r != null) {
+            r.parent = null;
+        }
+        root = r;
+        this.size = size;
+    }
+
+    private Node<T1, T2> buildFromSorted(Iterator<? extends Map.Entry<? extends T1, ? extends T2>> entries,
+            int lo, int hi, Node<T1, T2>[] last) {
+        if (hi < lo) {
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        Node<T1, T2> left = buildFromSorted(entries, lo, mid - 1, last);
+        if (!entries.hasNext()) {
+            throw new IllegalArgumentException("iterator returned fewer entries than size");
+        }
+        Map.Entry<? extends T1, ? extends T2> e = entries.next();
+        if (last[0] != null && compare(last[0].key, e.getKey()) >= 0) {
+            throw new IllegalArgumentException("keys are not strictly ascending at index " + mid);
+        }
+        Node<T1, T2> x = new Node<>(e.getKey(), e.getValue());
+        last[0] = x;
+        x.left = left;
+        if (left != null) {
+            left.parent = x;
+        }
+        x.right = buildFromSorted(entries, mid + 1, hi, last);
+        if (x.right != null) {
+            x.right.parent = x;
+        }
+        return x;
+    }
+
+    /**
+     * Returns an immutable copy of the entries laid out for fast lookups,
+     * see {@link FrozenTree}. Later changes to the tree are not reflected
+     * in the copy.
+     *
+     * Time complexity: O(n)
+     */
+    public FrozenTree<T1, T2> freeze() {
+        return new FrozenTree<>(iterator(), size);
+    }
+
+    /**
+     * Iterates over the entries in ascending key order. The entries are the
+     * nodes of the tree; the tree must not be used for anything else during
+     * the iteration, lookups included.
+     */
+    @Override
+    public Iterator<Map.Entry<T1, T2>> iterator() {
+        return new EntryIterator(root == null ? null : nodeWithMinimumKey(root), null, false);
+    }
+
+    /**
+     * Iterates over the entries in descending key order.
+     */
+    public Iterator<Map.Entry<T1, T2>> descendingIterator() {
+        return new EntryIterator(root == null ? null : nodeWithMaximumKey(root), null, true);
+    }
+
+    /**
+     * Iterates in ascending order over the entries with from <= key < to.
+     *
+     * Time complexity: O(h) to start, O(1) amortized per entry
+     */
+    @Override
+    public Iterator<Map.Entry<T1, T2>> range(T1 from, T1 to) {
+        return new EntryIterator(getCeilingNode(from), to, false);
+    }
+
+    /**
+     * Iterates in ascending order over the entries with key >= from.
+     *
+     * Time complexity: O(h) to start, O(1) amortized per entry
+     */
+    public Iterator<Map.Entry<T1, T2>> tailFrom(T1 from) {
+        return new EntryIterator(getCeilingNode(from), null, false);
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<T1, T2>> {
+
+        private Node<T1, T2> next;
+        private final T1 to;
+        private final boolean descending;
+
+        EntryIterator(Node<T1, T2> first, T1 to, boolean descending) {
+            this.to = to;
+            this.descending = descending;
+            this.next = bound(first);
+        }
+
+        private Node<T1, T2> bound(Node<T1, T2> x) {
+            return x != null && to != null && compare(x.key, to) >= 0 ? null : x;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<T1, T2> next() {
+            Node<T1, T2> x = next;
+            if (x == null) {
+                throw new NoSuchElementException();
+            }
+            next = bound(descending ? predecessorNode(x) : successorNode(x));
+            return x;
+        }
+    }
+
+    public void printSplayTreeInorderWalk() {
+        for (Node<T1, T2> x = root == null ? null : nodeWithMinimumKey(root); x != null; x = successorNode(x)) {
+            System.out.print(x.key + " ");
+        }
+        System.out.println();
+    }
+}
@@ -0,0 +1,45 @@
+package trees;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File handling shared by the trees that keep their state in a directory,
+ * {@link DurableRBTree} and {@link LSMTree}: numbered file names and the
+ * force of the directory after a rename.
+ */
+final class StoreFiles {
+
+    private StoreFiles() {
+    }
+
+    /**
+     * Returns the number in the name of the file if it is named
+     * prefix + number + suffix, otherwise -1.
+     */
+    static long numberOf(Path file, String prefix, String suffix) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(prefix) || !name.endsWith(suffix) || name.length() == prefix.length() + suffix.length()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Makes a rename in the directory durable. Not every platform can open a
+     * directory; there the rename is left to the file system.
+     */
+    static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // directories cannot be opened on this platform
+        }
+    }
+}
@@ -0,0 +1,472 @@
+package trees;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Red-black tree without parent links, rebalanced top-down in a single
+ * pass from the root (Guibas and Sedgewick, 1978).
+ *
+ * An insert splits 4-nodes by color flips on the way down and repairs a
+ * red-red violation with a rotation one level above, so the new node can
+ * always be attached as a red leaf. A remove pushes a red link down in
+ * front of the search, so the node finally unlinked is red; the entry of
+ * the removed key is then overwritten with the key and value of its
+ * in-order predecessor. Neither operation walks back up.
+ *
+ * A node holds only the key, the value, two links and a color bit: 32
+ * bytes with compressed references, against 48 for an {@link RBTree}
+ * node. The price is that the tree keeps no subtree sizes or aggregates,
+ * and iterators carry a stack of the path instead of following parents.
+ *
+ * @param <T1> Key type
+ * @param <T2> Value type
+ */
+public class TopDownRBTree<T1 extends Comparable<T1>, T2> implements SortedStore<T1, T2> {
+
+    Node<T1, T2> root = null;
+    private int size;
+    /**
+     * Stands in for the parent of the root during an update, so that a
+     * rotation at the root needs no special case.
+     */
+    private final Node<T1, T2> head = new Node<>(null, null);
+    /**
+     * Counters of this tree, null unless {@link TreeMetrics#ENABLED}.
+     */
+    private final TreeMetrics metrics = TreeMetrics.ENABLED ? new TreeMetrics("TopDownRBTree") : null;
+
+    static class Node<T1, T2> extends TreeEntry<T1, T2> {
+
+        Node<T1, T2> left, right;
+        boolean red = true;
+
+        Node(T1 key, T2 value) {
+            super(key, value);
+        }
+
+        Node<T1, T2> child(boolean right) {
+            return right ? this.right : this.left;
+        }
+
+        void setChild(boolean right, Node<T1, T2> x) {
+            if (right) {
+                this.right = x;
+            } else {
+                this.left = x;
+            }
+        }
+    }
+
+    /**
+     * compareTo of two keys, counted when metrics are on.
+     */
+    private int compare(T1 a, T1 b) {
+        if (TreeMetrics.ENABLED) {
+            metrics.comparison();
+        }
+        return a.compareTo(b);
+    }
+
+    private static boolean isRed(Node<?, ?> x) {
+        return x != null && x.red;
+    }
+
+    /**
+     * Rotates the child of x on the side opposite to dir up into the place
+     * of x, recoloring x red and the child black.
+     *
+     * @param dir true for a right rotation
+     * @return the new root of the subtree
+     */
+    private Node<T1, T2> rotate(Node<T1, T2> x, boolean dir) {
+        Node<T1, T2> y = x.child(!dir);
+        x.setChild(!dir, y.child(dir));
+        y.setChild(dir, x);
+        x.red = true;
+        y.red = false;
+        if (TreeMetrics.ENABLED) {
+            metrics.rotation();
+        }
+        return y;
+    }
+
+    private Node<T1, T2> doubleRotate(Node<T1, T2> x, boolean dir) {
+        x.setChild(!dir, rotate(x.child(!dir), !dir));
+        return rotate(x, dir);
+    }
+
+    @Override
+    public T2 getValueByKey(T1 key) {
+        if (TreeMetrics.ENABLED) {
+            TreeOperationEvent event = metrics.begin();
+            Node<T1, T2> x = getNodeByKey(key);
+            metrics.end(event, TreeMetrics.Operation.SEARCH, key);
+            return x == null ? null : x.value;
+        }
+        Node<T1, T2> x = getNodeByKey(key);
+        return x == null ? null : x.value;
+    }
+
+    private Node<T1, T2> getNodeByKey(T1 key) {
+        Node<T1, T2> x = root;
+        int length = 0;
+        while (x != null) {
+            length++;
+            int c = compare(key, x.key);
+            if (c == 0) {
+                break;
+            }
+            x = c > 0 ? x.right : x.left;
+        }
+        if (TreeMetrics.ENABLED) {
+            metrics.path(length);
+        }
+        return x;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of nodes on the longest path from the root.
+     *
+     * Time complexity: O(n)
+     */
+    public int height() {
+        return depthHistogram().length;
+    }
+
+    /**
+     * Returns the number of nodes at each depth, the root being at depth 0.
+     * The length of the array is the height of the tree.
+     *
+     * Time complexity: O(n)
+     */
+    public int[] depthHistogram() {
+        int[] histogram = new int[0];
+        ArrayDeque<Node<T1, T2>> level = new ArrayDeque<>();
+        if (root != null) {
+            level.add(root);
+        }
+        for (int depth = 0; !level.isEmpty(); depth++) {
+            int n = level.size();
+            histogram = Arrays.copyOf(histogram, depth + 1);
+            histogram[depth] = n;
+            for (int i = 0; i < n; i++) {
+                Node<T1, T2> x = level.poll();
+                if (x.left != null) {
+                    level.add(x.left);
+                }
+                if (x.right != null) {
+                    level.add(x.right);
+                }
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns the counters of this tree, or null unless the JVM runs with
+     * -Dtrees.metrics=true.
+     */
+    public TreeMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Inserts the pair, or replaces the value if the key is present.
+     *
+     * Time complexity: O(logn)
+     */
+    public void insertNodeInRBTree(T1 key, T2 value) {
+        if (TreeMetrics.ENABLED) {
+            TreeOperationEvent event = metrics.begin();
+            insert(key, value);
+            metrics.end(event, TreeMetrics.Operation.INSERT, key);
+        } else {
+            insert(key, value);
+        }
+    }
+
+    private void insert(T1 key, T2 value) {
+        if (root == null) {
+            root = new Node<>(key, value);
+            root.red = false;
+            size++;
+            return;
+        }
+        // t, g, p and q are great-grandparent, grandparent, parent and
+        // current node; dir leads from p to q, last from g to p
+        Node<T1, T2> t = head, g = null, p = null, q = root;
+        t.right = root;
+        boolean dir = false, last = false;
+        int length = 0;
+        while (true) {
+            if (q == null) {
+                q = new Node<>(key, value);
+                p.setChild(dir, q);
+                size++;
+            } else if (isRed(q.left) && isRed(q.right)) {
+                q.red = true;
+                q.left.red = false;
+                q.right.red = false;
+            }
+            if (isRed(q) && isRed(p)) {
+                boolean dir2 = t.right == g;
+                if (q == p.child(last)) {
+                    t.setChild(dir2, rotate(g, !last));
+                } else {
+                    t.setChild(dir2, doubleRotate(g, !last));
+                }
+            }
+            length++;
+            int c = compare(key, q.key);
+            if (c == 0) {
+                q.value = value;
+                break;
+            }
+            last = dir;
+            dir = c > 0;
+            if (g != null) {
+                t = g;
+            }
+            g = p;
+            p = q;
+            q = q.child(dir);
+        }
+        if (TreeMetrics.ENABLED) {
+            metrics.path(length);
+        }
+        root = head.right;
+        root.red = false;
+        head.right = null;
+    }
+
+    /**
+     * Removes the key.
+     *
+     * Time complexity: O(logn)
+     *
+     * @return true if the key was present
+     */
+    public boolean removeNodeFromRBTree(T1 key) {
+        if (TreeMetrics.ENABLED) {
+            TreeOperationEvent event = metrics.begin();
+            boolean removed = remove(key);
+            metrics.end(event, TreeMetrics.Operation.REMOVE, key);
+            return removed;
+        }
+        return remove(key);
+    }
+
+    @Override
+    public void insertNode(T1 key, T2 value) {
+        insertNodeInRBTree(key, value);
+    }
+
+    @Override
+    public boolean removeNode(T1 key) {
+        return removeNodeFromRBTree(key);
+    }
+
+    private boolean remove(T1 key) {
+        if (root == null) {
+            return false;
+        }
+        // g, p and q are grandparent, parent and current node; the descent
+        // goes on past the key to its predecessor, f is the node of the key
+        Node<T1, T2> q = head, g = null, p = null, f = null;
+        q.right = root;
+        boolean dir = true;
+        int length = 0;
+        while (q.child(dir) != null) {
+            boolean last = dir;
+            g = p;
+            p = q;
+            q = q.child(dir);
+            length++;
+            int c = f == null ? compare(key, q.key) : 1;
+            if (c == 0) {
+                f = q;
+            }
+            dir = c > 0;
+            if (!isRed(q) && !isRed(q.child(dir))) {
+                if (isRed(q.child(!dir))) {
+                    Node<T1, T2> r = rotate(q, dir);
+                    p.setChild(last, r);
+                    p = r;
+                } else {
+                    Node<T1, T2> s = p.child(!last);
+                    if (s != null) {
+                        if (!isRed(s.child(!last)) && !isRed(s.child(last))) {
+                            p.red = false;
+                            s.red = true;
+                            q.red = true;
+                        } else {
+                            boolean dir2 = g.right == p;
+                            Node<T1, T2> r = isRed(s.child(last)) ? doubleRotate(p, last) : rotate(p, last);
+                            g.setChild(dir2, r);
+                            q.red = true;
+                            r.red = true;
+                            r.left.red = false;
+                            r.right.red = false;
+                        }
+                    }
+                }
+            }
+        }
+        if (TreeMetrics.ENABLED) {
+            metrics.path(length);
+        }
+        if (f != null) {
+            f.key = q.key;
+            f.value = q.value;
+            p.setChild(p.right == q, q.left == null ? q.right : q.left);
+            size--;
+        }
+        root = head.right;
+        if (root != null) {
+            root.red = false;
+        }
+        head.right = null;
+        return f != null;
+    }
+
+    /**
+     * Returns an immutable copy of the entries laid out for fast lookups,
+     * see {@link FrozenTree}. Later changes to the tree are not reflected
+     * in the copy.
+     *
+     * Time complexity: O(n)
+     */
+    public FrozenTree<T1, T2> freeze() {
+        return new FrozenTree<>(iterator(), size);
+    }
+
+    /**
+     * Iterates over the entries in ascending key order. The entries are the
+     * nodes of the tree; the tree must not be modified during the iteration.
+     */
+    @Override
+    public Iterator<Map.Entry<T1, T2>> iterator() {
+        EntryIterator it = new EntryIterator(null, false);
+        it.pushEdge(root);
+        return it.advance();
+    }
+
+    /**
+     * Iterates over the entries in descending key order.
+     */
+    public Iterator<Map.Entry<T1, T2>> descendingIterator() {
+        EntryIterator it = new EntryIterator(null, true);
+        it.pushEdge(root);
+        return it.advance();
+    }
+
+    /**
+     * Iterates in ascending order over the entries with from <= key < to.
+     *
+     * Time complexity: O(logn) to start, O(1) amortized per entry
+     */
+    @Override
+    public Iterator<Map.Entry<T1, T2>> range(T1 from, T1 to) {
+        EntryIterator it = new EntryIterator(to, false);
+        it.pushCeiling(from);
+        return it.advance();
+    }
+
+    /**
+     * Iterates in ascending order over the entries with key >= from.
+     *
+     * Time complexity: O(logn) to start, O(1) amortized per entry
+     */
+    public Iterator<Map.Entry<T1, T2>> tailFrom(T1 from) {
+        EntryIterator it = new EntryIterator(null, false);
+        it.pushCeiling(from);
+        return it.advance();
+    }
+
+    /**
+     * Keeps the nodes after next that are still to be visited together with
+     * their subtree on the far side, at most the height of the tree.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<T1, T2>> {
+
+        private final ArrayDeque<Node<T1, T2>> stack = new ArrayDeque<>();
+        private Node<T1, T2> next;
+        private final T1 to;
+        private final boolean descending;
+
+        EntryIterator(T1 to, boolean descending) {
+            this.to = to;
+            this.descending = descending;
+        }
+
+        /**
+         * Pushes x and its leftmost path, rightmost when descending.
+         */
+        void pushEdge(Node<T1, T2> x) {
+            for (; x != null; x = x.child(descending)) {
+                stack.push(x);
+            }
+        }
+
+        /**
+         * Pushes the path to the smallest key >= from, keeping only the
+         * nodes at which the path turns left.
+         */
+        void pushCeiling(T1 from) {
+            for (Node<T1, T2> x = root; x != null; ) {
+                if (compare(from, x.key) <= 0) {
+                    stack.push(x);
+                    x = x.left;
+                } else {
+                    x = x.right;
+                }
+            }
+        }
+
+        /**
+         * Takes the next node off the stack, or null past the end.
+         */
+        EntryIterator advance() {
+            Node<T1, T2> x = stack.poll();
+            if (x != null) {
+                pushEdge(x.child(!descending));
+                if (to != null && compare(x.key, to) >= 0) {
+                    x = null;
+                    stack.clear();
+                }
+            }
+            next = x;
+            return this;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<T1, T2> next() {
+            Node<T1, T2> x = next;
+            if (x == null) {
+                throw new NoSuchElementException();
+            }
+            advance();
+            return x;
+        }
+    }
+
+    public void printRBTreeInorderWalk() {
+        for (Map.Entry<T1, T2> e : this) {
+            System.out.print(e.getKey() + " ");
+        }
+        System.out.println();
+    }
+}
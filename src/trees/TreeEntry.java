@@ -0,0 +1,61 @@
+package trees;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Key and value of a tree node.
+ *
+ * The nodes of the linked trees extend this class, so their iterators hand
+ * out the nodes themselves as map entries and a scan allocates nothing per
+ * element. setValue writes through to the tree.
+ *
+ * @param <T1> Key type
+ * @param <T2> Value type
+ */
+abstract class TreeEntry<T1, T2> implements Map.Entry<T1, T2> {
+
+    T1 key;
+    T2 value;
+
+    TreeEntry(T1 key, T2 value) {
+        this.key = key;
+        this.value = value;
+    }
+
+    @Override
+    public T1 getKey() {
+        return key;
+    }
+
+    @Override
+    public T2 getValue() {
+        return value;
+    }
+
+    @Override
+    public T2 setValue(T2 value) {
+        T2 old = this.value;
+        this.value = value;
+        return old;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Map.Entry)) {
+            return false;
+        }
+        Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+        return Objects.equals(key, e.getKey()) && Objects.equals(value, e.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(key) ^ Objects.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return key + "=" + value;
+    }
+}
@@ -0,0 +1,196 @@
+package trees;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for the hot paths of {@link RBTree}, {@link AVLTree},
+ * {@link BinaryTree}, {@link SplayTree} and {@link TopDownRBTree}: key
+ * comparisons, rotations, iterations of the rebalancing loops and the
+ * length of every descent from the root by key.
+ *
+ * Metrics are off unless the JVM is started with -Dtrees.metrics=true. The
+ * flag is read once into a static final field, so with metrics off the JIT
+ * compiler drops every recording branch and a tree has no metrics object.
+ * With metrics on, every tree owns one, returned by its metrics() method.
+ * The counters may be read from any thread while the tree is in use.
+ *
+ * With metrics on, lookups, inserts and removes are also reported as
+ * {@code trees.Operation} events to a running flight recording when they take
+ * longer than the event threshold, 1 ms by default.
+ */
+public final class TreeMetrics {
+
+    /**
+     * True if the JVM was started with -Dtrees.metrics=true.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("trees.metrics");
+
+    /**
+     * Operations that are counted and reported to flight recordings.
+     */
+    public enum Operation {
+        SEARCH, INSERT, REMOVE
+    }
+
+    /**
+     * Number of buckets of the path length histogram. The last bucket counts
+     * all paths of this length or longer.
+     */
+    public static final int PATH_BUCKETS = 64;
+
+    private final String tree;
+    private final LongAdder comparisons = new LongAdder();
+    private final LongAdder rotations = new LongAdder();
+    private final LongAdder insertFixups = new LongAdder();
+    private final LongAdder deleteFixups = new LongAdder();
+    private final LongAdder paths = new LongAdder();
+    private final LongAdder pathLengths = new LongAdder();
+    private final LongAdder[] pathHistogram = new LongAdder[PATH_BUCKETS];
+    private final LongAdder[] operations = new LongAdder[Operation.values().length];
+
+    TreeMetrics(String tree) {
+        this.tree = tree;
+        for (int i = 0; i < PATH_BUCKETS; i++) {
+            pathHistogram[i] = new LongAdder();
+        }
+        for (int i = 0; i < operations.length; i++) {
+            operations[i] = new LongAdder();
+        }
+    }
+
+    void comparison() {
+        comparisons.increment();
+    }
+
+    void rotation() {
+        rotations.increment();
+    }
+
+    void insertFixup() {
+        insertFixups.increment();
+    }
+
+    void deleteFixup() {
+        deleteFixups.increment();
+    }
+
+    /**
+     * Records a descent from the root by key that visited length nodes.
+     */
+    void path(int length) {
+        paths.increment();
+        pathLengths.add(length);
+        pathHistogram[Math.min(length, PATH_BUCKETS - 1)].increment();
+    }
+
+    TreeOperationEvent begin() {
+        TreeOperationEvent event = new TreeOperationEvent();
+        event.begin();
+        return event;
+    }
+
+    void end(TreeOperationEvent event, Operation operation, Object key) {
+        operations[operation.ordinal()].increment();
+        event.end();
+        if (event.shouldCommit()) {
+            event.tree = tree;
+            event.operation = operation.name();
+            event.key = String.valueOf(key);
+            event.commit();
+        }
+    }
+
+    /**
+     * Number of compareTo calls the tree made, including those of bulk
+     * operations and iterators.
+     */
+    public long comparisons() {
+        return comparisons.sum();
+    }
+
+    /**
+     * Number of single rotations; a double rotation counts twice.
+     */
+    public long rotations() {
+        return rotations.sum();
+    }
+
+    /**
+     * Number of iterations of the rebalancing loop after inserts.
+     */
+    public long insertFixups() {
+        return insertFixups.sum();
+    }
+
+    /**
+     * Number of iterations of the rebalancing loop after removes.
+     */
+    public long deleteFixups() {
+        return deleteFixups.sum();
+    }
+
+    /**
+     * Number of completed lookups, inserts or removes of the given kind.
+     */
+    public long operations(Operation operation) {
+        return operations[operation.ordinal()].sum();
+    }
+
+    /**
+     * Number of descents from the root by key. An insert or a remove is one
+     * descent, a lookup too; an insert into a {@link BinaryTree} is two.
+     */
+    public long paths() {
+        return paths.sum();
+    }
+
+    /**
+     * Average number of nodes a descent by key visited, 0 if there was none.
+     */
+    public double averagePathLength() {
+        long n = paths.sum();
+        return n == 0 ? 0 : (double) pathLengths.sum() / n;
+    }
+
+    /**
+     * Returns how many descents visited i nodes at index i, with the longer
+     * ones in the last bucket.
+     */
+    public long[] pathLengthHistogram() {
+        long[] histogram = new long[PATH_BUCKETS];
+        for (int i = 0; i < PATH_BUCKETS; i++) {
+            histogram[i] = pathHistogram[i].sum();
+        }
+        return histogram;
+    }
+
+    /**
+     * Sets all counters to zero. Updates that run concurrently may be lost.
+     */
+    public void reset() {
+        comparisons.reset();
+        rotations.reset();
+        insertFixups.reset();
+        deleteFixups.reset();
+        paths.reset();
+        pathLengths.reset();
+        for (LongAdder a : pathHistogram) {
+            a.reset();
+        }
+        for (LongAdder a : operations) {
+            a.reset();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return tree + "{searches=" + operations(Operation.SEARCH)
+                + ", inserts=" + operations(Operation.INSERT)
+                + ", removes=" + operations(Operation.REMOVE)
+                + ", comparisons=" + comparisons()
+                + ", rotations=" + rotations()
+                + ", insertFixups=" + insertFixups()
+                + ", deleteFixups=" + deleteFixups()
+                + ", averagePathLength=" + String.format("%.2f", averagePathLength()) + "}";
+    }
+}
@@ -0,0 +1,29 @@
+package trees;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event for a lookup, insert or remove that took longer than
+ * the threshold. Trees emit it only when {@link TreeMetrics#ENABLED} is set.
+ */
+@Name("trees.Operation")
+@Label("Tree Operation")
+@Category("Trees")
+@Description("Lookup, insert or remove in a search tree that exceeded the threshold")
+@Threshold("1 ms")
+final class TreeOperationEvent extends Event {
+
+    @Label("Tree")
+    String tree;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Key")
+    String key;
+}
@@ -0,0 +1,292 @@
+package trees;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary snapshot format shared by RBTree, AVLTree and BinaryTree.
+ *
+ * A snapshot is a header, the entries in ascending key order and a trailer.
+ * All numbers are big-endian.
+ * <pre>
+ * header:  int magic "TREE", int version, int key size, int value size,
+ *          long entry count
+ * entry:   key, value
+ * trailer: int CRC32C of header and entries
+ * </pre>
+ * The key and value sizes in the header are the fixed sizes of the codecs
+ * the snapshot was written with, -1 for variable sizes; a snapshot can only
+ * be read with codecs of the same sizes. A key or value of a fixed-size codec
+ * is stored as its bytes alone, one of a variable-size codec as a varint of
+ * its size plus one, or 0 for null, followed by its bytes.
+ *
+ * Both directions go through one buffer of BUFFER_SIZE bytes, which grows
+ * only for a single key or value that does not fit into it.
+ */
+final class TreeSnapshot {
+
+    static final int MAGIC = 0x54524545;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private TreeSnapshot() {
+    }
+
+    /**
+     * Writes the size entries of the iterator, which must come in strictly
+     * ascending key order.
+     */
+    static <T1, T2> void write(WritableByteChannel channel, Iterator<? extends Map.Entry<T1, T2>> entries, long size,
+            Codec<T1> keyCodec, Codec<T2> valueCodec) throws IOException {
+        Writer w = new Writer(channel);
+        w.buffer.putInt(MAGIC).putInt(VERSION).putInt(keyCodec.fixedSize()).putInt(valueCodec.fixedSize()).putLong(size);
+        long n = 0;
+        while (entries.hasNext()) {
+            Map.Entry<T1, T2> e = entries.next();
+            w.put(keyCodec, e.getKey());
+            w.put(valueCodec, e.getValue());
+            n++;
+        }
+        if (n != size) {
+            throw new ConcurrentModificationException("tree changed while its snapshot was written");
+        }
+        w.finish();
+    }
+
+    private static final class Writer {
+
+        private final WritableByteChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final CRC32C crc = new CRC32C();
+
+        Writer(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        <T> void put(Codec<T> codec, T value) throws IOException {
+            int size = codec.fixedSize();
+            if (size < 0) {
+                if (value == null) {
+                    reserve(1);
+                    buffer.put((byte) 0);
+                    return;
+                }
+                size = codec.size(value);
+                reserve(5 + size);
+                putVarint(size + 1);
+            } else {
+                if (value == null) {
+                    throw new NullPointerException("null value for a codec of fixed size");
+                }
+                reserve(size);
+            }
+            int start = buffer.position();
+            codec.write(value, buffer);
+            if (buffer.position() - start != size) {
+                throw new IllegalStateException("codec wrote " + (buffer.position() - start) + " bytes instead of " + size);
+            }
+        }
+
+        private void putVarint(int v) {
+            while ((v & ~0x7F) != 0) {
+                buffer.put((byte) (v | 0x80));
+                v >>>= 7;
+            }
+            buffer.put((byte) v);
+        }
+
+        /**
+         * Makes room for n more bytes in the buffer.
+         */
+        private void reserve(int n) throws IOException {
+            if (buffer.remaining() < n) {
+                flush();
+                if (buffer.capacity() < n) {
+                    buffer = ByteBuffer.allocate(n);
+                }
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void finish() throws IOException {
+            flush();
+            buffer.putInt((int) crc.getValue()).flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Reads the header on construction and hands out the entries through
+     * one mutable entry, whose key and value are replaced by every call of
+     * next. {@link #finish()} checks the trailer after the last entry.
+     *
+     * The iterator throws UncheckedIOException for failures of the channel
+     * or the format.
+     */
+    static final class Reader<T1, T2> implements Iterator<Map.Entry<T1, T2>> {
+
+        private final ReadableByteChannel channel;
+        private final Codec<T1> keyCodec;
+        private final Codec<T2> valueCodec;
+        private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final CRC32C crc = new CRC32C();
+        /**
+         * Bytes of the buffer before this position are in the checksum.
+         */
+        private int checked;
+        private final long size;
+        private long remaining;
+        private final Entry<T1, T2> entry = new Entry<>();
+
+        Reader(ReadableByteChannel channel, Codec<T1> keyCodec, Codec<T2> valueCodec) throws IOException {
+            this.channel = channel;
+            this.keyCodec = keyCodec;
+            this.valueCodec = valueCodec;
+            buffer.flip();
+            require(HEADER_SIZE);
+            if (buffer.getInt() != MAGIC) {
+                throw new StreamCorruptedException("not a tree snapshot");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new StreamCorruptedException("unsupported snapshot version " + version);
+            }
+            if (buffer.getInt() != keyCodec.fixedSize()) {
+                throw new StreamCorruptedException("snapshot was written with a key codec of another size");
+            }
+            if (buffer.getInt() != valueCodec.fixedSize()) {
+                throw new StreamCorruptedException("snapshot was written with a value codec of another size");
+            }
+            size = buffer.getLong();
+            if (size < 0) {
+                throw new StreamCorruptedException("negative entry count");
+            }
+            remaining = size;
+        }
+
+        long size() {
+            return size;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public Map.Entry<T1, T2> next() {
+            if (remaining == 0) {
+                throw new NoSuchElementException();
+            }
+            try {
+                entry.key = get(keyCodec);
+                if (entry.key == null) {
+                    throw new StreamCorruptedException("null key");
+                }
+                entry.value = get(valueCodec);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            remaining--;
+            return entry;
+        }
+
+        /**
+         * Checks that all entries were read and that the checksum matches.
+         */
+        void finish() throws IOException {
+            if (remaining != 0) {
+                throw new IllegalStateException(remaining + " entries were not read");
+            }
+            require(Integer.BYTES);
+            crc.update(buffer.array(), checked, buffer.position() - checked);
+            if (buffer.getInt() != (int) crc.getValue()) {
+                throw new StreamCorruptedException("snapshot checksum mismatch");
+            }
+        }
+
+        private <T> T get(Codec<T> codec) throws IOException {
+            int size = codec.fixedSize();
+            if (size < 0) {
+                size = getVarint() - 1;
+                if (size < 0) {
+                    return null;
+                }
+            }
+            require(size);
+            int start = buffer.position();
+            T value = codec.read(buffer, size);
+            if (buffer.position() - start != size) {
+                throw new StreamCorruptedException("codec read " + (buffer.position() - start) + " bytes instead of " + size);
+            }
+            return value;
+        }
+
+        private int getVarint() throws IOException {
+            int v = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                require(1);
+                byte b = buffer.get();
+                v |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return v;
+                }
+            }
+            throw new StreamCorruptedException("malformed size");
+        }
+
+        /**
+         * Makes sure that at least n unread bytes are in the buffer.
+         */
+        private void require(int n) throws IOException {
+            if (buffer.remaining() >= n) {
+                return;
+            }
+            crc.update(buffer.array(), checked, buffer.position() - checked);
+            buffer.compact();
+            checked = 0;
+            while (buffer.position() < n) {
+                if (!buffer.hasRemaining()) {
+                    // a value larger than the buffer; growing it step by step
+                    // keeps a corrupt size from allocating more than the input
+                    ByteBuffer b = ByteBuffer.allocate((int) Math.min(n, 2L * buffer.capacity()));
+                    buffer.flip();
+                    b.put(buffer);
+                    buffer = b;
+                }
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("snapshot is truncated");
+                }
+            }
+            buffer.flip();
+        }
+    }
+
+    private static final class Entry<T1, T2> extends TreeEntry<T1, T2> {
+
+        Entry() {
+            super(null, null);
+        }
+    }
+}
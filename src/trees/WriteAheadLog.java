@@ -0,0 +1,352 @@
+package trees;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of the updates of a tree, for DurableRBTree and LSMTree.
+ *
+ * The file is a header and a sequence of records. All numbers are
+ * big-endian.
+ * <pre>
+ * header: int magic "WLOG", int version, int key size, int value size
+ * record: int payload length, int CRC32C of the payload, payload
+ * payload: byte PUT, key, value | byte DELETE, key
+ * </pre>
+ * Keys and values are encoded as in {@link TreeSnapshot}: the bytes alone
+ * for a codec of fixed size, a varint of the size plus one, or 0 for null,
+ * followed by the bytes for a codec of variable size.
+ *
+ * Records are collected in a buffer of BUFFER_SIZE bytes, which goes to the
+ * file when it is full or on {@link #flush()}; {@link #force()} also makes
+ * the file durable. A crash can leave a torn record at the end. Opening the
+ * log replays the records up to the first one that is incomplete or fails
+ * its checksum and cuts the file there, so new records follow the last
+ * complete one.
+ *
+ * Not thread-safe, apart from force, which may run while another thread
+ * appends.
+ */
+final class WriteAheadLog<T1, T2> implements Closeable {
+
+    static final byte PUT = 1, DELETE = 2;
+
+    private static final int MAGIC = 0x574C4F47;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Receives the records of the log in the order they were appended.
+     */
+    interface Replay<T1, T2> {
+
+        void put(T1 key, T2 value);
+
+        void delete(T1 key);
+    }
+
+    private final FileChannel channel;
+    private final Codec<T1> keyCodec;
+    private final Codec<T2> valueCodec;
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CRC32C crc = new CRC32C();
+    private long records;
+    private long size;
+
+    /**
+     * Opens the log in the file, creating the file if it does not exist,
+     * and passes the records it holds to replay.
+     *
+     * @throws StreamCorruptedException if the file is not a log or was
+     *                                  written with codecs of other sizes
+     */
+    WriteAheadLog(Path file, Codec<T1> keyCodec, Codec<T2> valueCodec, Replay<T1, T2> replay) throws IOException {
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < HEADER_SIZE) {
+                channel.truncate(0);
+                buffer.putInt(MAGIC).putInt(VERSION).putInt(keyCodec.fixedSize()).putInt(valueCodec.fixedSize());
+                flush();
+                channel.force(true);
+                size = HEADER_SIZE;
+            } else {
+                size = replay(replay);
+                channel.truncate(size);
+                channel.position(size);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the records from the start of the file and returns the end of
+     * the last complete one.
+     */
+    private long replay(Replay<T1, T2> replay) throws IOException {
+        long size = channel.size();
+        buffer.flip();
+        if (!fill(0, size, HEADER_SIZE)) {
+            throw new StreamCorruptedException("log header is truncated");
+        }
+        if (buffer.getInt() != MAGIC) {
+            throw new StreamCorruptedException("not a write-ahead log");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new StreamCorruptedException("unsupported log version " + version);
+        }
+        if (buffer.getInt() != keyCodec.fixedSize()) {
+            throw new StreamCorruptedException("log was written with a key codec of another size");
+        }
+        if (buffer.getInt() != valueCodec.fixedSize()) {
+            throw new StreamCorruptedException("log was written with a value codec of another size");
+        }
+        long position = HEADER_SIZE;
+        while (fill(position, size, 8)) {
+            int length = buffer.getInt(buffer.position());
+            int checksum = buffer.getInt(buffer.position() + 4);
+            if (length <= 0 || length > size - position - 8 || !fill(position, size, 8 + length)) {
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.array(), buffer.position() + 8, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            buffer.position(buffer.position() + 8);
+            int end = buffer.position() + length;
+            apply(end, replay);
+            if (buffer.position() != end) {
+                throw new StreamCorruptedException("log record has " + (end - buffer.position()) + " bytes left over");
+            }
+            position += 8 + length;
+            records++;
+        }
+        buffer.clear();
+        return position;
+    }
+
+    /**
+     * Makes sure that at least n unread bytes are in the buffer, whose
+     * unread bytes start at the given offset of the file; returns false if
+     * the file ends before.
+     */
+    private boolean fill(long offset, long size, int n) throws IOException {
+        if (buffer.remaining() >= n) {
+            return true;
+        }
+        if (size - offset < n) {
+            return false;
+        }
+        offset += buffer.remaining();
+        buffer.compact();
+        if (buffer.capacity() < n) {
+            ByteBuffer grown = ByteBuffer.allocate(n);
+            buffer.flip();
+            buffer = grown.put(buffer);
+        }
+        while (buffer.position() < n) {
+            int read = channel.read(buffer, offset);
+            if (read < 0) {
+                buffer.flip();
+                return false;
+            }
+            offset += read;
+        }
+        buffer.flip();
+        return true;
+    }
+
+    private void apply(int end, Replay<T1, T2> replay) throws IOException {
+        byte op = buffer.get();
+        T1 key = get(keyCodec, buffer, end);
+        if (key == null) {
+            throw new StreamCorruptedException("null key in log");
+        }
+        if (op == PUT) {
+            replay.put(key, get(valueCodec, buffer, end));
+        } else if (op == DELETE) {
+            replay.delete(key);
+        } else {
+            throw new StreamCorruptedException("unknown log record type " + op);
+        }
+    }
+
+    /**
+     * Decodes a key or value that ends at or before end.
+     */
+    static <T> T get(Codec<T> codec, ByteBuffer b, int end) throws IOException {
+        int size = codec.fixedSize();
+        if (size < 0) {
+            int v = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (shift >= 32 || b.position() >= end) {
+                    throw new StreamCorruptedException("malformed size in log");
+                }
+                byte x = b.get();
+                v |= (x & 0x7F) << shift;
+                if (x >= 0) {
+                    break;
+                }
+            }
+            size = v - 1;
+            if (size < 0) {
+                return null;
+            }
+        }
+        if (size > end - b.position()) {
+            throw new StreamCorruptedException("log record is shorter than its content");
+        }
+        int start = b.position();
+        T value = codec.read(b, size);
+        if (b.position() - start != size) {
+            throw new StreamCorruptedException("codec read " + (b.position() - start) + " bytes instead of " + size);
+        }
+        return value;
+    }
+
+    /**
+     * Number of records in the log, replayed ones included.
+     */
+    long records() {
+        return records;
+    }
+
+    /**
+     * Size of the log in bytes, buffered records included.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Appends a record that puts the value under the key.
+     */
+    void put(T1 key, T2 value) throws IOException {
+        append(PUT, key, value);
+    }
+
+    /**
+     * Appends a record that deletes the key.
+     */
+    void delete(T1 key) throws IOException {
+        append(DELETE, key, null);
+    }
+
+    private void append(byte op, T1 key, T2 value) throws IOException {
+        if (key == null) {
+            throw new NullPointerException("null key");
+        }
+        int length = 1 + encodedSize(keyCodec, key) + (op == PUT ? encodedSize(valueCodec, value) : 0);
+        if (buffer.remaining() < 8 + length) {
+            flush();
+            if (buffer.capacity() < 8 + length) {
+                buffer = ByteBuffer.allocate(8 + length);
+            }
+        }
+        int start = buffer.position();
+        try {
+            buffer.putInt(length).putInt(0).put(op);
+            put(keyCodec, key, buffer);
+            if (op == PUT) {
+                put(valueCodec, value, buffer);
+            }
+            if (buffer.position() - start != 8 + length) {
+                throw new IllegalStateException("codec wrote " + (buffer.position() - start - 8) + " bytes instead of " + length);
+            }
+        } catch (RuntimeException e) {
+            buffer.position(start);
+            throw e;
+        }
+        crc.reset();
+        crc.update(buffer.array(), start + 8, length);
+        buffer.putInt(start + 4, (int) crc.getValue());
+        records++;
+        size += 8 + length;
+    }
+
+    /**
+     * Number of bytes put writes for the key or value.
+     */
+    static <T> int encodedSize(Codec<T> codec, T value) {
+        int size = codec.fixedSize();
+        if (size >= 0) {
+            if (value == null) {
+                throw new NullPointerException("null value for a codec of fixed size");
+            }
+            return size;
+        }
+        if (value == null) {
+            return 1;
+        }
+        size = codec.size(value);
+        return varintSize(size + 1) + size;
+    }
+
+    private static int varintSize(int v) {
+        int n = 1;
+        while ((v & ~0x7F) != 0) {
+            v >>>= 7;
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Encodes a key or value, for which the buffer must have
+     * encodedSize bytes of room.
+     */
+    static <T> void put(Codec<T> codec, T value, ByteBuffer b) {
+        if (codec.fixedSize() < 0) {
+            int v = value == null ? 0 : codec.size(value) + 1;
+            while ((v & ~0x7F) != 0) {
+                b.put((byte) (v | 0x80));
+                v >>>= 7;
+            }
+            b.put((byte) v);
+            if (value == null) {
+                return;
+            }
+        }
+        codec.write(value, b);
+    }
+
+    /**
+     * Writes the buffered records to the file.
+     */
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Forces the records written by earlier calls of flush to the disk.
+     */
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            force();
+        } finally {
+            channel.close();
+        }
+    }
+}